@@ -119,6 +119,11 @@ public interface AppRTCClient {
      */
     void onRemoteIceCandidate(final IceCandidate candidate);
 
+    /**
+     * Callback fired once several remote Ice candidates are received in one message.
+     */
+    void onRemoteIceCandidates(final IceCandidate[] candidates);
+
     /**
      * Callback fired once remote Ice candidate removals are received.
      */
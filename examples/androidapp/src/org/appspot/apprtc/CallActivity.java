@@ -768,9 +768,8 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
       }
       if (params.iceCandidates != null) {
         // Add remote ICE candidates from room.
-        for (IceCandidate iceCandidate : params.iceCandidates) {
-          peerConnectionClient.addRemoteIceCandidate(iceCandidate);
-        }
+        peerConnectionClient.addRemoteIceCandidates(
+            params.iceCandidates.toArray(new IceCandidate[0]));
       }
     }
   }
@@ -821,6 +820,20 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
     });
   }
 
+  @Override
+  public void onRemoteIceCandidates(final IceCandidate[] candidates) {
+    runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        if (peerConnectionClient == null) {
+          Log.e(TAG, "Received ICE candidates for a non-initialized peer connection.");
+          return;
+        }
+        peerConnectionClient.addRemoteIceCandidates(candidates);
+      }
+    });
+  }
+
   @Override
   public void onRemoteIceCandidatesRemoved(final IceCandidate[] candidates) {
     runOnUiThread(new Runnable() {
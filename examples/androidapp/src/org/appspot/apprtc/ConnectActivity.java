@@ -66,6 +66,7 @@ public class ConnectActivity extends Activity {
   private String keyprefRoomServerUrl;
   private String keyprefRoom;
   private String keyprefRoomList;
+  private String keyprefIceServerUrl;
   private ArrayList<String> roomList;
   private ArrayAdapter<String> adapter;
 
@@ -85,6 +86,7 @@ public class ConnectActivity extends Activity {
     keyprefRoomServerUrl = getString(R.string.pref_room_server_url_key);
     keyprefRoom = getString(R.string.pref_room_key);
     keyprefRoomList = getString(R.string.pref_room_list_key);
+    keyprefIceServerUrl = getString(R.string.pref_ice_server_url_key);
 
     setContentView(R.layout.activity_connect);
 
@@ -169,6 +171,10 @@ public class ConnectActivity extends Activity {
     SharedPreferences.Editor editor = sharedPref.edit();
     editor.putString(keyprefRoom, room);
     editor.putString(keyprefRoomList, roomListJson);
+    String iceServerUrl = IceServerCache.getInstance().getLastUrl();
+    if (iceServerUrl != null) {
+      editor.putString(keyprefIceServerUrl, iceServerUrl);
+    }
     editor.commit();
   }
 
@@ -177,6 +183,11 @@ public class ConnectActivity extends Activity {
     super.onResume();
     String room = sharedPref.getString(keyprefRoom, "");
     roomEditText.setText(room);
+    // Fetch the TURN servers of the last call while the user picks a room.
+    String iceServerUrl = sharedPref.getString(keyprefIceServerUrl, null);
+    if (iceServerUrl != null) {
+      IceServerCache.getInstance().prefetch(iceServerUrl);
+    }
     roomList = new ArrayList<>();
     String roomListJson = sharedPref.getString(keyprefRoomList, null);
     if (roomListJson != null) {
@@ -13,10 +13,12 @@ package org.appspot.apprtc;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import org.appspot.apprtc.util.SignalingCodec;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -26,7 +28,8 @@ import org.webrtc.SessionDescription;
 /**
  * Implementation of AppRTCClient that uses direct TCP connection as the signaling channel.
  * This eliminates the need for an external server. This class does not support loopback
- * connections.
+ * connections. Messages are sent in the compact encoding of SignalingCodec once the other client
+ * has advertised it.
  */
 public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChannelEvents {
   private static final String TAG = "DirectRTCClient";
@@ -49,21 +52,29 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
       // Optional port number
       + "(:(\\d+))?");
 
-  private final ExecutorService executor;
+  private final ScheduledExecutorService executor;
   private final SignalingEvents events;
+  private final IceCandidateBatcher candidateBatcher;
+  // Both peers run this client, so the compact encoding is always offered.
+  private final SignalingCodec codec = new SignalingCodec(/* compactEncodingEnabled= */ true);
   @Nullable
-  private TCPChannelClient tcpClient;
+  private NioTCPChannelClient tcpClient;
   private RoomConnectionParameters connectionParameters;
 
   private enum ConnectionState { NEW, CONNECTED, CLOSED, ERROR }
 
   // All alterations of the room state should be done from inside the looper thread.
   private ConnectionState roomState;
+  // Whether the other participant accepts "candidates" messages, which it announces in its offer
+  // or answer. Only accessed on the looper thread.
+  private boolean remoteAcceptsCandidateBatches;
 
   public DirectRTCClient(SignalingEvents events) {
     this.events = events;
 
-    executor = Executors.newSingleThreadExecutor();
+    executor = Executors.newSingleThreadScheduledExecutor();
+    candidateBatcher = new IceCandidateBatcher(executor, IceCandidateBatcher.DEFAULT_WINDOW_MS,
+        IceCandidateBatcher.DEFAULT_MAX_BATCH_SIZE, this::sendLocalIceCandidatesInternal);
     roomState = ConnectionState.NEW;
   }
 
@@ -104,6 +115,7 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
    */
   private void connectToRoomInternal() {
     this.roomState = ConnectionState.NEW;
+    remoteAcceptsCandidateBatches = false;
 
     String endpoint = connectionParameters.roomId;
 
@@ -128,7 +140,7 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
       port = DEFAULT_PORT;
     }
 
-    tcpClient = new TCPChannelClient(executor, this, ip, port);
+    tcpClient = new NioTCPChannelClient(executor, this, ip, port);
   }
 
   /**
@@ -138,6 +150,7 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
    */
   private void disconnectFromRoomInternal() {
     roomState = ConnectionState.CLOSED;
+    candidateBatcher.clear();
 
     if (tcpClient != null) {
       tcpClient.disconnect();
@@ -158,7 +171,8 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
         JSONObject json = new JSONObject();
         jsonPut(json, "sdp", sdp.description);
         jsonPut(json, "type", "offer");
-        sendMessage(json.toString());
+        jsonPut(json, "candidateBatches", true);
+        sendMessage(json);
       }
     });
   }
@@ -171,31 +185,54 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
         JSONObject json = new JSONObject();
         jsonPut(json, "sdp", sdp.description);
         jsonPut(json, "type", "answer");
-        sendMessage(json.toString());
+        jsonPut(json, "candidateBatches", true);
+        sendMessage(json);
       }
     });
   }
 
+  /**
+   * Send Ice candidate to the other participant. Candidates gathered in quick succession are sent
+   * in one "candidates" message if the other participant has announced that it accepts them, and
+   * as separate "candidate" messages otherwise.
+   */
   @Override
   public void sendLocalIceCandidate(final IceCandidate candidate) {
     executor.execute(new Runnable() {
       @Override
       public void run() {
-        JSONObject json = new JSONObject();
-        jsonPut(json, "type", "candidate");
-        jsonPut(json, "label", candidate.sdpMLineIndex);
-        jsonPut(json, "id", candidate.sdpMid);
-        jsonPut(json, "candidate", candidate.sdp);
-
         if (roomState != ConnectionState.CONNECTED) {
           reportError("Sending ICE candidate in non connected state.");
           return;
         }
-        sendMessage(json.toString());
+        candidateBatcher.add(candidate);
       }
     });
   }
 
+  // Sends a batch of candidates from |candidateBatcher|. Runs on the looper thread.
+  private void sendLocalIceCandidatesInternal(List<IceCandidate> candidates) {
+    if (roomState != ConnectionState.CONNECTED) {
+      return;
+    }
+    if (candidates.size() == 1 || !remoteAcceptsCandidateBatches) {
+      for (final IceCandidate candidate : candidates) {
+        JSONObject json = toJsonCandidate(candidate);
+        jsonPut(json, "type", "candidate");
+        sendMessage(json);
+      }
+      return;
+    }
+    JSONObject json = new JSONObject();
+    jsonPut(json, "type", "candidates");
+    JSONArray jsonArray = new JSONArray();
+    for (final IceCandidate candidate : candidates) {
+      jsonArray.put(toJsonCandidate(candidate));
+    }
+    jsonPut(json, "candidates", jsonArray);
+    sendMessage(json);
+  }
+
   /** Send removed Ice candidates to the other participant. */
   @Override
   public void sendLocalIceCandidateRemovals(final IceCandidate[] candidates) {
@@ -214,7 +251,9 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
           reportError("Sending ICE candidate removals in non connected state.");
           return;
         }
-        sendMessage(json.toString());
+        // The removed candidates may still be waiting to be sent.
+        candidateBatcher.flush();
+        sendMessage(json);
       }
     });
   }
@@ -247,22 +286,21 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
   @Override
   public void onTCPMessage(String msg) {
     try {
-      JSONObject json = new JSONObject(msg);
+      JSONObject json = codec.decode(msg);
       String type = json.optString("type");
       if (type.equals("candidate")) {
         events.onRemoteIceCandidate(toJavaCandidate(json));
+      } else if (type.equals("candidates")) {
+        events.onRemoteIceCandidates(toJavaCandidates(json.getJSONArray("candidates")));
       } else if (type.equals("remove-candidates")) {
-        JSONArray candidateArray = json.getJSONArray("candidates");
-        IceCandidate[] candidates = new IceCandidate[candidateArray.length()];
-        for (int i = 0; i < candidateArray.length(); ++i) {
-          candidates[i] = toJavaCandidate(candidateArray.getJSONObject(i));
-        }
-        events.onRemoteIceCandidatesRemoved(candidates);
+        events.onRemoteIceCandidatesRemoved(toJavaCandidates(json.getJSONArray("candidates")));
       } else if (type.equals("answer")) {
+        updateRemoteAcceptsCandidateBatches(json);
         SessionDescription sdp = new SessionDescription(
             SessionDescription.Type.fromCanonicalForm(type), json.getString("sdp"));
         events.onRemoteDescription(sdp);
       } else if (type.equals("offer")) {
+        updateRemoteAcceptsCandidateBatches(json);
         SessionDescription sdp = new SessionDescription(
             SessionDescription.Type.fromCanonicalForm(type), json.getString("sdp"));
 
@@ -311,15 +349,23 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
     });
   }
 
-  private void sendMessage(final String message) {
+  private void sendMessage(final JSONObject json) {
     executor.execute(new Runnable() {
       @Override
       public void run() {
-        tcpClient.send(message);
+        tcpClient.send(codec.encode(json));
       }
     });
   }
 
+  // Takes whether the remote peer accepts candidate batches from its offer or answer. A
+  // description that doesn't mention it leaves what an earlier one announced unchanged.
+  private void updateRemoteAcceptsCandidateBatches(JSONObject json) {
+    if (json.has("candidateBatches")) {
+      remoteAcceptsCandidateBatches = json.optBoolean("candidateBatches");
+    }
+  }
+
   // Put a |key|->|value| mapping in |json|.
   private static void jsonPut(JSONObject json, String key, Object value) {
     try {
@@ -343,4 +389,13 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
     return new IceCandidate(
         json.getString("id"), json.getInt("label"), json.getString("candidate"));
   }
+
+  // Converts a JSON array of candidates to Java objects.
+  private static IceCandidate[] toJavaCandidates(JSONArray json) throws JSONException {
+    IceCandidate[] candidates = new IceCandidate[json.length()];
+    for (int i = 0; i < json.length(); ++i) {
+      candidates[i] = toJavaCandidate(json.getJSONObject(i));
+    }
+    return candidates;
+  }
 }
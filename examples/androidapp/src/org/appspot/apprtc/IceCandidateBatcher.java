@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.webrtc.IceCandidate;
+
+/**
+ * Collects local ICE candidates so that they can be sent in one signaling message. A batch is
+ * sent when it reaches |maxBatchSize| candidates or |windowMs| after its first candidate,
+ * whichever comes first.
+ *
+ * <p>All methods must be called on the thread of |executor|, which also sends the batches.
+ */
+class IceCandidateBatcher {
+  /** Default time to wait for more candidates, short compared to ICE connectivity checks. */
+  static final long DEFAULT_WINDOW_MS = 50;
+  static final int DEFAULT_MAX_BATCH_SIZE = 20;
+
+  interface BatchSender {
+    /** Sends |candidates| to the other participant. The list is never empty. */
+    void sendCandidates(List<IceCandidate> candidates);
+  }
+
+  private final ScheduledExecutorService executor;
+  private final long windowMs;
+  private final int maxBatchSize;
+  private final BatchSender sender;
+  private final Runnable flushTask = this::flush;
+  private List<IceCandidate> pendingCandidates = new ArrayList<>();
+  @Nullable private ScheduledFuture<?> scheduledFlush;
+
+  IceCandidateBatcher(
+      ScheduledExecutorService executor, long windowMs, int maxBatchSize, BatchSender sender) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize must be positive.");
+    }
+    this.executor = executor;
+    this.windowMs = windowMs;
+    this.maxBatchSize = maxBatchSize;
+    this.sender = sender;
+  }
+
+  void add(IceCandidate candidate) {
+    pendingCandidates.add(candidate);
+    if (pendingCandidates.size() >= maxBatchSize) {
+      flush();
+    } else if (scheduledFlush == null) {
+      scheduledFlush = executor.schedule(flushTask, windowMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Sends the pending candidates now, e.g. before a message that must not overtake them. */
+  void flush() {
+    cancelScheduledFlush();
+    if (pendingCandidates.isEmpty()) {
+      return;
+    }
+    final List<IceCandidate> candidates = pendingCandidates;
+    pendingCandidates = new ArrayList<>();
+    sender.sendCandidates(candidates);
+  }
+
+  /** Drops the pending candidates. */
+  void clear() {
+    cancelScheduledFlush();
+    pendingCandidates.clear();
+  }
+
+  private void cancelScheduledFlush() {
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(/* mayInterruptIfRunning= */ false);
+      scheduledFlush = null;
+    }
+  }
+}
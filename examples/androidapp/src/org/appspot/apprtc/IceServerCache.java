@@ -0,0 +1,318 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.appspot.apprtc.util.AsyncHttpURLConnection;
+import org.appspot.apprtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.PeerConnection;
+
+/**
+ * Caches the ICE servers returned by TURN server URLs, so that joining a room does not wait for
+ * a TURN request while the credentials are still valid.
+ *
+ * <p>An entry expires with its credentials: the earliest TURN REST API username timestamp
+ * ("<expiry in seconds>:<user>"), or the "lifetimeDuration" of the response, or
+ * |DEFAULT_TTL_MS| when the response has neither. Entries are fetched again in the background
+ * when three quarters of their lifetime have passed, and are not used anymore from that time on,
+ * so that a call never starts with credentials that are about to expire. The background refresh
+ * stops for URLs that have not been requested for |MAX_UNUSED_TIME_MS|. Concurrent requests for
+ * the same URL share one fetch.
+ */
+public class IceServerCache {
+  private static final String TAG = "IceServerCache";
+  private static final int TURN_HTTP_TIMEOUT_MS = 5000;
+  static final long DEFAULT_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+  static final long MAX_UNUSED_TIME_MS = TimeUnit.MINUTES.toMillis(30);
+
+  private static final ScheduledExecutorService refreshExecutor =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "IceServerCache");
+        thread.setDaemon(true);
+        return thread;
+      });
+  private static final IceServerCache instance = new IceServerCache();
+
+  /** Time source and scheduler of the background refresh, replaced in tests. */
+  interface Scheduler {
+    long currentTimeMillis();
+    Future<?> schedule(Runnable task, long delayMs);
+  }
+
+  private static class SystemScheduler implements Scheduler {
+    @Override
+    public long currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, long delayMs) {
+      return refreshExecutor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** ICE server request callbacks. */
+  public interface IceServersEvents {
+    /** Called with a list that the receiver may modify. */
+    void onIceServers(List<PeerConnection.IceServer> iceServers);
+    void onIceServersError(String description);
+  }
+
+  private static class Entry {
+    @Nullable List<PeerConnection.IceServer> iceServers;
+    // The servers are used until |staleTimeMs|, which leaves a quarter of their lifetime before
+    // |expiryTimeMs|.
+    long staleTimeMs;
+    long expiryTimeMs;
+    long lastUsedTimeMs;
+    boolean fetching;
+    final List<IceServersEvents> pendingEvents = new ArrayList<>();
+    @Nullable Future<?> refresh;
+  }
+
+  private final Scheduler scheduler;
+  private final Object lock = new Object();
+  private final Map<String, Entry> entries = new HashMap<>(); /* guarded by lock */
+  @Nullable private String lastUrl; /* guarded by lock */
+
+  /** Returns the cache shared by all room connections of the app. */
+  public static IceServerCache getInstance() {
+    return instance;
+  }
+
+  IceServerCache() {
+    this(new SystemScheduler());
+  }
+
+  IceServerCache(Scheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /** Fetches the ICE servers of |url| in the background unless they are already cached. */
+  public void prefetch(String url) {
+    Log.d(TAG, "Prefetch ICE servers from: " + url);
+    getIceServers(url, null);
+  }
+
+  /**
+   * Delivers the ICE servers of |url| to |events|, on the calling thread when they are cached
+   * and otherwise on an HTTP thread once they are fetched.
+   */
+  public void getIceServers(String url, @Nullable IceServersEvents events) {
+    List<PeerConnection.IceServer> cachedIceServers = null;
+    Entry fetchEntry = null;
+    synchronized (lock) {
+      lastUrl = url;
+      Entry entry = entries.get(url);
+      if (entry == null) {
+        entry = new Entry();
+        entries.put(url, entry);
+      }
+      final long nowMs = scheduler.currentTimeMillis();
+      entry.lastUsedTimeMs = nowMs;
+      if (entry.iceServers != null && nowMs < entry.staleTimeMs) {
+        cachedIceServers = new ArrayList<>(entry.iceServers);
+      } else {
+        if (events != null) {
+          entry.pendingEvents.add(events);
+        }
+        if (!entry.fetching) {
+          entry.fetching = true;
+          fetchEntry = entry;
+        }
+      }
+    }
+    if (cachedIceServers != null) {
+      Log.d(TAG, "Using cached ICE servers from: " + url);
+      if (events != null) {
+        events.onIceServers(cachedIceServers);
+      }
+    } else if (fetchEntry != null) {
+      fetch(url, fetchEntry);
+    }
+  }
+
+  /** Returns the URL of the last request, which is worth prefetching when the app starts. */
+  @Nullable
+  public String getLastUrl() {
+    synchronized (lock) {
+      return lastUrl;
+    }
+  }
+
+  /** Drops all cached ICE servers and stops their background refresh. */
+  public void clear() {
+    synchronized (lock) {
+      for (Entry entry : entries.values()) {
+        if (entry.refresh != null) {
+          entry.refresh.cancel(/* mayInterruptIfRunning= */ false);
+        }
+      }
+      // In-flight fetches still notify their pending events.
+      entries.clear();
+    }
+  }
+
+  private void fetch(final String url, final Entry entry) {
+    Log.d(TAG, "Request TURN from: " + url);
+    // An empty POST, like HttpURLConnection.setDoOutput(true) without a body.
+    AsyncHttpURLConnection httpConnection =
+        new AsyncHttpURLConnection("POST", url, null, new AsyncHttpEvents() {
+          @Override
+          public void onHttpError(String errorMessage) {
+            Log.e(TAG, "TURN request error: " + errorMessage);
+            onFetchFailed(entry, "Room IO error: " + errorMessage);
+          }
+
+          @Override
+          public void onHttpComplete(String response) {
+            Log.d(TAG, "TURN response: " + response);
+            final long nowMs = scheduler.currentTimeMillis();
+            final List<PeerConnection.IceServer> iceServers;
+            final long expiryTimeMs;
+            try {
+              JSONObject responseJSON = new JSONObject(response);
+              iceServers = turnHttpResponseParse(responseJSON);
+              expiryTimeMs = getExpiryTimeMs(responseJSON, iceServers, nowMs);
+            } catch (JSONException e) {
+              onFetchFailed(entry, "TURN JSON parsing error: " + e.toString());
+              return;
+            }
+            onFetchCompleted(url, entry, iceServers, nowMs, expiryTimeMs);
+          }
+        });
+    httpConnection.addRequestProperty("REFERER", "https://appr.tc");
+    httpConnection.setTimeout(TURN_HTTP_TIMEOUT_MS);
+    httpConnection.send();
+  }
+
+  private void onFetchCompleted(final String url, Entry entry,
+      List<PeerConnection.IceServer> iceServers, long nowMs, long expiryTimeMs) {
+    final List<IceServersEvents> pendingEvents;
+    synchronized (lock) {
+      final long refreshDelayMs = Math.max(0, (expiryTimeMs - nowMs) * 3 / 4);
+      entry.fetching = false;
+      entry.iceServers = iceServers;
+      entry.staleTimeMs = nowMs + refreshDelayMs;
+      entry.expiryTimeMs = expiryTimeMs;
+      if (entry.refresh != null) {
+        entry.refresh.cancel(/* mayInterruptIfRunning= */ false);
+        entry.refresh = null;
+      }
+      // Nothing is refreshed for an entry that was cleared during the fetch.
+      if (refreshDelayMs > 0 && entries.get(url) == entry) {
+        Log.d(TAG, "ICE servers from " + url + " expire in " + (expiryTimeMs - nowMs) + " ms");
+        entry.refresh = scheduler.schedule(() -> refresh(url), refreshDelayMs);
+      }
+      pendingEvents = new ArrayList<>(entry.pendingEvents);
+      entry.pendingEvents.clear();
+    }
+    for (IceServersEvents events : pendingEvents) {
+      events.onIceServers(new ArrayList<>(iceServers));
+    }
+  }
+
+  private void onFetchFailed(Entry entry, String description) {
+    final List<IceServersEvents> pendingEvents;
+    synchronized (lock) {
+      // Servers that are still valid are kept; the next request retries the fetch.
+      entry.fetching = false;
+      pendingEvents = new ArrayList<>(entry.pendingEvents);
+      entry.pendingEvents.clear();
+    }
+    for (IceServersEvents events : pendingEvents) {
+      events.onIceServersError(description);
+    }
+  }
+
+  private void refresh(String url) {
+    final Entry entry;
+    synchronized (lock) {
+      entry = entries.get(url);
+      if (entry == null || entry.fetching) {
+        return;
+      }
+      entry.refresh = null;
+      if (scheduler.currentTimeMillis() - entry.lastUsedTimeMs > MAX_UNUSED_TIME_MS) {
+        Log.d(TAG, "Stop refreshing unused ICE servers from: " + url);
+        entries.remove(url);
+        return;
+      }
+      entry.fetching = true;
+    }
+    Log.d(TAG, "Refreshing ICE servers from: " + url);
+    fetch(url, entry);
+  }
+
+  // Returns when the credentials in |response| expire, or |DEFAULT_TTL_MS| after |nowMs| if the
+  // response does not say.
+  static long getExpiryTimeMs(
+      JSONObject response, List<PeerConnection.IceServer> iceServers, long nowMs) {
+    long expiryTimeMs = Long.MAX_VALUE;
+    for (PeerConnection.IceServer server : iceServers) {
+      // TURN REST API usernames start with the expiry timestamp in seconds.
+      final int separator = server.username.indexOf(':');
+      if (separator > 0) {
+        try {
+          final long expirySeconds = Long.parseLong(server.username.substring(0, separator));
+          expiryTimeMs = Math.min(expiryTimeMs, TimeUnit.SECONDS.toMillis(expirySeconds));
+        } catch (NumberFormatException e) {
+          // Not a timestamp.
+        }
+      }
+    }
+    final String lifetime = response.optString("lifetimeDuration");
+    if (lifetime.endsWith("s")) {
+      try {
+        final double lifetimeSeconds =
+            Double.parseDouble(lifetime.substring(0, lifetime.length() - 1));
+        expiryTimeMs = Math.min(expiryTimeMs, nowMs + (long) (lifetimeSeconds * 1000));
+      } catch (NumberFormatException e) {
+        Log.w(TAG, "Invalid lifetimeDuration: " + lifetime);
+      }
+    }
+    return expiryTimeMs == Long.MAX_VALUE ? nowMs + DEFAULT_TTL_MS : expiryTimeMs;
+  }
+
+  private static List<PeerConnection.IceServer> turnHttpResponseParse(JSONObject responseJSON)
+      throws JSONException {
+    List<PeerConnection.IceServer> turnServers = new ArrayList<>();
+    JSONArray iceServers = responseJSON.getJSONArray("iceServers");
+    for (int i = 0; i < iceServers.length(); ++i) {
+      JSONObject server = iceServers.getJSONObject(i);
+      JSONArray turnUrls = server.getJSONArray("urls");
+      String username = server.has("username") ? server.getString("username") : "";
+      String credential = server.has("credential") ? server.getString("credential") : "";
+      for (int j = 0; j < turnUrls.length(); j++) {
+        String turnUrl = turnUrls.getString(j);
+        PeerConnection.IceServer turnServer =
+            PeerConnection.IceServer.builder(turnUrl)
+              .setUsername(username)
+              .setPassword(credential)
+              .createIceServer();
+        turnServers.add(turnServer);
+      }
+    }
+    return turnServers;
+  }
+}
@@ -0,0 +1,448 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import org.appspot.apprtc.TCPChannelClient.TCPChannelEvents;
+import org.webrtc.ThreadUtils;
+
+/**
+ * Non-blocking version of TCPChannelClient. All channels share one selector thread instead of
+ * using a thread per socket, and messages are sent as frames of a 4 byte big-endian length
+ * followed by the UTF-8 payload, so they may contain line breaks. Messages sent in quick
+ * succession are written to the socket together. This framing is not compatible with
+ * TCPChannelClient.
+ * <p>
+ * All public methods should be called from a looper executor thread
+ * passed in a constructor, otherwise exception will be thrown.
+ * All events are dispatched on the same thread.
+ */
+public class NioTCPChannelClient {
+  private static final String TAG = "NioTCPChannelClient";
+  private static final int HEADER_SIZE = 4;
+  // Larger frames are treated as a protocol error, so that a peer can't make us allocate
+  // arbitrary amounts of memory.
+  static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+  private static final int INITIAL_READ_BUFFER_SIZE = 16 * 1024;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final ExecutorService executor;
+  private final ThreadUtils.ThreadChecker executorThreadCheck;
+  private final TCPChannelEvents eventListener;
+  private final boolean isServer;
+  @Nullable private final IoThread ioThread;
+
+  private final Object stateLock = new Object();
+  // Frames waiting to be written. Guarded by stateLock.
+  private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+  private boolean connected; /* guarded by stateLock */
+  private boolean closed; /* guarded by stateLock */
+  // True while a write task is posted or the key is waiting for OP_WRITE.
+  private boolean writeScheduled; /* guarded by stateLock */
+
+  // Only accessed on the I/O thread.
+  @Nullable private ServerSocketChannel serverChannel;
+  @Nullable private SocketChannel channel;
+  @Nullable private SelectionKey key;
+  private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+  // Set while close() flushes the pending frames, so that a failing write doesn't close again.
+  private boolean closing;
+  private boolean channelsClosed;
+
+  /**
+   * Initializes the NioTCPChannelClient. If IP is a local IP address, starts a listening server on
+   * that IP. If not, instead connects to the IP.
+   *
+   * @param eventListener Listener that will receive events from the client.
+   * @param ip            IP address to listen on or connect to.
+   * @param port          Port to listen on or connect to.
+   */
+  public NioTCPChannelClient(
+      ExecutorService executor, TCPChannelEvents eventListener, String ip, int port) {
+    this.executor = executor;
+    executorThreadCheck = new ThreadUtils.ThreadChecker();
+    executorThreadCheck.detachThread();
+    this.eventListener = eventListener;
+
+    InetAddress address = null;
+    try {
+      address = InetAddress.getByName(ip);
+    } catch (UnknownHostException e) {
+      reportError("Invalid IP address.");
+    }
+    isServer = address != null && address.isAnyLocalAddress();
+
+    IoThread thread = null;
+    if (address != null) {
+      try {
+        thread = IoThread.acquire();
+      } catch (IOException e) {
+        reportError("Failed to open selector: " + e.getMessage());
+      }
+    }
+    ioThread = thread;
+    if (ioThread != null) {
+      final InetSocketAddress socketAddress = new InetSocketAddress(address, port);
+      ioThread.post(() -> open(socketAddress));
+    }
+  }
+
+  /**
+   * Disconnects the client if not already disconnected. This will fire the onTCPClose event.
+   */
+  public void disconnect() {
+    executorThreadCheck.checkIsOnValidThread();
+
+    if (ioThread != null) {
+      markClosed();
+      ioThread.post(this::close);
+    }
+  }
+
+  /**
+   * Sends a message on the socket.
+   *
+   * @param message Message to be sent.
+   */
+  public void send(String message) {
+    executorThreadCheck.checkIsOnValidThread();
+    Log.v(TAG, "Send: " + message);
+
+    final byte[] payload = message.getBytes(UTF_8);
+    final ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+    frame.putInt(payload.length).put(payload).flip();
+    synchronized (stateLock) {
+      if (!connected) {
+        reportError("Sending data on closed socket.");
+        return;
+      }
+      pendingWrites.add(frame);
+      // A scheduled write also writes this frame.
+      if (writeScheduled) {
+        return;
+      }
+      writeScheduled = true;
+    }
+    ioThread.post(this::write);
+  }
+
+  /**
+   * Helper method for firing onTCPError events. Calls onTCPError on the executor thread.
+   */
+  private void reportError(final String message) {
+    Log.e(TAG, "TCP Error: " + message);
+    postEvent(() -> eventListener.onTCPError(message));
+  }
+
+  // Posts an event to the executor, which may already have been shut down by the owner.
+  private void postEvent(Runnable event) {
+    try {
+      executor.execute(event);
+    } catch (RejectedExecutionException e) {
+      Log.w(TAG, "Dropped event after executor shutdown.");
+    }
+  }
+
+  // Stops sending and fires onTCPClose if the channel was connected. Returns false if the channel
+  // had already been closed.
+  private boolean markClosed() {
+    final boolean wasConnected;
+    synchronized (stateLock) {
+      if (closed) {
+        return false;
+      }
+      closed = true;
+      wasConnected = connected;
+      connected = false;
+    }
+    if (wasConnected) {
+      postEvent(() -> eventListener.onTCPClose());
+    }
+    return true;
+  }
+
+  // The following methods run on the I/O thread.
+
+  private void open(InetSocketAddress address) {
+    try {
+      if (isServer) {
+        Log.d(TAG, "Listening on " + address);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().bind(address);
+        key = serverChannel.register(ioThread.selector, SelectionKey.OP_ACCEPT, this);
+      } else {
+        Log.d(TAG, "Connecting to " + address);
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        if (channel.connect(address)) {
+          onConnected();
+        } else {
+          key = channel.register(ioThread.selector, SelectionKey.OP_CONNECT, this);
+        }
+      }
+    } catch (IOException e) {
+      reportError("Failed to open socket: " + e.getMessage());
+      close();
+    }
+  }
+
+  private void onReady(SelectionKey readyKey) {
+    if (channelsClosed) {
+      return;
+    }
+    try {
+      if (readyKey.isAcceptable()) {
+        accept();
+        return;
+      }
+      if (readyKey.isConnectable()) {
+        channel.finishConnect();
+        onConnected();
+        return;
+      }
+      if (readyKey.isReadable()) {
+        read();
+      }
+      if (!channelsClosed && readyKey.isWritable()) {
+        write();
+      }
+    } catch (IOException e) {
+      // Errors after disconnect() are expected.
+      synchronized (stateLock) {
+        if (!closed) {
+          reportError("Socket error: " + e.getMessage());
+        }
+      }
+      close();
+    }
+  }
+
+  private void accept() throws IOException {
+    final SocketChannel acceptedChannel = serverChannel.accept();
+    if (acceptedChannel == null) {
+      return;
+    }
+    // Only one peer is accepted, like in TCPChannelClient.
+    closeQuietly(serverChannel);
+    serverChannel = null;
+    channel = acceptedChannel;
+    channel.configureBlocking(false);
+    onConnected();
+  }
+
+  private void onConnected() throws IOException {
+    final boolean disconnected;
+    synchronized (stateLock) {
+      disconnected = closed;
+      connected = !closed;
+    }
+    if (disconnected) {
+      close();
+      return;
+    }
+    Log.d(TAG, "TCP connection established.");
+    // Small messages should not wait for Nagle's algorithm, writes are coalesced by us.
+    channel.socket().setTcpNoDelay(true);
+    key = channel.register(ioThread.selector, SelectionKey.OP_READ, this);
+    postEvent(() -> eventListener.onTCPConnected(isServer));
+  }
+
+  private void read() throws IOException {
+    if (channel.read(readBuffer) == -1) {
+      Log.d(TAG, "Connection closed by peer.");
+      close();
+      return;
+    }
+    readBuffer.flip();
+    int requiredCapacity = 0;
+    while (readBuffer.remaining() >= HEADER_SIZE) {
+      final int length = readBuffer.getInt(readBuffer.position());
+      if (length < 0 || length > MAX_MESSAGE_SIZE) {
+        throw new IOException("Invalid message length: " + length);
+      }
+      if (readBuffer.remaining() < HEADER_SIZE + length) {
+        requiredCapacity = HEADER_SIZE + length;
+        break;
+      }
+      final int payloadStart = readBuffer.position() + HEADER_SIZE;
+      final String message =
+          new String(readBuffer.array(), readBuffer.arrayOffset() + payloadStart, length, UTF_8);
+      readBuffer.position(payloadStart + length);
+      postEvent(() -> {
+        Log.v(TAG, "Receive: " + message);
+        eventListener.onTCPMessage(message);
+      });
+    }
+    readBuffer.compact();
+    if (requiredCapacity > readBuffer.capacity()) {
+      final ByteBuffer largerBuffer =
+          ByteBuffer.allocate(Math.max(requiredCapacity, 2 * readBuffer.capacity()));
+      readBuffer.flip();
+      largerBuffer.put(readBuffer);
+      readBuffer = largerBuffer;
+    }
+  }
+
+  private void write() {
+    if (channelsClosed || channel == null) {
+      return;
+    }
+    final ByteBuffer[] buffers;
+    synchronized (stateLock) {
+      buffers = pendingWrites.toArray(new ByteBuffer[0]);
+    }
+    try {
+      // Gathering write of all pending frames.
+      channel.write(buffers);
+    } catch (IOException e) {
+      if (closing) {
+        Log.w(TAG, "Failed to flush socket: " + e.getMessage());
+      } else {
+        reportError("Failed to write to socket: " + e.getMessage());
+        close();
+      }
+      return;
+    }
+    synchronized (stateLock) {
+      while (!pendingWrites.isEmpty() && !pendingWrites.peekFirst().hasRemaining()) {
+        pendingWrites.pollFirst();
+      }
+      writeScheduled = !pendingWrites.isEmpty();
+      key.interestOps(
+          writeScheduled ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+  }
+
+  private void close() {
+    if (channelsClosed || closing) {
+      return;
+    }
+    closing = true;
+    markClosed();
+    // Try to send what disconnect() was called after.
+    if (channel != null && channel.isConnected()) {
+      write();
+    }
+    channelsClosed = true;
+    closeQuietly(serverChannel);
+    closeQuietly(channel);
+    serverChannel = null;
+    channel = null;
+    key = null;
+    ioThread.release();
+  }
+
+  private static void closeQuietly(@Nullable Closeable closeable) {
+    if (closeable == null) {
+      return;
+    }
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to close socket: " + e.getMessage());
+    }
+  }
+
+  /** Selector thread shared by all channels. Runs until the last channel has been closed. */
+  private static class IoThread extends Thread {
+    private static final Object instanceLock = new Object();
+    @Nullable private static IoThread instance; /* guarded by instanceLock */
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private int channelCount; /* guarded by instanceLock */
+    private volatile boolean stopped;
+
+    static IoThread acquire() throws IOException {
+      synchronized (instanceLock) {
+        if (instance == null) {
+          instance = new IoThread(Selector.open());
+          instance.start();
+        }
+        ++instance.channelCount;
+        return instance;
+      }
+    }
+
+    private IoThread(Selector selector) {
+      super(TAG);
+      this.selector = selector;
+      setDaemon(true);
+    }
+
+    void release() {
+      synchronized (instanceLock) {
+        if (--channelCount > 0) {
+          return;
+        }
+        if (instance == this) {
+          instance = null;
+        }
+      }
+      stopped = true;
+      selector.wakeup();
+    }
+
+    void post(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      Log.d(TAG, "I/O thread started.");
+      while (!stopped) {
+        try {
+          selector.select();
+        } catch (IOException e) {
+          Log.e(TAG, "Select failed: " + e.getMessage());
+          break;
+        }
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          final SelectionKey readyKey = keys.next();
+          keys.remove();
+          if (readyKey.isValid()) {
+            ((NioTCPChannelClient) readyKey.attachment()).onReady(readyKey);
+          }
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to close selector: " + e.getMessage());
+      }
+      Log.d(TAG, "I/O thread exiting.");
+    }
+  }
+}
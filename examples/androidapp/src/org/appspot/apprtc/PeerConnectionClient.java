@@ -14,6 +14,7 @@ import android.content.Context;
 import android.os.Environment;
 import android.os.ParcelFileDescriptor;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 import java.io.File;
 import java.io.IOException;
@@ -25,17 +26,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
 import org.appspot.apprtc.AppRTCClient.SignalingParameters;
 import org.appspot.apprtc.RecordedAudioToFileController;
+import org.appspot.apprtc.util.ParsedSdp;
 import org.webrtc.AudioSource;
 import org.webrtc.AudioTrack;
 import org.webrtc.CameraVideoCapturer;
@@ -82,7 +82,9 @@ import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackStateCallback;
  *
  * <p>All public methods are routed to local looper thread.
  * All PeerConnectionEvents callbacks are invoked from the same looper thread.
- * This class is a singleton.
+ * A client normally creates and owns its peer connection factory and runs on an executor
+ * shared by all such clients. Clients created with an external factory and executor can run
+ * concurrently, e.g. to generate load with several calls in one process.
  */
 public class PeerConnectionClient {
   public static final String VIDEO_TRACK_ID = "ARDAMSv0";
@@ -116,8 +118,11 @@ public class PeerConnectionClient {
   // Executor thread is started once in private ctor and is used for all
   // peer connection API calls to ensure new peer connection factory is
   // created on the same thread as previously destroyed factory.
-  private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private static final ExecutorService defaultExecutor = Executors.newSingleThreadExecutor();
 
+  private final ExecutorService executor;
+  // False if |factory| is owned by the creator of this client.
+  private final boolean ownsFactory;
   private final PCObserver pcObserver = new PCObserver();
   private final SDPObserver sdpObserver = new SDPObserver();
   private final Timer statsTimer = new Timer();
@@ -170,6 +175,7 @@ public class PeerConnectionClient {
   @Nullable
   private DataChannel dataChannel;
   private final boolean dataChannelEnabled;
+  private final AtomicLong receivedDataChannelMessages = new AtomicLong();
   // Enable RtcEventLog.
   @Nullable
   private RtcEventLog rtcEventLog;
@@ -323,13 +329,7 @@ public class PeerConnectionClient {
    */
   public PeerConnectionClient(Context appContext, EglBase eglBase,
       PeerConnectionParameters peerConnectionParameters, PeerConnectionEvents events) {
-    this.rootEglBase = eglBase;
-    this.appContext = appContext;
-    this.events = events;
-    this.peerConnectionParameters = peerConnectionParameters;
-    this.dataChannelEnabled = peerConnectionParameters.dataChannelParameters != null;
-
-    Log.d(TAG, "Preferred video codec: " + getSdpVideoCodecName(peerConnectionParameters));
+    this(appContext, eglBase, peerConnectionParameters, events, defaultExecutor, null);
 
     final String fieldTrials = getFieldTrials(peerConnectionParameters);
     executor.execute(() -> {
@@ -342,6 +342,38 @@ public class PeerConnectionClient {
     });
   }
 
+  /**
+   * Create a PeerConnectionClient that creates its peer connection with |factory| and runs on
+   * |executor|. The caller keeps ownership of both, so that several clients can share them, and
+   * must have initialized WebRTC. createPeerConnectionFactory() must not be called, and close()
+   * leaves the factory, logging and tracing as they are. PeerConnectionClient takes ownership of
+   * |eglBase|.
+   */
+  public PeerConnectionClient(Context appContext, EglBase eglBase,
+      PeerConnectionParameters peerConnectionParameters, PeerConnectionEvents events,
+      PeerConnectionFactory factory, ExecutorService executor) {
+    this(appContext, eglBase, peerConnectionParameters, events, executor, factory);
+  }
+
+  private PeerConnectionClient(Context appContext, EglBase eglBase,
+      PeerConnectionParameters peerConnectionParameters, PeerConnectionEvents events,
+      ExecutorService executor, @Nullable PeerConnectionFactory factory) {
+    this.rootEglBase = eglBase;
+    this.appContext = appContext;
+    this.events = events;
+    this.peerConnectionParameters = peerConnectionParameters;
+    this.dataChannelEnabled = peerConnectionParameters.dataChannelParameters != null;
+    this.executor = executor;
+    this.factory = factory;
+    this.ownsFactory = factory == null;
+
+    // Check if ISAC is used by default.
+    preferIsac = peerConnectionParameters.audioCodec != null
+        && peerConnectionParameters.audioCodec.equals(AUDIO_CODEC_ISAC);
+
+    Log.d(TAG, "Preferred video codec: " + getSdpVideoCodecName(peerConnectionParameters));
+  }
+
   /**
    * This function should only be called once.
    */
@@ -400,10 +432,6 @@ public class PeerConnectionClient {
           + "webrtc-trace.txt");
     }
 
-    // Check if ISAC is used by default.
-    preferIsac = peerConnectionParameters.audioCodec != null
-        && peerConnectionParameters.audioCodec.equals(AUDIO_CODEC_ISAC);
-
     // It is possible to save a copy in raw PCM format on a file by checking
     // the "Save input audio to file" checkbox in the Settings UI. A callback
     // interface is set when this flag is enabled. As a result, a copy of recorded
@@ -618,7 +646,9 @@ public class PeerConnectionClient {
 
     // Set INFO libjingle logging.
     // NOTE: this _must_ happen while |factory| is alive!
-    Logging.enableLogToDebugOutput(Logging.Severity.LS_INFO);
+    if (ownsFactory) {
+      Logging.enableLogToDebugOutput(Logging.Severity.LS_INFO);
+    }
 
     List<String> mediaStreamLabels = Collections.singletonList("ARDAMS");
     if (isVideoCallEnabled()) {
@@ -728,16 +758,18 @@ public class PeerConnectionClient {
     }
     localRender = null;
     remoteSinks = null;
-    Log.d(TAG, "Closing peer connection factory.");
-    if (factory != null) {
+    if (ownsFactory && factory != null) {
+      Log.d(TAG, "Closing peer connection factory.");
       factory.dispose();
-      factory = null;
     }
+    factory = null;
     rootEglBase.release();
     Log.d(TAG, "Closing peer connection done.");
     events.onPeerConnectionClosed();
-    PeerConnectionFactory.stopInternalTracingCapture();
-    PeerConnectionFactory.shutdownInternalTracer();
+    if (ownsFactory) {
+      PeerConnectionFactory.stopInternalTracingCapture();
+      PeerConnectionFactory.shutdownInternalTracer();
+    }
   }
 
   public boolean isHDVideo() {
@@ -777,6 +809,24 @@ public class PeerConnectionClient {
     }
   }
 
+  /** Sends |message| as text over the data channel, if it is open. */
+  public void sendDataChannelMessage(final String message) {
+    executor.execute(() -> {
+      if (dataChannel == null || dataChannel.state() != DataChannel.State.OPEN || isError) {
+        return;
+      }
+      final ByteBuffer data = ByteBuffer.wrap(message.getBytes(Charset.forName("UTF-8")));
+      if (!dataChannel.send(new DataChannel.Buffer(data, /* binary= */ false))) {
+        Log.w(TAG, "Data channel send failed.");
+      }
+    });
+  }
+
+  /** Returns the number of messages received over the remote data channel. */
+  public long getReceivedDataChannelMessageCount() {
+    return receivedDataChannelMessages.get();
+  }
+
   public void setAudioEnabled(final boolean enable) {
     executor.execute(() -> {
       enableAudio = enable;
@@ -830,6 +880,18 @@ public class PeerConnectionClient {
     });
   }
 
+  public void addRemoteIceCandidates(final IceCandidate[] candidates) {
+    executor.execute(() -> {
+      if (peerConnection != null && !isError) {
+        if (queuedRemoteCandidates != null) {
+          Collections.addAll(queuedRemoteCandidates, candidates);
+        } else {
+          peerConnection.addIceCandidates(Arrays.asList(candidates));
+        }
+      }
+    });
+  }
+
   public void removeRemoteIceCandidates(final IceCandidate[] candidates) {
     executor.execute(() -> {
       if (peerConnection == null || isError) {
@@ -847,19 +909,18 @@ public class PeerConnectionClient {
       if (peerConnection == null || isError) {
         return;
       }
-      String sdp = desc.description;
+      final ParsedSdp sdp = ParsedSdp.parse(desc.description);
       if (preferIsac) {
-        sdp = preferCodec(sdp, AUDIO_CODEC_ISAC, true);
+        preferCodec(sdp, AUDIO_CODEC_ISAC, true);
       }
       if (isVideoCallEnabled()) {
-        sdp = preferCodec(sdp, getSdpVideoCodecName(peerConnectionParameters), false);
+        preferCodec(sdp, getSdpVideoCodecName(peerConnectionParameters), false);
       }
       if (peerConnectionParameters.audioStartBitrate > 0) {
-        sdp = setStartBitrate(
-            AUDIO_CODEC_OPUS, false, sdp, peerConnectionParameters.audioStartBitrate);
+        setStartBitrate(AUDIO_CODEC_OPUS, false, sdp, peerConnectionParameters.audioStartBitrate);
       }
       Log.d(TAG, "Set remote SDP.");
-      SessionDescription sdpRemote = new SessionDescription(desc.type, sdp);
+      SessionDescription sdpRemote = new SessionDescription(desc.type, sdp.toString());
       peerConnection.setRemoteDescription(sdpObserver, sdpRemote);
     });
   }
@@ -998,156 +1059,54 @@ public class PeerConnectionClient {
     return fieldTrials;
   }
 
-  @SuppressWarnings("StringSplitter")
-  private static String setStartBitrate(
-      String codec, boolean isVideoCodec, String sdp, int bitrateKbps) {
-    String[] lines = sdp.split("\r\n");
-    int rtpmapLineIndex = -1;
-    boolean sdpFormatUpdated = false;
-    String codecRtpMap = null;
-    // Search for codec rtpmap in format
-    // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-    String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
-    Pattern codecPattern = Pattern.compile(regex);
-    for (int i = 0; i < lines.length; i++) {
-      Matcher codecMatcher = codecPattern.matcher(lines[i]);
-      if (codecMatcher.matches()) {
-        codecRtpMap = codecMatcher.group(1);
-        rtpmapLineIndex = i;
-        break;
-      }
-    }
-    if (codecRtpMap == null) {
-      Log.w(TAG, "No rtpmap for " + codec + " codec");
-      return sdp;
-    }
-    Log.d(TAG, "Found " + codec + " rtpmap " + codecRtpMap + " at " + lines[rtpmapLineIndex]);
-
-    // Check if a=fmtp string already exist in remote SDP for this codec and
-    // update it with new bitrate parameter.
-    regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$";
-    codecPattern = Pattern.compile(regex);
-    for (int i = 0; i < lines.length; i++) {
-      Matcher codecMatcher = codecPattern.matcher(lines[i]);
-      if (codecMatcher.matches()) {
-        Log.d(TAG, "Found " + codec + " " + lines[i]);
-        if (isVideoCodec) {
-          lines[i] += "; " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
-        } else {
-          lines[i] += "; " + AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
-        }
-        Log.d(TAG, "Update remote SDP line: " + lines[i]);
-        sdpFormatUpdated = true;
-        break;
-      }
-    }
-
-    StringBuilder newSdpDescription = new StringBuilder();
-    for (int i = 0; i < lines.length; i++) {
-      newSdpDescription.append(lines[i]).append("\r\n");
-      // Append new a=fmtp line if no such line exist for a codec.
-      if (!sdpFormatUpdated && i == rtpmapLineIndex) {
-        String bitrateSet;
-        if (isVideoCodec) {
-          bitrateSet =
-              "a=fmtp:" + codecRtpMap + " " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
-        } else {
-          bitrateSet = "a=fmtp:" + codecRtpMap + " " + AUDIO_CODEC_PARAM_BITRATE + "="
-              + (bitrateKbps * 1000);
-        }
-        Log.d(TAG, "Add remote SDP line: " + bitrateSet);
-        newSdpDescription.append(bitrateSet).append("\r\n");
+  @VisibleForTesting
+  public static void setStartBitrate(
+      String codec, boolean isVideoCodec, ParsedSdp sdp, int bitrateKbps) {
+    for (ParsedSdp.MediaSection section : sdp.getMediaSections()) {
+      final List<String> codecPayloadTypes = section.findPayloadTypes(codec);
+      if (codecPayloadTypes.isEmpty()) {
+        continue;
       }
-    }
-    return newSdpDescription.toString();
-  }
-
-  /** Returns the line number containing "m=audio|video", or -1 if no such line exists. */
-  private static int findMediaDescriptionLine(boolean isAudio, String[] sdpLines) {
-    final String mediaDescription = isAudio ? "m=audio " : "m=video ";
-    for (int i = 0; i < sdpLines.length; ++i) {
-      if (sdpLines[i].startsWith(mediaDescription)) {
-        return i;
+      final String codecRtpMap = codecPayloadTypes.get(0);
+      Log.d(TAG, "Found " + codec + " rtpmap " + codecRtpMap);
+      final String bitrateSet = isVideoCodec
+          ? VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps
+          : AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
+      // Update the a=fmtp line for this codec with the new bitrate parameter, or add one.
+      final String fmtpParameters = section.getFmtpParameters(codecRtpMap);
+      if (fmtpParameters == null || fmtpParameters.isEmpty()) {
+        section.setFmtpParameters(codecRtpMap, bitrateSet);
+      } else {
+        section.setFmtpParameters(codecRtpMap, fmtpParameters + "; " + bitrateSet);
       }
+      Log.d(TAG, "Set " + codec + " fmtp: " + section.getFmtpParameters(codecRtpMap));
+      return;
     }
-    return -1;
-  }
-
-  private static String joinString(
-      Iterable<? extends CharSequence> s, String delimiter, boolean delimiterAtEnd) {
-    Iterator<? extends CharSequence> iter = s.iterator();
-    if (!iter.hasNext()) {
-      return "";
-    }
-    StringBuilder buffer = new StringBuilder(iter.next());
-    while (iter.hasNext()) {
-      buffer.append(delimiter).append(iter.next());
-    }
-    if (delimiterAtEnd) {
-      buffer.append(delimiter);
-    }
-    return buffer.toString();
-  }
-
-  private static @Nullable String movePayloadTypesToFront(
-      List<String> preferredPayloadTypes, String mLine) {
-    // The format of the media description line should be: m=<media> <port> <proto> <fmt> ...
-    final List<String> origLineParts = Arrays.asList(mLine.split(" "));
-    if (origLineParts.size() <= 3) {
-      Log.e(TAG, "Wrong SDP media description format: " + mLine);
-      return null;
-    }
-    final List<String> header = origLineParts.subList(0, 3);
-    final List<String> unpreferredPayloadTypes =
-        new ArrayList<>(origLineParts.subList(3, origLineParts.size()));
-    unpreferredPayloadTypes.removeAll(preferredPayloadTypes);
-    // Reconstruct the line with |preferredPayloadTypes| moved to the beginning of the payload
-    // types.
-    final List<String> newLineParts = new ArrayList<>();
-    newLineParts.addAll(header);
-    newLineParts.addAll(preferredPayloadTypes);
-    newLineParts.addAll(unpreferredPayloadTypes);
-    return joinString(newLineParts, " ", false /* delimiterAtEnd */);
+    Log.w(TAG, "No rtpmap for " + codec + " codec");
   }
 
-  private static String preferCodec(String sdp, String codec, boolean isAudio) {
-    final String[] lines = sdp.split("\r\n");
-    final int mLineIndex = findMediaDescriptionLine(isAudio, lines);
-    if (mLineIndex == -1) {
+  @VisibleForTesting
+  public static void preferCodec(ParsedSdp sdp, String codec, boolean isAudio) {
+    final ParsedSdp.MediaSection section = sdp.findMediaSection(isAudio ? "audio" : "video");
+    if (section == null) {
       Log.w(TAG, "No mediaDescription line, so can't prefer " + codec);
-      return sdp;
+      return;
     }
     // A list with all the payload types with name |codec|. The payload types are integers in the
     // range 96-127, but they are stored as strings here.
-    final List<String> codecPayloadTypes = new ArrayList<>();
-    // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-    final Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$");
-    for (String line : lines) {
-      Matcher codecMatcher = codecPattern.matcher(line);
-      if (codecMatcher.matches()) {
-        codecPayloadTypes.add(codecMatcher.group(1));
-      }
-    }
+    final List<String> codecPayloadTypes = section.findPayloadTypes(codec);
     if (codecPayloadTypes.isEmpty()) {
       Log.w(TAG, "No payload types with name " + codec);
-      return sdp;
-    }
-
-    final String newMLine = movePayloadTypesToFront(codecPayloadTypes, lines[mLineIndex]);
-    if (newMLine == null) {
-      return sdp;
+      return;
     }
-    Log.d(TAG, "Change media description from: " + lines[mLineIndex] + " to " + newMLine);
-    lines[mLineIndex] = newMLine;
-    return joinString(Arrays.asList(lines), "\r\n", true /* delimiterAtEnd */);
+    section.movePayloadTypesToFront(codecPayloadTypes);
+    Log.d(TAG, "Change " + section.getMedia() + " payload types to " + section.getPayloadTypes());
   }
 
   private void drainCandidates() {
     if (queuedRemoteCandidates != null) {
       Log.d(TAG, "Add " + queuedRemoteCandidates.size() + " remote candidates");
-      for (IceCandidate candidate : queuedRemoteCandidates) {
-        peerConnection.addIceCandidate(candidate);
-      }
+      peerConnection.addIceCandidates(queuedRemoteCandidates);
       queuedRemoteCandidates = null;
     }
   }
@@ -1272,6 +1231,7 @@ public class PeerConnectionClient {
 
         @Override
         public void onMessage(final DataChannel.Buffer buffer) {
+          receivedDataChannelMessages.incrementAndGet();
           if (buffer.binary) {
             Log.d(TAG, "Received binary msg over " + dc);
             return;
@@ -1304,14 +1264,14 @@ public class PeerConnectionClient {
         reportError("Multiple SDP create.");
         return;
       }
-      String sdp = desc.description;
+      final ParsedSdp sdp = ParsedSdp.parse(desc.description);
       if (preferIsac) {
-        sdp = preferCodec(sdp, AUDIO_CODEC_ISAC, true);
+        preferCodec(sdp, AUDIO_CODEC_ISAC, true);
       }
       if (isVideoCallEnabled()) {
-        sdp = preferCodec(sdp, getSdpVideoCodecName(peerConnectionParameters), false);
+        preferCodec(sdp, getSdpVideoCodecName(peerConnectionParameters), false);
       }
-      final SessionDescription newDesc = new SessionDescription(desc.type, sdp);
+      final SessionDescription newDesc = new SessionDescription(desc.type, sdp.toString());
       localDescription = newDesc;
       executor.execute(() -> {
         if (peerConnection != null && !isError) {
@@ -11,16 +11,12 @@
 package org.appspot.apprtc;
 
 import android.util.Log;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
-import java.util.Scanner;
 import java.util.List;
 import org.appspot.apprtc.AppRTCClient.SignalingParameters;
 import org.appspot.apprtc.util.AsyncHttpURLConnection;
 import org.appspot.apprtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
+import org.appspot.apprtc.util.SignalingCodec;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -34,10 +30,11 @@ import org.webrtc.SessionDescription;
  */
 public class RoomParametersFetcher {
   private static final String TAG = "RoomRTCClient";
-  private static final int TURN_HTTP_TIMEOUT_MS = 5000;
   private final RoomParametersFetcherEvents events;
+  private final IceServerCache iceServerCache;
   private final String roomUrl;
   private final String roomMessage;
+  private final SignalingCodec codec;
 
   /**
    * Room parameters fetcher callbacks.
@@ -57,9 +54,27 @@ public class RoomParametersFetcher {
 
   public RoomParametersFetcher(
       String roomUrl, String roomMessage, final RoomParametersFetcherEvents events) {
+    this(roomUrl, roomMessage, events, new SignalingCodec(/* compactEncodingEnabled= */ false));
+  }
+
+  /**
+   * The messages that the other participant left in the room are decoded with |codec|, so that
+   * it learns whether they support the compact encoding. This happens on the HTTP thread, before
+   * onSignalingParametersReady() is called.
+   */
+  public RoomParametersFetcher(String roomUrl, String roomMessage,
+      final RoomParametersFetcherEvents events, SignalingCodec codec) {
+    this(roomUrl, roomMessage, events, codec, IceServerCache.getInstance());
+  }
+
+  RoomParametersFetcher(String roomUrl, String roomMessage,
+      final RoomParametersFetcherEvents events, SignalingCodec codec,
+      IceServerCache iceServerCache) {
     this.roomUrl = roomUrl;
     this.roomMessage = roomMessage;
     this.events = events;
+    this.codec = codec;
+    this.iceServerCache = iceServerCache;
   }
 
   public void makeRequest() {
@@ -105,7 +120,7 @@ public class RoomParametersFetcher {
         JSONArray messages = new JSONArray(messagesString);
         for (int i = 0; i < messages.length(); ++i) {
           String messageString = messages.getString(i);
-          JSONObject message = new JSONObject(messageString);
+          JSONObject message = codec.decode(messageString);
           String messageType = message.getString("type");
           Log.d(TAG, "GAE->C #" + i + " : " + messageString);
           if (messageType.equals("offer")) {
@@ -137,64 +152,37 @@ public class RoomParametersFetcher {
           }
         }
       }
+      SignalingParameters params = new SignalingParameters(
+          iceServers, initiator, clientId, wssUrl, wssPostUrl, offerSdp, iceCandidates);
       // Request TURN servers.
       if (!isTurnPresent && !roomJson.optString("ice_server_url").isEmpty()) {
-        List<PeerConnection.IceServer> turnServers =
-            requestTurnServers(roomJson.getString("ice_server_url"));
-        for (PeerConnection.IceServer turnServer : turnServers) {
-          Log.d(TAG, "TurnServer: " + turnServer);
-          iceServers.add(turnServer);
-        }
+        requestTurnServers(roomJson.getString("ice_server_url"), params);
+      } else {
+        events.onSignalingParametersReady(params);
       }
-
-      SignalingParameters params = new SignalingParameters(
-          iceServers, initiator, clientId, wssUrl, wssPostUrl, offerSdp, iceCandidates);
-      events.onSignalingParametersReady(params);
     } catch (JSONException e) {
       events.onSignalingParametersError("Room JSON parsing error: " + e.toString());
-    } catch (IOException e) {
-      events.onSignalingParametersError("Room IO error: " + e.toString());
     }
   }
 
-  // Requests & returns a TURN ICE Server based on a request URL.  Must be run
-  // off the main thread!
-  private List<PeerConnection.IceServer> requestTurnServers(String url)
-      throws IOException, JSONException {
-    List<PeerConnection.IceServer> turnServers = new ArrayList<>();
-    Log.d(TAG, "Request TURN from: " + url);
-    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-    connection.setDoOutput(true);
-    connection.setRequestProperty("REFERER", "https://appr.tc");
-    connection.setConnectTimeout(TURN_HTTP_TIMEOUT_MS);
-    connection.setReadTimeout(TURN_HTTP_TIMEOUT_MS);
-    int responseCode = connection.getResponseCode();
-    if (responseCode != 200) {
-      throw new IOException("Non-200 response when requesting TURN server from " + url + " : "
-          + connection.getHeaderField(null));
-    }
-    InputStream responseStream = connection.getInputStream();
-    String response = drainStream(responseStream);
-    connection.disconnect();
-    Log.d(TAG, "TURN response: " + response);
-    JSONObject responseJSON = new JSONObject(response);
-    JSONArray iceServers = responseJSON.getJSONArray("iceServers");
-    for (int i = 0; i < iceServers.length(); ++i) {
-      JSONObject server = iceServers.getJSONObject(i);
-      JSONArray turnUrls = server.getJSONArray("urls");
-      String username = server.has("username") ? server.getString("username") : "";
-      String credential = server.has("credential") ? server.getString("credential") : "";
-      for (int j = 0; j < turnUrls.length(); j++) {
-        String turnUrl = turnUrls.getString(j);
-        PeerConnection.IceServer turnServer =
-            PeerConnection.IceServer.builder(turnUrl)
-              .setUsername(username)
-              .setPassword(credential)
-              .createIceServer();
-        turnServers.add(turnServer);
+  // Requests TURN servers from |url|, adds them to the ICE servers of |params| and then
+  // delivers |params|. Servers that are still valid are taken from |iceServerCache|.
+  private void requestTurnServers(String url, final SignalingParameters params) {
+    iceServerCache.getIceServers(url, new IceServerCache.IceServersEvents() {
+      @Override
+      public void onIceServers(List<PeerConnection.IceServer> iceServers) {
+        for (PeerConnection.IceServer turnServer : iceServers) {
+          Log.d(TAG, "TurnServer: " + turnServer);
+          params.iceServers.add(turnServer);
+        }
+        events.onSignalingParametersReady(params);
       }
-    }
-    return turnServers;
+
+      @Override
+      public void onIceServersError(String description) {
+        events.onSignalingParametersError(description);
+      }
+    });
   }
 
   // Return the list of ICE servers described by a WebRTCPeerConnection
@@ -216,10 +204,4 @@ public class RoomParametersFetcher {
     }
     return ret;
   }
-
-  // Return the contents of an InputStream as a String.
-  private static String drainStream(InputStream in) {
-    Scanner s = new Scanner(in, "UTF-8").useDelimiter("\\A");
-    return s.hasNext() ? s.next() : "";
-  }
 }
@@ -19,6 +19,7 @@ import org.appspot.apprtc.WebSocketChannelClient.WebSocketChannelEvents;
 import org.appspot.apprtc.WebSocketChannelClient.WebSocketConnectionState;
 import org.appspot.apprtc.util.AsyncHttpURLConnection;
 import org.appspot.apprtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
+import org.appspot.apprtc.util.SignalingCodec;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -49,6 +50,7 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelEvents
   private boolean initiator;
   private SignalingEvents events;
   private WebSocketChannelClient wsClient;
+  private SignalingCodec codec;
   private ConnectionState roomState;
   private RoomConnectionParameters connectionParameters;
   private String messageUrl;
@@ -94,6 +96,8 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelEvents
     Log.d(TAG, "Connect to room: " + connectionUrl);
     roomState = ConnectionState.NEW;
     wsClient = new WebSocketChannelClient(handler, this);
+    // Peers that don't advertise the compact encoding, like browsers, are sent JSON.
+    codec = new SignalingCodec(/* compactEncodingEnabled= */ true);
 
     RoomParametersFetcherEvents callbacks = new RoomParametersFetcherEvents() {
       @Override
@@ -112,7 +116,9 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelEvents
       }
     };
 
-    new RoomParametersFetcher(connectionUrl, null, callbacks).makeRequest();
+    // The offer and candidates that the initiator left in the room are decoded with |codec| too,
+    // so that an answer to an initiator that supports the compact encoding is compact.
+    new RoomParametersFetcher(connectionUrl, null, callbacks, codec).makeRequest();
   }
 
   // Disconnect from room and send bye messages - runs on a local looper thread.
@@ -195,7 +201,7 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelEvents
         JSONObject json = new JSONObject();
         jsonPut(json, "sdp", sdp.description);
         jsonPut(json, "type", "offer");
-        sendPostMessage(MessageType.MESSAGE, messageUrl, json.toString());
+        sendPostMessage(MessageType.MESSAGE, messageUrl, codec.encode(json));
         if (connectionParameters.loopback) {
           // In loopback mode rename this offer to answer and route it back.
           SessionDescription sdpAnswer = new SessionDescription(
@@ -219,7 +225,7 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelEvents
         JSONObject json = new JSONObject();
         jsonPut(json, "sdp", sdp.description);
         jsonPut(json, "type", "answer");
-        wsClient.send(json.toString());
+        wsClient.send(codec.encode(json));
       }
     });
   }
@@ -241,13 +247,13 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelEvents
             reportError("Sending ICE candidate in non connected state.");
             return;
           }
-          sendPostMessage(MessageType.MESSAGE, messageUrl, json.toString());
+          sendPostMessage(MessageType.MESSAGE, messageUrl, codec.encode(json));
           if (connectionParameters.loopback) {
             events.onRemoteIceCandidate(candidate);
           }
         } else {
           // Call receiver sends ice candidates to websocket server.
-          wsClient.send(json.toString());
+          wsClient.send(codec.encode(json));
         }
       }
     });
@@ -272,13 +278,13 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelEvents
             reportError("Sending ICE candidate removals in non connected state.");
             return;
           }
-          sendPostMessage(MessageType.MESSAGE, messageUrl, json.toString());
+          sendPostMessage(MessageType.MESSAGE, messageUrl, codec.encode(json));
           if (connectionParameters.loopback) {
             events.onRemoteIceCandidatesRemoved(candidates);
           }
         } else {
           // Call receiver sends ice candidates to websocket server.
-          wsClient.send(json.toString());
+          wsClient.send(codec.encode(json));
         }
       }
     });
@@ -299,7 +305,7 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelEvents
       String msgText = json.getString("msg");
       String errorText = json.optString("error");
       if (msgText.length() > 0) {
-        json = new JSONObject(msgText);
+        json = codec.decode(msgText);
         String type = json.optString("type");
         if (type.equals("candidate")) {
           events.onRemoteIceCandidate(toJavaCandidate(json));
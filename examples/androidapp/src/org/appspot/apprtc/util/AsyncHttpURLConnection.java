@@ -10,25 +10,55 @@
 
 package org.appspot.apprtc.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Asynchronous http requests implementation.
+ * Asynchronous http requests implementation. Requests run on a small thread pool shared by all
+ * instances, so independent requests are sent in parallel. Responses are read completely and
+ * connections are not disconnected, so that HttpURLConnection can reuse them for the next request
+ * to the same server.
  */
 public class AsyncHttpURLConnection {
   private static final int HTTP_TIMEOUT_MS = 8000;
   private static final String HTTP_ORIGIN = "https://appr.tc";
+  private static final int MAX_PARALLEL_REQUESTS = 4;
+  private static final int IDLE_THREAD_TIMEOUT_MS = 30000;
+  private static final int READ_CHUNK_SIZE = 8192;
+  // Larger response buffers are not kept for the next response.
+  private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+  private static final ThreadPoolExecutor executor = createExecutor();
+  private static final ThreadLocal<ResponseBuffer> responseBuffer =
+      new ThreadLocal<ResponseBuffer>() {
+        @Override
+        protected ResponseBuffer initialValue() {
+          return new ResponseBuffer();
+        }
+      };
+
   private final String method;
   private final String url;
   private final String message;
   private final AsyncHttpEvents events;
+  private final List<String[]> requestProperties = new ArrayList<>();
   private String contentType;
+  private int timeoutMs = HTTP_TIMEOUT_MS;
+
+  // Growable buffer that is reused for the responses read on one thread.
+  private static class ResponseBuffer extends ByteArrayOutputStream {
+    final byte[] chunk = new byte[READ_CHUNK_SIZE];
+  }
 
   /**
    * Http requests callbacks.
@@ -49,13 +79,58 @@ public class AsyncHttpURLConnection {
     this.contentType = contentType;
   }
 
+  public void addRequestProperty(String key, String value) {
+    requestProperties.add(new String[] {key, value});
+  }
+
+  /** Sets the connect and read timeout. The default is 8 seconds. */
+  public void setTimeout(int timeoutMs) {
+    this.timeoutMs = timeoutMs;
+  }
+
   public void send() {
-    new Thread(this ::sendHttpMessage).start();
+    executor.execute(this::sendHttpMessage);
+  }
+
+  /**
+   * Returns the contents of |in| as a UTF-8 string and closes it. Reads into a buffer that is
+   * reused by the following calls on the same thread.
+   */
+  public static String readResponse(InputStream in) throws IOException {
+    final ResponseBuffer buffer = responseBuffer.get();
+    buffer.reset();
+    try {
+      int bytesRead;
+      while ((bytesRead = in.read(buffer.chunk)) != -1) {
+        buffer.write(buffer.chunk, 0, bytesRead);
+      }
+    } finally {
+      in.close();
+    }
+    final String response = buffer.toString("UTF-8");
+    if (buffer.size() > MAX_RETAINED_BUFFER_SIZE) {
+      responseBuffer.remove();
+    }
+    return response;
+  }
+
+  private static ThreadPoolExecutor createExecutor() {
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL_REQUESTS,
+        MAX_PARALLEL_REQUESTS, IDLE_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), runnable -> {
+          final Thread thread = new Thread(runnable, "AsyncHttpURLConnection");
+          thread.setDaemon(true);
+          return thread;
+        });
+    // No threads are kept when there are no requests.
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   private void sendHttpMessage() {
+    HttpURLConnection connection = null;
     try {
-      HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+      connection = (HttpURLConnection) new URL(url).openConnection();
       byte[] postData = new byte[0];
       if (message != null) {
         postData = message.getBytes("UTF-8");
@@ -63,10 +138,13 @@ public class AsyncHttpURLConnection {
       connection.setRequestMethod(method);
       connection.setUseCaches(false);
       connection.setDoInput(true);
-      connection.setConnectTimeout(HTTP_TIMEOUT_MS);
-      connection.setReadTimeout(HTTP_TIMEOUT_MS);
+      connection.setConnectTimeout(timeoutMs);
+      connection.setReadTimeout(timeoutMs);
       // TODO(glaznev) - query request origin from pref_room_server_url_key preferences.
       connection.addRequestProperty("origin", HTTP_ORIGIN);
+      for (String[] property : requestProperties) {
+        connection.addRequestProperty(property[0], property[1]);
+      }
       boolean doOutput = false;
       if (method.equals("POST")) {
         doOutput = true;
@@ -86,29 +164,31 @@ public class AsyncHttpURLConnection {
         outStream.close();
       }
 
-      // Get response.
+      // Get response. The body is read to the end, also for errors, so that the connection
+      // can be reused.
       int responseCode = connection.getResponseCode();
       if (responseCode != 200) {
-        events.onHttpError("Non-200 response to " + method + " to URL: " + url + " : "
-            + connection.getHeaderField(null));
-        connection.disconnect();
+        final String statusLine = connection.getHeaderField(null);
+        final InputStream errorStream = connection.getErrorStream();
+        if (errorStream != null) {
+          readResponse(errorStream);
+        }
+        events.onHttpError(
+            "Non-200 response to " + method + " to URL: " + url + " : " + statusLine);
         return;
       }
-      InputStream responseStream = connection.getInputStream();
-      String response = drainStream(responseStream);
-      responseStream.close();
-      connection.disconnect();
+      String response = readResponse(connection.getInputStream());
       events.onHttpComplete(response);
     } catch (SocketTimeoutException e) {
+      if (connection != null) {
+        connection.disconnect();
+      }
       events.onHttpError("HTTP " + method + " to " + url + " timeout");
     } catch (IOException e) {
+      if (connection != null) {
+        connection.disconnect();
+      }
       events.onHttpError("HTTP " + method + " to " + url + " error: " + e.getMessage());
     }
   }
-
-  // Return the contents of an InputStream as a String.
-  private static String drainStream(InputStream in) {
-    Scanner s = new Scanner(in, "UTF-8").useDelimiter("\\A");
-    return s.hasNext() ? s.next() : "";
-  }
 }
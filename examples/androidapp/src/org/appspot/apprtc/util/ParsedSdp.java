@@ -0,0 +1,255 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mutable model of an SDP blob, split into session lines and media sections. Each media section
+ * indexes its a=rtpmap and a=fmtp lines by payload type, so that codec edits don't need to scan or
+ * match the whole SDP. Lines that are not edited are kept as they are, so parse() followed by
+ * toString() returns the original SDP with CRLF line endings. Not thread safe.
+ */
+public class ParsedSdp {
+  private static final String LINE_SEPARATOR = "\r\n";
+  private static final String MEDIA_PREFIX = "m=";
+  private static final String RTPMAP_PREFIX = "a=rtpmap:";
+  private static final String FMTP_PREFIX = "a=fmtp:";
+
+  private final List<String> sessionLines = new ArrayList<>();
+  private final List<MediaSection> mediaSections = new ArrayList<>();
+  private final int originalLength;
+
+  /** One m= line and the lines that follow it up to the next m= line. */
+  public static class MediaSection {
+    // The m= line, split into "m=<media> <port> <proto>" and the payload types. If the line is
+    // malformed, |mediaLineHeader| holds the whole line and there are no payload types.
+    private final String mediaLineHeader;
+    private final String media;
+    private final List<String> payloadTypes = new ArrayList<>();
+    private final List<String> lines = new ArrayList<>();
+    // Index in |lines| of the first a=rtpmap and a=fmtp line per payload type, in line order.
+    private final Map<String, Integer> rtpmapLines = new LinkedHashMap<>();
+    private final Map<String, Integer> fmtpLines = new HashMap<>();
+
+    private MediaSection(String mediaLine) {
+      final List<String> parts = split(mediaLine, ' ');
+      media = parts.get(0).substring(MEDIA_PREFIX.length());
+      // The format of the media description line should be: m=<media> <port> <proto> <fmt> ...
+      if (parts.size() <= 3) {
+        mediaLineHeader = mediaLine;
+        return;
+      }
+      mediaLineHeader = parts.get(0) + " " + parts.get(1) + " " + parts.get(2);
+      payloadTypes.addAll(parts.subList(3, parts.size()));
+    }
+
+    private void addLine(String line) {
+      lines.add(line);
+      indexLine(lines.size() - 1);
+    }
+
+    private void indexLine(int index) {
+      final String line = lines.get(index);
+      if (line.startsWith(RTPMAP_PREFIX)) {
+        putIfAbsent(rtpmapLines, getPayloadType(line, RTPMAP_PREFIX), index);
+      } else if (line.startsWith(FMTP_PREFIX)) {
+        putIfAbsent(fmtpLines, getPayloadType(line, FMTP_PREFIX), index);
+      }
+    }
+
+    /** Returns the media type, e.g. "audio" or "video". */
+    public String getMedia() {
+      return media;
+    }
+
+    /** Returns the payload types of the m= line, in order of preference. */
+    public List<String> getPayloadTypes() {
+      return Collections.unmodifiableList(payloadTypes);
+    }
+
+    /** Returns the payload types that a=rtpmap maps to |encodingName|, in line order. */
+    public List<String> findPayloadTypes(String encodingName) {
+      final List<String> result = new ArrayList<>();
+      for (Map.Entry<String, Integer> entry : rtpmapLines.entrySet()) {
+        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
+        final String line = lines.get(entry.getValue());
+        final int nameStart = RTPMAP_PREFIX.length() + entry.getKey().length() + 1;
+        if (line.startsWith(encodingName, nameStart)
+            && line.startsWith("/", nameStart + encodingName.length())) {
+          result.add(entry.getKey());
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Moves |preferredPayloadTypes| to the front of the m= line, in the given order. Payload types
+     * that are not in the m= line are ignored.
+     */
+    public void movePayloadTypesToFront(List<String> preferredPayloadTypes) {
+      final List<String> reordered = new ArrayList<>(payloadTypes.size());
+      for (String payloadType : preferredPayloadTypes) {
+        if (payloadTypes.contains(payloadType) && !reordered.contains(payloadType)) {
+          reordered.add(payloadType);
+        }
+      }
+      for (String payloadType : payloadTypes) {
+        if (!reordered.contains(payloadType)) {
+          reordered.add(payloadType);
+        }
+      }
+      payloadTypes.clear();
+      payloadTypes.addAll(reordered);
+    }
+
+    /** Returns the parameters of the a=fmtp line for |payloadType|, or null if there is none. */
+    @Nullable
+    public String getFmtpParameters(String payloadType) {
+      final Integer index = fmtpLines.get(payloadType);
+      if (index == null) {
+        return null;
+      }
+      final String line = lines.get(index);
+      final int parametersStart = FMTP_PREFIX.length() + payloadType.length() + 1;
+      return parametersStart <= line.length() ? line.substring(parametersStart) : "";
+    }
+
+    /**
+     * Sets the parameters of the a=fmtp line for |payloadType|. A missing line is added after the
+     * a=rtpmap line of the payload type, or at the end of the section.
+     */
+    public void setFmtpParameters(String payloadType, String parameters) {
+      final String line = FMTP_PREFIX + payloadType + " " + parameters;
+      final Integer index = fmtpLines.get(payloadType);
+      if (index != null) {
+        lines.set(index, line);
+        return;
+      }
+      final Integer rtpmapIndex = rtpmapLines.get(payloadType);
+      if (rtpmapIndex == null) {
+        addLine(line);
+        return;
+      }
+      lines.add(rtpmapIndex + 1, line);
+      // The following lines have moved, so the index of this section has to be rebuilt.
+      rtpmapLines.clear();
+      fmtpLines.clear();
+      for (int i = 0; i < lines.size(); ++i) {
+        indexLine(i);
+      }
+    }
+
+    private void appendTo(StringBuilder builder) {
+      builder.append(mediaLineHeader);
+      for (String payloadType : payloadTypes) {
+        builder.append(' ').append(payloadType);
+      }
+      builder.append(LINE_SEPARATOR);
+      for (String line : lines) {
+        builder.append(line).append(LINE_SEPARATOR);
+      }
+    }
+  }
+
+  private ParsedSdp(int originalLength) {
+    this.originalLength = originalLength;
+  }
+
+  /** Parses |sdp|. Lines may end with CRLF or LF. */
+  public static ParsedSdp parse(String sdp) {
+    final ParsedSdp parsedSdp = new ParsedSdp(sdp.length());
+    MediaSection currentSection = null;
+    int lineStart = 0;
+    while (lineStart < sdp.length()) {
+      int lineEnd = sdp.indexOf('\n', lineStart);
+      if (lineEnd == -1) {
+        lineEnd = sdp.length();
+      }
+      final int nextLineStart = lineEnd + 1;
+      if (lineEnd > lineStart && sdp.charAt(lineEnd - 1) == '\r') {
+        --lineEnd;
+      }
+      final String line = sdp.substring(lineStart, lineEnd);
+      lineStart = nextLineStart;
+      if (line.isEmpty()) {
+        continue;
+      }
+      if (line.startsWith(MEDIA_PREFIX)) {
+        currentSection = new MediaSection(line);
+        parsedSdp.mediaSections.add(currentSection);
+      } else if (currentSection != null) {
+        currentSection.addLine(line);
+      } else {
+        parsedSdp.sessionLines.add(line);
+      }
+    }
+    return parsedSdp;
+  }
+
+  public List<MediaSection> getMediaSections() {
+    return Collections.unmodifiableList(mediaSections);
+  }
+
+  /** Returns the first media section of type |media|, e.g. "audio", or null if there is none. */
+  @Nullable
+  public MediaSection findMediaSection(String media) {
+    for (MediaSection section : mediaSections) {
+      if (section.getMedia().equals(media)) {
+        return section;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the SDP with CRLF line endings. */
+  @Override
+  public String toString() {
+    // Edits usually change the length only slightly.
+    final StringBuilder builder = new StringBuilder(originalLength + 64);
+    for (String line : sessionLines) {
+      builder.append(line).append(LINE_SEPARATOR);
+    }
+    for (MediaSection section : mediaSections) {
+      section.appendTo(builder);
+    }
+    return builder.toString();
+  }
+
+  private static String getPayloadType(String line, String prefix) {
+    final int end = line.indexOf(' ', prefix.length());
+    return line.substring(prefix.length(), end == -1 ? line.length() : end);
+  }
+
+  private static void putIfAbsent(Map<String, Integer> map, String key, int value) {
+    if (!map.containsKey(key)) {
+      map.put(key, value);
+    }
+  }
+
+  private static List<String> split(String string, char separator) {
+    final List<String> parts = new ArrayList<>();
+    int start = 0;
+    int end;
+    while ((end = string.indexOf(separator, start)) != -1) {
+      parts.add(string.substring(start, end));
+      start = end + 1;
+    }
+    parts.add(string.substring(start));
+    return parts;
+  }
+}
@@ -0,0 +1,365 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+import android.util.Base64;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Encodes signaling messages either as JSON text or, once the remote peer has shown that it
+ * understands it, in a compact encoding.
+ *
+ * <p>A compact message is a binary frame, deflated with a preset dictionary of common SDP and
+ * candidate lines and then Base64 encoded, so that it can be carried by the text based signaling
+ * channels. SDP is framed as raw UTF-8 and candidates as length prefixed fields, without the JSON
+ * quoting and keys. Messages with keys that these frames can't hold are sent as a deflated JSON
+ * frame instead, so that the compact encoding never drops a key. Offers and answers sent as JSON advertise the compact encoding in
+ * |ENCODINGS_KEY|, which other clients ignore. A peer supports the compact encoding if one of
+ * its messages advertised it or was compact itself, so peers that never advertise it, like
+ * browsers, are always sent JSON. Both encodings are always decoded.
+ *
+ * <p>Not thread safe.
+ */
+public class SignalingCodec {
+  public static final String COMPACT_ENCODING = "deflate-sdp-1";
+  static final String ENCODINGS_KEY = "encodings";
+  // JSON messages always start with '{'.
+  static final String COMPACT_PREFIX = "Z";
+  // Larger messages are treated as a protocol error, so that a peer can't make us inflate
+  // arbitrary amounts of memory.
+  static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // Frame kinds, the first byte of a compact message.
+  private static final int KIND_JSON = 0;
+  private static final int KIND_DESCRIPTION = 1;
+  private static final int KIND_CANDIDATES = 2;
+
+  // The keys that the description and candidate frames can hold. Messages with other keys are
+  // sent in a JSON frame, so that nothing is lost.
+  private static final List<String> DESCRIPTION_KEYS = Arrays.asList("type", "sdp");
+  private static final List<String> CANDIDATE_MESSAGE_KEYS =
+      Arrays.asList("type", "label", "id", "candidate");
+  private static final List<String> CANDIDATES_MESSAGE_KEYS = Arrays.asList("type", "candidates");
+  private static final List<String> CANDIDATE_KEYS = Arrays.asList("label", "id", "candidate");
+
+  // Strings that are likely to occur in messages, with the most frequent ones last, where they
+  // are cheapest to refer to.
+  private static final byte[] DICTIONARY = ("{\"type\":\"bye\"}"
+      + "a=extmap-allow-mixed\r\na=msid-semantic: WMS\r\n"
+      + "a=rtpmap:0 PCMU/8000\r\na=rtpmap:8 PCMA/8000\r\na=rtpmap:9 G722/8000\r\n"
+      + "a=rtpmap:13 CN/8000\r\na=rtpmap:103 ISAC/16000\r\na=rtpmap:104 ISAC/32000\r\n"
+      + "a=rtpmap:106 CN/32000\r\na=rtpmap:105 CN/16000\r\na=rtpmap:110 telephone-event/48000\r\n"
+      + "a=rtpmap:126 telephone-event/8000\r\n"
+      + "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+      + "a=extmap:2 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+      + "a=extmap:3 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01\r\n"
+      + "a=extmap:4 urn:ietf:params:rtp-hdrext:sdes:mid\r\n"
+      + "a=extmap:5 urn:ietf:params:rtp-hdrext:sdes:rtp-stream-id\r\n"
+      + "a=extmap:6 urn:ietf:params:rtp-hdrext:sdes:repaired-rtp-stream-id\r\n"
+      + "a=extmap:14 urn:ietf:params:rtp-hdrext:toffset\r\n"
+      + "a=extmap:13 urn:3gpp:video-orientation\r\n"
+      + "a=extmap:12 http://www.webrtc.org/experiments/rtp-hdrext/playout-delay\r\n"
+      + "a=extmap:11 http://www.webrtc.org/experiments/rtp-hdrext/video-content-type\r\n"
+      + "a=extmap:7 http://www.webrtc.org/experiments/rtp-hdrext/video-timing\r\n"
+      + "a=extmap:8 http://www.webrtc.org/experiments/rtp-hdrext/color-space\r\n"
+      + "a=rtpmap:111 opus/48000/2\r\na=rtcp-fb:111 transport-cc\r\n"
+      + "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+      + "a=rtpmap:96 VP8/90000\r\na=rtpmap:98 VP9/90000\r\na=fmtp:98 profile-id=0\r\n"
+      + "a=rtpmap:100 VP9/90000\r\na=fmtp:100 profile-id=2\r\n"
+      + "a=rtpmap:102 H264/90000\r\n"
+      + "a=fmtp:102 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42001f\r\n"
+      + "a=rtpmap:127 H264/90000\r\n"
+      + "a=fmtp:127 level-asymmetry-allowed=1;packetization-mode=0;profile-level-id=42001f\r\n"
+      + "a=fmtp:125 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n"
+      + "a=fmtp:108 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=4d001f\r\n"
+      + "a=rtpmap:35 AV1X/90000\r\na=rtpmap:116 red/90000\r\na=rtpmap:117 ulpfec/90000\r\n"
+      + "a=rtpmap:97 rtx/90000\r\na=fmtp:97 apt=96\r\na=rtpmap:99 rtx/90000\r\na=fmtp:99 apt=98\r\n"
+      + "a=rtcp-fb:96 goog-remb\r\na=rtcp-fb:96 transport-cc\r\na=rtcp-fb:96 ccm fir\r\n"
+      + "a=rtcp-fb:96 nack\r\na=rtcp-fb:96 nack pli\r\n"
+      + "a=ssrc-group:FID \r\n"
+      + "m=application 9 UDP/DTLS/SCTP webrtc-datachannel\r\na=sctp-port:5000\r\n"
+      + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 110 112 113 126\r\n"
+      + "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 102 121 127 120 125 107 108 109\r\n"
+      + "v=0\r\no=- 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\na=group:BUNDLE 0 1\r\n"
+      + "c=IN IP4 0.0.0.0\r\na=rtcp:9 IN IP4 0.0.0.0\r\n"
+      + "a=fingerprint:sha-256 \r\na=ice-options:trickle\r\na=setup:actpass\r\n"
+      + "a=ice-ufrag:\r\na=ice-pwd:\r\na=rtcp-mux\r\na=rtcp-rsize\r\n"
+      + "a=sendrecv\r\na=sendonly\r\na=recvonly\r\na=inactive\r\na=mid:\r\na=msid:\r\n"
+      + "a=ssrc: cname:\r\na=ssrc: msid:\r\na=ssrc: mslabel:\r\na=ssrc: label:\r\n"
+      + "candidate: 1 udp 2122260223 192.168.1.2 typ host generation 0 ufrag network-id 1"
+      + "candidate: 1 tcp 1518280447 192.168.1.2 9 typ host tcptype active generation 0 ufrag"
+      + " network-id 1 network-cost 10"
+      + "candidate: 1 udp 1686052607 typ srflx raddr rport generation 0 ufrag network-id 1"
+      + "candidate: 1 udp 41885439 typ relay raddr rport generation 0 ufrag network-id 1"
+      + "\"},{\"label\":0,\"id\":\"0\",\"candidate\":\"candidate:"
+      + "{\"sdp\":\"v=0\\r\\n\",\"type\":\"offer\"}{\"sdp\":\"v=0\\r\\n\",\"type\":\"answer\"}")
+      .getBytes(UTF_8);
+
+  private final boolean compactEncodingEnabled;
+  private boolean remoteSupportsCompactEncoding;
+
+  /**
+   * Creates a codec for one signaling session. If |compactEncodingEnabled| is false, messages
+   * are always sent as JSON and the compact encoding is not advertised.
+   */
+  public SignalingCodec(boolean compactEncodingEnabled) {
+    this.compactEncodingEnabled = compactEncodingEnabled;
+  }
+
+  /** Returns true if messages are sent in the compact encoding. */
+  public boolean isCompactEncodingNegotiated() {
+    return compactEncodingEnabled && remoteSupportsCompactEncoding;
+  }
+
+  /**
+   * Returns the message to send for |json|. Offers and answers sent as JSON get the compact
+   * encoding advertised in |json|.
+   */
+  public String encode(JSONObject json) {
+    if (isCompactEncodingNegotiated()) {
+      try {
+        return encodeCompact(json);
+      } catch (JSONException e) {
+        // Not a well formed message of its type; leave it to the remote peer to report it.
+      }
+    }
+    final String type = json.optString("type");
+    if (compactEncodingEnabled && (type.equals("offer") || type.equals("answer"))) {
+      try {
+        json.put(ENCODINGS_KEY, new JSONArray().put(COMPACT_ENCODING));
+      } catch (JSONException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return json.toString();
+  }
+
+  /** Returns the JSON form of |message|, which may be in either encoding. */
+  public JSONObject decode(String message) throws JSONException {
+    if (message.startsWith(COMPACT_PREFIX)) {
+      final JSONObject json = decodeCompact(message);
+      remoteSupportsCompactEncoding = true;
+      return json;
+    }
+    final JSONObject json = new JSONObject(message);
+    final JSONArray encodings = json.optJSONArray(ENCODINGS_KEY);
+    if (encodings != null) {
+      for (int i = 0; i < encodings.length(); ++i) {
+        if (COMPACT_ENCODING.equals(encodings.optString(i))) {
+          remoteSupportsCompactEncoding = true;
+        }
+      }
+      json.remove(ENCODINGS_KEY);
+    }
+    return json;
+  }
+
+  /** Returns |json| in the compact encoding. */
+  static String encodeCompact(JSONObject json) throws JSONException {
+    final String type = json.optString("type");
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      if ((type.equals("offer") || type.equals("answer")) && hasOnlyKeys(json, DESCRIPTION_KEYS)
+          && json.opt("sdp") instanceof String) {
+        out.writeByte(KIND_DESCRIPTION);
+        out.writeUTF(type);
+        writeBytes(out, json.getString("sdp").getBytes(UTF_8));
+      } else if (type.equals("candidate") && hasOnlyKeys(json, CANDIDATE_MESSAGE_KEYS)
+          && isCandidate(json)) {
+        out.writeByte(KIND_CANDIDATES);
+        out.writeUTF(type);
+        out.writeShort(1);
+        writeCandidate(out, json);
+      } else if ((type.equals("candidates") || type.equals("remove-candidates"))
+          && hasOnlyKeys(json, CANDIDATES_MESSAGE_KEYS) && isCandidateArray(json)) {
+        final JSONArray candidates = json.getJSONArray("candidates");
+        out.writeByte(KIND_CANDIDATES);
+        out.writeUTF(type);
+        out.writeShort(candidates.length());
+        for (int i = 0; i < candidates.length(); ++i) {
+          writeCandidate(out, candidates.getJSONObject(i));
+        }
+      } else {
+        out.writeByte(KIND_JSON);
+        writeBytes(out, json.toString().getBytes(UTF_8));
+      }
+      out.flush();
+    } catch (IOException e) {
+      // Writes to a ByteArrayOutputStream don't fail, but writeUTF() rejects long strings.
+      throw new JSONException("Can't encode message: " + e.getMessage());
+    }
+    return COMPACT_PREFIX + Base64.encodeToString(deflate(bytes.toByteArray()), Base64.NO_WRAP);
+  }
+
+  /** Returns the JSON form of the compact |message|. */
+  static JSONObject decodeCompact(String message) throws JSONException {
+    try {
+      final byte[] frame =
+          inflate(Base64.decode(message.substring(COMPACT_PREFIX.length()), Base64.NO_WRAP));
+      final DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+      final int kind = in.readUnsignedByte();
+      if (kind == KIND_JSON) {
+        return new JSONObject(new String(readBytes(in), UTF_8));
+      }
+      final JSONObject json = new JSONObject();
+      final String type = in.readUTF();
+      json.put("type", type);
+      if (kind == KIND_DESCRIPTION) {
+        json.put("sdp", new String(readBytes(in), UTF_8));
+      } else if (kind == KIND_CANDIDATES) {
+        final int count = in.readUnsignedShort();
+        if (type.equals("candidate")) {
+          if (count != 1) {
+            throw new JSONException("Invalid candidate count: " + count);
+          }
+          readCandidate(in, json);
+        } else {
+          final JSONArray candidates = new JSONArray();
+          for (int i = 0; i < count; ++i) {
+            candidates.put(readCandidate(in, new JSONObject()));
+          }
+          json.put("candidates", candidates);
+        }
+      } else {
+        throw new JSONException("Unknown compact message kind: " + kind);
+      }
+      return json;
+    } catch (IOException | DataFormatException | IllegalArgumentException e) {
+      throw new JSONException("Invalid compact message: " + e.toString());
+    }
+  }
+
+  // Returns true if all keys of |json| are in |keys|.
+  private static boolean hasOnlyKeys(JSONObject json, List<String> keys) {
+    final Iterator<String> it = json.keys();
+    while (it.hasNext()) {
+      if (!keys.contains(it.next())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Returns true if |candidate| is written by writeCandidate() without changing its value.
+  private static boolean isCandidate(JSONObject candidate) {
+    final Object label = candidate.opt("label");
+    return (label instanceof Integer) && (Integer) label >= 0 && (Integer) label <= 0xFFFF
+        && candidate.opt("id") instanceof String && candidate.opt("candidate") instanceof String;
+  }
+
+  // Returns true if the "candidates" array of |json| fits the candidates frame.
+  private static boolean isCandidateArray(JSONObject json) {
+    final JSONArray candidates = json.optJSONArray("candidates");
+    if (candidates == null || candidates.length() > 0xFFFF) {
+      return false;
+    }
+    for (int i = 0; i < candidates.length(); ++i) {
+      final JSONObject candidate = candidates.optJSONObject(i);
+      if (candidate == null || !hasOnlyKeys(candidate, CANDIDATE_KEYS)
+          || !isCandidate(candidate)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void writeCandidate(DataOutputStream out, JSONObject candidate)
+      throws IOException, JSONException {
+    out.writeShort(candidate.getInt("label"));
+    out.writeUTF(candidate.getString("id"));
+    out.writeUTF(candidate.getString("candidate"));
+  }
+
+  private static JSONObject readCandidate(DataInputStream in, JSONObject candidate)
+      throws IOException, JSONException {
+    candidate.put("label", in.readUnsignedShort());
+    candidate.put("id", in.readUTF());
+    candidate.put("candidate", in.readUTF());
+    return candidate;
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0 || length > in.available()) {
+      throw new IOException("Invalid length: " + length);
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static byte[] deflate(byte[] input) {
+    final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      deflater.setDictionary(DICTIONARY);
+      deflater.setInput(input);
+      deflater.finish();
+      final ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 64);
+      final byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        output.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return output.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] input) throws DataFormatException {
+    final Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(input);
+      final ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 4);
+      final byte[] buffer = new byte[4096];
+      while (!inflater.finished()) {
+        final int length = inflater.inflate(buffer);
+        if (length == 0) {
+          if (inflater.needsDictionary()) {
+            inflater.setDictionary(DICTIONARY);
+            continue;
+          }
+          if (inflater.needsInput()) {
+            throw new DataFormatException("Truncated message");
+          }
+        }
+        output.write(buffer, 0, length);
+        if (output.size() > MAX_MESSAGE_SIZE) {
+          throw new DataFormatException("Message too large");
+        }
+      }
+      return output.toByteArray();
+    } finally {
+      inflater.end();
+    }
+  }
+}
@@ -10,16 +10,27 @@
 
 package org.appspot.apprtc;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.isNotNull;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.chromium.testing.local.LocalRobolectricTestRunner;
 import org.junit.Before;
 import org.junit.Test;
@@ -36,6 +47,7 @@ import org.webrtc.SessionDescription;
 @RunWith(LocalRobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
 public class DirectRTCClientTest {
+  private static final String TAG = "DirectRTCClientTest";
   private static final String ROOM_URL = "";
   private static final boolean LOOPBACK = false;
 
@@ -110,10 +122,7 @@ public class DirectRTCClientTest {
     }
   }
 
-  // TODO(sakal): Replace isNotNull(class) with isNotNull() once Java 8 is used.
-  @SuppressWarnings("deprecation")
-  @Test
-  public void testDirectRTCClient() {
+  private void connectAndSendOffer() {
     server.connectToRoom(new AppRTCClient.RoomConnectionParameters(ROOM_URL, "0.0.0.0", LOOPBACK));
     try {
       Thread.sleep(SERVER_WAIT);
@@ -129,12 +138,25 @@ public class DirectRTCClientTest {
     server.sendOfferSdp(offerSdp);
     verify(clientEvents, timeout(NETWORK_TIMEOUT))
         .onConnectedToRoom(any(AppRTCClient.SignalingParameters.class));
+  }
+
+  // TODO(sakal): Replace isNotNull(class) with isNotNull() once Java 8 is used.
+  @SuppressWarnings("deprecation")
+  private void connectAndExchangeSdp() {
+    connectAndSendOffer();
 
     SessionDescription answerSdp =
         new SessionDescription(SessionDescription.Type.ANSWER, DUMMY_SDP);
     client.sendAnswerSdp(answerSdp);
     verify(serverEvents, timeout(NETWORK_TIMEOUT))
         .onRemoteDescription(isNotNull(SessionDescription.class));
+  }
+
+  // TODO(sakal): Replace isNotNull(class) with isNotNull() once Java 8 is used.
+  @SuppressWarnings("deprecation")
+  @Test
+  public void testDirectRTCClient() {
+    connectAndExchangeSdp();
 
     IceCandidate candidate = new IceCandidate(DUMMY_SDP_MID, 0, DUMMY_SDP);
     server.sendLocalIceCandidate(candidate);
@@ -152,4 +174,74 @@ public class DirectRTCClientTest {
     verifyNoMoreInteractions(clientEvents);
     verifyNoMoreInteractions(serverEvents);
   }
+
+  @Test
+  public void testIceCandidatesAreBatched() throws InterruptedException {
+    final int candidateCount = 50;
+    final CountDownLatch allCandidatesReceived = new CountDownLatch(candidateCount);
+    final AtomicInteger messageCount = new AtomicInteger();
+    final List<String> receivedSdps = Collections.synchronizedList(new ArrayList<>());
+    doAnswer(invocation -> {
+      messageCount.incrementAndGet();
+      receivedSdps.add(invocation.<IceCandidate>getArgument(0).sdp);
+      allCandidatesReceived.countDown();
+      return null;
+    })
+        .when(clientEvents)
+        .onRemoteIceCandidate(any());
+    doAnswer(invocation -> {
+      messageCount.incrementAndGet();
+      for (IceCandidate candidate : invocation.<IceCandidate[]>getArgument(0)) {
+        receivedSdps.add(candidate.sdp);
+        allCandidatesReceived.countDown();
+      }
+      return null;
+    })
+        .when(clientEvents)
+        .onRemoteIceCandidates(any());
+    // The client announces in its answer, which is compact because the server's offer advertised
+    // the compact encoding, that it accepts batches.
+    connectAndExchangeSdp();
+
+    final long startTimeMs = System.currentTimeMillis();
+    for (int i = 0; i < candidateCount; ++i) {
+      server.sendLocalIceCandidate(new IceCandidate(DUMMY_SDP_MID, 0, DUMMY_SDP + i));
+    }
+    assertTrue(allCandidatesReceived.await(NETWORK_TIMEOUT, TimeUnit.MILLISECONDS));
+    final long elapsedTimeMs = System.currentTimeMillis() - startTimeMs;
+
+    Log.d(TAG, candidateCount + " candidates took " + messageCount.get() + " messages and "
+            + elapsedTimeMs + " ms.");
+    // How the candidates are split into messages depends on timing, but each one arrives once and
+    // in order.
+    assertEquals(candidateCount, receivedSdps.size());
+    for (int i = 0; i < candidateCount; ++i) {
+      assertEquals(DUMMY_SDP + i, receivedSdps.get(i));
+    }
+    verify(clientEvents, atLeastOnce()).onRemoteIceCandidates(any());
+    assertTrue(messageCount.get() < candidateCount);
+
+    client.disconnectFromRoom();
+    verify(serverEvents, timeout(NETWORK_TIMEOUT)).onChannelClose();
+  }
+
+  // TODO(sakal): Replace isNotNull(class) with isNotNull() once Java 8 is used.
+  @SuppressWarnings("deprecation")
+  @Test
+  public void testIceCandidatesAreSentSeparatelyUntilBatchesAreAccepted() {
+    connectAndSendOffer();
+
+    // The server has not received the answer, so it does not know whether the client accepts
+    // "candidates" messages.
+    final int candidateCount = 5;
+    for (int i = 0; i < candidateCount; ++i) {
+      server.sendLocalIceCandidate(new IceCandidate(DUMMY_SDP_MID, 0, DUMMY_SDP + i));
+    }
+    verify(clientEvents, timeout(NETWORK_TIMEOUT).times(candidateCount))
+        .onRemoteIceCandidate(isNotNull(IceCandidate.class));
+    verify(clientEvents, never()).onRemoteIceCandidates(any());
+
+    client.disconnectFromRoom();
+    verify(serverEvents, timeout(NETWORK_TIMEOUT)).onChannelClose();
+  }
 }
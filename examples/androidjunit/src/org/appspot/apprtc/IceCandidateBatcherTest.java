@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.webrtc.IceCandidate;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class IceCandidateBatcherTest {
+  private static final long WINDOW_MS = 50;
+  private static final int MAX_BATCH_SIZE = 3;
+  private static final int TIMEOUT_MS = 1000;
+
+  private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+  private ScheduledExecutorService executor;
+  private IceCandidateBatcher batcher;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadScheduledExecutor();
+    batcher = new IceCandidateBatcher(
+        executor, WINDOW_MS, MAX_BATCH_SIZE, candidates -> batchSizes.add(candidates.size()));
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    executor.shutdownNow();
+    assertTrue(executor.awaitTermination(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+  }
+
+  // Runs |runnable| on the batcher thread and waits for it.
+  private void runOnExecutor(Runnable runnable) throws InterruptedException, ExecutionException {
+    executor.submit(runnable).get();
+  }
+
+  private void addCandidates(int count) throws InterruptedException, ExecutionException {
+    runOnExecutor(() -> {
+      for (int i = 0; i < count; ++i) {
+        batcher.add(new IceCandidate("audio", 0, "candidate:" + i));
+      }
+    });
+  }
+
+  @Test
+  public void testFullBatchIsSentImmediately() throws Exception {
+    addCandidates(7);
+
+    assertEquals(Arrays.asList(3, 3), batchSizes);
+  }
+
+  @Test
+  public void testPartialBatchIsSentAfterWindow() throws Exception {
+    addCandidates(2);
+    assertEquals(Collections.emptyList(), batchSizes);
+
+    Thread.sleep(WINDOW_MS + TIMEOUT_MS / 10);
+    runOnExecutor(() -> {});
+
+    assertEquals(Collections.singletonList(2), batchSizes);
+  }
+
+  @Test
+  public void testFlush() throws Exception {
+    addCandidates(2);
+    runOnExecutor(batcher::flush);
+    runOnExecutor(batcher::flush);
+
+    assertEquals(Collections.singletonList(2), batchSizes);
+  }
+
+  @Test
+  public void testClearDropsPendingCandidates() throws Exception {
+    addCandidates(2);
+    runOnExecutor(batcher::clear);
+
+    Thread.sleep(2 * WINDOW_MS);
+    runOnExecutor(() -> {});
+
+    assertEquals(Collections.emptyList(), batchSizes);
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class NioTCPChannelClientTest {
+  private static final int PORT = 8889;
+  private static final int SECOND_PORT = 8890;
+  // How long we wait before trying to connect to the server.
+  private static final int SERVER_WAIT = 300;
+  private static final int CONNECT_TIMEOUT = 1000;
+  private static final int SEND_TIMEOUT = 1000;
+  private static final int DISCONNECT_TIMEOUT = 1000;
+  private static final int TERMINATION_TIMEOUT = 1000;
+  private static final String TEST_MESSAGE_SERVER = "Hello, Server!";
+  private static final String TEST_MESSAGE_CLIENT = "Hello, Client!";
+
+  @Mock TCPChannelClient.TCPChannelEvents serverEvents;
+  @Mock TCPChannelClient.TCPChannelEvents clientEvents;
+  @Mock TCPChannelClient.TCPChannelEvents secondServerEvents;
+  @Mock TCPChannelClient.TCPChannelEvents secondClientEvents;
+
+  private ExecutorService executor;
+  private NioTCPChannelClient server;
+  private NioTCPChannelClient client;
+
+  @Before
+  public void setUp() {
+    ShadowLog.stream = System.out;
+
+    MockitoAnnotations.initMocks(this);
+
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    verifyNoMoreInteractions(serverEvents);
+    verifyNoMoreInteractions(clientEvents);
+
+    executeAndWait(() -> {
+      if (client != null) {
+        client.disconnect();
+      }
+      if (server != null) {
+        server.disconnect();
+      }
+    });
+
+    executor.shutdown();
+    try {
+      executor.awaitTermination(TERMINATION_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      fail(e.getMessage());
+    }
+  }
+
+  @Test
+  public void testConnectIPv4() {
+    server = connect(serverEvents, "0.0.0.0", PORT);
+    waitForServer();
+    client = connect(clientEvents, "127.0.0.1", PORT);
+
+    verify(serverEvents, timeout(CONNECT_TIMEOUT)).onTCPConnected(true);
+    verify(clientEvents, timeout(CONNECT_TIMEOUT)).onTCPConnected(false);
+  }
+
+  @Test
+  public void testConnectIPv6() {
+    server = connect(serverEvents, "::", PORT);
+    waitForServer();
+    client = connect(clientEvents, "::1", PORT);
+
+    verify(serverEvents, timeout(CONNECT_TIMEOUT)).onTCPConnected(true);
+    verify(clientEvents, timeout(CONNECT_TIMEOUT)).onTCPConnected(false);
+  }
+
+  @Test
+  public void testSendData() {
+    testConnectIPv4();
+
+    executeAndWait(() -> {
+      client.send(TEST_MESSAGE_SERVER);
+      server.send(TEST_MESSAGE_CLIENT);
+    });
+
+    verify(serverEvents, timeout(SEND_TIMEOUT)).onTCPMessage(TEST_MESSAGE_SERVER);
+    verify(clientEvents, timeout(SEND_TIMEOUT)).onTCPMessage(TEST_MESSAGE_CLIENT);
+  }
+
+  @Test
+  public void testMessagesAreNotLineFramed() {
+    testConnectIPv4();
+    final StringBuilder sdp = new StringBuilder();
+    while (sdp.length() < 100 * 1024) {
+      sdp.append("a=candidate:1 1 udp 2122260223 192.168.1.2 54321 typ host\r\n");
+    }
+    final String largeMessage = sdp.toString();
+
+    executeAndWait(() -> {
+      client.send("first line\nsecond line");
+      client.send("");
+      client.send(largeMessage);
+    });
+
+    verify(serverEvents, timeout(SEND_TIMEOUT)).onTCPMessage(largeMessage);
+    final InOrder inOrder = inOrder(serverEvents);
+    inOrder.verify(serverEvents).onTCPMessage("first line\nsecond line");
+    inOrder.verify(serverEvents).onTCPMessage("");
+    inOrder.verify(serverEvents).onTCPMessage(largeMessage);
+  }
+
+  @Test
+  public void testCoalescedMessagesKeepOrder() {
+    testConnectIPv4();
+
+    executeAndWait(() -> {
+      for (int i = 0; i < 100; ++i) {
+        client.send("message " + i);
+      }
+    });
+
+    verify(serverEvents, timeout(SEND_TIMEOUT)).onTCPMessage("message 99");
+    final InOrder inOrder = inOrder(serverEvents);
+    for (int i = 0; i < 100; ++i) {
+      inOrder.verify(serverEvents).onTCPMessage("message " + i);
+    }
+  }
+
+  @Test
+  public void testConcurrentChannels() {
+    testConnectIPv4();
+    final NioTCPChannelClient secondServer = connect(secondServerEvents, "0.0.0.0", SECOND_PORT);
+    waitForServer();
+    final NioTCPChannelClient secondClient =
+        connect(secondClientEvents, "127.0.0.1", SECOND_PORT);
+    verify(secondServerEvents, timeout(CONNECT_TIMEOUT)).onTCPConnected(true);
+    verify(secondClientEvents, timeout(CONNECT_TIMEOUT)).onTCPConnected(false);
+
+    executeAndWait(() -> {
+      client.send(TEST_MESSAGE_SERVER);
+      secondClient.send(TEST_MESSAGE_SERVER);
+      secondClient.disconnect();
+    });
+
+    verify(serverEvents, timeout(SEND_TIMEOUT)).onTCPMessage(TEST_MESSAGE_SERVER);
+    verify(secondServerEvents, timeout(SEND_TIMEOUT)).onTCPMessage(TEST_MESSAGE_SERVER);
+    verify(secondServerEvents, timeout(DISCONNECT_TIMEOUT)).onTCPClose();
+    verify(secondClientEvents, timeout(DISCONNECT_TIMEOUT)).onTCPClose();
+    executeAndWait(secondServer::disconnect);
+  }
+
+  @Test
+  public void testDisconnectServer() {
+    testConnectIPv4();
+    executeAndWait(() -> server.disconnect());
+
+    verify(serverEvents, timeout(DISCONNECT_TIMEOUT)).onTCPClose();
+    verify(clientEvents, timeout(DISCONNECT_TIMEOUT)).onTCPClose();
+  }
+
+  @Test
+  public void testDisconnectClient() {
+    testConnectIPv4();
+    executeAndWait(() -> client.disconnect());
+
+    verify(serverEvents, timeout(DISCONNECT_TIMEOUT)).onTCPClose();
+    verify(clientEvents, timeout(DISCONNECT_TIMEOUT)).onTCPClose();
+  }
+
+  @Test
+  public void testPeerResetWithPendingWrites() throws IOException {
+    final ServerSocket peerServer =
+        new ServerSocket(SECOND_PORT, 0, InetAddress.getByName("127.0.0.1"));
+    final NioTCPChannelClient resetClient = connect(secondClientEvents, "127.0.0.1", SECOND_PORT);
+    final Socket peer = peerServer.accept();
+    peerServer.close();
+    verify(secondClientEvents, timeout(CONNECT_TIMEOUT)).onTCPConnected(false);
+
+    // The peer doesn't read, so most of this stays pending once the socket buffers are full.
+    final String largeMessage = new String(new char[NioTCPChannelClient.MAX_MESSAGE_SIZE]);
+    executeAndWait(() -> {
+      for (int i = 0; i < 16; ++i) {
+        resetClient.send(largeMessage);
+      }
+    });
+    waitForServer();
+    // Closing with unread data and a zero linger timeout resets the connection.
+    peer.setSoLinger(true, 0);
+    peer.close();
+
+    verify(secondClientEvents, timeout(DISCONNECT_TIMEOUT).atLeastOnce()).onTCPError(anyString());
+    verify(secondClientEvents, timeout(DISCONNECT_TIMEOUT)).onTCPClose();
+    // The shared I/O thread still serves other channels.
+    testSendData();
+  }
+
+  private NioTCPChannelClient connect(
+      TCPChannelClient.TCPChannelEvents events, String ip, int port) {
+    return new NioTCPChannelClient(executor, events, ip, port);
+  }
+
+  private static void waitForServer() {
+    try {
+      Thread.sleep(SERVER_WAIT);
+    } catch (InterruptedException e) {
+      fail(e.getMessage());
+    }
+  }
+
+  /**
+   * Queues runnable to be run and waits for it to be executed by the executor thread
+   */
+  private void executeAndWait(Runnable runnable) {
+    try {
+      executor.submit(runnable).get();
+    } catch (Exception e) {
+      fail(e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,424 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.appspot.apprtc.AppRTCClient.SignalingParameters;
+import org.appspot.apprtc.util.SignalingCodec;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+import org.webrtc.PeerConnection;
+
+/** Joins a room served by a loopback HTTP server that stands in for the room and TURN servers. */
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RoomParametersFetcherTest {
+  private static final String TAG = "RoomParametersFetcherTest";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int TIMEOUT_MS = 5000;
+  private static final String TURN_URL = "turn:192.168.1.2:3478?transport=udp";
+  private static final String TURN_RESPONSE = "{\"iceServers\": [{\"urls\": [\"" + TURN_URL
+      + "\"], \"username\": \"user\", \"credential\": \"password\"}]}";
+
+  private static final long TURN_LIFETIME_MS = TimeUnit.MINUTES.toMillis(10);
+  private static final String EXPIRING_TURN_RESPONSE =
+      TURN_RESPONSE.substring(0, TURN_RESPONSE.length() - 1) + ", \"lifetimeDuration\": \""
+      + TimeUnit.MILLISECONDS.toSeconds(TURN_LIFETIME_MS) + "s\"}";
+
+  private FakeHttpServer server;
+  private FakeScheduler scheduler;
+  private IceServerCache iceServerCache;
+
+  /** Manually advanced clock; scheduled tasks are run by the test. */
+  private static class FakeScheduler implements IceServerCache.Scheduler {
+    static class Task {
+      final long dueTimeMs;
+      final FutureTask<?> future;
+
+      Task(long dueTimeMs, Runnable runnable) {
+        this.dueTimeMs = dueTimeMs;
+        this.future = new FutureTask<>(runnable, null);
+      }
+    }
+
+    final BlockingQueue<Task> tasks = new LinkedBlockingQueue<>();
+    volatile long nowMs;
+
+    @Override
+    public long currentTimeMillis() {
+      return nowMs;
+    }
+
+    @Override
+    public Future<?> schedule(Runnable runnable, long delayMs) {
+      final Task task = new Task(nowMs + delayMs, runnable);
+      tasks.add(task);
+      return task.future;
+    }
+
+    /** Waits for the next scheduled task, advances the clock to its due time and runs it. */
+    long runNextTask() throws InterruptedException {
+      final Task task = tasks.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      assertTrue(task != null);
+      nowMs = task.dueTimeMs;
+      task.future.run();
+      return task.dueTimeMs;
+    }
+  }
+
+  /** Minimal HTTP/1.1 server with keep-alive that answers the join and TURN requests. */
+  private static class FakeHttpServer implements Runnable {
+    final ServerSocket serverSocket;
+    final AtomicInteger connectionCount = new AtomicInteger();
+    final AtomicInteger requestCount = new AtomicInteger();
+    final AtomicInteger turnRequestCount = new AtomicInteger();
+    volatile int turnStatus = 200;
+    volatile String turnResponse = TURN_RESPONSE;
+    // JSON array of the messages left in the room, or null to join as the initiator.
+    volatile String messages;
+
+    FakeHttpServer() throws IOException {
+      serverSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+      new Thread(this, "FakeHttpServer").start();
+    }
+
+    String getUrl(String path) {
+      return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    String getJoinResponse() {
+      final String pcConfig = "{\\\"iceServers\\\": []}";
+      final String participant = (messages == null)
+          ? "\"is_initiator\": true"
+          : "\"is_initiator\": false, \"messages\": " + JSONObject.quote(messages);
+      return "{\"result\": \"SUCCESS\", \"params\": {\"room_id\": \"room\", "
+          + "\"client_id\": \"client\", \"wss_url\": \"wss://127.0.0.1/ws\", "
+          + "\"wss_post_url\": \"https://127.0.0.1\", " + participant + ", "
+          + "\"pc_config\": \"" + pcConfig + "\", \"ice_server_url\": \"" + getUrl("/turn")
+          + "\"}}";
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        final Socket socket;
+        try {
+          socket = serverSocket.accept();
+        } catch (IOException e) {
+          return;
+        }
+        connectionCount.incrementAndGet();
+        new Thread(() -> serve(socket)).start();
+      }
+    }
+
+    private void serve(Socket socket) {
+      try {
+        final InputStream in = new BufferedInputStream(socket.getInputStream());
+        final OutputStream out = socket.getOutputStream();
+        String requestLine;
+        while ((requestLine = readLine(in)) != null) {
+          int contentLength = 0;
+          String header;
+          while ((header = readLine(in)) != null && !header.isEmpty()) {
+            if (header.toLowerCase().startsWith("content-length:")) {
+              contentLength = Integer.parseInt(header.substring(15).trim());
+            }
+          }
+          for (int i = 0; i < contentLength; ++i) {
+            in.read();
+          }
+          requestCount.incrementAndGet();
+          if (requestLine.contains(" /turn ")) {
+            turnRequestCount.incrementAndGet();
+            respond(out, turnStatus, turnResponse);
+          } else {
+            respond(out, 200, getJoinResponse());
+          }
+        }
+        socket.close();
+      } catch (IOException e) {
+        // The client closed the connection.
+      }
+    }
+
+    private static void respond(OutputStream out, int status, String body) throws IOException {
+      final byte[] bodyBytes = body.getBytes(UTF_8);
+      out.write(("HTTP/1.1 " + status + " Status\r\nContent-Type: application/json\r\n"
+                    + "Content-Length: " + bodyBytes.length + "\r\n\r\n")
+                    .getBytes(UTF_8));
+      out.write(bodyBytes);
+      out.flush();
+    }
+
+    @Nullable
+    private static String readLine(InputStream in) throws IOException {
+      final ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int c;
+      while ((c = in.read()) != '\n') {
+        if (c == -1) {
+          return null;
+        }
+        if (c != '\r') {
+          line.write(c);
+        }
+      }
+      return line.toString("UTF-8");
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+
+  private static class JoinResult implements RoomParametersFetcher.RoomParametersFetcherEvents {
+    final CountDownLatch done = new CountDownLatch(1);
+    @Nullable volatile SignalingParameters params;
+    @Nullable volatile String error;
+
+    @Override
+    public void onSignalingParametersReady(SignalingParameters params) {
+      this.params = params;
+      done.countDown();
+    }
+
+    @Override
+    public void onSignalingParametersError(String description) {
+      error = description;
+      done.countDown();
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    ShadowLog.stream = System.out;
+    server = new FakeHttpServer();
+    scheduler = new FakeScheduler();
+    iceServerCache = new IceServerCache(scheduler);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    iceServerCache.clear();
+    server.close();
+  }
+
+  private JoinResult join() throws InterruptedException {
+    return join(new SignalingCodec(/* compactEncodingEnabled= */ false));
+  }
+
+  private JoinResult join(SignalingCodec codec) throws InterruptedException {
+    final JoinResult result = new JoinResult();
+    new RoomParametersFetcher(server.getUrl("/join/room"), null, result, codec, iceServerCache)
+        .makeRequest();
+    assertTrue(result.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    return result;
+  }
+
+  @Test
+  public void testJoinAddsTurnServers() throws InterruptedException {
+    final JoinResult result = join();
+
+    assertNull(result.error);
+    assertTrue(result.params.initiator);
+    assertEquals("client", result.params.clientId);
+    assertEquals(1, result.params.iceServers.size());
+    assertEquals(TURN_URL, result.params.iceServers.get(0).urls.get(0));
+    assertEquals("user", result.params.iceServers.get(0).username);
+  }
+
+  @Test
+  public void testRoomMessagesAreDecodedWithCodec() throws InterruptedException, JSONException {
+    final String sdp = "v=0\r\n";
+    final String candidate = "candidate:1 1 udp 2122260223 192.0.2.1 50000 typ host";
+    // The initiator advertises the compact encoding in its offer, and sends compact candidates
+    // once it has seen that the callee supports it too.
+    final SignalingCodec initiatorCodec = new SignalingCodec(/* compactEncodingEnabled= */ true);
+    final String offer =
+        initiatorCodec.encode(new JSONObject().put("type", "offer").put("sdp", sdp));
+    initiatorCodec.decode(new SignalingCodec(/* compactEncodingEnabled= */ true)
+                              .encode(new JSONObject().put("type", "answer").put("sdp", sdp)));
+    final JSONObject candidateJson = new JSONObject().put("type", "candidate");
+    candidateJson.put("label", 0).put("id", "0").put("candidate", candidate);
+    final String compactCandidate = initiatorCodec.encode(candidateJson);
+    assertFalse(compactCandidate.startsWith("{"));
+    server.messages = new JSONArray().put(offer).put(compactCandidate).toString();
+
+    final SignalingCodec codec = new SignalingCodec(/* compactEncodingEnabled= */ true);
+    final JoinResult result = join(codec);
+
+    assertNull(result.error);
+    assertFalse(result.params.initiator);
+    assertEquals(sdp, result.params.offerSdp.description);
+    assertEquals(candidate, result.params.iceCandidates.get(0).sdp);
+    assertTrue(codec.isCompactEncodingNegotiated());
+  }
+
+  @Test
+  public void testTurnErrorIsReported() throws InterruptedException {
+    server.turnStatus = 500;
+
+    final JoinResult result = join();
+
+    assertNull(result.params);
+    assertFalse(result.error.isEmpty());
+  }
+
+  @Test
+  public void testJoinsReuseConnections() throws InterruptedException {
+    final int joinCount = 10;
+    final long startTimeMs = System.currentTimeMillis();
+    for (int i = 0; i < joinCount; ++i) {
+      assertNull(join().error);
+    }
+    final long elapsedTimeMs = System.currentTimeMillis() - startTimeMs;
+
+    Log.d(TAG, "Average join latency: " + (elapsedTimeMs / joinCount) + " ms, "
+            + server.requestCount.get() + " requests on " + server.connectionCount.get()
+            + " connections.");
+    assertEquals(joinCount + 1, server.requestCount.get());
+    assertTrue(server.connectionCount.get() < server.requestCount.get());
+  }
+
+  @Test
+  public void testJoinsShareCachedTurnServers() throws InterruptedException {
+    for (int i = 0; i < 3; ++i) {
+      final JoinResult result = join();
+      assertEquals(1, result.params.iceServers.size());
+      assertEquals(TURN_URL, result.params.iceServers.get(0).urls.get(0));
+    }
+
+    assertEquals(1, server.turnRequestCount.get());
+  }
+
+  @Test
+  public void testPrefetchedTurnServersAreUsed() throws InterruptedException {
+    iceServerCache.prefetch(server.getUrl("/turn"));
+    waitForTurnRequests(1);
+
+    final JoinResult result = join();
+
+    assertEquals(TURN_URL, result.params.iceServers.get(0).urls.get(0));
+    assertEquals(1, server.turnRequestCount.get());
+  }
+
+  @Test
+  public void testTurnServersAreRefreshedBeforeExpiry() throws InterruptedException {
+    server.turnResponse = EXPIRING_TURN_RESPONSE;
+    assertNull(join().error);
+
+    // The refresh is due after three quarters of the lifetime, without another join.
+    assertEquals(TURN_LIFETIME_MS * 3 / 4, scheduler.runNextTask());
+    waitForTurnRequests(2);
+    assertNull(join().error);
+
+    assertEquals(2, server.turnRequestCount.get());
+  }
+
+  @Test
+  public void testNearlyExpiredTurnServersAreNotUsed() throws InterruptedException {
+    server.turnResponse = EXPIRING_TURN_RESPONSE;
+    assertNull(join().error);
+
+    // Less than a quarter of the lifetime is left, and the refresh has not run.
+    scheduler.nowMs = TURN_LIFETIME_MS * 3 / 4;
+    assertNull(join().error);
+
+    assertEquals(2, server.turnRequestCount.get());
+  }
+
+  @Test
+  public void testRefreshStopsForUnusedTurnServers() throws InterruptedException {
+    server.turnResponse = EXPIRING_TURN_RESPONSE;
+    assertNull(join().error);
+
+    int expectedTurnRequestCount = 1;
+    while (scheduler.runNextTask() <= IceServerCache.MAX_UNUSED_TIME_MS) {
+      waitForTurnRequests(++expectedTurnRequestCount);
+    }
+
+    // The last refresh found the servers unused and did not fetch or schedule anything.
+    assertTrue(scheduler.tasks.isEmpty());
+    assertEquals(expectedTurnRequestCount, server.turnRequestCount.get());
+    assertTrue(expectedTurnRequestCount > 1);
+  }
+
+  @Test
+  public void testTurnErrorIsNotCached() throws InterruptedException {
+    server.turnStatus = 500;
+    assertNull(join().params);
+
+    server.turnStatus = 200;
+    final JoinResult result = join();
+
+    assertNull(result.error);
+    assertEquals(2, server.turnRequestCount.get());
+  }
+
+  @Test
+  public void testExpiryFromTurnRestUsername() throws JSONException {
+    final long nowMs = 1000000000000L;
+    final List<PeerConnection.IceServer> iceServers =
+        Arrays.asList(PeerConnection.IceServer.builder(TURN_URL)
+                          .setUsername("1000003600:user")
+                          .createIceServer(),
+            PeerConnection.IceServer.builder(TURN_URL)
+                .setUsername("1000007200:user")
+                .createIceServer());
+
+    assertEquals(1000003600000L,
+        IceServerCache.getExpiryTimeMs(new JSONObject(TURN_RESPONSE), iceServers, nowMs));
+    assertEquals(nowMs + IceServerCache.DEFAULT_TTL_MS,
+        IceServerCache.getExpiryTimeMs(new JSONObject(TURN_RESPONSE),
+            Collections.<PeerConnection.IceServer>emptyList(), nowMs));
+  }
+
+  private void waitForTurnRequests(int count) throws InterruptedException {
+    final long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+    while (server.turnRequestCount.get() < count) {
+      assertTrue(System.currentTimeMillis() < deadlineMs);
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ParsedSdpTest {
+  private static final String SDP = "v=0\r\n"
+      + "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n"
+      + "s=-\r\n"
+      + "t=0 0\r\n"
+      + "a=group:BUNDLE 0 1\r\n"
+      + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 9 0\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "a=mid:0\r\n"
+      + "a=rtpmap:111 opus/48000/2\r\n"
+      + "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+      + "a=rtpmap:103 ISAC/16000\r\n"
+      + "a=rtpmap:9 G722/8000\r\n"
+      + "a=rtpmap:0 PCMU/8000\r\n"
+      + "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "a=mid:1\r\n"
+      + "a=rtpmap:96 VP8/90000\r\n"
+      + "a=rtpmap:97 rtx/90000\r\n"
+      + "a=fmtp:97 apt=96\r\n"
+      + "a=rtpmap:98 VP9/90000\r\n"
+      + "a=rtpmap:99 rtx/90000\r\n"
+      + "a=fmtp:99 apt=98\r\n";
+
+  @Test
+  public void testRoundTrip() {
+    assertEquals(SDP, ParsedSdp.parse(SDP).toString());
+    assertEquals(SDP, ParsedSdp.parse(SDP.replace("\r\n", "\n")).toString());
+  }
+
+  @Test
+  public void testMediaSections() {
+    final ParsedSdp sdp = ParsedSdp.parse(SDP);
+
+    assertEquals(2, sdp.getMediaSections().size());
+    assertEquals("video", sdp.findMediaSection("video").getMedia());
+    assertEquals(Arrays.asList("111", "103", "9", "0"),
+        sdp.findMediaSection("audio").getPayloadTypes());
+    assertNull(sdp.findMediaSection("application"));
+  }
+
+  @Test
+  public void testFindPayloadTypes() {
+    final ParsedSdp.MediaSection video = ParsedSdp.parse(SDP).findMediaSection("video");
+
+    assertEquals(Arrays.asList("97", "99"), video.findPayloadTypes("rtx"));
+    assertEquals(Collections.singletonList("98"), video.findPayloadTypes("VP9"));
+    // Encoding names are matched exactly.
+    assertEquals(Collections.emptyList(), video.findPayloadTypes("VP"));
+  }
+
+  @Test
+  public void testMovePayloadTypesToFront() {
+    final ParsedSdp sdp = ParsedSdp.parse(SDP);
+
+    sdp.findMediaSection("video").movePayloadTypesToFront(Arrays.asList("98", "99", "100"));
+
+    assertEquals(
+        SDP.replace("SAVPF 96 97 98 99", "SAVPF 98 99 96 97"), sdp.toString());
+  }
+
+  @Test
+  public void testUpdateFmtp() {
+    final ParsedSdp sdp = ParsedSdp.parse(SDP);
+    final ParsedSdp.MediaSection audio = sdp.findMediaSection("audio");
+
+    assertEquals("minptime=10;useinbandfec=1", audio.getFmtpParameters("111"));
+    audio.setFmtpParameters("111", "maxaveragebitrate=32000");
+
+    assertEquals("maxaveragebitrate=32000", audio.getFmtpParameters("111"));
+    assertEquals(SDP.replace("minptime=10;useinbandfec=1", "maxaveragebitrate=32000"),
+        sdp.toString());
+  }
+
+  @Test
+  public void testAddFmtpAfterRtpmap() {
+    final ParsedSdp sdp = ParsedSdp.parse(SDP);
+    final ParsedSdp.MediaSection audio = sdp.findMediaSection("audio");
+
+    assertNull(audio.getFmtpParameters("103"));
+    audio.setFmtpParameters("103", "maxaveragebitrate=32000");
+    // The lines after the new line are still found.
+    audio.setFmtpParameters("111", "minptime=20");
+
+    assertEquals(SDP.replace("a=rtpmap:103 ISAC/16000\r\n",
+                         "a=rtpmap:103 ISAC/16000\r\na=fmtp:103 maxaveragebitrate=32000\r\n")
+                     .replace("minptime=10;useinbandfec=1", "minptime=20"),
+        sdp.toString());
+  }
+
+  @Test
+  public void testMalformedMediaLineIsKept() {
+    final String sdp = "v=0\r\nm=audio 9\r\na=rtpmap:111 opus/48000/2\r\n";
+    final ParsedSdp parsedSdp = ParsedSdp.parse(sdp);
+
+    parsedSdp.findMediaSection("audio").movePayloadTypesToFront(Arrays.asList("111"));
+
+    assertEquals(sdp, parsedSdp.toString());
+  }
+}
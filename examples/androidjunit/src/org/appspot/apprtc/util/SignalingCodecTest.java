@@ -0,0 +1,301 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.util.Log;
+import java.nio.charset.Charset;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SignalingCodecTest {
+  private static final String TAG = "SignalingCodecTest";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String FINGERPRINT = "a=fingerprint:sha-256 "
+      + "5A:E7:33:3D:1B:59:6E:10:2C:6A:7F:27:A6:25:5B:AE:38:0D:8E:B7:14:C4:B2:3B:A3:EA:0C:90:"
+      + "2F:E8:A0:31\r\n";
+  private static final String CANDIDATE =
+      "candidate:842163049 1 udp 1677729535 203.0.113.7 51243 typ srflx raddr 192.168.1.2 "
+      + "rport 51243 generation 0 ufrag EsAw network-id 1 network-cost 10";
+
+  @Before
+  public void setUp() {
+    ShadowLog.stream = System.out;
+  }
+
+  // Returns an offer like the ones created by PeerConnection, with one audio section followed by
+  // |videoSectionCount| video sections, e.g. one per participant of a conference.
+  private static String createSdp(int videoSectionCount) {
+    final StringBuilder sdp = new StringBuilder("v=0\r\n"
+        + "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n"
+        + "s=-\r\n"
+        + "t=0 0\r\n");
+    sdp.append("a=group:BUNDLE");
+    for (int i = 0; i <= videoSectionCount; ++i) {
+      sdp.append(' ').append(i);
+    }
+    sdp.append("\r\na=extmap-allow-mixed\r\na=msid-semantic: WMS stream\r\n");
+    sdp.append("m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 110 112 113 126\r\n"
+        + "c=IN IP4 0.0.0.0\r\n"
+        + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+        + "a=ice-ufrag:EsAw\r\n"
+        + "a=ice-pwd:bP+XJMM09aR8AiX1jdukzR6Y\r\n"
+        + "a=ice-options:trickle\r\n" + FINGERPRINT + "a=setup:actpass\r\n"
+        + "a=mid:0\r\n"
+        + "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+        + "a=extmap:2 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+        + "a=extmap:3 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01\r\n"
+        + "a=extmap:4 urn:ietf:params:rtp-hdrext:sdes:mid\r\n"
+        + "a=sendrecv\r\n"
+        + "a=msid:stream audio\r\n"
+        + "a=rtcp-mux\r\n"
+        + "a=rtpmap:111 opus/48000/2\r\n"
+        + "a=rtcp-fb:111 transport-cc\r\n"
+        + "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+        + "a=rtpmap:103 ISAC/16000\r\n"
+        + "a=rtpmap:104 ISAC/32000\r\n"
+        + "a=rtpmap:9 G722/8000\r\n"
+        + "a=rtpmap:0 PCMU/8000\r\n"
+        + "a=rtpmap:8 PCMA/8000\r\n"
+        + "a=rtpmap:106 CN/32000\r\n"
+        + "a=rtpmap:105 CN/16000\r\n"
+        + "a=rtpmap:13 CN/8000\r\n"
+        + "a=rtpmap:110 telephone-event/48000\r\n"
+        + "a=rtpmap:126 telephone-event/8000\r\n"
+        + "a=ssrc:3735928559 cname:aB3dE5fG7hI9jK1l\r\n");
+    for (int i = 1; i <= videoSectionCount; ++i) {
+      final long ssrc = 1000000000L + 7919L * i;
+      final long rtxSsrc = 2000000000L + 104729L * i;
+      sdp.append("m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 102 121 127 120\r\n"
+          + "c=IN IP4 0.0.0.0\r\n"
+          + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+          + "a=ice-ufrag:EsAw\r\n"
+          + "a=ice-pwd:bP+XJMM09aR8AiX1jdukzR6Y\r\n"
+          + "a=ice-options:trickle\r\n" + FINGERPRINT + "a=setup:actpass\r\n"
+          + "a=mid:" + i + "\r\n"
+          + "a=extmap:14 urn:ietf:params:rtp-hdrext:toffset\r\n"
+          + "a=extmap:2 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+          + "a=extmap:13 urn:3gpp:video-orientation\r\n"
+          + "a=extmap:3 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01"
+          + "\r\n"
+          + "a=extmap:12 http://www.webrtc.org/experiments/rtp-hdrext/playout-delay\r\n"
+          + "a=extmap:4 urn:ietf:params:rtp-hdrext:sdes:mid\r\n"
+          + "a=sendrecv\r\n"
+          + "a=msid:stream video" + i + "\r\n"
+          + "a=rtcp-mux\r\n"
+          + "a=rtcp-rsize\r\n");
+      appendVideoCodec(sdp, 96, "VP8", null);
+      appendVideoCodec(sdp, 98, "VP9", "profile-id=0");
+      appendVideoCodec(sdp, 100, "VP9", "profile-id=2");
+      appendVideoCodec(sdp, 102, "H264",
+          "level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42001f");
+      appendVideoCodec(sdp, 127, "H264",
+          "level-asymmetry-allowed=1;packetization-mode=0;profile-level-id=42001f");
+      sdp.append("a=ssrc-group:FID " + ssrc + " " + rtxSsrc + "\r\n"
+          + "a=ssrc:" + ssrc + " cname:aB3dE5fG7hI9jK1l\r\n"
+          + "a=ssrc:" + ssrc + " msid:stream video" + i + "\r\n"
+          + "a=ssrc:" + rtxSsrc + " cname:aB3dE5fG7hI9jK1l\r\n"
+          + "a=ssrc:" + rtxSsrc + " msid:stream video" + i + "\r\n");
+    }
+    return sdp.toString();
+  }
+
+  private static void appendVideoCodec(
+      StringBuilder sdp, int payloadType, String name, String fmtp) {
+    sdp.append("a=rtpmap:" + payloadType + " " + name + "/90000\r\n");
+    for (String feedback : new String[] {"goog-remb", "transport-cc", "ccm fir", "nack",
+             "nack pli"}) {
+      sdp.append("a=rtcp-fb:" + payloadType + " " + feedback + "\r\n");
+    }
+    if (fmtp != null) {
+      sdp.append("a=fmtp:" + payloadType + " " + fmtp + "\r\n");
+    }
+    sdp.append("a=rtpmap:" + (payloadType + 1) + " rtx/90000\r\n"
+        + "a=fmtp:" + (payloadType + 1) + " apt=" + payloadType + "\r\n");
+  }
+
+  private static JSONObject createDescription(String type, String sdp) throws JSONException {
+    return new JSONObject().put("type", type).put("sdp", sdp);
+  }
+
+  private static JSONObject createCandidate(int index) throws JSONException {
+    return putCandidate(new JSONObject(), index);
+  }
+
+  private static JSONObject createCandidateMessage(int index) throws JSONException {
+    return putCandidate(new JSONObject().put("type", "candidate"), index);
+  }
+
+  private static JSONObject putCandidate(JSONObject json, int index) throws JSONException {
+    return json.put("label", 0).put("id", "0").put(
+        "candidate", CANDIDATE.replace("51243", Integer.toString(51243 + index)));
+  }
+
+  // Returns a codec that has received an advertisement of the compact encoding.
+  private static SignalingCodec createNegotiatedCodec() throws JSONException {
+    final SignalingCodec remote = new SignalingCodec(/* compactEncodingEnabled= */ true);
+    final SignalingCodec codec = new SignalingCodec(/* compactEncodingEnabled= */ true);
+    codec.decode(remote.encode(createDescription("offer", createSdp(1))));
+    assertTrue(codec.isCompactEncodingNegotiated());
+    return codec;
+  }
+
+  private static int size(String message) {
+    return message.getBytes(UTF_8).length;
+  }
+
+  @Test
+  public void testEncodedSdpSizes() throws JSONException {
+    final SignalingCodec codec = createNegotiatedCodec();
+    for (int videoSectionCount : new int[] {1, 8, 32}) {
+      final String sdp = createSdp(videoSectionCount);
+      final JSONObject offer = createDescription("offer", sdp);
+      final int jsonSize = size(offer.toString());
+      final String message = codec.encode(createDescription("offer", sdp));
+      final int compactSize = size(message);
+
+      Log.d(TAG, videoSectionCount + " video sections: JSON " + jsonSize + " bytes, compact "
+              + compactSize + " bytes (" + (100 * compactSize / jsonSize) + "%).");
+      assertTrue(message.startsWith(SignalingCodec.COMPACT_PREFIX));
+      assertTrue(compactSize * 3 < jsonSize);
+      assertEquals(sdp, codec.decode(message).getString("sdp"));
+    }
+  }
+
+  @Test
+  public void testEncodedCandidateSizes() throws JSONException {
+    final SignalingCodec codec = createNegotiatedCodec();
+    final JSONObject candidate = createCandidateMessage(0);
+    final JSONArray candidateArray = new JSONArray();
+    for (int i = 0; i < 10; ++i) {
+      candidateArray.put(createCandidate(i));
+    }
+    final JSONObject candidates =
+        new JSONObject().put("type", "candidates").put("candidates", candidateArray);
+
+    for (JSONObject json : new JSONObject[] {candidate, candidates}) {
+      final int jsonSize = size(json.toString());
+      final String message = codec.encode(json);
+      final int compactSize = size(message);
+
+      Log.d(TAG, json.getString("type") + ": JSON " + jsonSize + " bytes, compact " + compactSize
+              + " bytes (" + (100 * compactSize / jsonSize) + "%).");
+      assertTrue(compactSize < jsonSize);
+      assertEquals(json.toString(), codec.decode(message).toString());
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws JSONException {
+    final JSONArray candidateArray =
+        new JSONArray().put(createCandidate(1)).put(createCandidate(2));
+    final JSONObject[] messages = new JSONObject[] {createDescription("answer", createSdp(2)),
+        createCandidateMessage(0),
+        new JSONObject().put("type", "remove-candidates").put("candidates", candidateArray),
+        new JSONObject().put("type", "bye")};
+
+    for (JSONObject json : messages) {
+      assertEquals(json.toString(),
+          SignalingCodec.decodeCompact(SignalingCodec.encodeCompact(json)).toString());
+    }
+  }
+
+  @Test
+  public void testRoundTripKeepsExtraKeys() throws JSONException {
+    final JSONArray candidateArray =
+        new JSONArray().put(createCandidate(1)).put(createCandidate(2).put("url", "turn:x"));
+    final JSONObject[] messages =
+        new JSONObject[] {createDescription("answer", createSdp(1)).put("candidateBatches", true),
+            createCandidateMessage(0).put("usernameFragment", "EsAw"),
+            new JSONObject().put("type", "candidates").put("candidates", candidateArray),
+            createCandidateMessage(0).put("label", 70000),
+            createCandidateMessage(0).put("label", "0")};
+
+    for (JSONObject json : messages) {
+      assertEquals(json.toString(),
+          SignalingCodec.decodeCompact(SignalingCodec.encodeCompact(json)).toString());
+    }
+  }
+
+  @Test
+  public void testJsonIsSentUntilRemotePeerAdvertisesCompactEncoding() throws JSONException {
+    final SignalingCodec codec = new SignalingCodec(/* compactEncodingEnabled= */ true);
+
+    final String offer = codec.encode(createDescription("offer", createSdp(1)));
+    final String candidate = codec.encode(createCandidateMessage(0));
+
+    // Clients without the codec can read both messages.
+    final JSONObject offerJson = new JSONObject(offer);
+    assertEquals(SignalingCodec.COMPACT_ENCODING,
+        offerJson.getJSONArray(SignalingCodec.ENCODINGS_KEY).getString(0));
+    assertEquals(CANDIDATE, new JSONObject(candidate).getString("candidate"));
+    assertFalse(codec.isCompactEncodingNegotiated());
+
+    // A browser answer does not advertise the compact encoding.
+    codec.decode(createDescription("answer", createSdp(1)).toString());
+    assertFalse(codec.isCompactEncodingNegotiated());
+    assertTrue(codec.encode(createCandidateMessage(0)).startsWith("{"));
+  }
+
+  @Test
+  public void testCompactMessageNegotiatesCompactEncoding() throws JSONException {
+    final SignalingCodec codec = new SignalingCodec(/* compactEncodingEnabled= */ true);
+
+    final JSONObject offer = codec.decode(
+        SignalingCodec.encodeCompact(createDescription("offer", createSdp(1))));
+
+    assertTrue(codec.isCompactEncodingNegotiated());
+    assertEquals(createSdp(1), offer.getString("sdp"));
+  }
+
+  @Test
+  public void testDisabledCodecSendsPlainJson() throws JSONException {
+    final SignalingCodec codec = new SignalingCodec(/* compactEncodingEnabled= */ false);
+    codec.decode(new SignalingCodec(/* compactEncodingEnabled= */ true)
+                     .encode(createDescription("offer", createSdp(1))));
+
+    final JSONObject answer = createDescription("answer", createSdp(1));
+    final String message = codec.encode(answer);
+
+    assertFalse(codec.isCompactEncodingNegotiated());
+    assertEquals(answer.toString(), message);
+    assertFalse(new JSONObject(message).has(SignalingCodec.ENCODINGS_KEY));
+  }
+
+  @Test
+  public void testInvalidCompactMessageIsRejected() {
+    final SignalingCodec codec = new SignalingCodec(/* compactEncodingEnabled= */ true);
+    for (String message :
+        new String[] {SignalingCodec.COMPACT_PREFIX, SignalingCodec.COMPACT_PREFIX + "AAAA",
+            SignalingCodec.COMPACT_PREFIX + "not base64!"}) {
+      try {
+        codec.decode(message);
+        fail("Decoded invalid message: " + message);
+      } catch (JSONException e) {
+        // Expected.
+      }
+    }
+    assertFalse(codec.isCompactEncodingNegotiated());
+  }
+}
@@ -0,0 +1,501 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.test;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.appspot.apprtc.AppRTCClient.SignalingParameters;
+import org.appspot.apprtc.PeerConnectionClient;
+import org.appspot.apprtc.PeerConnectionClient.DataChannelParameters;
+import org.appspot.apprtc.PeerConnectionClient.PeerConnectionEvents;
+import org.appspot.apprtc.PeerConnectionClient.PeerConnectionParameters;
+import org.webrtc.DefaultVideoDecoderFactory;
+import org.webrtc.DefaultVideoEncoderFactory;
+import org.webrtc.EglBase;
+import org.webrtc.FileVideoCapturer;
+import org.webrtc.IceCandidate;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.SessionDescription;
+import org.webrtc.SoftwareVideoDecoderFactory;
+import org.webrtc.SoftwareVideoEncoderFactory;
+import org.webrtc.StatsReport;
+import org.webrtc.VideoDecoderFactory;
+import org.webrtc.VideoEncoderFactory;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+import org.webrtc.audio.AudioDeviceModule;
+import org.webrtc.audio.JavaAudioDeviceModule;
+
+/**
+ * Runs concurrent calls in this process to measure how the SDK scales with the number of peer
+ * connections.
+ *
+ * <p>Each call is a pair of PeerConnectionClients, connected over loopback with in-process
+ * signaling. All clients share one peer connection factory, and each pair runs on its own
+ * executor. Both sides send synthetic video from a generated Y4M file, silence from a muted
+ * audio device, and data channel messages. Once all pairs are connected, the generator measures
+ * the process CPU time and the frame, packet and message rates for the given duration.
+ */
+public class CallLoadGenerator {
+  private static final String TAG = "CallLoadGenerator";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int CONNECT_TIMEOUT_MS = 30000;
+  private static final int CLOSE_TIMEOUT_MS = 10000;
+  private static final int STATS_PERIOD_MS = 1000;
+  private static final int VIDEO_FILE_FRAME_COUNT = 30;
+  private static final String DATA_CHANNEL_MESSAGE = "Load generator data channel message";
+
+  /** Load generator parameters. */
+  public static class LoadParameters {
+    public final int pairCount;
+    public final int durationMs;
+    public final int videoWidth;
+    public final int videoHeight;
+    public final int videoFps;
+    public final String videoCodec;
+    public final boolean videoCodecHwAcceleration;
+    // Interval between data channel messages sent by each client. Zero sends none.
+    public final int dataChannelMessageIntervalMs;
+
+    public LoadParameters(int pairCount, int durationMs, int videoWidth, int videoHeight,
+        int videoFps, String videoCodec, boolean videoCodecHwAcceleration,
+        int dataChannelMessageIntervalMs) {
+      this.pairCount = pairCount;
+      this.durationMs = durationMs;
+      this.videoWidth = videoWidth;
+      this.videoHeight = videoHeight;
+      this.videoFps = videoFps;
+      this.videoCodec = videoCodec;
+      this.videoCodecHwAcceleration = videoCodecHwAcceleration;
+      this.dataChannelMessageIntervalMs = dataChannelMessageIntervalMs;
+    }
+  }
+
+  /** Load generator results. Rates are averages over the measured duration. */
+  public static class LoadResult {
+    public final int pairCount;
+    public final int connectedPairCount;
+    // Time from creating the peer connections of a pair until both sides are connected.
+    public final long minSetupTimeMs;
+    public final long medianSetupTimeMs;
+    public final long maxSetupTimeMs;
+    // Process CPU time per pair, in percent of one core.
+    public final double cpuPercentPerPair;
+    // Frames per second of each video stream.
+    public final double capturedFps;
+    public final double receivedFps;
+    // Packets and data channel messages per second of each pair, in both directions.
+    public final double packetsSentPerSecond;
+    public final double packetsReceivedPerSecond;
+    public final double dataChannelMessagesPerSecond;
+
+    LoadResult(int pairCount, int connectedPairCount, long minSetupTimeMs, long medianSetupTimeMs,
+        long maxSetupTimeMs, double cpuPercentPerPair, double capturedFps, double receivedFps,
+        double packetsSentPerSecond, double packetsReceivedPerSecond,
+        double dataChannelMessagesPerSecond) {
+      this.pairCount = pairCount;
+      this.connectedPairCount = connectedPairCount;
+      this.minSetupTimeMs = minSetupTimeMs;
+      this.medianSetupTimeMs = medianSetupTimeMs;
+      this.maxSetupTimeMs = maxSetupTimeMs;
+      this.cpuPercentPerPair = cpuPercentPerPair;
+      this.capturedFps = capturedFps;
+      this.receivedFps = receivedFps;
+      this.packetsSentPerSecond = packetsSentPerSecond;
+      this.packetsReceivedPerSecond = packetsReceivedPerSecond;
+      this.dataChannelMessagesPerSecond = dataChannelMessagesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US,
+          "%d/%d pairs connected, setup time min %d ms, median %d ms, max %d ms, "
+              + "CPU per pair %.1f%%, captured %.1f fps, received %.1f fps, "
+              + "sent %.1f packets/s, received %.1f packets/s, %.1f data channel messages/s",
+          connectedPairCount, pairCount, minSetupTimeMs, medianSetupTimeMs, maxSetupTimeMs,
+          cpuPercentPerPair, capturedFps, receivedFps, packetsSentPerSecond,
+          packetsReceivedPerSecond, dataChannelMessagesPerSecond);
+    }
+  }
+
+  private static class CountingSink implements VideoSink {
+    final AtomicLong frameCount = new AtomicLong();
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+      frameCount.incrementAndGet();
+    }
+  }
+
+  // One side of a call. Signaling messages are passed directly to the client of |remote|.
+  private static class Endpoint implements PeerConnectionEvents {
+    final String name;
+    final boolean isCaller;
+    final Pair pair;
+    final CountingSink localSink = new CountingSink();
+    final CountingSink remoteSink = new CountingSink();
+    // Totals over all SSRCs from the latest stats report.
+    volatile long packetsSent;
+    volatile long packetsReceived;
+    PeerConnectionClient client;
+    Endpoint remote;
+
+    Endpoint(String name, boolean isCaller, Pair pair) {
+      this.name = name;
+      this.isCaller = isCaller;
+      this.pair = pair;
+    }
+
+    @Override
+    public void onLocalDescription(SessionDescription sdp) {
+      remote.client.setRemoteDescription(sdp);
+      if (isCaller) {
+        remote.client.createAnswer();
+      }
+    }
+
+    @Override
+    public void onIceCandidate(IceCandidate candidate) {
+      remote.client.addRemoteIceCandidate(candidate);
+    }
+
+    @Override
+    public void onIceCandidatesRemoved(IceCandidate[] candidates) {
+      remote.client.removeRemoteIceCandidates(candidates);
+    }
+
+    @Override
+    public void onIceConnected() {}
+
+    @Override
+    public void onIceDisconnected() {}
+
+    @Override
+    public void onConnected() {
+      pair.onEndpointConnected();
+    }
+
+    @Override
+    public void onDisconnected() {
+      Log.w(TAG, name + " disconnected.");
+    }
+
+    @Override
+    public void onPeerConnectionClosed() {
+      pair.closed.countDown();
+    }
+
+    @Override
+    public void onPeerConnectionStatsReady(StatsReport[] reports) {
+      long sent = 0;
+      long received = 0;
+      for (StatsReport report : reports) {
+        if (!report.type.equals("ssrc")) {
+          continue;
+        }
+        for (StatsReport.Value value : report.values) {
+          if (value.name.equals("packetsSent")) {
+            sent += Long.parseLong(value.value);
+          } else if (value.name.equals("packetsReceived")) {
+            received += Long.parseLong(value.value);
+          }
+        }
+      }
+      packetsSent = sent;
+      packetsReceived = received;
+    }
+
+    @Override
+    public void onPeerConnectionError(String description) {
+      Log.e(TAG, name + " error: " + description);
+    }
+  }
+
+  private static class Pair {
+    final ExecutorService executor;
+    final Endpoint caller;
+    final Endpoint callee;
+    final CountDownLatch connected = new CountDownLatch(2);
+    final CountDownLatch closed = new CountDownLatch(2);
+    long startTimeMs;
+    volatile long connectTimeMs;
+
+    Pair(int index) {
+      executor = Executors.newSingleThreadExecutor();
+      caller = new Endpoint("Caller " + index, /* isCaller= */ true, this);
+      callee = new Endpoint("Callee " + index, /* isCaller= */ false, this);
+      caller.remote = callee;
+      callee.remote = caller;
+    }
+
+    void onEndpointConnected() {
+      connected.countDown();
+      if (connected.getCount() == 0) {
+        connectTimeMs = SystemClock.elapsedRealtime();
+      }
+    }
+
+    List<Endpoint> endpoints() {
+      return Arrays.asList(caller, callee);
+    }
+  }
+
+  // Counters of all endpoints at one point in time.
+  private static class Snapshot {
+    final long timeMs = SystemClock.elapsedRealtime();
+    final long cpuTimeMs = Process.getElapsedCpuTime();
+    long capturedFrames;
+    long receivedFrames;
+    long packetsSent;
+    long packetsReceived;
+    long dataChannelMessages;
+
+    Snapshot(List<Pair> pairs) {
+      for (Pair pair : pairs) {
+        for (Endpoint endpoint : pair.endpoints()) {
+          capturedFrames += endpoint.localSink.frameCount.get();
+          receivedFrames += endpoint.remoteSink.frameCount.get();
+          packetsSent += endpoint.packetsSent;
+          packetsReceived += endpoint.packetsReceived;
+          dataChannelMessages += endpoint.client.getReceivedDataChannelMessageCount();
+        }
+      }
+    }
+  }
+
+  private final Context context;
+  private final LoadParameters parameters;
+
+  public CallLoadGenerator(Context context, LoadParameters parameters) {
+    this.context = context;
+    this.parameters = parameters;
+  }
+
+  /** Runs the calls and returns the measurements. Blocks until all calls are closed. */
+  public LoadResult run() throws IOException, InterruptedException {
+    final String videoFile = createVideoFile();
+    PeerConnectionFactory.initialize(
+        PeerConnectionFactory.InitializationOptions.builder(context)
+            .createInitializationOptions());
+    final EglBase rootEglBase = EglBase.create();
+    final PeerConnectionFactory factory = createFactory(rootEglBase);
+    final ScheduledExecutorService dataExecutor = Executors.newSingleThreadScheduledExecutor();
+    final List<Pair> pairs = new ArrayList<>();
+    try {
+      for (int i = 0; i < parameters.pairCount; ++i) {
+        pairs.add(new Pair(i));
+      }
+      for (Pair pair : pairs) {
+        startPair(pair, factory, rootEglBase, videoFile);
+      }
+      final long deadlineMs = SystemClock.elapsedRealtime() + CONNECT_TIMEOUT_MS;
+      final List<Long> setupTimesMs = new ArrayList<>();
+      for (Pair pair : pairs) {
+        final long timeoutMs = Math.max(0, deadlineMs - SystemClock.elapsedRealtime());
+        if (pair.connected.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+          setupTimesMs.add(pair.connectTimeMs - pair.startTimeMs);
+        }
+      }
+      Collections.sort(setupTimesMs);
+      Log.d(TAG, setupTimesMs.size() + " of " + pairs.size() + " pairs connected.");
+
+      if (parameters.dataChannelMessageIntervalMs > 0) {
+        dataExecutor.scheduleAtFixedRate(() -> {
+          for (Pair pair : pairs) {
+            for (Endpoint endpoint : pair.endpoints()) {
+              endpoint.client.sendDataChannelMessage(DATA_CHANNEL_MESSAGE);
+            }
+          }
+        }, 0, parameters.dataChannelMessageIntervalMs, TimeUnit.MILLISECONDS);
+      }
+      // Let the first stats reports arrive before the measurement starts.
+      Thread.sleep(STATS_PERIOD_MS);
+      final Snapshot start = new Snapshot(pairs);
+      Thread.sleep(parameters.durationMs);
+      final Snapshot end = new Snapshot(pairs);
+      dataExecutor.shutdownNow();
+
+      final LoadResult result = createResult(setupTimesMs, start, end);
+      Log.i(TAG, result.toString());
+      return result;
+    } finally {
+      dataExecutor.shutdownNow();
+      for (Pair pair : pairs) {
+        for (Endpoint endpoint : pair.endpoints()) {
+          if (endpoint.client != null) {
+            endpoint.client.close();
+          }
+        }
+      }
+      for (Pair pair : pairs) {
+        if (pair.callee.client == null) {
+          // Not started.
+          continue;
+        }
+        if (!pair.closed.await(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+          Log.e(TAG, "Timed out closing " + pair.caller.name);
+        }
+        pair.executor.shutdown();
+      }
+      factory.dispose();
+      rootEglBase.release();
+    }
+  }
+
+  private PeerConnectionFactory createFactory(EglBase rootEglBase) {
+    // A single audio device for all calls, muted so that every call sends silence.
+    final AudioDeviceModule adm = JavaAudioDeviceModule.builder(context).createAudioDeviceModule();
+    adm.setMicrophoneMute(true);
+    adm.setSpeakerMute(true);
+
+    final VideoEncoderFactory encoderFactory;
+    final VideoDecoderFactory decoderFactory;
+    if (parameters.videoCodecHwAcceleration) {
+      encoderFactory = new DefaultVideoEncoderFactory(rootEglBase.getEglBaseContext(),
+          true /* enableIntelVp8Encoder */, false /* enableH264HighProfile */);
+      decoderFactory = new DefaultVideoDecoderFactory(rootEglBase.getEglBaseContext());
+    } else {
+      encoderFactory = new SoftwareVideoEncoderFactory();
+      decoderFactory = new SoftwareVideoDecoderFactory();
+    }
+
+    final PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
+    // Connect over the loopback interface.
+    options.networkIgnoreMask = 0;
+    options.disableNetworkMonitor = true;
+    final PeerConnectionFactory factory = PeerConnectionFactory.builder()
+                                              .setOptions(options)
+                                              .setAudioDeviceModule(adm)
+                                              .setVideoEncoderFactory(encoderFactory)
+                                              .setVideoDecoderFactory(decoderFactory)
+                                              .createPeerConnectionFactory();
+    adm.release();
+    return factory;
+  }
+
+  private void startPair(Pair pair, PeerConnectionFactory factory, EglBase rootEglBase,
+      String videoFile) throws IOException {
+    final PeerConnectionParameters peerConnectionParameters = new PeerConnectionParameters(
+        true /* videoCallEnabled */, false /* loopback */, false /* tracing */,
+        parameters.videoWidth, parameters.videoHeight, parameters.videoFps,
+        0 /* videoMaxBitrate */, parameters.videoCodec, parameters.videoCodecHwAcceleration,
+        false /* videoFlexfecEnabled */, 0 /* audioStartBitrate */, "OPUS" /* audioCodec */,
+        false /* noAudioProcessing */, false /* aecDump */, false /* saveInputAudioToFile */,
+        false /* useOpenSLES */, false /* disableBuiltInAEC */, false /* disableBuiltInAGC */,
+        false /* disableBuiltInNS */, false /* disableWebRtcAGCAndHPF */,
+        false /* enableRtcEventLog */,
+        new DataChannelParameters(true /* ordered */, -1 /* maxRetransmitTimeMs */,
+            -1 /* maxRetransmits */, "" /* protocol */, false /* negotiated */, -1 /* id */));
+
+    pair.startTimeMs = SystemClock.elapsedRealtime();
+    for (Endpoint endpoint : pair.endpoints()) {
+      endpoint.client = new PeerConnectionClient(context,
+          EglBase.create(rootEglBase.getEglBaseContext()), peerConnectionParameters, endpoint,
+          factory, pair.executor);
+    }
+    for (Endpoint endpoint : pair.endpoints()) {
+      final SignalingParameters signalingParameters =
+          new SignalingParameters(new ArrayList<>(), endpoint.isCaller, null /* clientId */,
+              null /* wssUrl */, null /* wssPostUrl */, null /* offerSdp */,
+              null /* iceCandidates */);
+      endpoint.client.createPeerConnection(endpoint.localSink,
+          Collections.<VideoSink>singletonList(endpoint.remoteSink),
+          new FileVideoCapturer(videoFile), signalingParameters);
+      endpoint.client.enableStatsEvents(true, STATS_PERIOD_MS);
+    }
+    pair.caller.client.createOffer();
+  }
+
+  private LoadResult createResult(List<Long> setupTimesMs, Snapshot start, Snapshot end) {
+    final int pairCount = parameters.pairCount;
+    final double seconds = (end.timeMs - start.timeMs) / 1000.0;
+    final double perPairPerSecond = 1.0 / (pairCount * seconds);
+    // Each pair has two video streams.
+    final double perStreamPerSecond = perPairPerSecond / 2;
+    final boolean connected = !setupTimesMs.isEmpty();
+    return new LoadResult(pairCount, setupTimesMs.size(), connected ? setupTimesMs.get(0) : 0,
+        connected ? setupTimesMs.get(setupTimesMs.size() / 2) : 0,
+        connected ? setupTimesMs.get(setupTimesMs.size() - 1) : 0,
+        100.0 * (end.cpuTimeMs - start.cpuTimeMs) / 1000.0 * perPairPerSecond,
+        (end.capturedFrames - start.capturedFrames) * perStreamPerSecond,
+        (end.receivedFrames - start.receivedFrames) * perStreamPerSecond,
+        (end.packetsSent - start.packetsSent) * perPairPerSecond,
+        (end.packetsReceived - start.packetsReceived) * perPairPerSecond,
+        (end.dataChannelMessages - start.dataChannelMessages) * perPairPerSecond);
+  }
+
+  // Writes a Y4M file with a moving gradient and a moving block of noise, so that the encoders
+  // can't skip the content, and returns its path. The file is reused by later runs.
+  private String createVideoFile() throws IOException {
+    final int width = parameters.videoWidth;
+    final int height = parameters.videoHeight;
+    final String header =
+        "YUV4MPEG2 C420 W" + width + " H" + height + " Ip F" + parameters.videoFps + ":1\n";
+    final int chromaSize = ((width + 1) / 2) * ((height + 1) / 2);
+    final byte[] frameHeader = "FRAME\n".getBytes(UTF_8);
+    final long fileSize = header.length()
+        + (long) VIDEO_FILE_FRAME_COUNT * (frameHeader.length + width * height + 2 * chromaSize);
+    final File file =
+        new File(context.getCacheDir(), "call_load_" + width + "x" + height + ".y4m");
+    if (file.length() == fileSize) {
+      return file.getPath();
+    }
+
+    final byte[] lumaPlane = new byte[width * height];
+    final byte[] chromaPlane = new byte[chromaSize];
+    final int blockSize = Math.min(64, Math.min(width, height));
+    int noise = 1;
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      out.write(header.getBytes(UTF_8));
+      for (int frame = 0; frame < VIDEO_FILE_FRAME_COUNT; ++frame) {
+        final int blockX = (frame * 8) % (width - blockSize + 1);
+        final int blockY = (frame * 4) % (height - blockSize + 1);
+        for (int y = 0; y < height; ++y) {
+          for (int x = 0; x < width; ++x) {
+            int luma = x + y + frame * 4;
+            if (x >= blockX && x < blockX + blockSize && y >= blockY && y < blockY + blockSize) {
+              // Linear congruential generator.
+              noise = noise * 1103515245 + 12345;
+              luma = noise >>> 24;
+            }
+            lumaPlane[y * width + x] = (byte) luma;
+          }
+        }
+        out.write(frameHeader);
+        out.write(lumaPlane);
+        Arrays.fill(chromaPlane, (byte) (128 + frame));
+        out.write(chromaPlane);
+        Arrays.fill(chromaPlane, (byte) (128 - frame));
+        out.write(chromaPlane);
+      }
+    }
+    return file.getPath();
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import org.appspot.apprtc.test.CallLoadGenerator.LoadParameters;
+import org.appspot.apprtc.test.CallLoadGenerator.LoadResult;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs CallLoadGenerator. The load is configured with instrumentation arguments, e.g.
+ * adb shell am instrument -w -e class org.appspot.apprtc.test.CallLoadTest -e pairCount 8
+ *     -e durationMs 60000 org.appspot.apprtc.test/android.support.test.runner.AndroidJUnitRunner
+ * The test is skipped unless pairCount is given, so that it doesn't load the device in normal test
+ * runs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CallLoadTest {
+  private static final String TAG = "CallLoadTest";
+
+  private static int getIntArgument(Bundle arguments, String name, int defaultValue) {
+    final String value = arguments.getString(name);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+
+  @Test
+  @LargeTest
+  public void testCallLoad() throws Exception {
+    final Bundle arguments = InstrumentationRegistry.getArguments();
+    Assume.assumeTrue(arguments.containsKey("pairCount"));
+    final String videoCodec = arguments.getString("videoCodec");
+    final LoadParameters parameters = new LoadParameters(getIntArgument(arguments, "pairCount", 2),
+        getIntArgument(arguments, "durationMs", 10000),
+        getIntArgument(arguments, "videoWidth", 640),
+        getIntArgument(arguments, "videoHeight", 480), getIntArgument(arguments, "videoFps", 30),
+        videoCodec == null ? "VP8" : videoCodec,
+        Boolean.parseBoolean(arguments.getString("videoCodecHwAcceleration")),
+        getIntArgument(arguments, "dataChannelMessageIntervalMs", 100));
+
+    final LoadResult result =
+        new CallLoadGenerator(InstrumentationRegistry.getTargetContext(), parameters).run();
+
+    Log.i(TAG, "Call load with " + parameters.pairCount + " pairs: " + result);
+    assertEquals(parameters.pairCount, result.connectedPairCount);
+    assertTrue(result.receivedFps > 0);
+    if (parameters.dataChannelMessageIntervalMs > 0) {
+      assertTrue(result.dataChannelMessagesPerSecond > 0);
+    }
+  }
+}
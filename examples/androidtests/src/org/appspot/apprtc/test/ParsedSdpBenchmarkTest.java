@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.test;
+
+import static org.junit.Assert.assertEquals;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import org.appspot.apprtc.util.ParsedSdp;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Measures SDP munging as done by PeerConnectionClient on an SDP with many media sections. */
+@RunWith(AndroidJUnit4.class)
+public class ParsedSdpBenchmarkTest {
+  private static final String TAG = "ParsedSdpBenchmarkTest";
+  private static final int SECTION_COUNT = 50;
+  private static final int WARMUP_ITERATIONS = 100;
+  private static final int ITERATIONS = 1000;
+
+  private static String createSdp() {
+    final StringBuilder sdp = new StringBuilder();
+    sdp.append("v=0\r\no=- 4611731400430051336 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\n");
+    for (int i = 0; i < SECTION_COUNT; ++i) {
+      if (i % 2 == 0) {
+        sdp.append("m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 110 112 113 126\r\n");
+        sdp.append("c=IN IP4 0.0.0.0\r\na=mid:").append(i).append("\r\n");
+        sdp.append("a=rtpmap:111 opus/48000/2\r\na=fmtp:111 minptime=10;useinbandfec=1\r\n");
+        sdp.append("a=rtpmap:103 ISAC/16000\r\na=rtpmap:104 ISAC/32000\r\n");
+        sdp.append("a=rtpmap:9 G722/8000\r\na=rtpmap:0 PCMU/8000\r\na=rtpmap:8 PCMA/8000\r\n");
+        sdp.append("a=rtpmap:106 CN/32000\r\na=rtpmap:105 CN/16000\r\na=rtpmap:13 CN/8000\r\n");
+        sdp.append("a=rtpmap:110 telephone-event/48000\r\na=rtpmap:112 telephone-event/32000\r\n");
+        sdp.append("a=rtpmap:113 telephone-event/16000\r\na=rtpmap:126 telephone-event/8000\r\n");
+      } else {
+        sdp.append("m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 102 122 127 121 125\r\n");
+        sdp.append("c=IN IP4 0.0.0.0\r\na=mid:").append(i).append("\r\n");
+        sdp.append("a=rtpmap:96 VP8/90000\r\na=rtcp-fb:96 nack\r\na=rtcp-fb:96 nack pli\r\n");
+        sdp.append("a=rtpmap:97 rtx/90000\r\na=fmtp:97 apt=96\r\n");
+        sdp.append("a=rtpmap:98 VP9/90000\r\na=rtcp-fb:98 nack\r\n");
+        sdp.append("a=rtpmap:99 rtx/90000\r\na=fmtp:99 apt=98\r\n");
+        sdp.append("a=rtpmap:100 H264/90000\r\na=fmtp:100 level-asymmetry-allowed=1;"
+            + "packetization-mode=1;profile-level-id=42001f\r\n");
+        sdp.append("a=rtpmap:101 rtx/90000\r\na=fmtp:101 apt=100\r\n");
+        sdp.append("a=rtpmap:102 H264/90000\r\na=fmtp:102 level-asymmetry-allowed=1;"
+            + "packetization-mode=1;profile-level-id=42e01f\r\n");
+        sdp.append("a=rtpmap:122 rtx/90000\r\na=fmtp:122 apt=102\r\n");
+        sdp.append("a=rtpmap:127 red/90000\r\na=rtpmap:121 rtx/90000\r\na=fmtp:121 apt=127\r\n");
+        sdp.append("a=rtpmap:125 ulpfec/90000\r\n");
+      }
+    }
+    return sdp.toString();
+  }
+
+  private static String munge(String sdp) {
+    final ParsedSdp parsedSdp = ParsedSdp.parse(sdp);
+    final ParsedSdp.MediaSection audio = parsedSdp.findMediaSection("audio");
+    audio.movePayloadTypesToFront(audio.findPayloadTypes("ISAC"));
+    final ParsedSdp.MediaSection video = parsedSdp.findMediaSection("video");
+    video.movePayloadTypesToFront(video.findPayloadTypes("H264"));
+    final String opus = audio.findPayloadTypes("opus").get(0);
+    audio.setFmtpParameters(opus, audio.getFmtpParameters(opus) + "; maxaveragebitrate=32000");
+    return parsedSdp.toString();
+  }
+
+  @Test
+  @LargeTest
+  public void testMungeLargeSdp() {
+    final String sdp = createSdp();
+    final String expected = munge(sdp);
+    for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+      munge(sdp);
+    }
+
+    final long startNs = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i) {
+      assertEquals(expected.length(), munge(sdp).length());
+    }
+    final long elapsedNs = System.nanoTime() - startNs;
+
+    Log.i(TAG, "Munging an SDP with " + SECTION_COUNT + " sections (" + sdp.length()
+            + " chars) took " + (elapsedNs / ITERATIONS / 1000) + " us per iteration.");
+    // Everything except the edited lines is unchanged.
+    assertEquals(sdp, ParsedSdp.parse(sdp).toString());
+  }
+}
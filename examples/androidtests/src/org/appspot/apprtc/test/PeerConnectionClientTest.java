@@ -10,6 +10,8 @@
 
 package org.appspot.apprtc.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -17,17 +19,22 @@ import android.os.Build;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
+import android.text.TextUtils;
 import android.util.Log;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.appspot.apprtc.AppRTCClient.SignalingParameters;
 import org.appspot.apprtc.PeerConnectionClient;
 import org.appspot.apprtc.PeerConnectionClient.PeerConnectionEvents;
 import org.appspot.apprtc.PeerConnectionClient.PeerConnectionParameters;
+import org.appspot.apprtc.util.ParsedSdp;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -35,11 +42,19 @@ import org.junit.runner.RunWith;
 import org.webrtc.Camera1Enumerator;
 import org.webrtc.Camera2Enumerator;
 import org.webrtc.CameraEnumerator;
+import org.webrtc.DataChannel;
 import org.webrtc.EglBase;
 import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.MediaStream;
+import org.webrtc.MediaStreamTrack;
 import org.webrtc.PeerConnection;
 import org.webrtc.PeerConnectionFactory;
+import org.webrtc.RtpReceiver;
+import org.webrtc.SdpObserver;
 import org.webrtc.SessionDescription;
+import org.webrtc.SoftwareVideoDecoderFactory;
+import org.webrtc.SoftwareVideoEncoderFactory;
 import org.webrtc.StatsReport;
 import org.webrtc.VideoCapturer;
 import org.webrtc.VideoFrame;
@@ -131,6 +146,78 @@ public class PeerConnectionClientTest implements PeerConnectionEvents {
     }
   }
 
+  // PeerConnection observer that ignores all events.
+  private static class NullObserver implements PeerConnection.Observer {
+    @Override
+    public void onSignalingChange(PeerConnection.SignalingState newState) {}
+
+    @Override
+    public void onIceConnectionChange(PeerConnection.IceConnectionState newState) {}
+
+    @Override
+    public void onIceConnectionReceivingChange(boolean receiving) {}
+
+    @Override
+    public void onIceGatheringChange(PeerConnection.IceGatheringState newState) {}
+
+    @Override
+    public void onIceCandidate(IceCandidate candidate) {}
+
+    @Override
+    public void onIceCandidatesRemoved(IceCandidate[] candidates) {}
+
+    @Override
+    public void onAddStream(MediaStream stream) {}
+
+    @Override
+    public void onRemoveStream(MediaStream stream) {}
+
+    @Override
+    public void onDataChannel(DataChannel dataChannel) {}
+
+    @Override
+    public void onRenegotiationNeeded() {}
+
+    @Override
+    public void onAddTrack(RtpReceiver receiver, MediaStream[] mediaStreams) {}
+  }
+
+  // Waits for the result of one createOffer(), createAnswer() or setRemoteDescription() call.
+  private static class SdpLatch implements SdpObserver {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private SessionDescription sdp;
+    private String error;
+
+    @Override
+    public void onCreateSuccess(SessionDescription sdp) {
+      this.sdp = sdp;
+      done.countDown();
+    }
+
+    @Override
+    public void onSetSuccess() {
+      done.countDown();
+    }
+
+    @Override
+    public void onCreateFailure(String error) {
+      this.error = error;
+      done.countDown();
+    }
+
+    @Override
+    public void onSetFailure(String error) {
+      this.error = error;
+      done.countDown();
+    }
+
+    public SessionDescription await() throws InterruptedException {
+      assertTrue(done.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+      assertNull(error);
+      return sdp;
+    }
+  }
+
   // Peer connection events implementation.
   @Override
   public void onLocalDescription(SessionDescription desc) {
@@ -654,4 +741,146 @@ public class PeerConnectionClientTest implements PeerConnectionEvents {
     assertTrue(waitForPeerConnectionClosed(WAIT_TIMEOUT));
     Log.d(TAG, "testCaptureFormatChange done.");
   }
+
+  // Returns an offer and an answer for an audio and video call, as created by PeerConnection
+  // before PeerConnectionClient changes them.
+  private static List<String> createOfferAndAnswer() throws InterruptedException {
+    PeerConnectionFactory.initialize(PeerConnectionFactory.InitializationOptions
+                                         .builder(InstrumentationRegistry.getTargetContext())
+                                         .createInitializationOptions());
+    final PeerConnectionFactory factory =
+        PeerConnectionFactory.builder()
+            .setVideoEncoderFactory(new SoftwareVideoEncoderFactory())
+            .setVideoDecoderFactory(new SoftwareVideoDecoderFactory())
+            .createPeerConnectionFactory();
+    final PeerConnection.RTCConfiguration rtcConfig =
+        new PeerConnection.RTCConfiguration(new ArrayList<>());
+    rtcConfig.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+    final PeerConnection offeringPC = factory.createPeerConnection(rtcConfig, new NullObserver());
+    final PeerConnection answeringPC = factory.createPeerConnection(rtcConfig, new NullObserver());
+    offeringPC.addTransceiver(MediaStreamTrack.MediaType.MEDIA_TYPE_AUDIO);
+    offeringPC.addTransceiver(MediaStreamTrack.MediaType.MEDIA_TYPE_VIDEO);
+
+    SdpLatch sdpLatch = new SdpLatch();
+    offeringPC.createOffer(sdpLatch, new MediaConstraints());
+    final SessionDescription offer = sdpLatch.await();
+    sdpLatch = new SdpLatch();
+    answeringPC.setRemoteDescription(sdpLatch, offer);
+    sdpLatch.await();
+    sdpLatch = new SdpLatch();
+    answeringPC.createAnswer(sdpLatch, new MediaConstraints());
+    final SessionDescription answer = sdpLatch.await();
+
+    offeringPC.dispose();
+    answeringPC.dispose();
+    factory.dispose();
+    return Arrays.asList(offer.description, answer.description);
+  }
+
+  // The regex based preferCodec() that PeerConnectionClient used before ParsedSdp, as a reference.
+  @SuppressWarnings("StringSplitter")
+  private static String regexPreferCodec(String sdp, String codec, boolean isAudio) {
+    final String[] lines = sdp.split("\r\n");
+    final String mediaDescription = isAudio ? "m=audio " : "m=video ";
+    int mLineIndex = -1;
+    for (int i = 0; i < lines.length && mLineIndex == -1; ++i) {
+      if (lines[i].startsWith(mediaDescription)) {
+        mLineIndex = i;
+      }
+    }
+    final List<String> codecPayloadTypes = new ArrayList<>();
+    final Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$");
+    for (String line : lines) {
+      Matcher codecMatcher = codecPattern.matcher(line);
+      if (codecMatcher.matches()) {
+        codecPayloadTypes.add(codecMatcher.group(1));
+      }
+    }
+    if (mLineIndex == -1 || codecPayloadTypes.isEmpty()) {
+      return sdp;
+    }
+    final List<String> origLineParts = Arrays.asList(lines[mLineIndex].split(" "));
+    final List<String> unpreferredPayloadTypes =
+        new ArrayList<>(origLineParts.subList(3, origLineParts.size()));
+    unpreferredPayloadTypes.removeAll(codecPayloadTypes);
+    final List<String> newLineParts = new ArrayList<>(origLineParts.subList(0, 3));
+    newLineParts.addAll(codecPayloadTypes);
+    newLineParts.addAll(unpreferredPayloadTypes);
+    lines[mLineIndex] = TextUtils.join(" ", newLineParts);
+    return TextUtils.join("\r\n", lines) + "\r\n";
+  }
+
+  // The regex based setStartBitrate() that PeerConnectionClient used before ParsedSdp, as a
+  // reference.
+  @SuppressWarnings("StringSplitter")
+  private static String regexSetStartBitrate(
+      String codec, boolean isVideoCodec, String sdp, int bitrateKbps) {
+    final String[] lines = sdp.split("\r\n");
+    final String bitrateSet = isVideoCodec ? "x-google-start-bitrate=" + bitrateKbps
+                                           : "maxaveragebitrate=" + (bitrateKbps * 1000);
+    int rtpmapLineIndex = -1;
+    String codecRtpMap = null;
+    Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$");
+    for (int i = 0; i < lines.length && codecRtpMap == null; i++) {
+      Matcher codecMatcher = codecPattern.matcher(lines[i]);
+      if (codecMatcher.matches()) {
+        codecRtpMap = codecMatcher.group(1);
+        rtpmapLineIndex = i;
+      }
+    }
+    if (codecRtpMap == null) {
+      return sdp;
+    }
+    boolean sdpFormatUpdated = false;
+    codecPattern = Pattern.compile("^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$");
+    for (int i = 0; i < lines.length && !sdpFormatUpdated; i++) {
+      if (codecPattern.matcher(lines[i]).matches()) {
+        lines[i] += "; " + bitrateSet;
+        sdpFormatUpdated = true;
+      }
+    }
+    final StringBuilder newSdpDescription = new StringBuilder();
+    for (int i = 0; i < lines.length; i++) {
+      newSdpDescription.append(lines[i]).append("\r\n");
+      if (!sdpFormatUpdated && i == rtpmapLineIndex) {
+        newSdpDescription.append("a=fmtp:" + codecRtpMap + " " + bitrateSet).append("\r\n");
+      }
+    }
+    return newSdpDescription.toString();
+  }
+
+  @Test
+  @SmallTest
+  public void testParsedSdpMatchesRegexMunging() throws InterruptedException {
+    for (String sdp : createOfferAndAnswer()) {
+      assertEquals(sdp, ParsedSdp.parse(sdp).toString());
+
+      for (String codec : new String[] {"ISAC", "opus", VIDEO_CODEC_VP8, VIDEO_CODEC_VP9,
+               VIDEO_CODEC_H264}) {
+        final boolean isAudio = codec.equals("ISAC") || codec.equals("opus");
+        final ParsedSdp parsedSdp = ParsedSdp.parse(sdp);
+        PeerConnectionClient.preferCodec(parsedSdp, codec, isAudio);
+        assertEquals(codec, regexPreferCodec(sdp, codec, isAudio), parsedSdp.toString());
+      }
+
+      // Only codecs whose a=fmtp line, if any, starts with key=<number> are compared, because
+      // the regex code added a second a=fmtp line for the others.
+      ParsedSdp parsedSdp = ParsedSdp.parse(sdp);
+      PeerConnectionClient.setStartBitrate("opus", false, parsedSdp, 32);
+      assertEquals(regexSetStartBitrate("opus", false, sdp, 32), parsedSdp.toString());
+      parsedSdp = ParsedSdp.parse(sdp);
+      PeerConnectionClient.setStartBitrate(VIDEO_CODEC_VP8, true, parsedSdp, 300);
+      assertEquals(regexSetStartBitrate(VIDEO_CODEC_VP8, true, sdp, 300), parsedSdp.toString());
+
+      // The edits that setRemoteDescription() makes with preferIsac and an audio start bitrate.
+      parsedSdp = ParsedSdp.parse(sdp);
+      PeerConnectionClient.preferCodec(parsedSdp, "ISAC", true);
+      PeerConnectionClient.preferCodec(parsedSdp, VIDEO_CODEC_VP8, false);
+      PeerConnectionClient.setStartBitrate("opus", false, parsedSdp, 32);
+      String expectedSdp = regexPreferCodec(sdp, "ISAC", true);
+      expectedSdp = regexPreferCodec(expectedSdp, VIDEO_CODEC_VP8, false);
+      expectedSdp = regexSetStartBitrate("opus", false, expectedSdp, 32);
+      assertEquals(expectedSdp, parsedSdp.toString());
+    }
+  }
 }
@@ -168,6 +168,9 @@ class FileRotatingStreamReader {
   ~FileRotatingStreamReader();
   size_t GetSize() const;
   size_t ReadAll(void* buffer, size_t size) const;
+  // Paths of the files in the order ReadAll() reads them, oldest first. Lets
+  // callers stream the logs instead of reading them into one buffer.
+  const std::vector<std::string>& file_names() const { return file_names_; }
 
  private:
   std::vector<std::string> file_names_;
@@ -0,0 +1,182 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers log messages to a Sink on a dedicated thread, so that slow sinks don't block the
+ * threads that log. Messages are passed through a bounded lock-free ring buffer that does not
+ * allocate per message. When the buffer is full, messages are dropped and counted instead of
+ * blocking the caller. This class is thread safe.
+ */
+class AsyncLogDispatcher {
+  private static final String THREAD_NAME = "WebRtcLogDispatcher";
+  // Upper bound on how long the dispatcher thread sleeps if a wakeup is missed.
+  private static final long MAX_PARK_NS = 100_000_000L;
+
+  interface Sink {
+    void onLogMessage(Logging.Severity severity, String tag, String message);
+  }
+
+  private final Sink sink;
+  private final int mask;
+  // Bounded multi-producer queue by Dmitry Vyukov. |sequences[i]| tells whether slot i is free to
+  // be written at position p (sequence == p) or holds the message at position p
+  // (sequence == p + 1).
+  private final AtomicLongArray sequences;
+  private final Logging.Severity[] severities;
+  private final String[] tags;
+  private final String[] messages;
+  private final AtomicLong tail = new AtomicLong();
+  // Only accessed on the dispatcher thread.
+  private long head;
+  private long reportedDroppedCount;
+
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicBoolean consumerParked = new AtomicBoolean();
+  private volatile boolean running = true;
+  private final Thread thread;
+
+  /** |capacity| must be a power of two. */
+  AsyncLogDispatcher(Sink sink, int capacity) {
+    if (Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+    }
+    this.sink = sink;
+    this.mask = capacity - 1;
+    this.sequences = new AtomicLongArray(capacity);
+    this.severities = new Logging.Severity[capacity];
+    this.tags = new String[capacity];
+    this.messages = new String[capacity];
+    for (int i = 0; i < capacity; ++i) {
+      sequences.set(i, i);
+    }
+    thread = new Thread(this::run, THREAD_NAME);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Queues a message. Returns false and counts the message as dropped if the queue is full. */
+  boolean dispatch(Logging.Severity severity, String tag, String message) {
+    long position = tail.get();
+    while (true) {
+      final int index = (int) position & mask;
+      final long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        droppedCount.incrementAndGet();
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+    final int index = (int) position & mask;
+    severities[index] = severity;
+    tags[index] = tag;
+    messages[index] = message;
+    // Publishes the slot to the dispatcher thread.
+    sequences.set(index, position + 1);
+    if (consumerParked.get()) {
+      LockSupport.unpark(thread);
+    }
+    return true;
+  }
+
+  /** Returns the number of messages dropped because the queue was full. */
+  long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Stops the dispatcher thread after it has delivered the queued messages. Messages dispatched
+   * concurrently with this call may be lost.
+   */
+  void shutdown() {
+    running = false;
+    LockSupport.unpark(thread);
+    boolean wasInterrupted = false;
+    while (true) {
+      try {
+        thread.join();
+        break;
+      } catch (InterruptedException e) {
+        wasInterrupted = true;
+      }
+    }
+    if (wasInterrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    while (true) {
+      if (deliverQueuedMessages()) {
+        continue;
+      }
+      if (!running) {
+        return;
+      }
+      consumerParked.set(true);
+      // Check again after announcing the park, so that a message queued in between is not left
+      // waiting for the timeout.
+      if (!isEmpty()) {
+        consumerParked.set(false);
+        continue;
+      }
+      LockSupport.parkNanos(this, MAX_PARK_NS);
+      consumerParked.set(false);
+    }
+  }
+
+  private boolean isEmpty() {
+    return sequences.get((int) head & mask) != head + 1;
+  }
+
+  // Delivers all queued messages. Returns false if there were none.
+  private boolean deliverQueuedMessages() {
+    boolean delivered = false;
+    while (!isEmpty()) {
+      final int index = (int) head & mask;
+      final Logging.Severity severity = severities[index];
+      final String tag = tags[index];
+      final String message = messages[index];
+      tags[index] = null;
+      messages[index] = null;
+      sequences.set(index, head + mask + 1);
+      ++head;
+      deliver(severity, tag, message);
+      delivered = true;
+    }
+    final long newDroppedCount = droppedCount.get();
+    if (delivered && newDroppedCount != reportedDroppedCount) {
+      deliver(Logging.Severity.LS_WARNING, "AsyncLogDispatcher",
+          "Dropped " + (newDroppedCount - reportedDroppedCount) + " log messages.");
+      reportedDroppedCount = newDroppedCount;
+    }
+    return delivered;
+  }
+
+  private void deliver(Logging.Severity severity, String tag, String message) {
+    try {
+      sink.onLogMessage(severity, tag, message);
+    } catch (RuntimeException e) {
+      // A throwing sink must not stop the delivery of later messages.
+    }
+  }
+}
@@ -14,6 +14,7 @@ import android.support.annotation.Nullable;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.EnumSet;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.webrtc.Loggable;
@@ -38,12 +39,27 @@ import org.webrtc.Loggable;
  *
  * Injecting a Loggable or using any of the enable... methods requires that the native library is
  * loaded, using PeerConnectionFactory.initialize.
+ *
+ * Messages that are expensive to build should be logged through the MessageSupplier or format
+ * overloads, or guarded by isLoggable(), so that no work is done when they are filtered out. After
+ * enableAsyncDispatch(), messages are delivered on a separate thread, so that a slow Loggable does
+ * not block the calling thread.
  */
 public class Logging {
   private static final Logger fallbackLogger = createFallbackLogger();
   private static volatile boolean loggingEnabled;
-  @Nullable private static Loggable loggable;
-  private static Severity loggableSeverity;
+  private static volatile Severity nativeSeverity = Severity.LS_NONE;
+  // Read by every thread that logs, and by the async dispatch thread. |loggableSeverity| is written
+  // before |loggable|, so that a thread that sees a Loggable also sees its severity.
+  @Nullable private static volatile Loggable loggable;
+  private static volatile Severity loggableSeverity;
+  private static final Object asyncDispatcherLock = new Object();
+  @Nullable private static volatile AsyncLogDispatcher asyncDispatcher;
+
+  /** Builds a log message only if it is going to be logged. */
+  public interface MessageSupplier {
+    String get();
+  }
 
   private static Logger createFallbackLogger() {
     final Logger fallbackLogger = Logger.getLogger("org.webrtc.Logging");
@@ -53,8 +69,8 @@ public class Logging {
 
   static void injectLoggable(Loggable injectedLoggable, Severity severity) {
     if (injectedLoggable != null) {
-      loggable = injectedLoggable;
       loggableSeverity = severity;
+      loggable = injectedLoggable;
     }
   }
 
@@ -114,19 +130,100 @@ public class Logging {
           + "Delete the Loggable before calling this method.");
     }
     nativeEnableLogToDebugOutput(severity.ordinal());
+    nativeSeverity = severity;
     loggingEnabled = true;
   }
 
+  /**
+   * Delivers log messages on a separate thread from now on. Up to |queueCapacity| messages, which
+   * must be a power of two, are queued. Messages logged while the queue is full are dropped, see
+   * getDroppedMessageCount().
+   */
+  public static void enableAsyncDispatch(int queueCapacity) {
+    synchronized (asyncDispatcherLock) {
+      if (asyncDispatcher != null) {
+        return;
+      }
+      asyncDispatcher = new AsyncLogDispatcher(Logging::deliver, queueCapacity);
+    }
+  }
+
+  /** Delivers the queued messages and returns to logging on the calling thread. */
+  public static void disableAsyncDispatch() {
+    synchronized (asyncDispatcherLock) {
+      final AsyncLogDispatcher dispatcher = asyncDispatcher;
+      if (dispatcher == null) {
+        return;
+      }
+      asyncDispatcher = null;
+      dispatcher.shutdown();
+    }
+  }
+
+  /** Returns the number of messages dropped by the current async dispatcher. */
+  public static long getDroppedMessageCount() {
+    final AsyncLogDispatcher dispatcher = asyncDispatcher;
+    return dispatcher == null ? 0 : dispatcher.getDroppedCount();
+  }
+
+  /** Returns false if messages of |severity| are discarded and don't need to be built. */
+  public static boolean isLoggable(Severity severity) {
+    if (loggable != null) {
+      return severity.ordinal() >= loggableSeverity.ordinal();
+    }
+    if (loggingEnabled) {
+      return severity.ordinal() >= nativeSeverity.ordinal();
+    }
+    return fallbackLogger.isLoggable(toLevel(severity));
+  }
+
   public static void log(Severity severity, String tag, String message) {
     if (tag == null || message == null) {
       throw new IllegalArgumentException("Logging tag or message may not be null.");
     }
-    if (loggable != null) {
+    final AsyncLogDispatcher dispatcher = asyncDispatcher;
+    if (dispatcher != null) {
+      if (isLoggable(severity)) {
+        dispatcher.dispatch(severity, tag, message);
+      }
+      return;
+    }
+    deliver(severity, tag, message);
+  }
+
+  // Queues a message that has already been filtered, e.g. by native logging. Returns false if async
+  // dispatch is disabled and the caller has to deliver the message itself.
+  static boolean dispatchAsync(Severity severity, String tag, String message) {
+    final AsyncLogDispatcher dispatcher = asyncDispatcher;
+    if (dispatcher == null) {
+      return false;
+    }
+    dispatcher.dispatch(severity, tag, message);
+    return true;
+  }
+
+  /** Calls |messageSupplier| and logs the result only if messages of |severity| are logged. */
+  public static void log(Severity severity, String tag, MessageSupplier messageSupplier) {
+    if (isLoggable(severity)) {
+      log(severity, tag, messageSupplier.get());
+    }
+  }
+
+  /** Formats the message only if messages of |severity| are logged. */
+  public static void log(Severity severity, String tag, String format, Object... args) {
+    if (isLoggable(severity)) {
+      log(severity, tag, String.format(Locale.US, format, args));
+    }
+  }
+
+  private static void deliver(Severity severity, String tag, String message) {
+    final Loggable currentLoggable = loggable;
+    if (currentLoggable != null) {
       // Filter log messages below loggableSeverity.
       if (severity.ordinal() < loggableSeverity.ordinal()) {
         return;
       }
-      loggable.onLogMessage(message, severity, tag);
+      currentLoggable.onLogMessage(message, severity, tag);
       return;
     }
 
@@ -137,22 +234,20 @@ public class Logging {
     }
 
     // Fallback to system log.
-    Level level;
+    fallbackLogger.log(toLevel(severity), tag + ": " + message);
+  }
+
+  private static Level toLevel(Severity severity) {
     switch (severity) {
       case LS_ERROR:
-        level = Level.SEVERE;
-        break;
+        return Level.SEVERE;
       case LS_WARNING:
-        level = Level.WARNING;
-        break;
+        return Level.WARNING;
       case LS_INFO:
-        level = Level.INFO;
-        break;
+        return Level.INFO;
       default:
-        level = Level.FINE;
-        break;
+        return Level.FINE;
     }
-    fallbackLogger.log(level, tag + ": " + message);
   }
 
   public static void d(String tag, String message) {
@@ -183,6 +278,38 @@ public class Logging {
     log(Severity.LS_VERBOSE, tag, message);
   }
 
+  public static void d(String tag, MessageSupplier messageSupplier) {
+    log(Severity.LS_INFO, tag, messageSupplier);
+  }
+
+  public static void e(String tag, MessageSupplier messageSupplier) {
+    log(Severity.LS_ERROR, tag, messageSupplier);
+  }
+
+  public static void w(String tag, MessageSupplier messageSupplier) {
+    log(Severity.LS_WARNING, tag, messageSupplier);
+  }
+
+  public static void v(String tag, MessageSupplier messageSupplier) {
+    log(Severity.LS_VERBOSE, tag, messageSupplier);
+  }
+
+  public static void d(String tag, String format, Object... args) {
+    log(Severity.LS_INFO, tag, format, args);
+  }
+
+  public static void e(String tag, String format, Object... args) {
+    log(Severity.LS_ERROR, tag, format, args);
+  }
+
+  public static void w(String tag, String format, Object... args) {
+    log(Severity.LS_WARNING, tag, format, args);
+  }
+
+  public static void v(String tag, String format, Object... args) {
+    log(Severity.LS_VERBOSE, tag, format, args);
+  }
+
   private static String getStackTraceString(Throwable e) {
     if (e == null) {
       return "";
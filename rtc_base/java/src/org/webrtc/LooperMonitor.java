@@ -0,0 +1,403 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Printer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opt-in latency instrumentation for Looper threads. For each monitored thread it measures how long
+ * messages wait in the queue and how long they take to handle, keeps histograms of both, and calls
+ * a StallCallback when either exceeds a threshold.
+ *
+ * Queue delay is sampled by posting a probe message from a watchdog thread at a regular interval.
+ * A probe that has not run within the threshold is reported while the thread is still stuck.
+ * Handling time is measured for every message through Looper.setMessageLogging(), which makes the
+ * looper build a log string per message, so this should only be enabled when the data is wanted.
+ * Looper has no getter for its Printer, so a Printer set directly on a monitored looper is
+ * replaced. Set it with setMessageLogging() of this class instead, which forwards every line to
+ * it while the looper is monitored.
+ *
+ * Components of the SDK that own a HandlerThread, e.g. EglRenderer and SurfaceTextureHelper, call
+ * monitor() when they create it and unmonitor() before they quit it. Call enable() before creating
+ * them.
+ */
+public class LooperMonitor {
+  private static final String TAG = "LooperMonitor";
+  private static final String WATCHDOG_THREAD_NAME = "WebRtcLooperWatchdog";
+  private static final long MAX_PROBE_INTERVAL_MS = 1000;
+  // Upper bounds of the histogram buckets. The last bucket holds everything above.
+  private static final long[] BUCKET_UPPER_BOUNDS_MS = {
+      0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+  public enum StallType {
+    // A message waited in the queue for longer than the threshold.
+    QUEUE_DELAY,
+    // Handling one message took longer than the threshold.
+    HANDLING_TIME
+  }
+
+  public interface StallCallback {
+    /** Called on the watchdog thread or on the stalled thread. Must return quickly. */
+    void onStall(String threadName, StallType type, long durationMs);
+  }
+
+  /** Latency histograms of one thread, see getStats(). */
+  public static class Stats {
+    private final String threadName;
+    private final long[] queueDelayCounts;
+    private final long[] handlingTimeCounts;
+    private final long maxQueueDelayMs;
+    private final long maxHandlingTimeMs;
+
+    Stats(String threadName, long[] queueDelayCounts, long[] handlingTimeCounts,
+        long maxQueueDelayMs, long maxHandlingTimeMs) {
+      this.threadName = threadName;
+      this.queueDelayCounts = queueDelayCounts;
+      this.handlingTimeCounts = handlingTimeCounts;
+      this.maxQueueDelayMs = maxQueueDelayMs;
+      this.maxHandlingTimeMs = maxHandlingTimeMs;
+    }
+
+    public String getThreadName() {
+      return threadName;
+    }
+
+    /** Returns the number of queue delay samples, i.e. of probes that have run. */
+    public long getQueueDelaySampleCount() {
+      return sum(queueDelayCounts);
+    }
+
+    /** Returns the number of handled messages. */
+    public long getHandledMessageCount() {
+      return sum(handlingTimeCounts);
+    }
+
+    public long getMaxQueueDelayMs() {
+      return maxQueueDelayMs;
+    }
+
+    public long getMaxHandlingTimeMs() {
+      return maxHandlingTimeMs;
+    }
+
+    /**
+     * Returns an upper bound of the |percentile|th percentile of the queue delay, rounded up to
+     * the histogram bucket, or -1 if there are no samples.
+     */
+    public long getQueueDelayPercentileMs(double percentile) {
+      return getPercentile(queueDelayCounts, maxQueueDelayMs, percentile);
+    }
+
+    /** Like getQueueDelayPercentileMs(), for the handling time. */
+    public long getHandlingTimePercentileMs(double percentile) {
+      return getPercentile(handlingTimeCounts, maxHandlingTimeMs, percentile);
+    }
+
+    private static long sum(long[] counts) {
+      long sum = 0;
+      for (long count : counts) {
+        sum += count;
+      }
+      return sum;
+    }
+
+    private static long getPercentile(long[] counts, long max, double percentile) {
+      final long totalCount = sum(counts);
+      if (totalCount == 0) {
+        return -1;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+      long cumulativeCount = 0;
+      for (int i = 0; i < counts.length; ++i) {
+        cumulativeCount += counts[i];
+        if (cumulativeCount >= rank) {
+          // The maximum is a tighter bound for the highest buckets.
+          return i < BUCKET_UPPER_BOUNDS_MS.length ? Math.min(BUCKET_UPPER_BOUNDS_MS[i], max) : max;
+        }
+      }
+      return max;
+    }
+  }
+
+  /** Measurements of one thread. Public methods are thread safe. */
+  static class ThreadMonitor implements Printer {
+    private final String threadName;
+    private final Handler handler;
+    private final long thresholdMs;
+    private final StallCallback callback;
+    // Printer set by the app through setMessageLogging(), which gets every line.
+    @Nullable volatile Printer delegate;
+    private final Runnable probe = this::onProbe;
+
+    private final Object lock = new Object();
+    private final long[] queueDelayCounts = new long[BUCKET_UPPER_BOUNDS_MS.length + 1];
+    private final long[] handlingTimeCounts = new long[BUCKET_UPPER_BOUNDS_MS.length + 1];
+    private long maxQueueDelayMs; /* guarded by lock */
+    private long maxHandlingTimeMs; /* guarded by lock */
+    // Time the outstanding probe was posted, or -1 if there is none.
+    private long probePostedMs = -1; /* guarded by lock */
+    private boolean probeReported; /* guarded by lock */
+    // Only accessed on the monitored thread. -1 when no message is being handled.
+    private long dispatchStartMs = -1;
+
+    ThreadMonitor(String threadName, Handler handler, long thresholdMs, StallCallback callback) {
+      this.threadName = threadName;
+      this.handler = handler;
+      this.thresholdMs = thresholdMs;
+      this.callback = callback;
+    }
+
+    // Called by the looper before and after each message.
+    @Override
+    public void println(String line) {
+      final Printer printer = delegate;
+      if (printer != null) {
+        printer.println(line);
+      }
+      if (line.startsWith(">")) {
+        onDispatchStart(SystemClock.uptimeMillis());
+      } else if (line.startsWith("<")) {
+        onDispatchEnd(SystemClock.uptimeMillis());
+      }
+    }
+
+    void onDispatchStart(long nowMs) {
+      dispatchStartMs = nowMs;
+    }
+
+    void onDispatchEnd(long nowMs) {
+      if (dispatchStartMs < 0) {
+        return;
+      }
+      final long handlingTimeMs = nowMs - dispatchStartMs;
+      dispatchStartMs = -1;
+      synchronized (lock) {
+        ++handlingTimeCounts[getBucket(handlingTimeMs)];
+        maxHandlingTimeMs = Math.max(maxHandlingTimeMs, handlingTimeMs);
+      }
+      if (handlingTimeMs > thresholdMs) {
+        callback.onStall(threadName, StallType.HANDLING_TIME, handlingTimeMs);
+      }
+    }
+
+    /**
+     * Called periodically on the watchdog thread. Reports an outstanding probe that is overdue,
+     * or posts a new one. Returns false if the thread has quit.
+     */
+    boolean check(long nowMs) {
+      // Looper.quit() silently drops a probe that is already queued, so the outstanding probe
+      // would look stuck forever.
+      if (!handler.getLooper().getThread().isAlive()) {
+        return false;
+      }
+      long overdueMs = -1;
+      synchronized (lock) {
+        if (probePostedMs >= 0) {
+          if (!probeReported && nowMs - probePostedMs > thresholdMs) {
+            probeReported = true;
+            overdueMs = nowMs - probePostedMs;
+          }
+        } else {
+          probePostedMs = nowMs;
+          probeReported = false;
+          if (!handler.post(probe)) {
+            return false;
+          }
+        }
+      }
+      if (overdueMs >= 0) {
+        callback.onStall(threadName, StallType.QUEUE_DELAY, overdueMs);
+      }
+      return true;
+    }
+
+    // Stops the outstanding probe. Called when the thread is no longer monitored.
+    void cancelProbe() {
+      handler.removeCallbacks(probe);
+      synchronized (lock) {
+        probePostedMs = -1;
+      }
+    }
+
+    private void onProbe() {
+      final long queueDelayMs;
+      final boolean alreadyReported;
+      synchronized (lock) {
+        queueDelayMs = SystemClock.uptimeMillis() - probePostedMs;
+        alreadyReported = probeReported;
+        probePostedMs = -1;
+        ++queueDelayCounts[getBucket(queueDelayMs)];
+        maxQueueDelayMs = Math.max(maxQueueDelayMs, queueDelayMs);
+      }
+      if (queueDelayMs > thresholdMs && !alreadyReported) {
+        callback.onStall(threadName, StallType.QUEUE_DELAY, queueDelayMs);
+      }
+    }
+
+    Stats getStats() {
+      synchronized (lock) {
+        return new Stats(threadName, queueDelayCounts.clone(), handlingTimeCounts.clone(),
+            maxQueueDelayMs, maxHandlingTimeMs);
+      }
+    }
+
+    private static int getBucket(long durationMs) {
+      for (int i = 0; i < BUCKET_UPPER_BOUNDS_MS.length; ++i) {
+        if (durationMs <= BUCKET_UPPER_BOUNDS_MS[i]) {
+          return i;
+        }
+      }
+      return BUCKET_UPPER_BOUNDS_MS.length;
+    }
+  }
+
+  private static final Object lock = new Object();
+  @Nullable private static HandlerThread watchdogThread; /* guarded by lock */
+  @Nullable private static Handler watchdogHandler; /* guarded by lock */
+  @Nullable private static StallCallback stallCallback; /* guarded by lock */
+  private static long stallThresholdMs; /* guarded by lock */
+  private static final List<ThreadMonitor> monitors = new ArrayList<>(); /* guarded by lock */
+
+  /**
+   * Starts monitoring threads passed to monitor() from now on. |callback| is called when a message
+   * waits or takes longer than |thresholdMs|.
+   */
+  public static void enable(long thresholdMs, StallCallback callback) {
+    if (thresholdMs <= 0 || callback == null) {
+      throw new IllegalArgumentException("Invalid threshold or callback.");
+    }
+    synchronized (lock) {
+      if (watchdogThread != null) {
+        throw new IllegalStateException("LooperMonitor is already enabled.");
+      }
+      watchdogThread = new HandlerThread(WATCHDOG_THREAD_NAME);
+      watchdogThread.start();
+      watchdogHandler = new Handler(watchdogThread.getLooper());
+      stallCallback = callback;
+      stallThresholdMs = thresholdMs;
+      scheduleCheck(watchdogHandler, Math.min(thresholdMs, MAX_PROBE_INTERVAL_MS));
+    }
+  }
+
+  /** Stops monitoring all threads and removes the collected stats. */
+  public static void disable() {
+    synchronized (lock) {
+      if (watchdogThread == null) {
+        return;
+      }
+      watchdogThread.quit();
+      watchdogThread = null;
+      watchdogHandler = null;
+      stallCallback = null;
+      for (ThreadMonitor monitor : monitors) {
+        stopMonitoring(monitor);
+      }
+      monitors.clear();
+    }
+  }
+
+  /**
+   * Monitors the thread of |handler| if enable() has been called. Threads are forgotten when
+   * unmonitor() is called or, at the latest, at the next probe after they have exited.
+   */
+  public static void monitor(String threadName, Handler handler) {
+    synchronized (lock) {
+      if (watchdogThread == null) {
+        return;
+      }
+      final ThreadMonitor monitor =
+          new ThreadMonitor(threadName, handler, stallThresholdMs, stallCallback);
+      handler.getLooper().setMessageLogging(monitor);
+      monitors.add(monitor);
+    }
+  }
+
+  /**
+   * Stops monitoring the thread of |handler|. Owners call this before quitting the thread, because
+   * quitting drops an outstanding probe, which would be reported as a stall until the thread has
+   * exited.
+   */
+  public static void unmonitor(Handler handler) {
+    final Looper looper = handler.getLooper();
+    synchronized (lock) {
+      for (int i = monitors.size() - 1; i >= 0; --i) {
+        final ThreadMonitor monitor = monitors.get(i);
+        if (monitor.handler.getLooper() == looper) {
+          stopMonitoring(monitor);
+          monitors.remove(i);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets a Printer for the messages of the looper of |handler|, like Looper.setMessageLogging().
+   * If the looper is monitored, the Printer gets every line through the monitor. Pass null to
+   * remove it.
+   */
+  public static void setMessageLogging(Handler handler, @Nullable Printer printer) {
+    final Looper looper = handler.getLooper();
+    synchronized (lock) {
+      for (ThreadMonitor monitor : monitors) {
+        if (monitor.handler.getLooper() == looper) {
+          monitor.delegate = printer;
+          return;
+        }
+      }
+    }
+    looper.setMessageLogging(printer);
+  }
+
+  // Must be called with |lock| held. Restores the Printer of the app.
+  private static void stopMonitoring(ThreadMonitor monitor) {
+    monitor.handler.getLooper().setMessageLogging(monitor.delegate);
+    monitor.cancelProbe();
+  }
+
+  /** Returns the stats of all monitored threads that are still running. */
+  public static List<Stats> getStats() {
+    final List<Stats> stats = new ArrayList<>();
+    synchronized (lock) {
+      for (ThreadMonitor monitor : monitors) {
+        stats.add(monitor.getStats());
+      }
+    }
+    return stats;
+  }
+
+  private static void scheduleCheck(final Handler handler, final long intervalMs) {
+    handler.postDelayed(new Runnable() {
+      @Override
+      public void run() {
+        final long nowMs = SystemClock.uptimeMillis();
+        synchronized (lock) {
+          if (watchdogHandler != handler) {
+            return;
+          }
+          for (int i = monitors.size() - 1; i >= 0; --i) {
+            if (!monitors.get(i).check(nowMs)) {
+              Logging.d(TAG, "Stopped monitoring " + monitors.get(i).threadName);
+              monitors.remove(i);
+            }
+          }
+        }
+        handler.postDelayed(this, intervalMs);
+      }
+    }, intervalMs);
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+/**
+ * Histogram for samples that are added often, e.g. per frame or per packet. Samples are counted in
+ * Java and passed to the native histogram of the same name in batches, at least once a second and
+ * whenever Metrics are read, so adding one is cheap and doesn't call into native.
+ *
+ * Since there is no way to destroy a histogram, create one instance per name, e.g. in a static
+ * field. This class is thread safe.
+ *
+ * Usage example:
+ * private static final BatchedHistogram frameLatencyHistogram =
+ *     BatchedHistogram.createCounts("MyApp.Video.FrameLatencyMs", 1, 10000, 50);
+ * frameLatencyHistogram.addSample(latencyMs);
+ */
+public class BatchedHistogram {
+  private final Histogram histogram;
+
+  private BatchedHistogram(Histogram histogram) {
+    this.histogram = histogram;
+  }
+
+  /** Creates a histogram of |bucketCount| exponentially growing buckets between |min| and |max|. */
+  public static BatchedHistogram createCounts(String name, int min, int max, int bucketCount) {
+    return new BatchedHistogram(Histogram.createBatchedCounts(name, min, max, bucketCount));
+  }
+
+  /** Creates a histogram with one bucket for each of the values 0 to |max| - 1. */
+  public static BatchedHistogram createEnumeration(String name, int max) {
+    return new BatchedHistogram(Histogram.createBatchedEnumeration(name, max));
+  }
+
+  public void addSample(int sample) {
+    histogram.addSample(sample);
+  }
+}
@@ -10,9 +10,26 @@
 
 package org.webrtc;
 
+import android.support.annotation.Nullable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
 public class CallSessionFileRotatingLogSink {
+  private static final String TAG = "CallSessionFileRotatingLogSink";
+  private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
   private long nativeSink;
 
+  /**
+   * Returns the logs in |dirPath| in one array. Prefer openLogData() or writeLogData(), which don't
+   * need memory for the whole log.
+   */
   public static byte[] getLogData(String dirPath) {
     if (dirPath == null) {
       throw new IllegalArgumentException("dirPath may not be null.");
@@ -20,6 +37,108 @@ public class CallSessionFileRotatingLogSink {
     return nativeGetLogData(dirPath);
   }
 
+  /**
+   * Returns a stream over the logs in |dirPath|, in the same order as getLogData(). All files are
+   * opened right away, so rotation while the stream is read, which renames and deletes files, does
+   * not change what the stream returns. A rotation in the short time between listing and opening
+   * the files can still cause the contents of one file to be skipped or returned twice. The caller
+   * must close the stream.
+   */
+  public static InputStream openLogData(String dirPath) {
+    if (dirPath == null) {
+      throw new IllegalArgumentException("dirPath may not be null.");
+    }
+    return new LogFilesInputStream(nativeGetLogFileNames(dirPath));
+  }
+
+  /**
+   * Writes the logs in |dirPath| to |output| using a small fixed buffer, gzip compressed if
+   * |compress| is true. |output| is flushed but not closed.
+   */
+  public static void writeLogData(String dirPath, OutputStream output, boolean compress)
+      throws IOException {
+    try (InputStream input = openLogData(dirPath)) {
+      copy(input, output, compress);
+    }
+  }
+
+  static void copy(InputStream input, OutputStream output, boolean compress) throws IOException {
+    final OutputStream target = compress ? new GZIPOutputStream(output, COPY_BUFFER_SIZE) : output;
+    final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    int read;
+    while ((read = input.read(buffer)) != -1) {
+      target.write(buffer, 0, read);
+    }
+    if (compress) {
+      // Writes the gzip trailer without closing |output|.
+      ((GZIPOutputStream) target).finish();
+    }
+    output.flush();
+  }
+
+  /**
+   * Reads a list of files one after the other. The files are opened on construction, files that
+   * don't exist anymore are skipped.
+   */
+  static class LogFilesInputStream extends InputStream {
+    private final List<InputStream> files = new ArrayList<>();
+    private final byte[] oneByte = new byte[1];
+    private int nextFileIndex;
+    @Nullable private InputStream currentFile;
+
+    LogFilesInputStream(String[] fileNames) {
+      for (String fileName : fileNames) {
+        try {
+          files.add(new FileInputStream(fileName));
+        } catch (FileNotFoundException e) {
+          Logging.w(TAG, "Skipping log file removed by rotation: " + fileName);
+        }
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int read = read(oneByte, 0, 1);
+      return read == -1 ? -1 : oneByte[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      while (currentFile != null || openNextFile()) {
+        final int read = currentFile.read(buffer, offset, length);
+        if (read != -1) {
+          return read;
+        }
+        currentFile.close();
+        currentFile = null;
+      }
+      return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (currentFile != null) {
+        currentFile.close();
+        currentFile = null;
+      }
+      while (nextFileIndex < files.size()) {
+        files.get(nextFileIndex++).close();
+      }
+    }
+
+    // Moves on to the next file. Returns false at the end of the list.
+    private boolean openNextFile() {
+      if (nextFileIndex >= files.size()) {
+        return false;
+      }
+      currentFile = files.get(nextFileIndex++);
+      return true;
+    }
+  }
+
   public CallSessionFileRotatingLogSink(
       String dirPath, int maxFileSize, Logging.Severity severity) {
     if (dirPath == null) {
@@ -38,4 +157,5 @@ public class CallSessionFileRotatingLogSink {
   private static native long nativeAddSink(String dirPath, int maxFileSize, int severity);
   private static native void nativeDeleteSink(long sink);
   private static native byte[] nativeGetLogData(String dirPath);
+  private static native String[] nativeGetLogFileNames(String dirPath);
 }
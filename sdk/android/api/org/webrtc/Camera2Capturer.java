@@ -13,12 +13,15 @@ package org.webrtc;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.hardware.camera2.CameraManager;
+import android.os.Handler;
 import android.support.annotation.Nullable;
 
 @TargetApi(21)
 public class Camera2Capturer extends CameraCapturer {
   private final Context context;
   @Nullable private final CameraManager cameraManager;
+  // Only accessed on the camera thread.
+  @Nullable private Camera2Prewarmer cameraPrewarmer;
 
   public Camera2Capturer(Context context, String cameraName, CameraEventsHandler eventsHandler) {
     super(cameraName, eventsHandler, new Camera2Enumerator(context));
@@ -33,6 +36,22 @@ public class Camera2Capturer extends CameraCapturer {
       SurfaceTextureHelper surfaceTextureHelper, String cameraName, int width, int height,
       int framerate) {
     Camera2Session.create(createSessionCallback, events, applicationContext, cameraManager,
-        surfaceTextureHelper, cameraName, width, height, framerate);
+        surfaceTextureHelper, cameraName, width, height, framerate, cameraPrewarmer);
+  }
+
+  @Override
+  protected void prewarmCamera(String cameraName, int maxPrewarmDurationMs) {
+    if (cameraPrewarmer == null) {
+      cameraPrewarmer =
+          new Camera2Prewarmer(cameraManager, new Handler(), this::onPrewarmedCameraReleased);
+    }
+    cameraPrewarmer.prewarm(cameraName, maxPrewarmDurationMs);
+  }
+
+  @Override
+  protected void releasePrewarmedCamera() {
+    if (cameraPrewarmer != null) {
+      cameraPrewarmer.release();
+    }
   }
 }
@@ -41,6 +41,12 @@ public interface CameraVideoCapturer extends VideoCapturer {
 
     // Callback invoked when camera is closed.
     void onCameraClosed();
+
+    // Callback invoked when the first frame is available after a camera switch. |switchLatencyMs|
+    // is the time since switchCamera() was called. |usedPrewarmedCamera| is true if the camera
+    // had been prewarmed, see CameraCapturer.enableCameraPrewarming().
+    default void onCameraSwitchLatency(
+        String cameraName, long switchLatencyMs, boolean usedPrewarmedCamera) {}
   }
 
   /**
@@ -226,6 +226,7 @@ public class EglRenderer implements VideoSink {
               }
             }
           });
+      LooperMonitor.monitor(renderThread.getName(), renderThreadHandler);
       // Create EGL context on the newly created render thread. It should be possibly to create the
       // context on this thread and make it current on the render thread, but this causes failure on
       // some Marvel based JB devices. https://bugs.chromium.org/p/webrtc/issues/detail?id=6350.
@@ -309,6 +310,7 @@ public class EglRenderer implements VideoSink {
         eglCleanupBarrier.countDown();
       });
       final Looper renderLooper = renderThreadHandler.getLooper();
+      LooperMonitor.unmonitor(renderThreadHandler);
       // TODO(magjed): Replace this post() with renderLooper.quitSafely() when API support >= 18.
       renderThreadHandler.post(() -> {
         logD("Quitting render thread.");
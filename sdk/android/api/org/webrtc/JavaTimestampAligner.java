@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+/**
+ * Java implementation of rtc::TimestampAligner. Produces the same output as {@link
+ * TimestampAligner}, but without a JNI call per translated timestamp. The system clock is read
+ * with System.nanoTime(), which is the same clock as rtc::TimeNanos() on Android unless a fake
+ * clock has been injected in native code.
+ *
+ * <p>This class is not thread safe.
+ */
+public class JavaTimestampAligner {
+  private static final String TAG = "JavaTimestampAligner";
+  private static final long NUM_NANOSECS_PER_MICROSEC = 1000;
+  // See rtc_base/timestamp_aligner.cc for a description of these constants.
+  private static final long RESET_THRESHOLD_US = 300000;
+  private static final int WINDOW_SIZE = 100;
+  private static final long MIN_FRAME_INTERVAL_US = 1000;
+
+  private int framesSeen;
+  private long offsetUs;
+  private long clipBiasUs;
+  private long prevTranslatedTimeUs = Long.MIN_VALUE;
+
+  /**
+   * Translates camera timestamps to the same timescale as is used by rtc::TimeNanos().
+   * |cameraTimeNs| is assumed to be accurate, but with an unknown epoch and clock drift. Returns
+   * the translated timestamp.
+   */
+  public long translateTimestamp(long cameraTimeNs) {
+    return translateTimestamp(cameraTimeNs, System.nanoTime());
+  }
+
+  /**
+   * Same as above, but with the current system time passed in explicitly. |systemTimeNs| must use
+   * the rtc::TimeNanos() timescale.
+   */
+  public long translateTimestamp(long cameraTimeNs, long systemTimeNs) {
+    final long capturerTimeUs = cameraTimeNs / NUM_NANOSECS_PER_MICROSEC;
+    final long systemTimeUs = systemTimeNs / NUM_NANOSECS_PER_MICROSEC;
+    return clipTimestamp(capturerTimeUs + updateOffset(capturerTimeUs, systemTimeUs), systemTimeUs)
+        * NUM_NANOSECS_PER_MICROSEC;
+  }
+
+  private long updateOffset(long capturerTimeUs, long systemTimeUs) {
+    // Estimates the offset between the system clock and the capturer clock as an average of
+    // (system time - capturer time), using plain averaging for the first samples followed by
+    // exponential averaging.
+    final long diffUs = systemTimeUs - capturerTimeUs;
+    final long errorUs = diffUs - offsetUs;
+
+    // Reset the filter if the capturer clock jumps, e.g. the camera is reopened or the process is
+    // suspended. This is expected for the very first timestamp.
+    if (Math.abs(errorUs) > RESET_THRESHOLD_US) {
+      Logging.d(TAG, "Resetting timestamp translation after averaging " + framesSeen
+              + " frames. Old offset: " + offsetUs + ", new offset: " + diffUs);
+      framesSeen = 0;
+      clipBiasUs = 0;
+    }
+
+    if (framesSeen < WINDOW_SIZE) {
+      ++framesSeen;
+    }
+    offsetUs += errorUs / framesSeen;
+    return offsetUs;
+  }
+
+  private long clipTimestamp(long filteredTimeUs, long systemTimeUs) {
+    // Clip to make sure we don't produce timestamps in the future.
+    long timeUs = filteredTimeUs - clipBiasUs;
+    if (timeUs > systemTimeUs) {
+      clipBiasUs += timeUs - systemTimeUs;
+      timeUs = systemTimeUs;
+    } else if (timeUs < prevTranslatedTimeUs + MIN_FRAME_INTERVAL_US) {
+      // Make timestamps monotonic, with a minimum inter-frame interval of 1 ms.
+      timeUs = prevTranslatedTimeUs + MIN_FRAME_INTERVAL_US;
+      if (timeUs > systemTimeUs) {
+        Logging.w(TAG, "Too short translated timestamp interval: system time (us) = "
+                + systemTimeUs + ", interval (us) = " + (systemTimeUs - prevTranslatedTimeUs));
+        timeUs = systemTimeUs;
+      }
+    }
+    prevTranslatedTimeUs = timeUs;
+    return timeUs;
+  }
+}
@@ -10,7 +10,11 @@
 
 package org.webrtc;
 
+import android.support.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 // Java-side of androidmetrics.cc
@@ -28,6 +32,10 @@ import java.util.Map;
 // Most histograms are not updated frequently (e.g. most video metrics are an
 // average over the call and recorded when a stream is removed).
 // The metrics can for example be retrieved when a peer connection is closed.
+//
+// For periodic export, getSnapshot() reads the histograms without clearing
+// them, so several consumers can observe the same metrics. Use
+// Snapshot.deltaSince() to get the samples added between two snapshots.
 public class Metrics {
   private static final String TAG = "Metrics";
 
@@ -60,6 +68,181 @@ public class Metrics {
     }
   }
 
+  /**
+   * Histogram samples in primitive arrays, sorted by sample value. The underflow and overflow
+   * buckets hold the values |min| - 1 and |max|.
+   */
+  public static class HistogramSnapshot {
+    private final int min;
+    private final int max;
+    private final int bucketCount;
+    private final int[] values;
+    private final int[] counts;
+    private final long totalCount;
+
+    HistogramSnapshot(int min, int max, int bucketCount, int[] values, int[] counts) {
+      this.min = min;
+      this.max = max;
+      this.bucketCount = bucketCount;
+      this.values = values;
+      this.counts = counts;
+      long totalCount = 0;
+      for (int count : counts) {
+        totalCount += count;
+      }
+      this.totalCount = totalCount;
+    }
+
+    public int getMin() {
+      return min;
+    }
+
+    public int getMax() {
+      return max;
+    }
+
+    public int getBucketCount() {
+      return bucketCount;
+    }
+
+    /** Returns the number of distinct sample values. */
+    public int getValueCount() {
+      return values.length;
+    }
+
+    /** Returns the |index|th smallest sample value. */
+    public int getValue(int index) {
+      return values[index];
+    }
+
+    /** Returns the number of events with the |index|th smallest sample value. */
+    public int getCount(int index) {
+      return counts[index];
+    }
+
+    /** Returns the total number of events. */
+    public long getTotalCount() {
+      return totalCount;
+    }
+
+    /** Returns the mean of all events, or NaN if there are none. */
+    public double getMean() {
+      if (totalCount == 0) {
+        return Double.NaN;
+      }
+      long sum = 0;
+      for (int i = 0; i < values.length; ++i) {
+        sum += (long) values[i] * counts[i];
+      }
+      return (double) sum / totalCount;
+    }
+
+    /**
+     * Returns the smallest sample value that at least |percentile| percent of the events are less
+     * than or equal to, or NaN if there are no events.
+     */
+    public double getPercentile(double percentile) {
+      if (totalCount == 0) {
+        return Double.NaN;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+      long cumulativeCount = 0;
+      for (int i = 0; i < values.length; ++i) {
+        cumulativeCount += counts[i];
+        if (cumulativeCount >= rank) {
+          return values[i];
+        }
+      }
+      return values[values.length - 1];
+    }
+
+    // Returns the events added since |previous|, or null if there are none. A count lower than in
+    // |previous| means that the histogram has been reset in between, and is taken as is.
+    @Nullable
+    HistogramSnapshot deltaSince(HistogramSnapshot previous) {
+      final int[] deltaValues = new int[values.length];
+      final int[] deltaCounts = new int[values.length];
+      int deltaSize = 0;
+      int previousIndex = 0;
+      for (int i = 0; i < values.length; ++i) {
+        while (previousIndex < previous.values.length
+            && previous.values[previousIndex] < values[i]) {
+          ++previousIndex;
+        }
+        int count = counts[i];
+        if (previousIndex < previous.values.length && previous.values[previousIndex] == values[i]
+            && previous.counts[previousIndex] <= count) {
+          count -= previous.counts[previousIndex];
+        }
+        if (count > 0) {
+          deltaValues[deltaSize] = values[i];
+          deltaCounts[deltaSize] = count;
+          ++deltaSize;
+        }
+      }
+      if (deltaSize == 0) {
+        return null;
+      }
+      return new HistogramSnapshot(min, max, bucketCount, Arrays.copyOf(deltaValues, deltaSize),
+          Arrays.copyOf(deltaCounts, deltaSize));
+    }
+  }
+
+  /** Histograms with at least one event, taken by getSnapshot() without clearing them. */
+  public static class Snapshot {
+    private final Map<String, HistogramSnapshot> histograms;
+
+    private Snapshot(Map<String, HistogramSnapshot> histograms) {
+      this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    // Histogram |i| has the name |names[i]|, min, max and bucket count in |info[4 * i]| to
+    // |info[4 * i + 2]|, and |info[4 * i + 3]| sample values in the next entries of |values| and
+    // |counts|.
+    @CalledByNative("Snapshot")
+    static Snapshot create(String[] names, int[] info, int[] values, int[] counts) {
+      final Map<String, HistogramSnapshot> histograms = new LinkedHashMap<>();
+      int offset = 0;
+      for (int i = 0; i < names.length; ++i) {
+        final int valueCount = info[4 * i + 3];
+        histograms.put(names[i],
+            new HistogramSnapshot(info[4 * i], info[4 * i + 1], info[4 * i + 2],
+                Arrays.copyOfRange(values, offset, offset + valueCount),
+                Arrays.copyOfRange(counts, offset, offset + valueCount)));
+        offset += valueCount;
+      }
+      return new Snapshot(histograms);
+    }
+
+    /** Returns the histograms by name. */
+    public Map<String, HistogramSnapshot> getHistograms() {
+      return histograms;
+    }
+
+    @Nullable
+    public HistogramSnapshot getHistogram(String name) {
+      return histograms.get(name);
+    }
+
+    /**
+     * Returns the events added since |previous|, which must be an earlier snapshot. Histograms
+     * without new events are left out.
+     */
+    public Snapshot deltaSince(Snapshot previous) {
+      final Map<String, HistogramSnapshot> delta = new LinkedHashMap<>();
+      for (Map.Entry<String, HistogramSnapshot> entry : histograms.entrySet()) {
+        final HistogramSnapshot previousHistogram = previous.histograms.get(entry.getKey());
+        final HistogramSnapshot histogram = previousHistogram == null
+            ? entry.getValue()
+            : entry.getValue().deltaSince(previousHistogram);
+        if (histogram != null) {
+          delta.put(entry.getKey(), histogram);
+        }
+      }
+      return new Snapshot(delta);
+    }
+  }
+
   @CalledByNative
   private void add(String name, HistogramInfo info) {
     map.put(name, info);
@@ -73,9 +256,18 @@ public class Metrics {
 
   // Gets and clears native histograms.
   public static Metrics getAndReset() {
+    Histogram.flushAll();
     return nativeGetAndReset();
   }
 
+  // Gets native histograms without clearing them. Unlike getAndReset(), this
+  // can be called by several consumers.
+  public static Snapshot getSnapshot() {
+    Histogram.flushAll();
+    return nativeGetSnapshot();
+  }
+
   private static native void nativeEnable();
   private static native Metrics nativeGetAndReset();
+  private static native Snapshot nativeGetSnapshot();
 }
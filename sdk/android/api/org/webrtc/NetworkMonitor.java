@@ -12,8 +12,10 @@ package org.webrtc;
 
 import android.content.Context;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.Nullable;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.webrtc.NetworkChangeDetector;
 
@@ -51,10 +53,13 @@ public class NetworkMonitor {
         }
       };
 
+  // The observer arrays are copied on write with |observersLock| held and never modified, so that
+  // notifications iterate over them without locking or allocating.
+  private final Object observersLock = new Object();
   // Native observers of the connection type changes.
-  private final ArrayList<Long> nativeNetworkObservers;
+  private volatile long[] nativeNetworkObservers;
   // Java observers of the connection type changes.
-  private final ArrayList<NetworkObserver> networkObservers;
+  private volatile NetworkObserver[] networkObservers;
 
   private final Object networkChangeDetectorLock = new Object();
   // Object that detects the connection type changes and brings up mobile networks.
@@ -64,11 +69,39 @@ public class NetworkMonitor {
 
   private volatile NetworkChangeDetector.ConnectionType currentConnectionType;
 
+  // Merges bursts of network change events before they are dispatched to the observers.
+  private final NetworkChangeCoalescer networkChangeCoalescer;
+
   private NetworkMonitor() {
-    nativeNetworkObservers = new ArrayList<Long>();
-    networkObservers = new ArrayList<NetworkObserver>();
+    nativeNetworkObservers = new long[0];
+    networkObservers = new NetworkObserver[0];
     numObservers = 0;
     currentConnectionType = NetworkChangeDetector.ConnectionType.CONNECTION_UNKNOWN;
+    networkChangeCoalescer = new NetworkChangeCoalescer(
+        new NetworkChangeDetector.Observer() {
+          @Override
+          public void onConnectionTypeChanged(
+              NetworkChangeDetector.ConnectionType newConnectionType) {
+            notifyObserversOfConnectionTypeChange(newConnectionType);
+          }
+
+          @Override
+          public void onNetworkConnect(NetworkChangeDetector.NetworkInformation networkInfo) {
+            notifyObserversOfNetworkConnect(networkInfo);
+          }
+
+          @Override
+          public void onNetworkDisconnect(long networkHandle) {
+            notifyObserversOfNetworkDisconnect(networkHandle);
+          }
+
+          @Override
+          public void onNetworkPreference(
+              List<NetworkChangeDetector.ConnectionType> types, int preference) {
+            notifyObserversOfNetworkPreference(types, preference);
+          }
+        },
+        new Handler(Looper.getMainLooper()));
   }
 
   /**
@@ -80,6 +113,30 @@ public class NetworkMonitor {
     this.networkChangeDetectorFactory = factory;
   }
 
+  /**
+   * Sets how long network change events are collected before their net effect is dispatched to
+   * the observers, on the UI thread. Bursts of events, e.g. during a handover between Wi-Fi and
+   * cellular, then cause a single network re-enumeration. Zero, the default, dispatches each
+   * event immediately. Needs to be called before the monitoring starts.
+   */
+  public void setNetworkChangeSettleWindowMs(long settleWindowMs) {
+    assertIsTrue(numObservers == 0);
+    networkChangeCoalescer.setSettleWindowMs(settleWindowMs);
+  }
+
+  /** Returns the number of network change events reported by the network change detector. */
+  public long getRawNetworkChangeCount() {
+    return networkChangeCoalescer.getRawEventCount();
+  }
+
+  /**
+   * Returns the number of network change events dispatched to the observers. This is lower than
+   * getRawNetworkChangeCount() when bursts of events have been merged.
+   */
+  public long getDeliveredNetworkChangeCount() {
+    return networkChangeCoalescer.getDeliveredEventCount();
+  }
+
   // TODO(sakal): Remove once downstream dependencies have been updated.
   @Deprecated
   public static void init(Context context) {}
@@ -129,8 +186,11 @@ public class NetworkMonitor {
     startMonitoring(
         applicationContext != null ? applicationContext : ContextUtils.getApplicationContext());
     // The native observers expect a network list update after they call startMonitoring.
-    synchronized (nativeNetworkObservers) {
-      nativeNetworkObservers.add(nativeObserver);
+    synchronized (observersLock) {
+      final long[] observers = nativeNetworkObservers;
+      final long[] newObservers = Arrays.copyOf(observers, observers.length + 1);
+      newObservers[observers.length] = nativeObserver;
+      nativeNetworkObservers = newObservers;
     }
     updateObserverActiveNetworkList(nativeObserver);
     // currentConnectionType was updated in startMonitoring().
@@ -147,6 +207,7 @@ public class NetworkMonitor {
       if (--numObservers == 0) {
         networkChangeDetector.destroy();
         networkChangeDetector = null;
+        networkChangeCoalescer.clear();
       }
     }
   }
@@ -155,8 +216,17 @@ public class NetworkMonitor {
   private void stopMonitoring(long nativeObserver) {
     Logging.d(TAG, "Stop monitoring with native observer " + nativeObserver);
     stopMonitoring();
-    synchronized (nativeNetworkObservers) {
-      nativeNetworkObservers.remove(nativeObserver);
+    synchronized (observersLock) {
+      final long[] observers = nativeNetworkObservers;
+      for (int i = 0; i < observers.length; ++i) {
+        if (observers[i] == nativeObserver) {
+          final long[] remainingObservers = new long[observers.length - 1];
+          System.arraycopy(observers, 0, remainingObservers, 0, i);
+          System.arraycopy(observers, i + 1, remainingObservers, i, observers.length - i - 1);
+          nativeNetworkObservers = remainingObservers;
+          break;
+        }
+      }
     }
   }
 
@@ -181,69 +251,58 @@ public class NetworkMonitor {
     return networkChangeDetectorFactory.create(new NetworkChangeDetector.Observer() {
       @Override
       public void onConnectionTypeChanged(NetworkChangeDetector.ConnectionType newConnectionType) {
-        updateCurrentConnectionType(newConnectionType);
+        // isOnline() reflects the change right away, also when the observers are notified later.
+        currentConnectionType = newConnectionType;
+        networkChangeCoalescer.onConnectionTypeChanged(newConnectionType);
       }
 
       @Override
       public void onNetworkConnect(NetworkChangeDetector.NetworkInformation networkInfo) {
-        notifyObserversOfNetworkConnect(networkInfo);
+        networkChangeCoalescer.onNetworkConnect(networkInfo);
       }
 
       @Override
       public void onNetworkDisconnect(long networkHandle) {
-        notifyObserversOfNetworkDisconnect(networkHandle);
+        networkChangeCoalescer.onNetworkDisconnect(networkHandle);
       }
 
       @Override
       public void onNetworkPreference(
           List<NetworkChangeDetector.ConnectionType> types, int preference) {
-        notifyObserversOfNetworkPreference(types, preference);
+        networkChangeCoalescer.onNetworkPreference(types, preference);
       }
     }, appContext);
   }
 
-  private void updateCurrentConnectionType(NetworkChangeDetector.ConnectionType newConnectionType) {
-    currentConnectionType = newConnectionType;
-    notifyObserversOfConnectionTypeChange(newConnectionType);
-  }
-
   /** Alerts all observers of a connection change. */
   private void notifyObserversOfConnectionTypeChange(
       NetworkChangeDetector.ConnectionType newConnectionType) {
-    List<Long> nativeObservers = getNativeNetworkObserversSync();
-    for (Long nativeObserver : nativeObservers) {
+    for (long nativeObserver : nativeNetworkObservers) {
       nativeNotifyConnectionTypeChanged(nativeObserver);
     }
-    // This avoids calling external methods while locking on an object.
-    List<NetworkObserver> javaObservers;
-    synchronized (networkObservers) {
-      javaObservers = new ArrayList<>(networkObservers);
-    }
-    for (NetworkObserver observer : javaObservers) {
+    for (NetworkObserver observer : networkObservers) {
       observer.onConnectionTypeChanged(newConnectionType);
     }
   }
 
   private void notifyObserversOfNetworkConnect(
       NetworkChangeDetector.NetworkInformation networkInfo) {
-    List<Long> nativeObservers = getNativeNetworkObserversSync();
-    for (Long nativeObserver : nativeObservers) {
+    for (long nativeObserver : nativeNetworkObservers) {
       nativeNotifyOfNetworkConnect(nativeObserver, networkInfo);
     }
   }
 
   private void notifyObserversOfNetworkDisconnect(long networkHandle) {
-    List<Long> nativeObservers = getNativeNetworkObserversSync();
-    for (Long nativeObserver : nativeObservers) {
+    for (long nativeObserver : nativeNetworkObservers) {
       nativeNotifyOfNetworkDisconnect(nativeObserver, networkHandle);
     }
   }
 
   private void notifyObserversOfNetworkPreference(
       List<NetworkChangeDetector.ConnectionType> types, int preference) {
-    List<Long> nativeObservers = getNativeNetworkObserversSync();
+    final long[] nativeObservers = nativeNetworkObservers;
     for (NetworkChangeDetector.ConnectionType type : types) {
-      for (Long nativeObserver : nativeObservers) {
+      for (long nativeObserver : nativeObservers) {
         nativeNotifyOfNetworkPreference(nativeObserver, type, preference);
       }
     }
@@ -258,6 +317,8 @@ public class NetworkMonitor {
     if (networkInfoList == null || networkInfoList.size() == 0) {
       return;
     }
+    // Lets a later burst that updates and then loses one of these networks report the loss.
+    networkChangeCoalescer.addKnownNetworks(networkInfoList);
 
     NetworkChangeDetector.NetworkInformation[] networkInfos =
         new NetworkChangeDetector.NetworkInformation[networkInfoList.size()];
@@ -265,12 +326,6 @@ public class NetworkMonitor {
     nativeNotifyOfActiveNetworkList(nativeObserver, networkInfos);
   }
 
-  private List<Long> getNativeNetworkObserversSync() {
-    synchronized (nativeNetworkObservers) {
-      return new ArrayList<>(nativeNetworkObservers);
-    }
-  }
-
   /**
    * Adds an observer for any connection type changes.
    *
@@ -282,8 +337,11 @@ public class NetworkMonitor {
   }
 
   public void addObserver(NetworkObserver observer) {
-    synchronized (networkObservers) {
-      networkObservers.add(observer);
+    synchronized (observersLock) {
+      final NetworkObserver[] observers = networkObservers;
+      final NetworkObserver[] newObservers = Arrays.copyOf(observers, observers.length + 1);
+      newObservers[observers.length] = observer;
+      networkObservers = newObservers;
     }
   }
 
@@ -298,8 +356,17 @@ public class NetworkMonitor {
   }
 
   public void removeObserver(NetworkObserver observer) {
-    synchronized (networkObservers) {
-      networkObservers.remove(observer);
+    synchronized (observersLock) {
+      final NetworkObserver[] observers = networkObservers;
+      for (int i = 0; i < observers.length; ++i) {
+        if (observers[i].equals(observer)) {
+          final NetworkObserver[] remainingObservers = new NetworkObserver[observers.length - 1];
+          System.arraycopy(observers, 0, remainingObservers, 0, i);
+          System.arraycopy(observers, i + 1, remainingObservers, i, observers.length - i - 1);
+          networkObservers = remainingObservers;
+          break;
+        }
+      }
     }
   }
 
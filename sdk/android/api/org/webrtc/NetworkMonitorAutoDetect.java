@@ -35,7 +35,9 @@ import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Borrowed from Chromium's
@@ -87,6 +89,33 @@ public class NetworkMonitorAutoDetect extends BroadcastReceiver implements Netwo
       return underlyingNetworkSubtypeForVpn;
     }
   }
+
+  /**
+   * Immutable view of the networks, replaced as a whole whenever the platform reports a change.
+   * Reads of the current network state, the default network and the network list are served from
+   * the latest snapshot instead of querying the ConnectivityManager.
+   */
+  static class NetworkSnapshot {
+    // Incremented with every update.
+    final long version;
+    // State of the default network.
+    final NetworkState networkState;
+    final long defaultNetId;
+    // Connected networks keyed by network handle, or null if network callbacks are not supported.
+    @Nullable final Map<Long, NetworkInformation> networks;
+    @Nullable final List<NetworkInformation> networkList;
+
+    NetworkSnapshot(long version, NetworkState networkState, long defaultNetId,
+        @Nullable Map<Long, NetworkInformation> networks) {
+      this.version = version;
+      this.networkState = networkState;
+      this.defaultNetId = defaultNetId;
+      this.networks = networks == null ? null : Collections.unmodifiableMap(networks);
+      this.networkList = networks == null
+          ? null
+          : Collections.unmodifiableList(new ArrayList<>(networks.values()));
+    }
+  }
   /**
    * The methods in this class get called when the network changes if the callback
    * is registered with a proper network request. It is only available in Android Lollipop
@@ -130,13 +159,19 @@ public class NetworkMonitorAutoDetect extends BroadcastReceiver implements Netwo
     @Override
     public void onLost(Network network) {
       Logging.d(TAG, "Network " + network.toString() + " is disconnected");
-      observer.onNetworkDisconnect(networkToNetId(network));
+      final long networkHandle = networkToNetId(network);
+      updateSnapshot(/* connectedNetwork= */ null, networkHandle);
+      observer.onNetworkDisconnect(networkHandle);
     }
 
     private void onNetworkChanged(Network network) {
       NetworkInformation networkInformation = connectivityManagerDelegate.networkToInfo(network);
       if (networkInformation != null) {
+        updateSnapshot(networkInformation, /* lostNetworkHandle= */ null);
         observer.onNetworkConnect(networkInformation);
+      } else {
+        // The network has no usable connection, so it is no longer listed.
+        updateSnapshot(/* connectedNetwork= */ null, networkToNetId(network));
       }
     }
   }
@@ -385,12 +420,16 @@ public class NetworkMonitorAutoDetect extends BroadcastReceiver implements Netwo
           && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
     }
 
-    /** Only callable on Lollipop and newer releases. */
+    /**
+     * Only callable on Lollipop and newer releases. NetworkRequest.Builder excludes VPNs by
+     * default, but getAllNetworks() lists them, so VPNs are included explicitly.
+     */
     @SuppressLint("NewApi")
     public void registerNetworkCallback(NetworkCallback networkCallback) {
       connectivityManager.registerNetworkCallback(
           new NetworkRequest.Builder()
               .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+              .removeCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)
               .build(),
           networkCallback);
     }
@@ -570,6 +609,10 @@ public class NetworkMonitorAutoDetect extends BroadcastReceiver implements Netwo
   private NetworkChangeDetector.ConnectionType connectionType;
   private String wifiSSID;
 
+  private final Object snapshotLock = new Object();
+  // Written with |snapshotLock| held, read without locking.
+  private volatile NetworkSnapshot snapshot;
+
   /** Constructs a NetworkMonitorAutoDetect. Should only be called on UI thread. */
   @SuppressLint("NewApi")
   public NetworkMonitorAutoDetect(NetworkChangeDetector.Observer observer, Context context) {
@@ -578,7 +621,9 @@ public class NetworkMonitorAutoDetect extends BroadcastReceiver implements Netwo
     connectivityManagerDelegate = new ConnectivityManagerDelegate(context);
     wifiManagerDelegate = new WifiManagerDelegate(context);
 
-    final NetworkState networkState = connectivityManagerDelegate.getNetworkState();
+    // Created before the network callback is registered, so that no change is missed.
+    snapshot = createSnapshot(/* version= */ 0);
+    final NetworkState networkState = snapshot.networkState;
     connectionType = getConnectionType(networkState);
     wifiSSID = getWifiSSID(networkState);
     intentFilter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
@@ -617,6 +662,7 @@ public class NetworkMonitorAutoDetect extends BroadcastReceiver implements Netwo
    */
   void setConnectivityManagerDelegateForTests(ConnectivityManagerDelegate delegate) {
     connectivityManagerDelegate = delegate;
+    refreshSnapshot();
   }
 
   /**
@@ -634,22 +680,85 @@ public class NetworkMonitorAutoDetect extends BroadcastReceiver implements Netwo
     return isRegistered;
   }
 
+  /** Returns the version of the network snapshot, which changes with every update. */
+  long getNetworkSnapshotVersion() {
+    return snapshot.version;
+  }
+
+  /** Returns the connected networks. The returned list is not modifiable. */
   @Override
   @Nullable
   public List<NetworkInformation> getActiveNetworkList() {
-    List<NetworkInformation> connectivityManagerList =
-        connectivityManagerDelegate.getActiveNetworkList();
-    if (connectivityManagerList == null) {
-      return null;
+    List<NetworkInformation> connectivityManagerList = snapshot.networkList;
+    if (connectivityManagerList == null || wifiDirectManagerDelegate == null) {
+      return connectivityManagerList;
     }
     ArrayList<NetworkInformation> result =
         new ArrayList<NetworkInformation>(connectivityManagerList);
-    if (wifiDirectManagerDelegate != null) {
-      result.addAll(wifiDirectManagerDelegate.getActiveNetworkList());
-    }
+    result.addAll(wifiDirectManagerDelegate.getActiveNetworkList());
     return result;
   }
 
+  // Queries the ConnectivityManager for all the information in a snapshot.
+  private NetworkSnapshot createSnapshot(long version) {
+    final List<NetworkInformation> networkList =
+        connectivityManagerDelegate.getActiveNetworkList();
+    Map<Long, NetworkInformation> networks = null;
+    if (networkList != null) {
+      networks = new LinkedHashMap<>();
+      for (NetworkInformation network : networkList) {
+        networks.put(network.handle, network);
+      }
+    }
+    return new NetworkSnapshot(
+        version, connectivityManagerDelegate.getNetworkState(), queryDefaultNetId(), networks);
+  }
+
+  /** Queries the ConnectivityManager again and replaces the whole snapshot. */
+  private NetworkSnapshot refreshSnapshot() {
+    synchronized (snapshotLock) {
+      snapshot = createSnapshot(snapshot.version + 1);
+      return snapshot;
+    }
+  }
+
+  /**
+   * Queries the default network again and replaces the snapshot. |connectedNetwork| is added to
+   * the network list or replaces the network with the same handle, and the network with
+   * |lostNetworkHandle| is removed.
+   */
+  private NetworkSnapshot updateSnapshot(
+      @Nullable NetworkInformation connectedNetwork, @Nullable Long lostNetworkHandle) {
+    // Called on the network callback thread and on the UI thread. The queries are made with the
+    // lock held, so that an older answer can't replace a newer one.
+    synchronized (snapshotLock) {
+      final NetworkState networkState = connectivityManagerDelegate.getNetworkState();
+      final long defaultNetId = queryDefaultNetId();
+      Map<Long, NetworkInformation> networks = snapshot.networks;
+      if (networks != null && (connectedNetwork != null || lostNetworkHandle != null)) {
+        networks = new LinkedHashMap<>(networks);
+        if (connectedNetwork != null) {
+          networks.put(connectedNetwork.handle, connectedNetwork);
+        }
+        if (lostNetworkHandle != null) {
+          networks.remove(lostNetworkHandle);
+        }
+      }
+      snapshot = new NetworkSnapshot(snapshot.version + 1, networkState, defaultNetId, networks);
+      return snapshot;
+    }
+  }
+
+  private long queryDefaultNetId() {
+    try {
+      return connectivityManagerDelegate.getDefaultNetId();
+    } catch (RuntimeException e) {
+      // Thrown for multiple connected networks of the same type.
+      Logging.e(TAG, "Failed to find the default network", e);
+      return INVALID_NET_ID;
+    }
+  }
+
   @Override
   public void destroy() {
     if (allNetworkCallback != null) {
@@ -687,7 +796,7 @@ public class NetworkMonitorAutoDetect extends BroadcastReceiver implements Netwo
   }
 
   public NetworkState getCurrentNetworkState() {
-    return connectivityManagerDelegate.getNetworkState();
+    return snapshot.networkState;
   }
 
   /**
@@ -697,7 +806,7 @@ public class NetworkMonitorAutoDetect extends BroadcastReceiver implements Netwo
    * when not implemented.
    */
   public long getDefaultNetId() {
-    return connectivityManagerDelegate.getDefaultNetId();
+    return snapshot.defaultNetId;
   }
 
   private static NetworkChangeDetector.ConnectionType getConnectionType(
@@ -780,7 +889,9 @@ public class NetworkMonitorAutoDetect extends BroadcastReceiver implements Netwo
   // BroadcastReceiver
   @Override
   public void onReceive(Context context, Intent intent) {
-    final NetworkState networkState = getCurrentNetworkState();
+    // The network callback doesn't report every network that getAllNetworks() lists, e.g.
+    // restricted ones, and isn't available before Lollipop. Rebuild the network list as well.
+    final NetworkState networkState = refreshSnapshot().networkState;
     if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
       connectionTypeChanged(networkState);
     }
@@ -13,6 +13,7 @@ package org.webrtc;
 import android.support.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -896,6 +897,24 @@ public class PeerConnection {
     return nativeAddIceCandidate(candidate.sdpMid, candidate.sdpMLineIndex, candidate.sdp);
   }
 
+  /**
+   * Adds |candidates| with a single call into native code, which is cheaper than calling
+   * addIceCandidate() for each of them. Returns true if all candidates were added.
+   */
+  public boolean addIceCandidates(List<IceCandidate> candidates) {
+    final int size = candidates.size();
+    final String[] sdpMids = new String[size];
+    final int[] sdpMLineIndexes = new int[size];
+    final String[] sdps = new String[size];
+    for (int i = 0; i < size; ++i) {
+      final IceCandidate candidate = candidates.get(i);
+      sdpMids[i] = candidate.sdpMid;
+      sdpMLineIndexes[i] = candidate.sdpMLineIndex;
+      sdps[i] = candidate.sdp;
+    }
+    return nativeAddIceCandidates(sdpMids, sdpMLineIndexes, sdps);
+  }
+
   public boolean removeIceCandidates(final IceCandidate[] candidates) {
     return nativeRemoveIceCandidates(candidates);
   }
@@ -1130,6 +1149,42 @@ public class PeerConnection {
     nativeNewGetStats(callback);
   }
 
+  /**
+   * Gets the stats of the RTP streams sent by |sender| and the objects they reference, following
+   * the stats selection algorithm of RTCRtpSender.getStats().
+   */
+  public void getStats(RtpSender sender, RTCStatsCollectorCallback callback) {
+    if (sender == null) {
+      throw new NullPointerException("No RtpSender specified for getStats.");
+    }
+    nativeGetStatsFiltered(sender.getNativeRtpSender(), 0, null, callback);
+  }
+
+  /**
+   * Gets the stats of the RTP streams received by |receiver| and the objects they reference,
+   * following the stats selection algorithm of RTCRtpReceiver.getStats().
+   */
+  public void getStats(RtpReceiver receiver, RTCStatsCollectorCallback callback) {
+    if (receiver == null) {
+      throw new NullPointerException("No RtpReceiver specified for getStats.");
+    }
+    nativeGetStatsFiltered(0, receiver.getNativeRtpReceiver(), null, callback);
+  }
+
+  /**
+   * Same as getStats(RTCStatsCollectorCallback), but only stats objects whose type is in
+   * |statsTypes|, e.g. "inbound-rtp" or "candidate-pair", are included in the report. The other
+   * stats objects are never converted to Java. An empty collection includes all stats objects.
+   */
+  public void getStats(Collection<String> statsTypes, RTCStatsCollectorCallback callback) {
+    nativeGetStatsFiltered(0, 0, new ArrayList<>(statsTypes), callback);
+  }
+
+  /** Gets stats with only the members that changed since the last call, see RTCStatsSession. */
+  void getStatsDelta(long nativeDeltaState, RTCStatsCollectorCallback callback) {
+    nativeGetStatsDelta(nativeDeltaState, callback);
+  }
+
   /**
    * Limits the bandwidth allocated for all RTP streams sent by this
    * PeerConnection. Pass null to leave a value unchanged.
@@ -1255,11 +1310,17 @@ public class PeerConnection {
   private native boolean nativeSetConfiguration(RTCConfiguration config);
   private native boolean nativeAddIceCandidate(
       String sdpMid, int sdpMLineIndex, String iceCandidateSdp);
+  private native boolean nativeAddIceCandidates(
+      String[] sdpMids, int[] sdpMLineIndexes, String[] iceCandidateSdps);
   private native boolean nativeRemoveIceCandidates(final IceCandidate[] candidates);
   private native boolean nativeAddLocalStream(long stream);
   private native void nativeRemoveLocalStream(long stream);
   private native boolean nativeOldGetStats(StatsObserver observer, long nativeTrack);
   private native void nativeNewGetStats(RTCStatsCollectorCallback callback);
+  private native void nativeGetStatsFiltered(long nativeRtpSender, long nativeRtpReceiver,
+      @Nullable List<String> statsTypes, RTCStatsCollectorCallback callback);
+  private native void nativeGetStatsDelta(
+      long nativeDeltaState, RTCStatsCollectorCallback callback);
   private native RtpSender nativeCreateSender(String kind, String stream_id);
   private native List<RtpSender> nativeGetSenders();
   private native List<RtpReceiver> nativeGetReceivers();
@@ -10,6 +10,9 @@
 
 package org.webrtc;
 
+import android.support.annotation.Nullable;
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -19,20 +22,49 @@ import java.util.Map;
  * RTCStats dictionary. Each RTCStatsReport produced by getStats contains
  * multiple RTCStats objects; one for each underlying object (codec, stream,
  * transport, etc.) that was inspected to produce the stats.
+ *
+ * Stats objects produced by getStats store their member values in primitive
+ * arrays described by an RTCStatsSchema. They can be read without allocations
+ * through getLong(), getDouble() and getObject(). The map returned by
+ * getMembers() is only built on first use.
  */
 public class RTCStats {
   private final long timestampUs;
   private final String type;
   private final String id;
-  private final Map<String, Object> members;
+  // Set if the object was produced by getStats, null otherwise.
+  @Nullable private final RTCStatsSchema schema;
+  @Nullable private final long[] longValues;
+  @Nullable private final double[] doubleValues;
+  @Nullable private final Object[] objectValues;
+  @Nullable private final boolean[] defined;
+  // Built from the arrays on first use if |schema| is set.
+  @Nullable private volatile Map<String, Object> members;
 
   public RTCStats(long timestampUs, String type, String id, Map<String, Object> members) {
     this.timestampUs = timestampUs;
     this.type = type;
     this.id = id;
+    this.schema = null;
+    this.longValues = null;
+    this.doubleValues = null;
+    this.objectValues = null;
+    this.defined = null;
     this.members = members;
   }
 
+  private RTCStats(long timestampUs, String id, RTCStatsSchema schema, long[] longValues,
+      double[] doubleValues, Object[] objectValues, boolean[] defined) {
+    this.timestampUs = timestampUs;
+    this.type = schema.getType();
+    this.id = id;
+    this.schema = schema;
+    this.longValues = longValues;
+    this.doubleValues = doubleValues;
+    this.objectValues = objectValues;
+    this.defined = defined;
+  }
+
   // Timestamp in microseconds.
   public double getTimestampUs() {
     return timestampUs;
@@ -64,7 +96,64 @@ public class RTCStats {
    * - The array form of any of the above (e.g., Integer[])
    */
   public Map<String, Object> getMembers() {
-    return members;
+    Map<String, Object> result = members;
+    if (result == null) {
+      result = new LinkedHashMap<>();
+      for (int i = 0; i < defined.length; ++i) {
+        if (defined[i]) {
+          result.put(schema.getMemberName(i), getBoxedValue(i));
+        }
+      }
+      members = result;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the schema describing the members of this object, or null if the object was not
+   * produced by getStats. The primitive accessors below can only be used if there is a schema.
+   */
+  @Nullable
+  public RTCStatsSchema getSchema() {
+    return schema;
+  }
+
+  /** Returns true if the member at |memberIndex| of the schema has a value in this object. */
+  public boolean isMemberDefined(int memberIndex) {
+    checkHasSchema();
+    return defined[memberIndex];
+  }
+
+  /**
+   * Returns the value of a boolean or integer member, or 0 if it is not defined. Booleans are
+   * returned as 0 or 1. UINT64 values are returned as their two's complement bit pattern, use
+   * Long.toUnsignedString() and similar to interpret values above Long.MAX_VALUE.
+   */
+  public long getLong(int memberIndex) {
+    checkHasSchema();
+    checkMemberType(memberIndex, schema.getMemberType(memberIndex).isLongValue());
+    return longValues[schema.getSlot(memberIndex)];
+  }
+
+  /** Returns the value of a DOUBLE member, or 0 if it is not defined. */
+  public double getDouble(int memberIndex) {
+    checkHasSchema();
+    checkMemberType(
+        memberIndex, schema.getMemberType(memberIndex) == RTCStatsSchema.MemberType.DOUBLE);
+    return doubleValues[schema.getSlot(memberIndex)];
+  }
+
+  /**
+   * Returns the value of a STRING or sequence member, or null if it is not defined. The value has
+   * the same form as in the map returned by getMembers().
+   */
+  @Nullable
+  public Object getObject(int memberIndex) {
+    checkHasSchema();
+    final RTCStatsSchema.MemberType memberType = schema.getMemberType(memberIndex);
+    checkMemberType(memberIndex,
+        !memberType.isLongValue() && memberType != RTCStatsSchema.MemberType.DOUBLE);
+    return objectValues[schema.getSlot(memberIndex)];
   }
 
   @Override
@@ -76,15 +165,79 @@ public class RTCStats {
         .append(type)
         .append(", id: ")
         .append(id);
-    boolean first = true;
-    for (Map.Entry<String, Object> entry : members.entrySet()) {
-      builder.append(", ").append(entry.getKey()).append(": ");
-      appendValue(builder, entry.getValue());
+    if (schema != null) {
+      for (int i = 0; i < defined.length; ++i) {
+        if (defined[i]) {
+          builder.append(", ").append(schema.getMemberName(i)).append(": ");
+          appendMemberValue(builder, i);
+        }
+      }
+    } else {
+      for (Map.Entry<String, Object> entry : members.entrySet()) {
+        builder.append(", ").append(entry.getKey()).append(": ");
+        appendValue(builder, entry.getValue());
+      }
     }
     builder.append(" }");
     return builder.toString();
   }
 
+  private void checkHasSchema() {
+    if (schema == null) {
+      throw new IllegalStateException("RTCStats was not produced by getStats.");
+    }
+  }
+
+  private void checkMemberType(int memberIndex, boolean isExpectedType) {
+    if (!isExpectedType) {
+      throw new IllegalArgumentException("Member " + schema.getMemberName(memberIndex)
+          + " has type " + schema.getMemberType(memberIndex));
+    }
+  }
+
+  // Returns the value of a defined member in the form documented for getMembers().
+  private Object getBoxedValue(int memberIndex) {
+    final int slot = schema.getSlot(memberIndex);
+    switch (schema.getMemberType(memberIndex)) {
+      case BOOL:
+        return longValues[slot] != 0;
+      case INT32:
+        return (int) longValues[slot];
+      case UINT32:
+      case INT64:
+        return longValues[slot];
+      case UINT64:
+        return new BigInteger(Long.toUnsignedString(longValues[slot]));
+      case DOUBLE:
+        return doubleValues[slot];
+      default:
+        return objectValues[slot];
+    }
+  }
+
+  private void appendMemberValue(StringBuilder builder, int memberIndex) {
+    final int slot = schema.getSlot(memberIndex);
+    switch (schema.getMemberType(memberIndex)) {
+      case BOOL:
+        builder.append(longValues[slot] != 0);
+        break;
+      case INT32:
+      case UINT32:
+      case INT64:
+        builder.append(longValues[slot]);
+        break;
+      case UINT64:
+        builder.append(Long.toUnsignedString(longValues[slot]));
+        break;
+      case DOUBLE:
+        builder.append(doubleValues[slot]);
+        break;
+      default:
+        appendValue(builder, objectValues[slot]);
+        break;
+    }
+  }
+
   private static void appendValue(StringBuilder builder, Object value) {
     if (value instanceof Object[]) {
       Object[] arrayValue = (Object[]) value;
@@ -104,10 +257,10 @@ public class RTCStats {
     }
   }
 
-  // TODO(bugs.webrtc.org/8557) Use ctor directly with full Map type.
-  @SuppressWarnings("unchecked")
   @CalledByNative
-  static RTCStats create(long timestampUs, String type, String id, Map members) {
-    return new RTCStats(timestampUs, type, id, members);
+  static RTCStats create(long timestampUs, String id, RTCStatsSchema schema, long[] longValues,
+      double[] doubleValues, Object[] objectValues, boolean[] defined) {
+    return new RTCStats(
+        timestampUs, id, schema, longValues, doubleValues, objectValues, defined);
   }
 }
@@ -0,0 +1,239 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Converts files written by RTCStatsRecorder to JSON. Uses only plain Java APIs, so it can also
+ * run in JVM tools outside of Android.
+ */
+public class RTCStatsDecoder {
+  private final InputStream input;
+  private final List<String> strings = new ArrayList<>();
+  // Previous value of each member, keyed like in RTCStatsRecorder.
+  private final Map<Long, Long> previousValues = new HashMap<>();
+  private long previousReportTimestampUs;
+
+  private RTCStatsDecoder(InputStream input) {
+    this.input = input;
+  }
+
+  /**
+   * Decodes one recorded file from |input| and writes each report as one line of JSON to |output|:
+   * {"timestampUs":1,"stats":{"<id>":{"type":"<type>","timestampUs":1,"<member>":<value>,...}}}.
+   * Unsigned 64-bit integers are written as JSON numbers without loss, doubles that are not finite
+   * as null.
+   */
+  public static void decodeToJson(InputStream input, Writer output) throws IOException {
+    new RTCStatsDecoder(new BufferedInputStream(input)).decode(output);
+  }
+
+  private void decode(Writer output) throws IOException {
+    for (byte magicByte : RTCStatsRecorder.MAGIC) {
+      if (readByte() != (magicByte & 0xFF)) {
+        throw new IOException("Not a recorded stats file.");
+      }
+    }
+    final int version = readByte();
+    if (version != RTCStatsRecorder.VERSION) {
+      throw new IOException("Unsupported version: " + version);
+    }
+    final StringBuilder json = new StringBuilder();
+    int tag;
+    while ((tag = input.read()) != -1) {
+      switch (tag) {
+        case RTCStatsRecorder.TAG_STRING:
+          final byte[] bytes = new byte[(int) readVarint()];
+          readFully(bytes);
+          strings.add(new String(bytes, RTCStatsRecorder.UTF_8));
+          break;
+        case RTCStatsRecorder.TAG_REPORT:
+          json.setLength(0);
+          decodeReport(json);
+          output.write(json.append('\n').toString());
+          break;
+        default:
+          throw new IOException("Unknown record tag: " + tag);
+      }
+    }
+    output.flush();
+  }
+
+  private void decodeReport(StringBuilder json) throws IOException {
+    final long timestampUs =
+        previousReportTimestampUs + RTCStatsRecorder.unzigzag(readVarint());
+    previousReportTimestampUs = timestampUs;
+    json.append("{\"timestampUs\":").append(timestampUs).append(",\"stats\":{");
+    final long statsCount = readVarint();
+    for (long i = 0; i < statsCount; ++i) {
+      if (i != 0) {
+        json.append(',');
+      }
+      final int idIndex = (int) readVarint();
+      appendString(json, getString(idIndex));
+      json.append(":{\"type\":");
+      appendString(json, getString((int) readVarint()));
+      json.append(",\"timestampUs\":")
+          .append(timestampUs + RTCStatsRecorder.unzigzag(readVarint()));
+      final long memberCount = readVarint();
+      for (long j = 0; j < memberCount; ++j) {
+        final int nameIndex = (int) readVarint();
+        json.append(',');
+        appendString(json, getString(nameIndex));
+        json.append(':');
+        decodeMemberValue(json, idIndex, nameIndex);
+      }
+      json.append('}');
+    }
+    json.append("}}");
+  }
+
+  private void decodeMemberValue(StringBuilder json, int idIndex, int nameIndex)
+      throws IOException {
+    final int valueType = readByte();
+    final Long key = ((long) idIndex << 32) | nameIndex;
+    switch (valueType) {
+      case RTCStatsRecorder.VALUE_INT:
+      case RTCStatsRecorder.VALUE_UINT64: {
+        final Long previous = previousValues.get(key);
+        final long delta = RTCStatsRecorder.unzigzag(readVarint());
+        final long value = (previous == null ? 0 : previous) + delta;
+        previousValues.put(key, value);
+        appendLong(json, valueType, value);
+        break;
+      }
+      case RTCStatsRecorder.VALUE_DOUBLE: {
+        final Long previous = previousValues.get(key);
+        final long bits = (previous == null ? 0 : previous) ^ readVarint();
+        previousValues.put(key, bits);
+        appendDouble(json, Double.longBitsToDouble(bits));
+        break;
+      }
+      default:
+        decodeValue(json, valueType);
+        break;
+    }
+  }
+
+  // Decodes a value that is not delta encoded.
+  private void decodeValue(StringBuilder json, int valueType) throws IOException {
+    switch (valueType) {
+      case RTCStatsRecorder.VALUE_FALSE:
+        json.append("false");
+        break;
+      case RTCStatsRecorder.VALUE_TRUE:
+        json.append("true");
+        break;
+      case RTCStatsRecorder.VALUE_INT:
+      case RTCStatsRecorder.VALUE_UINT64:
+        appendLong(json, valueType, RTCStatsRecorder.unzigzag(readVarint()));
+        break;
+      case RTCStatsRecorder.VALUE_DOUBLE:
+        appendDouble(json, Double.longBitsToDouble(readVarint()));
+        break;
+      case RTCStatsRecorder.VALUE_STRING:
+        appendString(json, getString((int) readVarint()));
+        break;
+      case RTCStatsRecorder.VALUE_SEQUENCE:
+        final long count = readVarint();
+        json.append('[');
+        for (long i = 0; i < count; ++i) {
+          if (i != 0) {
+            json.append(',');
+          }
+          decodeValue(json, readByte());
+        }
+        json.append(']');
+        break;
+      default:
+        throw new IOException("Unknown value type: " + valueType);
+    }
+  }
+
+  private String getString(int index) throws IOException {
+    if (index < 0 || index >= strings.size()) {
+      throw new IOException("Undefined string index: " + index);
+    }
+    return strings.get(index);
+  }
+
+  private static void appendLong(StringBuilder json, int valueType, long value) {
+    if (valueType == RTCStatsRecorder.VALUE_UINT64) {
+      json.append(Long.toUnsignedString(value));
+    } else {
+      json.append(value);
+    }
+  }
+
+  private static void appendDouble(StringBuilder json, double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      json.append("null");
+    } else {
+      json.append(value);
+    }
+  }
+
+  private static void appendString(StringBuilder json, String value) {
+    json.append('"');
+    for (int i = 0; i < value.length(); ++i) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format(Locale.US, "\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+
+  private int readByte() throws IOException {
+    final int b = input.read();
+    if (b == -1) {
+      throw new EOFException("Truncated stats file.");
+    }
+    return b;
+  }
+
+  private void readFully(byte[] bytes) throws IOException {
+    int offset = 0;
+    while (offset < bytes.length) {
+      final int read = input.read(bytes, offset, bytes.length - offset);
+      if (read == -1) {
+        throw new EOFException("Truncated stats file.");
+      }
+      offset += read;
+    }
+  }
+
+  private long readVarint() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint.");
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.support.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records RTCStatsReports to a compact binary format in a set of rotating files, for offline
+ * analysis. Use RTCStatsDecoder to convert the files to JSON.
+ *
+ * Strings such as stats ids, types and member names are written once per file and then referred
+ * to by index. Integer members are written as the difference to the previous value of the same
+ * member, and double members as the XOR with the previous value, so that unchanged and slowly
+ * changing values take one or two bytes. Each file is self-contained.
+ *
+ * Format: a file starts with MAGIC and VERSION, followed by records. Each record starts with a
+ * tag byte:
+ * - TAG_STRING: varint length, UTF-8 bytes. Defines the next string index.
+ * - TAG_REPORT: zigzag varint report timestamp delta to the previous report, varint stats count,
+ *   and per stats object: varint id index, varint type index, zigzag varint timestamp delta to the
+ *   report, varint member count, and per member: varint name index, value type byte, value.
+ */
+public class RTCStatsRecorder {
+  private static final String TAG = "RTCStatsRecorder";
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+  static final String FILE_PREFIX = "webrtc_stats_";
+
+  static final byte[] MAGIC = {'W', 'R', 'T', 'S'};
+  static final int VERSION = 1;
+
+  static final int TAG_STRING = 1;
+  static final int TAG_REPORT = 2;
+
+  static final int VALUE_FALSE = 0;
+  static final int VALUE_TRUE = 1;
+  // Signed integer, zigzag varint delta to the previous value of the member.
+  static final int VALUE_INT = 2;
+  // Unsigned 64-bit integer, encoded like VALUE_INT using its two's complement bit pattern.
+  static final int VALUE_UINT64 = 3;
+  // Varint of the bits XOR the bits of the previous value of the member.
+  static final int VALUE_DOUBLE = 4;
+  // Varint string index.
+  static final int VALUE_STRING = 5;
+  // Varint element count, then per element a value type byte and the value, without deltas.
+  static final int VALUE_SEQUENCE = 6;
+
+  private final Object lock = new Object();
+  private final File dir;
+  private final int maxFileSize;
+  private final int maxFileCount;
+  // Reused buffer for the body of a report, which is written after the strings it defines.
+  private final ByteArrayOutputStream reportBuffer = new ByteArrayOutputStream();
+  // State of the current file. Reset on rotation.
+  private final Map<String, Integer> stringIndices = new HashMap<>(); /* guarded by lock */
+  // Previous value of each member, keyed by stats id index and member name index.
+  private final Map<Long, Long> previousValues = new HashMap<>(); /* guarded by lock */
+  @Nullable private OutputStream output; /* guarded by lock */
+  private long fileSize; /* guarded by lock */
+  private long previousReportTimestampUs; /* guarded by lock */
+  private int nextFileNumber; /* guarded by lock */
+
+  /**
+   * Records to files in |dirPath|. A new file is started once the current file has grown beyond
+   * |maxFileSize| bytes, and the oldest file is deleted when there are more than |maxFileCount|.
+   * Files from a previous recorder in the same directory are deleted.
+   */
+  public RTCStatsRecorder(String dirPath, int maxFileSize, int maxFileCount) {
+    if (dirPath == null) {
+      throw new IllegalArgumentException("dirPath may not be null.");
+    }
+    if (maxFileSize <= 0 || maxFileCount <= 0) {
+      throw new IllegalArgumentException("maxFileSize and maxFileCount must be positive.");
+    }
+    this.dir = new File(dirPath);
+    this.maxFileSize = maxFileSize;
+    this.maxFileCount = maxFileCount;
+    dir.mkdirs();
+    for (File file : getFiles(dirPath)) {
+      file.delete();
+    }
+  }
+
+  /**
+   * Returns the recorded files in |dirPath|, oldest first. Each file can be decoded on its own.
+   */
+  public static List<File> getFiles(String dirPath) {
+    final List<File> files = new ArrayList<>();
+    final File[] dirFiles = new File(dirPath).listFiles();
+    if (dirFiles == null) {
+      return files;
+    }
+    for (File file : dirFiles) {
+      if (file.getName().startsWith(FILE_PREFIX)) {
+        files.add(file);
+      }
+    }
+    Collections.sort(files, (a, b) -> Integer.compare(getFileNumber(a), getFileNumber(b)));
+    return files;
+  }
+
+  private static int getFileNumber(File file) {
+    try {
+      return Integer.parseInt(file.getName().substring(FILE_PREFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Appends |report|. Writes go through a buffer, but may still block on file I/O, so this should
+   * preferably not be called on the signaling thread. Errors are logged and the report is dropped.
+   */
+  public void record(RTCStatsReport report) {
+    synchronized (lock) {
+      try {
+        if (output == null) {
+          openNextFile();
+        }
+        writeReport(report);
+        if (fileSize >= maxFileSize) {
+          closeFile();
+        }
+      } catch (IOException e) {
+        Logging.e(TAG, "Failed to record stats", e);
+        closeFile();
+      }
+    }
+  }
+
+  /** Flushes and closes the current file. Later reports are written to a new file. */
+  public void close() {
+    synchronized (lock) {
+      closeFile();
+    }
+  }
+
+  private void openNextFile() throws IOException {
+    final List<File> files = getFiles(dir.getPath());
+    for (int i = 0; i <= files.size() - maxFileCount; ++i) {
+      files.get(i).delete();
+    }
+    output = new BufferedOutputStream(
+        new FileOutputStream(new File(dir, FILE_PREFIX + nextFileNumber++)));
+    fileSize = 0;
+    stringIndices.clear();
+    previousValues.clear();
+    previousReportTimestampUs = 0;
+    output.write(MAGIC);
+    output.write(VERSION);
+    fileSize += MAGIC.length + 1;
+  }
+
+  private void closeFile() {
+    if (output == null) {
+      return;
+    }
+    try {
+      output.close();
+    } catch (IOException e) {
+      Logging.e(TAG, "Failed to close stats file", e);
+    }
+    output = null;
+  }
+
+  private void writeReport(RTCStatsReport report) throws IOException {
+    reportBuffer.reset();
+    final long timestampUs = (long) report.getTimestampUs();
+    writeVarint(reportBuffer, zigzag(timestampUs - previousReportTimestampUs));
+    previousReportTimestampUs = timestampUs;
+    final Map<String, RTCStats> statsMap = report.getStatsMap();
+    writeVarint(reportBuffer, statsMap.size());
+    for (RTCStats stats : statsMap.values()) {
+      writeStats(stats, timestampUs);
+    }
+    output.write(TAG_REPORT);
+    reportBuffer.writeTo(output);
+    fileSize += 1 + reportBuffer.size();
+  }
+
+  private void writeStats(RTCStats stats, long reportTimestampUs) throws IOException {
+    final int idIndex = getStringIndex(stats.getId());
+    writeVarint(reportBuffer, idIndex);
+    writeVarint(reportBuffer, getStringIndex(stats.getType()));
+    writeVarint(reportBuffer, zigzag((long) stats.getTimestampUs() - reportTimestampUs));
+
+    final RTCStatsSchema schema = stats.getSchema();
+    if (schema == null) {
+      final Map<String, Object> members = stats.getMembers();
+      writeVarint(reportBuffer, members.size());
+      for (Map.Entry<String, Object> member : members.entrySet()) {
+        writeBoxedMember(idIndex, member.getKey(), member.getValue());
+      }
+      return;
+    }
+
+    int memberCount = 0;
+    for (int i = 0; i < schema.getMemberCount(); ++i) {
+      if (stats.isMemberDefined(i)) {
+        ++memberCount;
+      }
+    }
+    writeVarint(reportBuffer, memberCount);
+    for (int i = 0; i < schema.getMemberCount(); ++i) {
+      if (!stats.isMemberDefined(i)) {
+        continue;
+      }
+      final int nameIndex = getStringIndex(schema.getMemberName(i));
+      writeVarint(reportBuffer, nameIndex);
+      switch (schema.getMemberType(i)) {
+        case BOOL:
+          reportBuffer.write(stats.getLong(i) != 0 ? VALUE_TRUE : VALUE_FALSE);
+          break;
+        case INT32:
+        case UINT32:
+        case INT64:
+          writeLong(VALUE_INT, idIndex, nameIndex, stats.getLong(i));
+          break;
+        case UINT64:
+          writeLong(VALUE_UINT64, idIndex, nameIndex, stats.getLong(i));
+          break;
+        case DOUBLE:
+          writeDouble(idIndex, nameIndex, stats.getDouble(i));
+          break;
+        default:
+          writeObject(stats.getObject(i));
+          break;
+      }
+    }
+  }
+
+  private void writeBoxedMember(int idIndex, String name, Object value) throws IOException {
+    final int nameIndex = getStringIndex(name);
+    writeVarint(reportBuffer, nameIndex);
+    if (value instanceof Integer || value instanceof Long) {
+      writeLong(VALUE_INT, idIndex, nameIndex, ((Number) value).longValue());
+    } else if (value instanceof BigInteger) {
+      writeLong(VALUE_UINT64, idIndex, nameIndex, ((BigInteger) value).longValue());
+    } else if (value instanceof Double) {
+      writeDouble(idIndex, nameIndex, (Double) value);
+    } else {
+      writeObject(value);
+    }
+  }
+
+  private void writeLong(int valueType, int idIndex, int nameIndex, long value)
+      throws IOException {
+    final Long key = memberKey(idIndex, nameIndex);
+    final Long previous = previousValues.put(key, value);
+    reportBuffer.write(valueType);
+    writeVarint(reportBuffer, zigzag(value - (previous == null ? 0 : previous)));
+  }
+
+  private void writeDouble(int idIndex, int nameIndex, double value) throws IOException {
+    final long bits = Double.doubleToRawLongBits(value);
+    final Long previous = previousValues.put(memberKey(idIndex, nameIndex), bits);
+    reportBuffer.write(VALUE_DOUBLE);
+    writeVarint(reportBuffer, bits ^ (previous == null ? 0 : previous));
+  }
+
+  // Writes a value without delta encoding.
+  private void writeObject(@Nullable Object value) throws IOException {
+    if (value instanceof Boolean) {
+      reportBuffer.write((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+    } else if (value instanceof Integer || value instanceof Long) {
+      reportBuffer.write(VALUE_INT);
+      writeVarint(reportBuffer, zigzag(((Number) value).longValue()));
+    } else if (value instanceof BigInteger) {
+      reportBuffer.write(VALUE_UINT64);
+      writeVarint(reportBuffer, zigzag(((BigInteger) value).longValue()));
+    } else if (value instanceof Double) {
+      reportBuffer.write(VALUE_DOUBLE);
+      writeVarint(reportBuffer, Double.doubleToRawLongBits((Double) value));
+    } else if (value instanceof Object[]) {
+      final Object[] elements = (Object[]) value;
+      reportBuffer.write(VALUE_SEQUENCE);
+      writeVarint(reportBuffer, elements.length);
+      for (Object element : elements) {
+        writeObject(element);
+      }
+    } else {
+      reportBuffer.write(VALUE_STRING);
+      writeVarint(reportBuffer, getStringIndex(String.valueOf(value)));
+    }
+  }
+
+  // Returns the index of |string|, writing a TAG_STRING record to the file if it is new.
+  private int getStringIndex(String string) throws IOException {
+    final Integer index = stringIndices.get(string);
+    if (index != null) {
+      return index;
+    }
+    final byte[] bytes = string.getBytes(UTF_8);
+    output.write(TAG_STRING);
+    fileSize += 1 + writeVarint(output, bytes.length) + bytes.length;
+    output.write(bytes);
+    final int newIndex = stringIndices.size();
+    stringIndices.put(string, newIndex);
+    return newIndex;
+  }
+
+  private static Long memberKey(int idIndex, int nameIndex) {
+    return ((long) idIndex << 32) | nameIndex;
+  }
+
+  static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  // Writes |value| as an unsigned LEB128 varint and returns the number of bytes written.
+  private static int writeVarint(OutputStream out, long value) throws IOException {
+    int bytes = 1;
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+      ++bytes;
+    }
+    out.write((int) value);
+    return bytes;
+  }
+}
@@ -0,0 +1,448 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically samples selected stats metrics of any number of PeerConnections from a single
+ * scheduler thread, and keeps the most recent samples of every metric in a fixed-size ring buffer.
+ *
+ * Each PeerConnection is polled with a random phase within the sampling interval so that polls of
+ * different connections do not all hit the signaling threads at once. If the previous poll of a
+ * connection has not been delivered yet when the next one is due, the new poll is skipped instead
+ * of queueing up more getStats requests. A poll that has not been delivered after
+ * max(|MIN_POLL_TIMEOUT_MS|, 3 sampling intervals) is considered lost: the next poll is sent anyway
+ * and a late delivery of the lost poll is ignored.
+ *
+ * PeerConnections must be unregistered before they are disposed.
+ */
+public class RTCStatsSampler {
+  private static final String TAG = "RTCStatsSampler";
+  private static final int MIN_POLL_TIMEOUT_MS = 10000;
+
+  /**
+   * A numeric stats member to sample. If several stats objects of |statsType| exist, e.g. one
+   * "inbound-rtp" object per received stream, the sample is the sum of their values.
+   */
+  public static class Metric {
+    private final String statsType;
+    private final String memberName;
+    private final boolean isRate;
+
+    private Metric(String statsType, String memberName, boolean isRate) {
+      this.statsType = statsType;
+      this.memberName = memberName;
+      this.isRate = isRate;
+    }
+
+    /** Samples the value of the member, e.g. ("candidate-pair", "currentRoundTripTime"). */
+    public static Metric value(String statsType, String memberName) {
+      return new Metric(statsType, memberName, /* isRate= */ false);
+    }
+
+    /**
+     * Samples the per second rate of change of a counter member between consecutive polls, e.g.
+     * ("inbound-rtp", "bytesReceived").
+     */
+    public static Metric rate(String statsType, String memberName) {
+      return new Metric(statsType, memberName, /* isRate= */ true);
+    }
+
+    public String getStatsType() {
+      return statsType;
+    }
+
+    public String getMemberName() {
+      return memberName;
+    }
+
+    public boolean isRate() {
+      return isRate;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      final Metric that = (Metric) o;
+      return isRate == that.isRate && statsType.equals(that.statsType)
+          && memberName.equals(that.memberName);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(new Object[] {statsType, memberName, isRate});
+    }
+
+    @Override
+    public String toString() {
+      return (isRate ? "rate(" : "value(") + statsType + "." + memberName + ")";
+    }
+  }
+
+  /**
+   * The most recent samples of one metric. Samples are written on the signaling thread of the
+   * PeerConnection and can be queried from any thread. Queries do not allocate.
+   */
+  public static class TimeSeries {
+    private final Object lock = new Object();
+    private final boolean isRate;
+    private final long[] timestampsUs; /* guarded by lock */
+    private final double[] values; /* guarded by lock */
+    // Used by getPercentile() to sort a copy of |values|.
+    private final double[] sortedValues; /* guarded by lock */
+    private int size; /* guarded by lock */
+    private int nextIndex; /* guarded by lock */
+    // Last raw counter value, used to derive rates.
+    private boolean hasLastRawValue; /* guarded by lock */
+    private long lastRawTimestampUs; /* guarded by lock */
+    private double lastRawValue; /* guarded by lock */
+
+    TimeSeries(int capacity, boolean isRate) {
+      if (capacity <= 0) {
+        throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+      }
+      this.isRate = isRate;
+      this.timestampsUs = new long[capacity];
+      this.values = new double[capacity];
+      this.sortedValues = new double[capacity];
+    }
+
+    /** Adds a sample. For rate metrics |rawValue| is the counter value the rate is derived from. */
+    void addSample(long timestampUs, double rawValue) {
+      synchronized (lock) {
+        if (isRate) {
+          final long elapsedUs = timestampUs - lastRawTimestampUs;
+          final boolean hasRate = hasLastRawValue && elapsedUs > 0;
+          final double rate = hasRate ? (rawValue - lastRawValue) * 1e6 / elapsedUs : 0;
+          hasLastRawValue = true;
+          lastRawTimestampUs = timestampUs;
+          lastRawValue = rawValue;
+          if (!hasRate) {
+            return;
+          }
+          rawValue = rate;
+        }
+        timestampsUs[nextIndex] = timestampUs;
+        values[nextIndex] = rawValue;
+        nextIndex = (nextIndex + 1) % values.length;
+        size = Math.min(size + 1, values.length);
+      }
+    }
+
+    public int getCapacity() {
+      return values.length;
+    }
+
+    public int getSampleCount() {
+      synchronized (lock) {
+        return size;
+      }
+    }
+
+    /** Returns the |index|th oldest sample that is still stored. */
+    public double getValue(int index) {
+      synchronized (lock) {
+        return values[toArrayIndex(index)];
+      }
+    }
+
+    /** Returns the stats timestamp of the |index|th oldest sample that is still stored. */
+    public long getTimestampUs(int index) {
+      synchronized (lock) {
+        return timestampsUs[toArrayIndex(index)];
+      }
+    }
+
+    /** Returns the most recent sample, or NaN if there is none. */
+    public double getLatest() {
+      synchronized (lock) {
+        return size == 0 ? Double.NaN : values[toArrayIndex(size - 1)];
+      }
+    }
+
+    /** Returns the smallest stored sample, or NaN if there is none. */
+    public double getMin() {
+      synchronized (lock) {
+        double min = Double.NaN;
+        for (int i = 0; i < size; ++i) {
+          min = (i == 0) ? values[i] : Math.min(min, values[i]);
+        }
+        return min;
+      }
+    }
+
+    /** Returns the largest stored sample, or NaN if there is none. */
+    public double getMax() {
+      synchronized (lock) {
+        double max = Double.NaN;
+        for (int i = 0; i < size; ++i) {
+          max = (i == 0) ? values[i] : Math.max(max, values[i]);
+        }
+        return max;
+      }
+    }
+
+    /** Returns the average of the stored samples, or NaN if there are none. */
+    public double getAverage() {
+      synchronized (lock) {
+        if (size == 0) {
+          return Double.NaN;
+        }
+        double sum = 0;
+        for (int i = 0; i < size; ++i) {
+          sum += values[i];
+        }
+        return sum / size;
+      }
+    }
+
+    /**
+     * Returns the nearest-rank |percentile| (0 - 100) of the stored samples, e.g. 95 for the p95,
+     * or NaN if there are none.
+     */
+    public double getPercentile(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("Percentile out of range: " + percentile);
+      }
+      synchronized (lock) {
+        if (size == 0) {
+          return Double.NaN;
+        }
+        System.arraycopy(values, 0, sortedValues, 0, size);
+        Arrays.sort(sortedValues, 0, size);
+        final int rank = (int) Math.ceil(percentile / 100 * size);
+        return sortedValues[Math.max(rank - 1, 0)];
+      }
+    }
+
+    // Maps an index counted from the oldest stored sample to an index into the arrays.
+    private int toArrayIndex(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+      }
+      final int oldestIndex = (size < values.length) ? 0 : nextIndex;
+      return (oldestIndex + index) % values.length;
+    }
+  }
+
+  /** Sampling state of one PeerConnection. */
+  private class Registration implements Runnable {
+    final PeerConnection peerConnection;
+    final Metric[] metrics;
+    final TimeSeries[] timeSeries;
+    final List<String> statsTypes;
+    // Id of the poll that has not been delivered yet, or 0.
+    final AtomicLong pollInFlight = new AtomicLong();
+    // Only accessed on the sampler thread.
+    long nextPollTimeMs;
+    long lastPollId;
+    long lastPollTimeMs;
+    int skippedPolls;
+
+    Registration(PeerConnection peerConnection, List<Metric> metricList) {
+      this.peerConnection = peerConnection;
+      this.metrics = metricList.toArray(new Metric[0]);
+      this.timeSeries = new TimeSeries[metrics.length];
+      final Set<String> types = new HashSet<>();
+      for (int i = 0; i < metrics.length; ++i) {
+        timeSeries[i] = new TimeSeries(historySize, metrics[i].isRate);
+        types.add(metrics[i].statsType);
+      }
+      this.statsTypes = new ArrayList<>(types);
+    }
+
+    @Override
+    public void run() {
+      synchronized (registrationsLock) {
+        // Unregistering can race with a poll that has already been dequeued.
+        if (registrations.get(peerConnection) != this) {
+          return;
+        }
+        final long nowMs = SystemClock.uptimeMillis();
+        if (pollInFlight.get() != 0 && nowMs - lastPollTimeMs < pollTimeoutMs) {
+          ++skippedPolls;
+          Logging.d(TAG, "Previous poll still in flight, skipped " + skippedPolls + " polls.");
+        } else {
+          if (pollInFlight.get() != 0) {
+            Logging.w(TAG, "Poll not delivered after " + pollTimeoutMs + " ms, polling again.");
+          }
+          final long pollId = ++lastPollId;
+          pollInFlight.set(pollId);
+          lastPollTimeMs = nowMs;
+          peerConnection.getStats(statsTypes, report -> onStatsDelivered(pollId, report));
+        }
+        nextPollTimeMs += samplingIntervalMs;
+        handler.postAtTime(this, this, nextPollTimeMs);
+      }
+    }
+
+    // Called on the signaling thread.
+    private void onStatsDelivered(long pollId, RTCStatsReport report) {
+      // A poll that timed out is ignored, its samples could be older than those of later polls.
+      if (pollInFlight.get() != pollId) {
+        return;
+      }
+      final long timestampUs = (long) report.getTimestampUs();
+      for (int i = 0; i < metrics.length; ++i) {
+        double sum = 0;
+        boolean found = false;
+        for (RTCStats stats : report.getStatsMap().values()) {
+          if (!metrics[i].statsType.equals(stats.getType())) {
+            continue;
+          }
+          final RTCStatsSchema schema = stats.getSchema();
+          final int memberIndex = (schema == null) ? -1 : schema.indexOf(metrics[i].memberName);
+          if (memberIndex < 0 || !stats.isMemberDefined(memberIndex)) {
+            continue;
+          }
+          final RTCStatsSchema.MemberType memberType = schema.getMemberType(memberIndex);
+          if (memberType == RTCStatsSchema.MemberType.DOUBLE) {
+            sum += stats.getDouble(memberIndex);
+          } else if (memberType.isLongValue()) {
+            sum += stats.getLong(memberIndex);
+          } else {
+            continue;
+          }
+          found = true;
+        }
+        if (found) {
+          timeSeries[i].addSample(timestampUs, sum);
+        }
+      }
+      pollInFlight.compareAndSet(pollId, 0);
+    }
+  }
+
+  private final Handler handler;
+  @Nullable private final HandlerThread handlerThread;
+  private final int samplingIntervalMs;
+  private final int pollTimeoutMs;
+  private final int historySize;
+  private final Random random;
+  private final Object registrationsLock = new Object();
+  private final Map<PeerConnection, Registration> registrations =
+      new HashMap<>(); /* guarded by registrationsLock */
+
+  /**
+   * Creates a sampler that polls every registered PeerConnection every |samplingIntervalMs| and
+   * keeps the last |historySize| samples of every metric.
+   */
+  public RTCStatsSampler(int samplingIntervalMs, int historySize) {
+    this(createHandlerThread(), samplingIntervalMs, historySize, new Random());
+  }
+
+  private RTCStatsSampler(
+      HandlerThread handlerThread, int samplingIntervalMs, int historySize, Random random) {
+    this(new Handler(handlerThread.getLooper()), handlerThread, samplingIntervalMs, historySize,
+        random);
+  }
+
+  // Visible for testing.
+  RTCStatsSampler(Handler handler, @Nullable HandlerThread handlerThread, int samplingIntervalMs,
+      int historySize, Random random) {
+    if (samplingIntervalMs <= 0 || historySize <= 0) {
+      throw new IllegalArgumentException("Sampling interval and history size must be positive.");
+    }
+    this.handler = handler;
+    this.handlerThread = handlerThread;
+    this.samplingIntervalMs = samplingIntervalMs;
+    this.pollTimeoutMs = (int) Math.max(MIN_POLL_TIMEOUT_MS, 3L * samplingIntervalMs);
+    this.historySize = historySize;
+    this.random = random;
+  }
+
+  private static HandlerThread createHandlerThread() {
+    final HandlerThread handlerThread = new HandlerThread(TAG);
+    handlerThread.start();
+    return handlerThread;
+  }
+
+  /**
+   * Starts sampling |metrics| of |peerConnection|. The first poll happens at a random time within
+   * the first sampling interval. Replaces a previous registration of the same PeerConnection.
+   */
+  public void register(PeerConnection peerConnection, List<Metric> metrics) {
+    final Registration registration = new Registration(peerConnection, metrics);
+    final int phaseMs = random.nextInt(samplingIntervalMs);
+    synchronized (registrationsLock) {
+      final Registration previous = registrations.put(peerConnection, registration);
+      if (previous != null) {
+        handler.removeCallbacksAndMessages(previous);
+      }
+      registration.nextPollTimeMs = SystemClock.uptimeMillis() + phaseMs;
+      handler.postAtTime(registration, registration, registration.nextPollTimeMs);
+    }
+  }
+
+  /**
+   * Stops sampling |peerConnection|. A poll that is already in flight is still delivered to the
+   * time series, which remain readable.
+   */
+  public void unregister(PeerConnection peerConnection) {
+    synchronized (registrationsLock) {
+      final Registration registration = registrations.remove(peerConnection);
+      if (registration != null) {
+        handler.removeCallbacksAndMessages(registration);
+      }
+    }
+  }
+
+  /**
+   * Returns the samples of |metric| of |peerConnection|, or null if the PeerConnection is not
+   * registered or |metric| was not registered for it.
+   */
+  @Nullable
+  public TimeSeries getTimeSeries(PeerConnection peerConnection, Metric metric) {
+    synchronized (registrationsLock) {
+      final Registration registration = registrations.get(peerConnection);
+      if (registration == null) {
+        return null;
+      }
+      for (int i = 0; i < registration.metrics.length; ++i) {
+        if (registration.metrics[i].equals(metric)) {
+          return registration.timeSeries[i];
+        }
+      }
+      return null;
+    }
+  }
+
+  /** Unregisters all PeerConnections and stops the sampler thread. */
+  public void dispose() {
+    synchronized (registrationsLock) {
+      for (Registration registration : registrations.values()) {
+        handler.removeCallbacksAndMessages(registration);
+      }
+      registrations.clear();
+    }
+    if (handlerThread != null) {
+      handlerThread.quitSafely();
+    }
+  }
+}
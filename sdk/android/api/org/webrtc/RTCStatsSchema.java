@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Describes the members of one stats type, e.g. "inbound-rtp". All RTCStats objects of a type that
+ * are produced by getStats share the same schema instance, so member indices can be looked up
+ * once with indexOf() and then used with the primitive accessors of every RTCStats of that type.
+ */
+public class RTCStatsSchema {
+  /** Type of a member. Must be kept in sync with webrtc::RTCStatsMemberInterface::Type. */
+  public enum MemberType {
+    BOOL,
+    INT32,
+    UINT32,
+    INT64,
+    UINT64,
+    DOUBLE,
+    STRING,
+    SEQUENCE_BOOL,
+    SEQUENCE_INT32,
+    SEQUENCE_UINT32,
+    SEQUENCE_INT64,
+    SEQUENCE_UINT64,
+    SEQUENCE_DOUBLE,
+    SEQUENCE_STRING;
+
+    // Whether values of this type are stored in the long[] of an RTCStats.
+    boolean isLongValue() {
+      return ordinal() <= UINT64.ordinal();
+    }
+  }
+
+  private final String type;
+  private final String[] memberNames;
+  private final MemberType[] memberTypes;
+  // Index of each member into the long[], double[] or Object[] of an RTCStats, depending on the
+  // member type.
+  private final int[] slots;
+  private final Map<String, Integer> memberIndices;
+
+  RTCStatsSchema(String type, String[] memberNames, MemberType[] memberTypes, int[] slots) {
+    this.type = type;
+    this.memberNames = memberNames;
+    this.memberTypes = memberTypes;
+    this.slots = slots;
+    this.memberIndices = new HashMap<>();
+    for (int i = 0; i < memberNames.length; ++i) {
+      memberIndices.put(memberNames[i], i);
+    }
+  }
+
+  /** Returns the stats type described by this schema. */
+  public String getType() {
+    return type;
+  }
+
+  /** Returns the number of members, including members that are not defined in every object. */
+  public int getMemberCount() {
+    return memberNames.length;
+  }
+
+  public String getMemberName(int memberIndex) {
+    return memberNames[memberIndex];
+  }
+
+  public MemberType getMemberType(int memberIndex) {
+    return memberTypes[memberIndex];
+  }
+
+  /** Returns the index of the member called |memberName|, or -1 if there is no such member. */
+  public int indexOf(String memberName) {
+    final Integer memberIndex = memberIndices.get(memberName);
+    return memberIndex == null ? -1 : memberIndex;
+  }
+
+  int getSlot(int memberIndex) {
+    return slots[memberIndex];
+  }
+
+  @CalledByNative
+  static RTCStatsSchema create(String type, String[] memberNames, int[] memberTypes, int[] slots) {
+    final MemberType[] values = MemberType.values();
+    final MemberType[] types = new MemberType[memberTypes.length];
+    for (int i = 0; i < memberTypes.length; ++i) {
+      types[i] = values[memberTypes[i]];
+    }
+    return new RTCStatsSchema(type, memberNames, types, slots);
+  }
+}
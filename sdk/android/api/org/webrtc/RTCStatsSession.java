@@ -0,0 +1,173 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Polls the stats of a PeerConnection incrementally. The native side keeps the previously
+ * delivered report and only converts the members that changed since then, which avoids most of the
+ * boxing and map allocations of PeerConnection.getStats(RTCStatsCollectorCallback) when polling
+ * periodically. Rates such as bytes per second are derived from consecutive polls per stats id.
+ */
+public class RTCStatsSession {
+  /** Interface for receiving incremental stats. */
+  public interface Callback {
+    /**
+     * Called on the signaling thread. |delta| contains an RTCStats object for every stats id in the
+     * current report, each holding only the members that changed since the previous poll of this
+     * session. The first delta holds all members. |rates| maps stats ids to the rates derived from
+     * the two most recent polls. The map and the Rates objects are updated in place by later polls
+     * and must not be retained outside of this callback.
+     */
+    void onStatsDelivered(RTCStatsReport delta, Map<String, Rates> rates);
+  }
+
+  /** Per second rates of the counters of one stats object. Counters that are absent are 0. */
+  public static class Rates {
+    private static final int BYTES_SENT = 0;
+    private static final int BYTES_RECEIVED = 1;
+    private static final int PACKETS_SENT = 2;
+    private static final int PACKETS_RECEIVED = 3;
+    private static final int PACKETS_LOST = 4;
+    private static final int FRAMES_ENCODED = 5;
+    private static final int FRAMES_DECODED = 6;
+    // Member names indexed by the constants above.
+    private static final String[] COUNTER_NAMES = {"bytesSent", "bytesReceived", "packetsSent",
+        "packetsReceived", "packetsLost", "framesEncoded", "framesDecoded"};
+
+    private final long[] lastValues = new long[COUNTER_NAMES.length];
+    private final boolean[] hasLastValue = new boolean[COUNTER_NAMES.length];
+    private final double[] ratesPerSecond = new double[COUNTER_NAMES.length];
+    private long lastTimestampUs;
+
+    Rates() {}
+
+    public double getBytesSentPerSecond() {
+      return ratesPerSecond[BYTES_SENT];
+    }
+
+    public double getBytesReceivedPerSecond() {
+      return ratesPerSecond[BYTES_RECEIVED];
+    }
+
+    public double getPacketsSentPerSecond() {
+      return ratesPerSecond[PACKETS_SENT];
+    }
+
+    public double getPacketsReceivedPerSecond() {
+      return ratesPerSecond[PACKETS_RECEIVED];
+    }
+
+    public double getPacketsLostPerSecond() {
+      return ratesPerSecond[PACKETS_LOST];
+    }
+
+    public double getFramesEncodedPerSecond() {
+      return ratesPerSecond[FRAMES_ENCODED];
+    }
+
+    public double getFramesDecodedPerSecond() {
+      return ratesPerSecond[FRAMES_DECODED];
+    }
+
+    /**
+     * Updates the rates with the changed members of one stats object. A counter that is missing
+     * from |delta| but was seen before did not change, so its rate is 0.
+     */
+    void update(long timestampUs, RTCStats delta) {
+      final long elapsedUs = timestampUs - lastTimestampUs;
+      final RTCStatsSchema schema = delta.getSchema();
+      for (int i = 0; i < COUNTER_NAMES.length; ++i) {
+        final long longValue;
+        if (schema != null) {
+          // Read the primitive value directly to avoid building the member map.
+          final int memberIndex = schema.indexOf(COUNTER_NAMES[i]);
+          if (memberIndex < 0 || !delta.isMemberDefined(memberIndex)) {
+            ratesPerSecond[i] = 0;
+            continue;
+          }
+          longValue = delta.getLong(memberIndex);
+        } else {
+          final Object value = delta.getMembers().get(COUNTER_NAMES[i]);
+          if (!(value instanceof Number)) {
+            ratesPerSecond[i] = 0;
+            continue;
+          }
+          // uint64 members are BigInteger, the other integer types Integer or Long.
+          longValue = ((Number) value).longValue();
+        }
+        ratesPerSecond[i] = (hasLastValue[i] && elapsedUs > 0)
+            ? (longValue - lastValues[i]) * 1e6 / elapsedUs
+            : 0;
+        lastValues[i] = longValue;
+        hasLastValue[i] = true;
+      }
+      lastTimestampUs = timestampUs;
+    }
+  }
+
+  private final PeerConnection peerConnection;
+  // Only accessed on the signaling thread.
+  private final Map<String, Rates> rates = new HashMap<>();
+  private final Object deltaStateLock = new Object();
+  private long nativeDeltaState; /* guarded by deltaStateLock */
+
+  public RTCStatsSession(PeerConnection peerConnection) {
+    this.peerConnection = peerConnection;
+    this.nativeDeltaState = nativeCreateDeltaState();
+  }
+
+  /** Polls the stats once. Results are delivered asynchronously to |callback|. */
+  public void getStats(Callback callback) {
+    synchronized (deltaStateLock) {
+      if (nativeDeltaState == 0) {
+        throw new IllegalStateException("RTCStatsSession has been disposed.");
+      }
+      peerConnection.getStatsDelta(nativeDeltaState, delta -> {
+        updateRates(delta, rates);
+        callback.onStatsDelivered(delta, rates);
+      });
+    }
+  }
+
+  /**
+   * Releases the native state. Polls that are still in flight are delivered. The PeerConnection is
+   * not disposed.
+   */
+  public void dispose() {
+    synchronized (deltaStateLock) {
+      if (nativeDeltaState != 0) {
+        nativeFreeDeltaState(nativeDeltaState);
+        nativeDeltaState = 0;
+      }
+    }
+  }
+
+  /** Updates |rates| with |delta| and removes the rates of stats ids that are gone. */
+  static void updateRates(RTCStatsReport delta, Map<String, Rates> rates) {
+    final long timestampUs = (long) delta.getTimestampUs();
+    final Map<String, RTCStats> statsMap = delta.getStatsMap();
+    for (Map.Entry<String, RTCStats> entry : statsMap.entrySet()) {
+      Rates statsRates = rates.get(entry.getKey());
+      if (statsRates == null) {
+        statsRates = new Rates();
+        rates.put(entry.getKey(), statsRates);
+      }
+      statsRates.update(timestampUs, entry.getValue());
+    }
+    rates.keySet().retainAll(statsMap.keySet());
+  }
+
+  private static native long nativeCreateDeltaState();
+  private static native void nativeFreeDeltaState(long nativeDeltaState);
+}
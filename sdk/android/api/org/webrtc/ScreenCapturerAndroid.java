@@ -20,6 +20,7 @@ import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
 import android.support.annotation.Nullable;
 import android.view.Surface;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An implementation of VideoCapturer to capture the screen content as a video stream.
@@ -50,6 +51,13 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   @Nullable private SurfaceTextureHelper surfaceTextureHelper;
   @Nullable private CapturerObserver capturerObserver;
   private long numCapturedFrames;
+  // Static frame skipping. |staticFrameRefreshIntervalNs| is 0 when skipping is disabled. The
+  // remaining variables are only accessed on the SurfaceTextureHelper thread.
+  private volatile long staticFrameRefreshIntervalNs;
+  private volatile int frameChangeDetectionSize = FrameChangeDetector.DEFAULT_THUMBNAIL_SIZE;
+  @Nullable private FrameChangeDetector frameChangeDetector;
+  private long lastForwardedFrameTimeNs;
+  private volatile long numSkippedFrames;
   @Nullable private MediaProjection mediaProjection;
   private boolean isDisposed;
   @Nullable private MediaProjectionManager mediaProjectionManager;
@@ -80,6 +88,37 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
     return mediaProjection;
   }
 
+  /**
+   * Enables skipping of frames whose content has not changed since the previous frame, to reduce
+   * encoder load and bandwidth for mostly static screen content. An unchanged frame is still
+   * forwarded if no frame has been forwarded for |refreshIntervalMs|, so that the receiver keeps
+   * getting frames. Passing 0 disables frame skipping, which is the default.
+   *
+   * <p>Detection is done on a 64x64 downscaled copy of each frame, so a change that covers only a
+   * few pixels, e.g. a moving cursor or a typed character, may go undetected until the next
+   * refresh. Use {@link #setStaticFrameSkipping(int, int)} to detect smaller changes.
+   */
+  public void setStaticFrameSkipping(int refreshIntervalMs) {
+    setStaticFrameSkipping(refreshIntervalMs, FrameChangeDetector.DEFAULT_THUMBNAIL_SIZE);
+  }
+
+  /**
+   * Like {@link #setStaticFrameSkipping(int)}, but detects changes on a |detectionSize| x
+   * |detectionSize| downscaled copy of each frame. A larger size detects smaller changes but costs
+   * more time per frame; the size must be at least 8.
+   */
+  public void setStaticFrameSkipping(int refreshIntervalMs, int detectionSize) {
+    if (refreshIntervalMs < 0) {
+      throw new IllegalArgumentException("refreshIntervalMs must not be negative.");
+    }
+    if (detectionSize < FrameChangeDetector.BLOCKS_PER_SIDE) {
+      throw new IllegalArgumentException(
+          "detectionSize must be at least " + FrameChangeDetector.BLOCKS_PER_SIDE);
+    }
+    frameChangeDetectionSize = detectionSize;
+    staticFrameRefreshIntervalNs = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMs);
+  }
+
   @Override
   // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
   @SuppressWarnings("NoSynchronizedMethodCheck")
@@ -192,6 +231,14 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   }
 
   private void createVirtualDisplay() {
+    // The new display may have a different size, make sure the next frame is forwarded. The
+    // detector is only used on the SurfaceTextureHelper thread, and frames of the new display are
+    // delivered after this task.
+    surfaceTextureHelper.getHandler().post(() -> {
+      if (frameChangeDetector != null) {
+        frameChangeDetector.reset();
+      }
+    });
     surfaceTextureHelper.setTextureSize(width, height);
     virtualDisplay = mediaProjection.createVirtualDisplay("WebRTC_ScreenCapture", width, height,
         VIRTUAL_DISPLAY_DPI, DISPLAY_FLAGS, new Surface(surfaceTextureHelper.getSurfaceTexture()),
@@ -202,9 +249,29 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   @Override
   public void onFrame(VideoFrame frame) {
     numCapturedFrames++;
+    if (shouldSkipFrame(frame)) {
+      numSkippedFrames++;
+      return;
+    }
+    lastForwardedFrameTimeNs = frame.getTimestampNs();
     capturerObserver.onFrameCaptured(frame);
   }
 
+  private boolean shouldSkipFrame(VideoFrame frame) {
+    final long refreshIntervalNs = staticFrameRefreshIntervalNs;
+    if (refreshIntervalNs <= 0) {
+      frameChangeDetector = null;
+      return false;
+    }
+    final int detectionSize = frameChangeDetectionSize;
+    if (frameChangeDetector == null || frameChangeDetector.getThumbnailSize() != detectionSize) {
+      frameChangeDetector = new FrameChangeDetector(detectionSize);
+    }
+    // Always run the detector so that it tracks the latest content.
+    final boolean changed = frameChangeDetector.isChanged(frame.getBuffer());
+    return !changed && frame.getTimestampNs() - lastForwardedFrameTimeNs < refreshIntervalNs;
+  }
+
   @Override
   public boolean isScreencast() {
     return true;
@@ -213,4 +280,9 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   public long getNumCapturedFrames() {
     return numCapturedFrames;
   }
+
+  /** Returns the number of captured frames that were skipped because the content was unchanged. */
+  public long getNumSkippedFrames() {
+    return numSkippedFrames;
+  }
 }
@@ -59,9 +59,24 @@ public class SurfaceTextureHelper {
   public static SurfaceTextureHelper create(final String threadName,
       final EglBase.Context sharedContext, boolean alignTimestamps, final YuvConverter yuvConverter,
       FrameRefMonitor frameRefMonitor) {
+    return create(threadName, sharedContext, alignTimestamps,
+        /* useJavaTimestampAligner= */ false, yuvConverter, frameRefMonitor);
+  }
+
+  /**
+   * Same as above, but allows selecting the timestamp aligner implementation. If
+   * useJavaTimestampAligner is true, frame timestamps are aligned with JavaTimestampAligner instead
+   * of the native rtc::TimestampAligner, which avoids a JNI call per frame. Has no effect if
+   * alignTimestamps is false.
+   */
+  public static SurfaceTextureHelper create(final String threadName,
+      final EglBase.Context sharedContext, boolean alignTimestamps,
+      boolean useJavaTimestampAligner, final YuvConverter yuvConverter,
+      FrameRefMonitor frameRefMonitor) {
     final HandlerThread thread = new HandlerThread(threadName);
     thread.start();
     final Handler handler = new Handler(thread.getLooper());
+    LooperMonitor.monitor(threadName, handler);
 
     // The onFrameAvailable() callback will be executed on the SurfaceTexture ctor thread. See:
     // http://grepcode.com/file/repository.grepcode.com/java/ext/com.google.android/android/5.1.1_r1/android/graphics/SurfaceTexture.java#195.
@@ -72,8 +87,8 @@ public class SurfaceTextureHelper {
       @Override
       public SurfaceTextureHelper call() {
         try {
-          return new SurfaceTextureHelper(
-              sharedContext, handler, alignTimestamps, yuvConverter, frameRefMonitor);
+          return new SurfaceTextureHelper(sharedContext, handler, alignTimestamps,
+              useJavaTimestampAligner, yuvConverter, frameRefMonitor);
         } catch (RuntimeException e) {
           Logging.e(TAG, threadName + " create failure", e);
           return null;
@@ -145,6 +160,7 @@ public class SurfaceTextureHelper {
   private final int oesTextureId;
   private final YuvConverter yuvConverter;
   @Nullable private final TimestampAligner timestampAligner;
+  @Nullable private final JavaTimestampAligner javaTimestampAligner;
   private final FrameRefMonitor frameRefMonitor;
 
   // These variables are only accessed from the |handler| thread.
@@ -175,12 +191,16 @@ public class SurfaceTextureHelper {
   };
 
   private SurfaceTextureHelper(Context sharedContext, Handler handler, boolean alignTimestamps,
-      YuvConverter yuvConverter, FrameRefMonitor frameRefMonitor) {
+      boolean useJavaTimestampAligner, YuvConverter yuvConverter,
+      FrameRefMonitor frameRefMonitor) {
     if (handler.getLooper().getThread() != Thread.currentThread()) {
       throw new IllegalStateException("SurfaceTextureHelper must be created on the handler thread");
     }
     this.handler = handler;
-    this.timestampAligner = alignTimestamps ? new TimestampAligner() : null;
+    this.timestampAligner =
+        alignTimestamps && !useJavaTimestampAligner ? new TimestampAligner() : null;
+    this.javaTimestampAligner =
+        alignTimestamps && useJavaTimestampAligner ? new JavaTimestampAligner() : null;
     this.yuvConverter = yuvConverter;
     this.frameRefMonitor = frameRefMonitor;
 
@@ -192,6 +212,7 @@ public class SurfaceTextureHelper {
     } catch (RuntimeException e) {
       // Clean up before rethrowing the exception.
       eglBase.release();
+      LooperMonitor.unmonitor(handler);
       handler.getLooper().quit();
       throw e;
     }
@@ -372,6 +393,8 @@ public class SurfaceTextureHelper {
     long timestampNs = surfaceTexture.getTimestamp();
     if (timestampAligner != null) {
       timestampNs = timestampAligner.translateTimestamp(timestampNs);
+    } else if (javaTimestampAligner != null) {
+      timestampNs = javaTimestampAligner.translateTimestamp(timestampNs);
     }
     final VideoFrame.TextureBuffer buffer =
         new TextureBufferImpl(textureWidth, textureHeight, TextureBuffer.Type.OES, oesTextureId,
@@ -396,6 +419,7 @@ public class SurfaceTextureHelper {
     GLES20.glDeleteTextures(1, new int[] {oesTextureId}, 0);
     surfaceTexture.release();
     eglBase.release();
+    LooperMonitor.unmonitor(handler);
     handler.getLooper().quit();
     if (timestampAligner != null) {
       timestampAligner.dispose();
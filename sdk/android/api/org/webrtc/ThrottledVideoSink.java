@@ -0,0 +1,149 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * VideoSink wrapper that limits the frame rate and resolution delivered to a downstream sink. This
+ * is intended for sinks that do not need every frame at full resolution, e.g. thumbnails or frame
+ * analysis, when the same track is fanned out to several sinks.
+ *
+ * <p>The decision to drop a frame is made before touching the frame buffer, and frames are only
+ * downscaled with {@link VideoFrame.Buffer#cropAndScale} when they are actually forwarded. Frame
+ * pacing is based on the frame timestamps.
+ */
+public class ThrottledVideoSink implements VideoSink {
+  private final VideoSink sink;
+
+  private final Object lock = new Object();
+  // Minimum duration between forwarded frames, 0 if fps limiting is disabled, or Long.MAX_VALUE if
+  // all frames should be dropped.
+  private long minFramePeriodNs;
+  // Timestamp of the earliest frame that may be forwarded next, or -1 if no frame has been
+  // forwarded since the limit was last changed.
+  private long nextFrameTimeNs = -1;
+  // Maximum size of the long and the short side of forwarded frames, or 0 if unlimited.
+  private int maxLongSide;
+  private int maxShortSide;
+  private int framesReceived;
+  private int framesDropped;
+
+  public ThrottledVideoSink(VideoSink sink) {
+    if (sink == null) {
+      throw new IllegalArgumentException("sink not allowed to be null");
+    }
+    this.sink = sink;
+  }
+
+  /**
+   * Limits the frame rate forwarded to the sink. Passing 0 or a negative value drops all frames,
+   * while Float.POSITIVE_INFINITY disables the limit.
+   */
+  public void setMaxFps(float fps) {
+    synchronized (lock) {
+      if (fps <= 0) {
+        minFramePeriodNs = Long.MAX_VALUE;
+      } else if (fps == Float.POSITIVE_INFINITY) {
+        minFramePeriodNs = 0;
+      } else {
+        minFramePeriodNs = (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+      }
+      nextFrameTimeNs = -1;
+    }
+  }
+
+  /**
+   * Limits the resolution forwarded to the sink. The limit is orientation agnostic, i.e. a limit of
+   * 320x240 also allows 240x320 frames. Frames are downscaled preserving the aspect ratio. Passing
+   * 0 for both dimensions disables the limit.
+   */
+  public void setMaxResolution(int maxWidth, int maxHeight) {
+    if (maxWidth < 0 || maxHeight < 0 || (maxWidth == 0) != (maxHeight == 0)) {
+      throw new IllegalArgumentException(
+          "Invalid max resolution: " + maxWidth + "x" + maxHeight);
+    }
+    synchronized (lock) {
+      maxLongSide = Math.max(maxWidth, maxHeight);
+      maxShortSide = Math.min(maxWidth, maxHeight);
+    }
+  }
+
+  /** Returns the number of frames received by this sink. */
+  public int getFramesReceived() {
+    synchronized (lock) {
+      return framesReceived;
+    }
+  }
+
+  /** Returns the number of frames dropped by the fps limit. */
+  public int getFramesDropped() {
+    synchronized (lock) {
+      return framesDropped;
+    }
+  }
+
+  @Override
+  public void onFrame(VideoFrame frame) {
+    final int longSideLimit;
+    final int shortSideLimit;
+    synchronized (lock) {
+      ++framesReceived;
+      if (!shouldForwardFrame(frame.getTimestampNs())) {
+        ++framesDropped;
+        return;
+      }
+      longSideLimit = maxLongSide;
+      shortSideLimit = maxShortSide;
+    }
+
+    final VideoFrame.Buffer buffer = frame.getBuffer();
+    final int width = buffer.getWidth();
+    final int height = buffer.getHeight();
+    final int longSide = Math.max(width, height);
+    final int shortSide = Math.min(width, height);
+    if (longSideLimit == 0 || (longSide <= longSideLimit && shortSide <= shortSideLimit)) {
+      sink.onFrame(frame);
+      return;
+    }
+
+    final float scale =
+        Math.min(longSideLimit / (float) longSide, shortSideLimit / (float) shortSide);
+    // Keep the dimensions even so that the chroma planes can be subsampled.
+    final int scaledWidth = Math.max(2, ((int) (width * scale)) & ~1);
+    final int scaledHeight = Math.max(2, ((int) (height * scale)) & ~1);
+    final VideoFrame scaledFrame =
+        new VideoFrame(buffer.cropAndScale(0, 0, width, height, scaledWidth, scaledHeight),
+            frame.getRotation(), frame.getTimestampNs());
+    sink.onFrame(scaledFrame);
+    scaledFrame.release();
+  }
+
+  // Must be called with |lock| held.
+  private boolean shouldForwardFrame(long timestampNs) {
+    if (minFramePeriodNs == Long.MAX_VALUE) {
+      return false;
+    }
+    if (minFramePeriodNs <= 0) {
+      return true;
+    }
+    if (nextFrameTimeNs >= 0 && timestampNs < nextFrameTimeNs) {
+      return false;
+    }
+    if (nextFrameTimeNs < 0) {
+      nextFrameTimeNs = timestampNs;
+    }
+    nextFrameTimeNs += minFramePeriodNs;
+    // The time for the next frame should always be in the future.
+    nextFrameTimeNs = Math.max(nextFrameTimeNs, timestampNs);
+    return true;
+  }
+}
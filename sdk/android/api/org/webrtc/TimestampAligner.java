@@ -39,6 +39,15 @@ public class TimestampAligner {
     return nativeTranslateTimestamp(nativeTimestampAligner, cameraTimeNs);
   }
 
+  /**
+   * Same as above, but with the current rtc::TimeNanos() passed in explicitly. Used for verifying
+   * that JavaTimestampAligner produces identical results.
+   */
+  long translateTimestamp(long cameraTimeNs, long systemTimeNs) {
+    checkNativeAlignerExists();
+    return nativeTranslateTimestampAtSystemTime(nativeTimestampAligner, cameraTimeNs, systemTimeNs);
+  }
+
   /** Dispose native timestamp aligner. */
   public void dispose() {
     checkNativeAlignerExists();
@@ -56,4 +65,6 @@ public class TimestampAligner {
   private static native long nativeCreateTimestampAligner();
   private static native void nativeReleaseTimestampAligner(long timestampAligner);
   private static native long nativeTranslateTimestamp(long timestampAligner, long cameraTimeNs);
+  private static native long nativeTranslateTimestampAtSystemTime(
+      long timestampAligner, long cameraTimeNs, long systemTimeNs);
 }
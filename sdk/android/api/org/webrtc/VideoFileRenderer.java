@@ -59,10 +59,12 @@ public class VideoFileRenderer implements VideoSink {
     renderThread = new HandlerThread(TAG + "RenderThread");
     renderThread.start();
     renderThreadHandler = new Handler(renderThread.getLooper());
+    LooperMonitor.monitor(renderThread.getName(), renderThreadHandler);
 
     fileThread = new HandlerThread(TAG + "FileThread");
     fileThread.start();
     fileThreadHandler = new Handler(fileThread.getLooper());
+    LooperMonitor.monitor(fileThread.getName(), fileThreadHandler);
 
     ThreadUtils.invokeAtFrontUninterruptibly(renderThreadHandler, new Runnable() {
       @Override
@@ -136,6 +138,7 @@ public class VideoFileRenderer implements VideoSink {
     renderThreadHandler.post(() -> {
       yuvConverter.release();
       eglBase.release();
+      LooperMonitor.unmonitor(renderThreadHandler);
       renderThread.quit();
       cleanupBarrier.countDown();
     });
@@ -150,6 +153,7 @@ public class VideoFileRenderer implements VideoSink {
       } catch (IOException e) {
         throw new RuntimeException("Error closing output file", e);
       }
+      LooperMonitor.unmonitor(fileThreadHandler);
       fileThread.quit();
     });
     try {
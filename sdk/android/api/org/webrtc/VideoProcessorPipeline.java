@@ -0,0 +1,338 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * VideoProcessor that chains several VideoProcessors, so that more than one processor can be
+ * injected with {@link VideoSource#setVideoProcessor}. The frame adaptation parameters are
+ * evaluated before any stage runs, so frames that are meant to be dropped are never processed.
+ *
+ * <p>Stages run on the thread that delivers frames to them by default. Stages added with
+ * {@link Builder#addAsyncStage} run on a dedicated thread, fed through a bounded queue; frames are
+ * dropped when the queue is full so that a slow stage never blocks the capture thread. Capturer
+ * state changes are delivered to async stages on their thread, in order with the frames. The stage
+ * threads are started by {@link Builder#build()}; call {@link #dispose()} to stop them once the
+ * pipeline is no longer used.
+ */
+public class VideoProcessorPipeline implements VideoProcessor {
+  private static final String TAG = "VideoProcessorPipeline";
+
+  /** Snapshot of the statistics for one stage of the pipeline. */
+  public static class StageStats {
+    /** Number of frames the stage has produced. */
+    public final int framesProcessed;
+    /** Number of frames dropped because the queue of an async stage was full. */
+    public final int framesDropped;
+    /**
+     * Average and maximum time from a frame entering the stage, including the time it waited in
+     * the queue of an async stage, until the stage produced output for it. Output frames are
+     * matched to input frames by timestamp, outputs with a new timestamp are not measured.
+     */
+    public final long averageLatencyNs;
+    public final long maxLatencyNs;
+
+    public StageStats(
+        int framesProcessed, int framesDropped, long averageLatencyNs, long maxLatencyNs) {
+      this.framesProcessed = framesProcessed;
+      this.framesDropped = framesDropped;
+      this.averageLatencyNs = averageLatencyNs;
+      this.maxLatencyNs = maxLatencyNs;
+    }
+
+    @Override
+    public String toString() {
+      return "StageStats{framesProcessed=" + framesProcessed + ", framesDropped=" + framesDropped
+          + ", averageLatencyNs=" + averageLatencyNs + ", maxLatencyNs=" + maxLatencyNs + "}";
+    }
+  }
+
+  public static class Builder {
+    private final List<VideoProcessor> processors = new ArrayList<>();
+    // Null for stages that run on the thread delivering frames to them.
+    private final List<String> threadNames = new ArrayList<>();
+    private final List<Integer> maxQueuedFrames = new ArrayList<>();
+
+    /** Adds a stage that runs on the thread delivering frames to it. */
+    public Builder addStage(VideoProcessor processor) {
+      processors.add(processor);
+      threadNames.add(null);
+      maxQueuedFrames.add(0);
+      return this;
+    }
+
+    /**
+     * Adds a stage that runs on a dedicated thread. At most |maxQueuedFrames| frames are waiting
+     * for the stage at any time, further frames are dropped until the stage catches up.
+     */
+    public Builder addAsyncStage(VideoProcessor processor, String threadName, int maxQueuedFrames) {
+      if (maxQueuedFrames <= 0) {
+        throw new IllegalArgumentException("maxQueuedFrames must be positive: " + maxQueuedFrames);
+      }
+      processors.add(processor);
+      threadNames.add(threadName);
+      this.maxQueuedFrames.add(maxQueuedFrames);
+      return this;
+    }
+
+    /** Creates the pipeline and starts the threads of its async stages. */
+    public VideoProcessorPipeline build() {
+      final List<Stage> stages = new ArrayList<>(processors.size());
+      for (int i = 0; i < processors.size(); ++i) {
+        stages.add(new Stage(processors.get(i), threadNames.get(i), maxQueuedFrames.get(i)));
+      }
+      return new VideoProcessorPipeline(stages);
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private static class QueuedFrame {
+    final VideoFrame frame;
+    final long inputTimeNs;
+
+    QueuedFrame(VideoFrame frame, long inputTimeNs) {
+      this.frame = frame;
+      this.inputTimeNs = inputTimeNs;
+    }
+  }
+
+  private static class Stage implements VideoSink {
+    // Bounds the input times kept for frames the processor has not produced output for, e.g.
+    // because it dropped them.
+    private static final int MAX_PENDING_INPUT_TIMES = 32;
+
+    private final VideoProcessor processor;
+    @Nullable private final HandlerThread thread;
+    @Nullable private final Handler handler;
+    private final int maxQueuedFrames;
+
+    private final Object queueLock = new Object();
+    private final ArrayDeque<QueuedFrame> queuedFrames = new ArrayDeque<>();
+    private boolean isDisposed;
+
+    private final Object statsLock = new Object();
+    // Input times of the frames being processed, by frame timestamp.
+    private final Map<Long, Long> pendingInputTimesNs =
+        new LinkedHashMap<Long, Long>() {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > MAX_PENDING_INPUT_TIMES;
+          }
+        };
+    private int framesProcessed;
+    private int framesDropped;
+    private long totalLatencyNs;
+    private long maxLatencyNs;
+    private int latencySampleCount;
+
+    Stage(VideoProcessor processor, @Nullable String threadName, int maxQueuedFrames) {
+      this.processor = processor;
+      this.maxQueuedFrames = maxQueuedFrames;
+      if (threadName != null) {
+        thread = new HandlerThread(threadName);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+      } else {
+        thread = null;
+        handler = null;
+      }
+    }
+
+    void setOutput(VideoSink output) {
+      processor.setSink(frame -> {
+        synchronized (statsLock) {
+          ++framesProcessed;
+          final Long inputTimeNs = pendingInputTimesNs.remove(frame.getTimestampNs());
+          if (inputTimeNs != null) {
+            final long latencyNs = System.nanoTime() - inputTimeNs;
+            totalLatencyNs += latencyNs;
+            maxLatencyNs = Math.max(maxLatencyNs, latencyNs);
+            ++latencySampleCount;
+          }
+        }
+        output.onFrame(frame);
+      });
+    }
+
+    /** Input of the stage. */
+    @Override
+    public void onFrame(VideoFrame frame) {
+      final long inputTimeNs = System.nanoTime();
+      if (handler == null) {
+        process(frame, inputTimeNs);
+        return;
+      }
+      synchronized (queueLock) {
+        if (isDisposed || queuedFrames.size() >= maxQueuedFrames) {
+          synchronized (statsLock) {
+            ++framesDropped;
+          }
+          return;
+        }
+        frame.retain();
+        queuedFrames.add(new QueuedFrame(frame, inputTimeNs));
+      }
+      handler.post(this::processQueuedFrame);
+    }
+
+    private void processQueuedFrame() {
+      final QueuedFrame queuedFrame;
+      synchronized (queueLock) {
+        queuedFrame = queuedFrames.poll();
+      }
+      if (queuedFrame == null) {
+        return;
+      }
+      process(queuedFrame.frame, queuedFrame.inputTimeNs);
+      queuedFrame.frame.release();
+    }
+
+    private void process(VideoFrame frame, long inputTimeNs) {
+      synchronized (statsLock) {
+        pendingInputTimesNs.put(frame.getTimestampNs(), inputTimeNs);
+      }
+      processor.onFrameCaptured(frame);
+    }
+
+    /** Runs |task| on the stage thread, after the frames queued before it. */
+    void runOnStageThread(Runnable task) {
+      if (handler == null) {
+        task.run();
+      } else {
+        handler.post(task);
+      }
+    }
+
+    StageStats getStats() {
+      synchronized (statsLock) {
+        return new StageStats(framesProcessed, framesDropped,
+            latencySampleCount == 0 ? 0 : totalLatencyNs / latencySampleCount, maxLatencyNs);
+      }
+    }
+
+    void dispose() {
+      synchronized (queueLock) {
+        isDisposed = true;
+        for (QueuedFrame queuedFrame : queuedFrames) {
+          queuedFrame.frame.release();
+        }
+        queuedFrames.clear();
+      }
+      if (thread != null) {
+        thread.quitSafely();
+      }
+    }
+  }
+
+  private final List<Stage> stages;
+  private final Object sinkLock = new Object();
+  @Nullable private VideoSink sink;
+  private final Object statsLock = new Object();
+  private int framesDroppedByAdaptation;
+
+  private final VideoSink output = frame -> {
+    synchronized (sinkLock) {
+      if (sink != null) {
+        sink.onFrame(frame);
+      }
+    }
+  };
+
+  private VideoProcessorPipeline(List<Stage> stages) {
+    this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+    VideoSink next = output;
+    for (int i = this.stages.size() - 1; i >= 0; --i) {
+      final Stage stage = this.stages.get(i);
+      stage.setOutput(next);
+      next = stage;
+    }
+  }
+
+  @Override
+  public void onCapturerStarted(boolean success) {
+    for (Stage stage : stages) {
+      stage.runOnStageThread(() -> stage.processor.onCapturerStarted(success));
+    }
+  }
+
+  @Override
+  public void onCapturerStopped() {
+    for (Stage stage : stages) {
+      stage.runOnStageThread(stage.processor::onCapturerStopped);
+    }
+  }
+
+  @Override
+  public void onFrameCaptured(VideoFrame frame) {
+    if (stages.isEmpty()) {
+      output.onFrame(frame);
+      return;
+    }
+    stages.get(0).onFrame(frame);
+  }
+
+  @Override
+  public void onFrameCaptured(VideoFrame frame, FrameAdaptationParameters parameters) {
+    if (parameters.drop) {
+      synchronized (statsLock) {
+        ++framesDroppedByAdaptation;
+      }
+      return;
+    }
+    final VideoFrame adaptedFrame =
+        VideoProcessor.applyFrameAdaptationParameters(frame, parameters);
+    onFrameCaptured(adaptedFrame);
+    adaptedFrame.release();
+  }
+
+  @Override
+  public void setSink(@Nullable VideoSink sink) {
+    synchronized (sinkLock) {
+      this.sink = sink;
+    }
+  }
+
+  /** Returns the number of frames dropped by frame adaptation before reaching the first stage. */
+  public int getFramesDroppedByAdaptation() {
+    synchronized (statsLock) {
+      return framesDroppedByAdaptation;
+    }
+  }
+
+  /** Returns statistics for each stage, in the order the stages were added. */
+  public List<StageStats> getStageStats() {
+    final List<StageStats> stats = new ArrayList<>(stages.size());
+    for (Stage stage : stages) {
+      stats.add(stage.getStats());
+    }
+    return stats;
+  }
+
+  /** Stops the threads of async stages and releases frames still waiting in their queues. */
+  public void dispose() {
+    Logging.d(TAG, "dispose");
+    for (Stage stage : stages) {
+      stage.dispose();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import java.util.concurrent.CountDownLatch;
+import org.chromium.base.test.BaseJUnit4ClassRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the per-sample cost of batched histograms with histograms that call into native for
+ * every sample, with several threads adding samples at the same time.
+ */
+@RunWith(BaseJUnit4ClassRunner.class)
+public class HistogramBenchmarkTest {
+  private static final String TAG = "HistogramBenchmarkTest";
+  private static final int THREAD_COUNT = 4;
+  private static final int SAMPLES_PER_THREAD = 100000;
+  private static final int WARMUP_SAMPLES = 10000;
+
+  private Histogram directHistogram;
+  private Histogram batchedHistogram;
+
+  @Before
+  public void setUp() {
+    PeerConnectionFactory.initialize(PeerConnectionFactory.InitializationOptions
+                                         .builder(InstrumentationRegistry.getTargetContext())
+                                         .setNativeLibraryName(TestConstants.NATIVE_LIBRARY)
+                                         .createInitializationOptions());
+    directHistogram = Histogram.createCounts("WebRTC.Android.Test.DirectLatencyMs", 1, 10000, 50);
+    batchedHistogram =
+        Histogram.createBatchedCounts("WebRTC.Android.Test.BatchedLatencyMs", 1, 10000, 50);
+  }
+
+  // Returns the average thread time of one sample in nanoseconds.
+  private static double measureNsPerSample(Histogram histogram) throws InterruptedException {
+    for (int i = 0; i < WARMUP_SAMPLES; ++i) {
+      histogram.addSample(i % 200);
+    }
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final Thread[] threads = new Thread[THREAD_COUNT];
+    for (int i = 0; i < THREAD_COUNT; ++i) {
+      threads[i] = new Thread(() -> {
+        try {
+          startLatch.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        for (int j = 0; j < SAMPLES_PER_THREAD; ++j) {
+          // Frame latencies in a realistic range.
+          histogram.addSample(20 + j % 200);
+        }
+      });
+      threads[i].start();
+    }
+    final long startNs = System.nanoTime();
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    final long elapsedNs = System.nanoTime() - startNs;
+    return (double) elapsedNs / SAMPLES_PER_THREAD;
+  }
+
+  @Test
+  @MediumTest
+  public void testBatchedSamplesAreCheaper() throws InterruptedException {
+    final double directNs = measureNsPerSample(directHistogram);
+    final double batchedNs = measureNsPerSample(batchedHistogram);
+    final long flushStartNs = System.nanoTime();
+    Histogram.flushAll();
+    final long flushNs = System.nanoTime() - flushStartNs;
+    Logging.d(TAG,
+        "Per sample with " + THREAD_COUNT + " threads: direct " + directNs + " ns, batched "
+            + batchedNs + " ns. Flush: " + flushNs / 1000 + " us.");
+
+    assertTrue(batchedNs < directNs);
+  }
+}
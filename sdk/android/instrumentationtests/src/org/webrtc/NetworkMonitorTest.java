@@ -30,7 +30,13 @@ import android.support.test.annotation.UiThreadTest;
 import android.support.test.filters.MediumTest;
 import android.support.test.filters.SmallTest;
 import android.support.test.rule.UiThreadTestRule;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.chromium.base.test.BaseJUnit4ClassRunner;
 import org.junit.Before;
 import org.junit.Rule;
@@ -76,6 +82,16 @@ public class NetworkMonitorTest {
     }
   }
 
+  /** Counts the notifications, which may arrive on any thread. */
+  private static class CountingNetworkObserver implements NetworkMonitor.NetworkObserver {
+    final AtomicInteger notificationCount = new AtomicInteger();
+
+    @Override
+    public void onConnectionTypeChanged(ConnectionType connectionType) {
+      notificationCount.incrementAndGet();
+    }
+  }
+
   /**
    * Mocks out calls to the ConnectivityManager.
    */
@@ -85,13 +101,30 @@ public class NetworkMonitorTest {
     private int networkSubtype;
     private int underlyingNetworkTypeForVpn;
     private int underlyingNetworkSubtypeForVpn;
+    private int networkStateQueryCount;
+    @Nullable private List<NetworkInformation> activeNetworkList;
 
     @Override
     public NetworkState getNetworkState() {
+      ++networkStateQueryCount;
       return new NetworkState(activeNetworkExists, networkType, networkSubtype,
           underlyingNetworkTypeForVpn, underlyingNetworkSubtypeForVpn);
     }
 
+    public int getNetworkStateQueryCount() {
+      return networkStateQueryCount;
+    }
+
+    @Override
+    @Nullable
+    List<NetworkInformation> getActiveNetworkList() {
+      return activeNetworkList;
+    }
+
+    public void setActiveNetworkList(@Nullable List<NetworkInformation> activeNetworkList) {
+      this.activeNetworkList = activeNetworkList;
+    }
+
     // Dummy implementations to avoid NullPointerExceptions in default implementations:
 
     @Override
@@ -282,6 +315,55 @@ public class NetworkMonitorTest {
     assertTrue(observer.hasReceivedNotification());
   }
 
+  /**
+   * Tests that the network state is read from the snapshot of NetworkMonitorAutoDetect, which is
+   * only updated by network change events.
+   */
+  @Test
+  @UiThreadTest
+  @SmallTest
+  public void testNetworkStateIsReadFromSnapshot() {
+    final long version = receiver.getNetworkSnapshotVersion();
+    final int queryCount = connectivityDelegate.getNetworkStateQueryCount();
+    connectivityDelegate.setNetworkType(ConnectivityManager.TYPE_WIFI);
+
+    for (int i = 0; i < 100; ++i) {
+      assertEquals(ConnectionType.CONNECTION_UNKNOWN_CELLULAR, getCurrentConnectionType());
+    }
+    assertEquals(queryCount, connectivityDelegate.getNetworkStateQueryCount());
+
+    Intent connectivityIntent = new Intent(ConnectivityManager.CONNECTIVITY_ACTION);
+    receiver.onReceive(InstrumentationRegistry.getTargetContext(), connectivityIntent);
+
+    assertEquals(ConnectionType.CONNECTION_WIFI, getCurrentConnectionType());
+    assertEquals(queryCount + 1, connectivityDelegate.getNetworkStateQueryCount());
+    assertEquals(version + 1, receiver.getNetworkSnapshotVersion());
+  }
+
+  /**
+   * Tests that a connectivity intent rebuilds the network list of the snapshot, so that networks
+   * the network callback doesn't report, like VPNs on older releases, are listed.
+   */
+  @Test
+  @UiThreadTest
+  @SmallTest
+  public void testVpnNetworkIsListedAfterConnectivityIntent() {
+    final NetworkInformation vpn = new NetworkInformation("tun0", ConnectionType.CONNECTION_VPN,
+        ConnectionType.CONNECTION_WIFI, 101, new NetworkChangeDetector.IPAddress[0]);
+    final List<NetworkInformation> networks = new ArrayList<>();
+    networks.add(vpn);
+    connectivityDelegate.setActiveNetworkList(networks);
+
+    Intent connectivityIntent = new Intent(ConnectivityManager.CONNECTIVITY_ACTION);
+    receiver.onReceive(InstrumentationRegistry.getTargetContext(), connectivityIntent);
+
+    final List<NetworkInformation> activeNetworks = receiver.getActiveNetworkList();
+    assertNotNull(activeNetworks);
+    assertEquals(1, activeNetworks.size());
+    assertEquals(ConnectionType.CONNECTION_VPN, activeNetworks.get(0).type);
+    assertEquals(101, activeNetworks.get(0).handle);
+  }
+
   /**
    * Tests that ConnectivityManagerDelegate doesn't crash. This test cannot rely on having any
    * active network connections so it cannot usefully check results, but it can at least check
@@ -319,6 +401,75 @@ public class NetworkMonitorTest {
     ncn.getDefaultNetId();
   }
 
+  /**
+   * Tests that observers can be added and removed on many threads while notifications are
+   * dispatched, and that every observer that stays registered gets every notification.
+   */
+  @Test
+  @MediumTest
+  public void testObserversChangeWhileNotificationsAreDispatched() throws Exception {
+    final int threadCount = 8;
+    final int observersPerThread = 200;
+    // Start from a mobile connection, whatever the connection of the device is.
+    Intent connectivityIntent = new Intent(ConnectivityManager.CONNECTIVITY_ACTION);
+    connectivityDelegate.setNetworkType(ConnectivityManager.TYPE_WIFI);
+    receiver.onReceive(InstrumentationRegistry.getTargetContext(), connectivityIntent);
+    connectivityDelegate.setNetworkType(ConnectivityManager.TYPE_MOBILE);
+    receiver.onReceive(InstrumentationRegistry.getTargetContext(), connectivityIntent);
+
+    final CountingNetworkObserver permanentObserver = new CountingNetworkObserver();
+    NetworkMonitor.getInstance().addObserver(permanentObserver);
+    final List<CountingNetworkObserver> transientObservers = new ArrayList<>();
+    final List<Future<?>> results = new ArrayList<>();
+    final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    for (int i = 0; i < threadCount; ++i) {
+      final List<CountingNetworkObserver> observers = new ArrayList<>();
+      for (int j = 0; j < observersPerThread; ++j) {
+        observers.add(new CountingNetworkObserver());
+      }
+      transientObservers.addAll(observers);
+      results.add(executor.submit(() -> {
+        for (CountingNetworkObserver observer : observers) {
+          NetworkMonitor.getInstance().addObserver(observer);
+          Thread.yield();
+          NetworkMonitor.getInstance().removeObserver(observer);
+        }
+      }));
+    }
+    executor.shutdown();
+
+    // Every intent toggles the connection type, so each one dispatches a notification.
+    int notificationCount = 0;
+    while (!executor.isTerminated()) {
+      connectivityDelegate.setNetworkType(notificationCount % 2 == 0
+              ? ConnectivityManager.TYPE_WIFI
+              : ConnectivityManager.TYPE_MOBILE);
+      receiver.onReceive(InstrumentationRegistry.getTargetContext(), connectivityIntent);
+      ++notificationCount;
+    }
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    for (Future<?> result : results) {
+      // Rethrows exceptions of the observer threads.
+      result.get();
+    }
+    assertEquals(notificationCount, permanentObserver.notificationCount.get());
+
+    // Removed observers are no longer notified.
+    final int[] transientCounts = new int[transientObservers.size()];
+    for (int i = 0; i < transientCounts.length; ++i) {
+      transientCounts[i] = transientObservers.get(i).notificationCount.get();
+    }
+    connectivityDelegate.setNetworkType(notificationCount % 2 == 0
+            ? ConnectivityManager.TYPE_WIFI
+            : ConnectivityManager.TYPE_MOBILE);
+    receiver.onReceive(InstrumentationRegistry.getTargetContext(), connectivityIntent);
+    assertEquals(notificationCount + 1, permanentObserver.notificationCount.get());
+    for (int i = 0; i < transientCounts.length; ++i) {
+      assertEquals(transientCounts[i], transientObservers.get(i).notificationCount.get());
+    }
+    NetworkMonitor.getInstance().removeObserver(permanentObserver);
+  }
+
   /**
    * Tests startMonitoring and stopMonitoring correctly set the autoDetect and number of observers.
    */
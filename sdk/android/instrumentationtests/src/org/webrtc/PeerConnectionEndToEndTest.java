@@ -928,13 +928,6 @@ public class PeerConnectionEndToEndTest {
   @Test
   @MediumTest
   public void testDataChannelOnlySession() throws Exception {
-    // Allow loopback interfaces too since our Android devices often don't
-    // have those.
-    PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
-    options.networkIgnoreMask = 0;
-    PeerConnectionFactory factory =
-        PeerConnectionFactory.builder().setOptions(options).createPeerConnectionFactory();
-
     List<PeerConnection.IceServer> iceServers = new ArrayList<>();
     iceServers.add(
         PeerConnection.IceServer.builder("stun:stun.l.google.com:19302").createIceServer());
@@ -943,94 +936,11 @@ public class PeerConnectionEndToEndTest {
                        .setPassword("fakePassword")
                        .createIceServer());
 
-    PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(iceServers);
-    rtcConfig.enableDtlsSrtp = true;
-
-    ObserverExpectations offeringExpectations = new ObserverExpectations("PCTest:offerer");
-    PeerConnection offeringPC = factory.createPeerConnection(rtcConfig, offeringExpectations);
-    assertNotNull(offeringPC);
-
-    ObserverExpectations answeringExpectations = new ObserverExpectations("PCTest:answerer");
-    PeerConnection answeringPC = factory.createPeerConnection(rtcConfig, answeringExpectations);
-    assertNotNull(answeringPC);
-
-    offeringExpectations.expectRenegotiationNeeded();
-    DataChannel offeringDC = offeringPC.createDataChannel("offeringDC", new DataChannel.Init());
-    assertEquals("offeringDC", offeringDC.label());
-
-    offeringExpectations.setDataChannel(offeringDC);
-    SdpObserverLatch sdpLatch = new SdpObserverLatch();
-    offeringPC.createOffer(sdpLatch, new MediaConstraints());
-    assertTrue(sdpLatch.await());
-    SessionDescription offerSdp = sdpLatch.getSdp();
-    assertEquals(offerSdp.type, SessionDescription.Type.OFFER);
-    assertFalse(offerSdp.description.isEmpty());
-
-    sdpLatch = new SdpObserverLatch();
-    answeringExpectations.expectSignalingChange(SignalingState.HAVE_REMOTE_OFFER);
-    // SCTP DataChannels are announced via OPEN messages over the established
-    // connection (not via SDP), so answeringExpectations can only register
-    // expecting the channel during ICE, below.
-    answeringPC.setRemoteDescription(sdpLatch, offerSdp);
-    assertEquals(PeerConnection.SignalingState.STABLE, offeringPC.signalingState());
-    assertTrue(sdpLatch.await());
-    assertNull(sdpLatch.getSdp());
-
-    sdpLatch = new SdpObserverLatch();
-    answeringPC.createAnswer(sdpLatch, new MediaConstraints());
-    assertTrue(sdpLatch.await());
-    SessionDescription answerSdp = sdpLatch.getSdp();
-    assertEquals(answerSdp.type, SessionDescription.Type.ANSWER);
-    assertFalse(answerSdp.description.isEmpty());
-
-    offeringExpectations.expectIceCandidates(2);
-    answeringExpectations.expectIceCandidates(2);
-
-    offeringExpectations.expectIceGatheringChange(IceGatheringState.COMPLETE);
-    answeringExpectations.expectIceGatheringChange(IceGatheringState.COMPLETE);
-
-    sdpLatch = new SdpObserverLatch();
-    answeringExpectations.expectSignalingChange(SignalingState.STABLE);
-    answeringExpectations.expectConnectionChange(PeerConnectionState.CONNECTING);
-    answeringPC.setLocalDescription(sdpLatch, answerSdp);
-    assertTrue(sdpLatch.await());
-    assertNull(sdpLatch.getSdp());
-
-    sdpLatch = new SdpObserverLatch();
-    offeringExpectations.expectSignalingChange(SignalingState.HAVE_LOCAL_OFFER);
-    offeringExpectations.expectConnectionChange(PeerConnectionState.CONNECTING);
-    offeringPC.setLocalDescription(sdpLatch, offerSdp);
-    assertTrue(sdpLatch.await());
-    assertNull(sdpLatch.getSdp());
-    sdpLatch = new SdpObserverLatch();
-    offeringExpectations.expectSignalingChange(SignalingState.STABLE);
-
-    offeringExpectations.expectIceConnectionChange(IceConnectionState.CHECKING);
-    offeringExpectations.expectIceConnectionChange(IceConnectionState.CONNECTED);
-    offeringExpectations.expectStandardizedIceConnectionChange(IceConnectionState.CHECKING);
-    offeringExpectations.expectStandardizedIceConnectionChange(IceConnectionState.CONNECTED);
-    offeringExpectations.expectConnectionChange(PeerConnectionState.CONNECTED);
-    // TODO(bemasc): uncomment once delivery of ICECompleted is reliable
-    // (https://code.google.com/p/webrtc/issues/detail?id=3021).
-    answeringExpectations.expectIceConnectionChange(IceConnectionState.CHECKING);
-    answeringExpectations.expectIceConnectionChange(IceConnectionState.CONNECTED);
-    answeringExpectations.expectStandardizedIceConnectionChange(IceConnectionState.CHECKING);
-    answeringExpectations.expectStandardizedIceConnectionChange(IceConnectionState.CONNECTED);
-    answeringExpectations.expectConnectionChange(PeerConnectionState.CONNECTED);
-
-    offeringPC.setRemoteDescription(sdpLatch, answerSdp);
-    assertTrue(sdpLatch.await());
-    assertNull(sdpLatch.getSdp());
-
-    assertEquals(offeringPC.getLocalDescription().type, offerSdp.type);
-    assertEquals(offeringPC.getRemoteDescription().type, answerSdp.type);
-    assertEquals(answeringPC.getLocalDescription().type, answerSdp.type);
-    assertEquals(answeringPC.getRemoteDescription().type, offerSdp.type);
-
-    offeringExpectations.expectStateChange(DataChannel.State.OPEN);
-    // See commentary about SCTP DataChannels above for why this is here.
-    answeringExpectations.expectDataChannel("offeringDC");
-    answeringExpectations.expectStateChange(DataChannel.State.OPEN);
+    DataChannelSession session = startDataChannelSession(iceServers, /* iceCandidateCount= */ 2);
+    PeerConnection offeringPC = session.offeringPC;
+    ObserverExpectations offeringExpectations = session.offeringExpectations;
+    PeerConnection answeringPC = session.answeringPC;
+    ObserverExpectations answeringExpectations = session.answeringExpectations;
 
     // Wait for at least one ice candidate from the offering PC and forward them to the answering
     // PC.
@@ -1080,11 +990,42 @@ public class PeerConnectionEndToEndTest {
     assertTrue(answeringExpectations.waitForAllExpectationsToBeSatisfied(DEFAULT_TIMEOUT_SECONDS));
 
     // Free the Java-land objects and collect them.
-    shutdownPC(offeringPC, offeringExpectations);
     offeringPC = null;
-    shutdownPC(answeringPC, answeringExpectations);
     answeringPC = null;
-    factory.dispose();
+    closeDataChannelSession(session);
+    session = null;
+    System.gc();
+  }
+
+  // Tests that a session connects when the remote ICE candidates are added in batches with
+  // addIceCandidates(), and that a batch with an invalid candidate is reported as failed.
+  @Test
+  @MediumTest
+  public void testAddIceCandidatesInBatches() throws Exception {
+    DataChannelSession session =
+        startDataChannelSession(Arrays.asList(), /* iceCandidateCount= */ 1);
+
+    // Forward the candidates gathered so far in one call each way.
+    assertTrue(session.answeringPC.addIceCandidates(
+        session.offeringExpectations.getAtLeastOneIceCandidate()));
+    assertTrue(session.offeringPC.addIceCandidates(
+        session.answeringExpectations.getAtLeastOneIceCandidate()));
+
+    assertTrue(
+        session.offeringExpectations.waitForAllExpectationsToBeSatisfied(DEFAULT_TIMEOUT_SECONDS));
+    assertTrue(
+        session.answeringExpectations.waitForAllExpectationsToBeSatisfied(DEFAULT_TIMEOUT_SECONDS));
+
+    // One invalid candidate fails the batch.
+    final IceCandidate validCandidate =
+        session.offeringExpectations.getAtLeastOneIceCandidate().get(0);
+    final IceCandidate invalidCandidate =
+        new IceCandidate(validCandidate.sdpMid, validCandidate.sdpMLineIndex, "invalid");
+    assertFalse(
+        session.answeringPC.addIceCandidates(Arrays.asList(validCandidate, invalidCandidate)));
+
+    closeDataChannelSession(session);
+    session = null;
     System.gc();
   }
 
@@ -1520,6 +1461,136 @@ public class PeerConnectionEndToEndTest {
     assertTrue(offeringExpectations.waitForAllExpectationsToBeSatisfied(DEFAULT_TIMEOUT_SECONDS));
   }
 
+  /** Two PeerConnections with a data channel, see startDataChannelSession(). */
+  private static class DataChannelSession {
+    final PeerConnectionFactory factory;
+    final PeerConnection offeringPC;
+    final ObserverExpectations offeringExpectations;
+    final PeerConnection answeringPC;
+    final ObserverExpectations answeringExpectations;
+
+    DataChannelSession(PeerConnectionFactory factory, PeerConnection offeringPC,
+        ObserverExpectations offeringExpectations, PeerConnection answeringPC,
+        ObserverExpectations answeringExpectations) {
+      this.factory = factory;
+      this.offeringPC = offeringPC;
+      this.offeringExpectations = offeringExpectations;
+      this.answeringPC = answeringPC;
+      this.answeringExpectations = answeringExpectations;
+    }
+  }
+
+  // Creates two PeerConnections that use |iceServers|, with a data channel from the offerer, and
+  // negotiates them. Each side is expected to gather at least |iceCandidateCount| candidates, and
+  // to connect and open the data channel once the candidates of the other side are added.
+  private static DataChannelSession startDataChannelSession(
+      List<PeerConnection.IceServer> iceServers, int iceCandidateCount) {
+    // Allow loopback interfaces too since our Android devices often don't
+    // have those.
+    PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
+    options.networkIgnoreMask = 0;
+    PeerConnectionFactory factory =
+        PeerConnectionFactory.builder().setOptions(options).createPeerConnectionFactory();
+
+    PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(iceServers);
+    rtcConfig.enableDtlsSrtp = true;
+
+    ObserverExpectations offeringExpectations = new ObserverExpectations("PCTest:offerer");
+    PeerConnection offeringPC = factory.createPeerConnection(rtcConfig, offeringExpectations);
+    assertNotNull(offeringPC);
+
+    ObserverExpectations answeringExpectations = new ObserverExpectations("PCTest:answerer");
+    PeerConnection answeringPC = factory.createPeerConnection(rtcConfig, answeringExpectations);
+    assertNotNull(answeringPC);
+
+    offeringExpectations.expectRenegotiationNeeded();
+    DataChannel offeringDC = offeringPC.createDataChannel("offeringDC", new DataChannel.Init());
+    assertEquals("offeringDC", offeringDC.label());
+
+    offeringExpectations.setDataChannel(offeringDC);
+    SdpObserverLatch sdpLatch = new SdpObserverLatch();
+    offeringPC.createOffer(sdpLatch, new MediaConstraints());
+    assertTrue(sdpLatch.await());
+    SessionDescription offerSdp = sdpLatch.getSdp();
+    assertEquals(offerSdp.type, SessionDescription.Type.OFFER);
+    assertFalse(offerSdp.description.isEmpty());
+
+    sdpLatch = new SdpObserverLatch();
+    answeringExpectations.expectSignalingChange(SignalingState.HAVE_REMOTE_OFFER);
+    // SCTP DataChannels are announced via OPEN messages over the established
+    // connection (not via SDP), so answeringExpectations can only register
+    // expecting the channel during ICE, below.
+    answeringPC.setRemoteDescription(sdpLatch, offerSdp);
+    assertEquals(PeerConnection.SignalingState.STABLE, offeringPC.signalingState());
+    assertTrue(sdpLatch.await());
+    assertNull(sdpLatch.getSdp());
+
+    sdpLatch = new SdpObserverLatch();
+    answeringPC.createAnswer(sdpLatch, new MediaConstraints());
+    assertTrue(sdpLatch.await());
+    SessionDescription answerSdp = sdpLatch.getSdp();
+    assertEquals(answerSdp.type, SessionDescription.Type.ANSWER);
+    assertFalse(answerSdp.description.isEmpty());
+
+    offeringExpectations.expectIceCandidates(iceCandidateCount);
+    answeringExpectations.expectIceCandidates(iceCandidateCount);
+
+    offeringExpectations.expectIceGatheringChange(IceGatheringState.COMPLETE);
+    answeringExpectations.expectIceGatheringChange(IceGatheringState.COMPLETE);
+
+    sdpLatch = new SdpObserverLatch();
+    answeringExpectations.expectSignalingChange(SignalingState.STABLE);
+    answeringExpectations.expectConnectionChange(PeerConnectionState.CONNECTING);
+    answeringPC.setLocalDescription(sdpLatch, answerSdp);
+    assertTrue(sdpLatch.await());
+    assertNull(sdpLatch.getSdp());
+
+    sdpLatch = new SdpObserverLatch();
+    offeringExpectations.expectSignalingChange(SignalingState.HAVE_LOCAL_OFFER);
+    offeringExpectations.expectConnectionChange(PeerConnectionState.CONNECTING);
+    offeringPC.setLocalDescription(sdpLatch, offerSdp);
+    assertTrue(sdpLatch.await());
+    assertNull(sdpLatch.getSdp());
+    sdpLatch = new SdpObserverLatch();
+    offeringExpectations.expectSignalingChange(SignalingState.STABLE);
+
+    offeringExpectations.expectIceConnectionChange(IceConnectionState.CHECKING);
+    offeringExpectations.expectIceConnectionChange(IceConnectionState.CONNECTED);
+    offeringExpectations.expectStandardizedIceConnectionChange(IceConnectionState.CHECKING);
+    offeringExpectations.expectStandardizedIceConnectionChange(IceConnectionState.CONNECTED);
+    offeringExpectations.expectConnectionChange(PeerConnectionState.CONNECTED);
+    // TODO(bemasc): uncomment once delivery of ICECompleted is reliable
+    // (https://code.google.com/p/webrtc/issues/detail?id=3021).
+    answeringExpectations.expectIceConnectionChange(IceConnectionState.CHECKING);
+    answeringExpectations.expectIceConnectionChange(IceConnectionState.CONNECTED);
+    answeringExpectations.expectStandardizedIceConnectionChange(IceConnectionState.CHECKING);
+    answeringExpectations.expectStandardizedIceConnectionChange(IceConnectionState.CONNECTED);
+    answeringExpectations.expectConnectionChange(PeerConnectionState.CONNECTED);
+
+    offeringPC.setRemoteDescription(sdpLatch, answerSdp);
+    assertTrue(sdpLatch.await());
+    assertNull(sdpLatch.getSdp());
+
+    assertEquals(offeringPC.getLocalDescription().type, offerSdp.type);
+    assertEquals(offeringPC.getRemoteDescription().type, answerSdp.type);
+    assertEquals(answeringPC.getLocalDescription().type, answerSdp.type);
+    assertEquals(answeringPC.getRemoteDescription().type, offerSdp.type);
+
+    offeringExpectations.expectStateChange(DataChannel.State.OPEN);
+    // See commentary about SCTP DataChannels above for why this is here.
+    answeringExpectations.expectDataChannel("offeringDC");
+    answeringExpectations.expectStateChange(DataChannel.State.OPEN);
+
+    return new DataChannelSession(
+        factory, offeringPC, offeringExpectations, answeringPC, answeringExpectations);
+  }
+
+  private static void closeDataChannelSession(DataChannelSession session) {
+    shutdownPC(session.offeringPC, session.offeringExpectations);
+    shutdownPC(session.answeringPC, session.answeringExpectations);
+    session.factory.dispose();
+  }
+
   private static void negotiate(PeerConnection offeringPC,
       ObserverExpectations offeringExpectations, PeerConnection answeringPC,
       ObserverExpectations answeringExpectations) {
@@ -18,10 +18,16 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
+import android.support.annotation.Nullable;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.SmallTest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.chromium.base.test.BaseJUnit4ClassRunner;
 import org.junit.Before;
 import org.junit.Test;
@@ -31,6 +37,42 @@ import org.webrtc.PeerConnection.TlsCertPolicy;
 /** Unit tests for {@link PeerConnection}. */
 @RunWith(BaseJUnit4ClassRunner.class)
 public class PeerConnectionTest {
+  /** Waits for a successful SDP operation. */
+  private static class SdpLatch implements SdpObserver {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    @Nullable private SessionDescription sdp;
+    @Nullable private String error;
+
+    @Override
+    public void onCreateSuccess(SessionDescription sdp) {
+      this.sdp = sdp;
+      latch.countDown();
+    }
+
+    @Override
+    public void onSetSuccess() {
+      latch.countDown();
+    }
+
+    @Override
+    public void onCreateFailure(String error) {
+      onSetFailure(error);
+    }
+
+    @Override
+    public void onSetFailure(String error) {
+      this.error = error;
+      latch.countDown();
+    }
+
+    @Nullable
+    SessionDescription await() throws InterruptedException {
+      assertTrue(latch.await(5, TimeUnit.SECONDS));
+      assertNull(error);
+      return sdp;
+    }
+  }
+
   @Before
   public void setUp() {
     PeerConnectionFactory.initialize(PeerConnectionFactory.InitializationOptions
@@ -212,4 +254,126 @@ public class PeerConnectionTest {
         factory.createPeerConnection(config, mock(PeerConnection.Observer.class));
     assertNotNull(offeringPC);
   }
+
+  @Test
+  @SmallTest
+  public void testGetStatsWithTypeFilter() throws Exception {
+    PeerConnectionFactory factory = PeerConnectionFactory.builder().createPeerConnectionFactory();
+    PeerConnection.RTCConfiguration config = new PeerConnection.RTCConfiguration(Arrays.asList());
+    config.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+    PeerConnection pc = factory.createPeerConnection(config, mock(PeerConnection.Observer.class));
+    pc.addTransceiver(MediaStreamTrack.MediaType.MEDIA_TYPE_AUDIO);
+
+    final CountDownLatch latch = new CountDownLatch(1);
+    final List<String> types = new ArrayList<>();
+    pc.getStats(singletonList("peer-connection"), report -> {
+      for (RTCStats stats : report.getStatsMap().values()) {
+        types.add(stats.getType());
+      }
+      latch.countDown();
+    });
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertEquals(singletonList("peer-connection"), types);
+
+    pc.dispose();
+    factory.dispose();
+  }
+
+  // Returns the stats of |report| by type.
+  private static List<RTCStats> getStatsOfType(RTCStatsReport report, String type) {
+    final List<RTCStats> result = new ArrayList<>();
+    for (RTCStats stats : report.getStatsMap().values()) {
+      if (stats.getType().equals(type)) {
+        result.add(stats);
+      }
+    }
+    return result;
+  }
+
+  // Returns the identifiers of the tracks that the "track" stats of |report| describe.
+  private static Set<Object> getTrackIdentifiers(RTCStatsReport report) {
+    final Set<Object> trackIdentifiers = new HashSet<>();
+    for (RTCStats stats : getStatsOfType(report, "track")) {
+      trackIdentifiers.add(stats.getMembers().get("trackIdentifier"));
+    }
+    return trackIdentifiers;
+  }
+
+  private static RTCStatsReport getStatsOf(PeerConnection pc, @Nullable RtpSender sender,
+      @Nullable RtpReceiver receiver) throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final RTCStatsReport[] result = new RTCStatsReport[1];
+    final RTCStatsCollectorCallback callback = report -> {
+      result[0] = report;
+      latch.countDown();
+    };
+    if (sender != null) {
+      pc.getStats(sender, callback);
+    } else {
+      pc.getStats(receiver, callback);
+    }
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    return result[0];
+  }
+
+  @Test
+  @SmallTest
+  public void testGetStatsOfSenderAndReceiver() throws Exception {
+    PeerConnectionFactory factory = PeerConnectionFactory.builder().createPeerConnectionFactory();
+    PeerConnection.RTCConfiguration config = new PeerConnection.RTCConfiguration(Arrays.asList());
+    config.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+    PeerConnection offeringPC =
+        factory.createPeerConnection(config, mock(PeerConnection.Observer.class));
+    PeerConnection answeringPC =
+        factory.createPeerConnection(config, mock(PeerConnection.Observer.class));
+
+    // Two senders, so that the stats of the other one are there to be filtered out.
+    AudioSource audioSource = factory.createAudioSource(new MediaConstraints());
+    AudioTrack audioTrack1 = factory.createAudioTrack("audio1", audioSource);
+    AudioTrack audioTrack2 = factory.createAudioTrack("audio2", audioSource);
+    RtpSender sender1 = offeringPC.addTrack(audioTrack1, singletonList("stream"));
+    RtpSender sender2 = offeringPC.addTrack(audioTrack2, singletonList("stream"));
+
+    // The SSRCs of the streams are known once the descriptions are set, no connection is needed.
+    SdpLatch sdpLatch = new SdpLatch();
+    offeringPC.createOffer(sdpLatch, new MediaConstraints());
+    SessionDescription offer = sdpLatch.await();
+    sdpLatch = new SdpLatch();
+    offeringPC.setLocalDescription(sdpLatch, offer);
+    sdpLatch.await();
+    sdpLatch = new SdpLatch();
+    answeringPC.setRemoteDescription(sdpLatch, offer);
+    sdpLatch.await();
+    sdpLatch = new SdpLatch();
+    answeringPC.createAnswer(sdpLatch, new MediaConstraints());
+    SessionDescription answer = sdpLatch.await();
+    sdpLatch = new SdpLatch();
+    answeringPC.setLocalDescription(sdpLatch, answer);
+    sdpLatch.await();
+    sdpLatch = new SdpLatch();
+    offeringPC.setRemoteDescription(sdpLatch, answer);
+    sdpLatch.await();
+
+    for (RtpSender sender : Arrays.asList(sender1, sender2)) {
+      RTCStatsReport report = getStatsOf(offeringPC, sender, /* receiver= */ null);
+      assertEquals(1, getStatsOfType(report, "outbound-rtp").size());
+      assertTrue(getStatsOfType(report, "inbound-rtp").isEmpty());
+      assertEquals(new HashSet<>(singletonList(sender.track().id())), getTrackIdentifiers(report));
+    }
+
+    List<RtpReceiver> receivers = answeringPC.getReceivers();
+    assertEquals(2, receivers.size());
+    for (RtpReceiver receiver : receivers) {
+      RTCStatsReport report = getStatsOf(answeringPC, /* sender= */ null, receiver);
+      assertEquals(1, getStatsOfType(report, "inbound-rtp").size());
+      assertTrue(getStatsOfType(report, "outbound-rtp").isEmpty());
+      assertEquals(
+          new HashSet<>(singletonList(receiver.track().id())), getTrackIdentifiers(report));
+    }
+
+    offeringPC.dispose();
+    answeringPC.dispose();
+    audioSource.dispose();
+    factory.dispose();
+  }
 }
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.chromium.base.test.BaseJUnit4ClassRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the cost of polling stats through RTCStatsSession with the full reports of
+ * PeerConnection.getStats(RTCStatsCollectorCallback).
+ */
+@RunWith(BaseJUnit4ClassRunner.class)
+public class RTCStatsSessionBenchmarkTest {
+  private static final String TAG = "RTCStatsSessionBenchmarkTest";
+  private static final int NUM_POLLS = 20;
+  private static final int TIMEOUT_MS = 5000;
+
+  /** Result of polling the stats NUM_POLLS times. */
+  private static class PollResult {
+    long members;
+    long allocations;
+  }
+
+  private PeerConnectionFactory factory;
+  private PeerConnection pc;
+
+  @Before
+  public void setUp() {
+    PeerConnectionFactory.initialize(PeerConnectionFactory.InitializationOptions
+                                         .builder(InstrumentationRegistry.getTargetContext())
+                                         .setNativeLibraryName(TestConstants.NATIVE_LIBRARY)
+                                         .createInitializationOptions());
+
+    factory = PeerConnectionFactory.builder().createPeerConnectionFactory();
+    PeerConnection.RTCConfiguration config = new PeerConnection.RTCConfiguration(Arrays.asList());
+    config.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+    pc = factory.createPeerConnection(config, mock(PeerConnection.Observer.class));
+    pc.addTransceiver(MediaStreamTrack.MediaType.MEDIA_TYPE_AUDIO);
+    pc.createDataChannel("stats", new DataChannel.Init());
+  }
+
+  @After
+  public void tearDown() {
+    pc.dispose();
+    factory.dispose();
+  }
+
+  private static long countMembers(RTCStatsReport report) {
+    long members = 0;
+    for (RTCStats stats : report.getStatsMap().values()) {
+      members += stats.getMembers().size();
+    }
+    return members;
+  }
+
+  private PollResult pollRawStats() throws InterruptedException {
+    final PollResult result = new PollResult();
+    final long startAllocations = Debug.getGlobalAllocCount();
+    for (int i = 0; i < NUM_POLLS; ++i) {
+      final CountDownLatch latch = new CountDownLatch(1);
+      pc.getStats(report -> {
+        result.members += countMembers(report);
+        latch.countDown();
+      });
+      assertTrue(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+    result.allocations = Debug.getGlobalAllocCount() - startAllocations;
+    return result;
+  }
+
+  private PollResult pollSessionStats(RTCStatsSession session) throws InterruptedException {
+    final PollResult result = new PollResult();
+    final long startAllocations = Debug.getGlobalAllocCount();
+    for (int i = 0; i < NUM_POLLS; ++i) {
+      final CountDownLatch latch = new CountDownLatch(1);
+      session.getStats((delta, rates) -> {
+        result.members += countMembers(delta);
+        latch.countDown();
+      });
+      assertTrue(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+    result.allocations = Debug.getGlobalAllocCount() - startAllocations;
+    return result;
+  }
+
+  @Test
+  @MediumTest
+  @SuppressWarnings("deprecation") // Debug allocation counting is deprecated but still works.
+  public void testSessionConvertsFewerMembersThanRawStats() throws InterruptedException {
+    final RTCStatsSession session = new RTCStatsSession(pc);
+    Debug.startAllocCounting();
+    final PollResult raw = pollRawStats();
+    final PollResult delta = pollSessionStats(session);
+    Debug.stopAllocCounting();
+    session.dispose();
+
+    Logging.d(TAG,
+        "Per poll: raw " + raw.members / NUM_POLLS + " members, " + raw.allocations / NUM_POLLS
+            + " allocations; session " + delta.members / NUM_POLLS + " members, "
+            + delta.allocations / NUM_POLLS + " allocations");
+    // Only the first session poll converts all members, later polls only the changed ones.
+    assertTrue(delta.members < raw.members);
+  }
+}
@@ -10,7 +10,10 @@
 
 package org.webrtc;
 
+import static org.junit.Assert.assertEquals;
+
 import android.support.test.filters.SmallTest;
+import java.util.Random;
 import org.chromium.base.test.params.BaseJUnit4RunnerDelegate;
 import org.chromium.base.test.params.ParameterAnnotations.UseRunnerDelegate;
 import org.junit.BeforeClass;
@@ -43,4 +46,31 @@ public class TimestampAlignerTest {
     timestampAligner.translateTimestamp(/* cameraTimeNs= */ 123);
     timestampAligner.dispose();
   }
+
+  @Test
+  @SmallTest
+  public void testJavaTimestampAlignerMatchesNative() {
+    final TimestampAligner nativeAligner = new TimestampAligner();
+    final JavaTimestampAligner javaAligner = new JavaTimestampAligner();
+    final Random random = new Random(/* seed= */ 1234);
+
+    // Simulates a 30 fps camera with a clock offset, 500 ppm drift and a random capture delay. The
+    // camera clock is reset halfway to exercise the filter reset, and some frames are delivered in
+    // bursts to exercise the monotonicity clipping.
+    final long frameIntervalNs = 33_333_333;
+    long cameraTimeNs = 5_000_000_000L;
+    long systemTimeNs = 123_456_789_000L;
+    for (int i = 0; i < 1000; ++i) {
+      if (i == 500) {
+        cameraTimeNs += 2_000_000_000L;
+      }
+      cameraTimeNs += frameIntervalNs;
+      systemTimeNs += frameIntervalNs + frameIntervalNs / 2000;
+      final long deliveryTimeNs =
+          (i % 50 < 3) ? systemTimeNs + 100_000 : systemTimeNs + random.nextInt(20_000_000);
+      assertEquals("Frame " + i, nativeAligner.translateTimestamp(cameraTimeNs, deliveryTimeNs),
+          javaAligner.translateTimestamp(cameraTimeNs, deliveryTimeNs));
+    }
+    nativeAligner.dispose();
+  }
 }
@@ -389,7 +389,11 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
       }
 
       if (result < 0) {
-        Logging.v(TAG, "dequeueOutputBuffer returned " + result);
+        // This happens on every poll without output, so nothing is allocated unless verbose
+        // messages are logged.
+        if (Logging.isLoggable(Logging.Severity.LS_VERBOSE)) {
+          Logging.v(TAG, "dequeueOutputBuffer returned " + result);
+        }
         return;
       }
 
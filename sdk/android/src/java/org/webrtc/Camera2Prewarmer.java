@@ -0,0 +1,207 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.annotation.TargetApi;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.os.Handler;
+import android.support.annotation.Nullable;
+
+/**
+ * Keeps at most one camera device open without a capture session, so that a Camera2Session for
+ * that camera can skip CameraManager.openCamera(). The device is closed again if it has not been
+ * handed over within the prewarm duration, to limit the power cost. All methods must be called on
+ * the camera thread.
+ */
+@TargetApi(21)
+class Camera2Prewarmer {
+  private static final String TAG = "Camera2Prewarmer";
+
+  /**
+   * Called on the camera thread when the prewarmed camera is closed or fails to open without a
+   * release() call, e.g. because it was not handed over within the prewarm duration.
+   */
+  interface ReleaseListener {
+    void onPrewarmedCameraReleased(String cameraId);
+  }
+
+  /** Opens camera devices. Implemented by CameraManager.openCamera(), replaceable for tests. */
+  interface CameraOpener {
+    void openCamera(String cameraId, CameraDevice.StateCallback callback, Handler handler)
+        throws CameraAccessException;
+  }
+
+  /**
+   * State callback registered with CameraManager.openCamera(). Events are forwarded to the session
+   * the device has been handed over to, if any.
+   */
+  private class PrewarmStateCallback extends CameraDevice.StateCallback {
+    @Nullable private CameraDevice.StateCallback target;
+    @Nullable private CameraDevice openedDevice;
+    private boolean isClosed;
+
+    @Override
+    public void onOpened(CameraDevice camera) {
+      Logging.d(TAG, "Prewarmed camera opened: " + camera.getId());
+      if (target != null) {
+        target.onOpened(camera);
+      } else if (isClosed) {
+        camera.close();
+      } else {
+        openedDevice = camera;
+      }
+    }
+
+    @Override
+    public void onDisconnected(CameraDevice camera) {
+      if (target != null) {
+        target.onDisconnected(camera);
+      } else {
+        Logging.w(TAG, "Prewarmed camera disconnected: " + camera.getId());
+        releaseUnrequested(this, camera);
+      }
+    }
+
+    @Override
+    public void onError(CameraDevice camera, int errorCode) {
+      if (target != null) {
+        target.onError(camera, errorCode);
+      } else {
+        Logging.w(TAG, "Prewarmed camera error: " + errorCode);
+        releaseUnrequested(this, camera);
+      }
+    }
+
+    @Override
+    public void onClosed(CameraDevice camera) {
+      if (target != null) {
+        target.onClosed(camera);
+      }
+    }
+  }
+
+  private final CameraOpener cameraOpener;
+  private final Handler cameraThreadHandler;
+  private final ReleaseListener releaseListener;
+  private final Runnable releaseRunnable = this::onPrewarmDurationExpired;
+
+  @Nullable private String prewarmedCameraId;
+  @Nullable private PrewarmStateCallback prewarmStateCallback;
+
+  public Camera2Prewarmer(
+      CameraManager cameraManager, Handler cameraThreadHandler, ReleaseListener releaseListener) {
+    this(cameraManager::openCamera, cameraThreadHandler, releaseListener);
+  }
+
+  Camera2Prewarmer(
+      CameraOpener cameraOpener, Handler cameraThreadHandler, ReleaseListener releaseListener) {
+    this.cameraOpener = cameraOpener;
+    this.cameraThreadHandler = cameraThreadHandler;
+    this.releaseListener = releaseListener;
+  }
+
+  /**
+   * Opens |cameraId| in the background. Any previously prewarmed camera is closed first. The
+   * camera is closed again after |maxPrewarmDurationMs| unless it is handed over before that.
+   */
+  public void prewarm(String cameraId, int maxPrewarmDurationMs) {
+    checkIsOnCameraThread();
+    cameraThreadHandler.removeCallbacks(releaseRunnable);
+    if (!cameraId.equals(prewarmedCameraId)) {
+      release();
+      Logging.d(TAG, "Prewarming camera " + cameraId);
+      final PrewarmStateCallback stateCallback = new PrewarmStateCallback();
+      try {
+        cameraOpener.openCamera(cameraId, stateCallback, cameraThreadHandler);
+      } catch (CameraAccessException | IllegalArgumentException | SecurityException e) {
+        Logging.w(TAG, "Failed to prewarm camera " + cameraId, e);
+        releaseListener.onPrewarmedCameraReleased(cameraId);
+        return;
+      }
+      prewarmedCameraId = cameraId;
+      prewarmStateCallback = stateCallback;
+    }
+    cameraThreadHandler.postDelayed(releaseRunnable, maxPrewarmDurationMs);
+  }
+
+  /**
+   * Hands over the prewarmed camera to |sessionStateCallback| if |cameraId| is the prewarmed
+   * camera. Returns false if it is not, in which case the caller has to open the camera itself.
+   * If the camera is still opening, |sessionStateCallback| will receive onOpened() once it opens.
+   */
+  public boolean handOver(String cameraId, CameraDevice.StateCallback sessionStateCallback) {
+    checkIsOnCameraThread();
+    if (prewarmStateCallback == null || !cameraId.equals(prewarmedCameraId)) {
+      return false;
+    }
+    Logging.d(TAG, "Handing over prewarmed camera " + cameraId);
+    cameraThreadHandler.removeCallbacks(releaseRunnable);
+    final PrewarmStateCallback stateCallback = prewarmStateCallback;
+    prewarmedCameraId = null;
+    prewarmStateCallback = null;
+    stateCallback.target = sessionStateCallback;
+    if (stateCallback.openedDevice != null) {
+      sessionStateCallback.onOpened(stateCallback.openedDevice);
+      stateCallback.openedDevice = null;
+    }
+    return true;
+  }
+
+  /** Closes the prewarmed camera, if any. */
+  public void release() {
+    checkIsOnCameraThread();
+    cameraThreadHandler.removeCallbacks(releaseRunnable);
+    if (prewarmStateCallback == null) {
+      return;
+    }
+    Logging.d(TAG, "Releasing prewarmed camera " + prewarmedCameraId);
+    release(prewarmStateCallback, prewarmStateCallback.openedDevice);
+  }
+
+  private void onPrewarmDurationExpired() {
+    if (prewarmStateCallback == null) {
+      return;
+    }
+    Logging.d(TAG, "Prewarmed camera " + prewarmedCameraId + " was not used in time.");
+    releaseUnrequested(prewarmStateCallback, prewarmStateCallback.openedDevice);
+  }
+
+  // Closes the camera and tells the listener if it was the prewarmed camera.
+  private void releaseUnrequested(
+      PrewarmStateCallback stateCallback, @Nullable CameraDevice camera) {
+    final String cameraId = stateCallback == prewarmStateCallback ? prewarmedCameraId : null;
+    release(stateCallback, camera);
+    if (cameraId != null) {
+      cameraThreadHandler.removeCallbacks(releaseRunnable);
+      releaseListener.onPrewarmedCameraReleased(cameraId);
+    }
+  }
+
+  private void release(PrewarmStateCallback stateCallback, @Nullable CameraDevice camera) {
+    stateCallback.isClosed = true;
+    stateCallback.openedDevice = null;
+    if (camera != null) {
+      camera.close();
+    }
+    if (stateCallback == prewarmStateCallback) {
+      prewarmedCameraId = null;
+      prewarmStateCallback = null;
+    }
+  }
+
+  private void checkIsOnCameraThread() {
+    if (Thread.currentThread() != cameraThreadHandler.getLooper().getThread()) {
+      throw new IllegalStateException("Wrong thread");
+    }
+  }
+}
@@ -49,6 +49,7 @@ class Camera2Session implements CameraSession {
   private final CameraManager cameraManager;
   private final SurfaceTextureHelper surfaceTextureHelper;
   private final String cameraId;
+  @Nullable private final Camera2Prewarmer cameraPrewarmer;
   private final int width;
   private final int height;
   private final int framerate;
@@ -271,13 +272,25 @@ class Camera2Session implements CameraSession {
       Context applicationContext, CameraManager cameraManager,
       SurfaceTextureHelper surfaceTextureHelper, String cameraId, int width, int height,
       int framerate) {
+    create(callback, events, applicationContext, cameraManager, surfaceTextureHelper, cameraId,
+        width, height, framerate, /* cameraPrewarmer= */ null);
+  }
+
+  /**
+   * Same as above, but uses the camera device prewarmed by |cameraPrewarmer| instead of opening
+   * the camera, if |cameraId| has been prewarmed.
+   */
+  public static void create(CreateSessionCallback callback, Events events,
+      Context applicationContext, CameraManager cameraManager,
+      SurfaceTextureHelper surfaceTextureHelper, String cameraId, int width, int height,
+      int framerate, @Nullable Camera2Prewarmer cameraPrewarmer) {
     new Camera2Session(callback, events, applicationContext, cameraManager, surfaceTextureHelper,
-        cameraId, width, height, framerate);
+        cameraId, width, height, framerate, cameraPrewarmer);
   }
 
   private Camera2Session(CreateSessionCallback callback, Events events, Context applicationContext,
       CameraManager cameraManager, SurfaceTextureHelper surfaceTextureHelper, String cameraId,
-      int width, int height, int framerate) {
+      int width, int height, int framerate, @Nullable Camera2Prewarmer cameraPrewarmer) {
     Logging.d(TAG, "Create new camera2 session on camera " + cameraId);
 
     constructionTimeNs = System.nanoTime();
@@ -289,6 +302,7 @@ class Camera2Session implements CameraSession {
     this.cameraManager = cameraManager;
     this.surfaceTextureHelper = surfaceTextureHelper;
     this.cameraId = cameraId;
+    this.cameraPrewarmer = cameraPrewarmer;
     this.width = width;
     this.height = height;
     this.framerate = framerate;
@@ -347,6 +361,11 @@ class Camera2Session implements CameraSession {
     Logging.d(TAG, "Opening camera " + cameraId);
     events.onCameraOpening();
 
+    if (cameraPrewarmer != null && cameraPrewarmer.handOver(cameraId, new CameraStateCallback())) {
+      Logging.d(TAG, "Using prewarmed camera " + cameraId);
+      return;
+    }
+
     try {
       cameraManager.openCamera(cameraId, new CameraStateCallback(), cameraThreadHandler);
     } catch (CameraAccessException e) {
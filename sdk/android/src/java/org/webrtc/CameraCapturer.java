@@ -16,6 +16,7 @@ import android.os.Looper;
 import android.support.annotation.Nullable;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @SuppressWarnings("deprecation")
 abstract class CameraCapturer implements CameraVideoCapturer {
@@ -62,6 +63,10 @@ abstract class CameraCapturer implements CameraVideoCapturer {
               switchState = SwitchState.IDLE;
               switchCameraInternal(switchEventsHandler, selectedCameraName);
             }
+
+            if (switchState == SwitchState.IDLE) {
+              prewarmAlternateCamera();
+            }
           }
         }
 
@@ -84,6 +89,7 @@ abstract class CameraCapturer implements CameraVideoCapturer {
                   switchEventsHandler = null;
                 }
                 switchState = SwitchState.IDLE;
+                switchStartTimeNs = 0;
               }
 
               if (failureType == CameraSession.FailureType.DISCONNECTED) {
@@ -162,6 +168,15 @@ abstract class CameraCapturer implements CameraVideoCapturer {
         if (!firstFrameObserved) {
           eventsHandler.onFirstFrameAvailable();
           firstFrameObserved = true;
+          if (switchStartTimeNs != 0) {
+            final long switchLatencyMs =
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - switchStartTimeNs);
+            Logging.d(TAG, "Camera switch latency: " + switchLatencyMs + " ms, prewarmed: "
+                    + switchUsedPrewarmedCamera);
+            eventsHandler.onCameraSwitchLatency(
+                cameraName, switchLatencyMs, switchUsedPrewarmedCamera);
+            switchStartTimeNs = 0;
+          }
         }
         cameraStatistics.addFrame();
         capturerObserver.onFrameCaptured(frame);
@@ -197,6 +212,12 @@ abstract class CameraCapturer implements CameraVideoCapturer {
   // Valid from onDone call until stopCapture, otherwise null.
   @Nullable private CameraStatistics cameraStatistics; /* guarded by stateLock */
   private boolean firstFrameObserved; /* guarded by stateLock */
+  // Time of the switchCamera() call for the switch in progress, or 0 if there is none.
+  private long switchStartTimeNs; /* guarded by stateLock */
+  private boolean switchUsedPrewarmedCamera; /* guarded by stateLock */
+  // Prewarming is disabled if |maxPrewarmDurationMs| is 0.
+  private int maxPrewarmDurationMs; /* guarded by stateLock */
+  @Nullable private String prewarmedCameraName; /* guarded by stateLock */
 
   public CameraCapturer(String cameraName, @Nullable CameraEventsHandler eventsHandler,
       CameraEnumerator cameraEnumerator) {
@@ -214,6 +235,9 @@ abstract class CameraCapturer implements CameraVideoCapturer {
         public void onFirstFrameAvailable() {}
         @Override
         public void onCameraClosed() {}
+        @Override
+        public void onCameraSwitchLatency(
+            String cameraName, long switchLatencyMs, boolean usedPrewarmedCamera) {}
       };
     }
 
@@ -296,10 +320,15 @@ abstract class CameraCapturer implements CameraVideoCapturer {
         cameraStatistics.release();
         cameraStatistics = null;
         final CameraSession oldSession = currentSession;
+        final boolean hasPrewarmedCamera = prewarmedCameraName != null;
+        prewarmedCameraName = null;
         cameraThreadHandler.post(new Runnable() {
           @Override
           public void run() {
             oldSession.stop();
+            if (hasPrewarmedCamera) {
+              releasePrewarmedCamera();
+            }
           }
         });
         currentSession = null;
@@ -327,6 +356,35 @@ abstract class CameraCapturer implements CameraVideoCapturer {
     stopCapture();
   }
 
+  /**
+   * Enables prewarming of the camera that switchCamera(CameraSwitchHandler) would switch to. While
+   * capturing, that camera is opened in the background without streaming, so that a switch only
+   * needs to start a capture session on the already open camera. At most one camera is prewarmed,
+   * and it is closed again if no switch happens within |maxPrewarmDurationMs|, to limit the power
+   * and memory cost. Prewarming is only supported by Camera2Capturer, for other capturers it has
+   * no effect. Only enable this on devices that can keep two cameras open at the same time, on
+   * other devices opening the second camera may fail or evict the capturing camera.
+   */
+  public void enableCameraPrewarming(int maxPrewarmDurationMs) {
+    if (maxPrewarmDurationMs <= 0) {
+      throw new IllegalArgumentException("maxPrewarmDurationMs must be positive.");
+    }
+    synchronized (stateLock) {
+      this.maxPrewarmDurationMs = maxPrewarmDurationMs;
+    }
+  }
+
+  /** Disables prewarming and closes the prewarmed camera, if any. */
+  public void disableCameraPrewarming() {
+    synchronized (stateLock) {
+      maxPrewarmDurationMs = 0;
+      if (prewarmedCameraName != null) {
+        prewarmedCameraName = null;
+        cameraThreadHandler.post(this::releasePrewarmedCamera);
+      }
+    }
+  }
+
   @Override
   public void switchCamera(final CameraSwitchHandler switchEventsHandler) {
     Logging.d(TAG, "switchCamera");
@@ -409,6 +467,9 @@ abstract class CameraCapturer implements CameraVideoCapturer {
       }
 
       this.switchEventsHandler = switchEventsHandler;
+      if (switchStartTimeNs == 0) {
+        switchStartTimeNs = System.nanoTime();
+      }
       if (sessionOpening) {
         switchState = SwitchState.PENDING;
         pendingCameraName = selectedCameraName;
@@ -431,6 +492,12 @@ abstract class CameraCapturer implements CameraVideoCapturer {
 
       cameraName = selectedCameraName;
 
+      switchUsedPrewarmedCamera = selectedCameraName.equals(prewarmedCameraName);
+      if (prewarmedCameraName != null && !switchUsedPrewarmedCamera) {
+        releasePrewarmedCamera();
+      }
+      prewarmedCameraName = null;
+
       sessionOpening = true;
       openAttemptsRemaining = 1;
       createSessionInternal(0);
@@ -438,6 +505,22 @@ abstract class CameraCapturer implements CameraVideoCapturer {
     Logging.d(TAG, "switchCamera done");
   }
 
+  // Must be called on the camera thread with |stateLock| held.
+  private void prewarmAlternateCamera() {
+    if (maxPrewarmDurationMs <= 0 || currentSession == null) {
+      return;
+    }
+    final List<String> deviceNames = Arrays.asList(cameraEnumerator.getDeviceNames());
+    if (deviceNames.size() < 2) {
+      return;
+    }
+    final String alternateCameraName =
+        deviceNames.get((deviceNames.indexOf(cameraName) + 1) % deviceNames.size());
+    Logging.d(TAG, "Prewarming camera " + alternateCameraName);
+    prewarmedCameraName = alternateCameraName;
+    prewarmCamera(alternateCameraName, maxPrewarmDurationMs);
+  }
+
   private void checkIsOnCameraThread() {
     if (Thread.currentThread() != cameraThreadHandler.getLooper().getThread()) {
       Logging.e(TAG, "Check is on camera thread failed.");
@@ -451,6 +534,31 @@ abstract class CameraCapturer implements CameraVideoCapturer {
     }
   }
 
+  /**
+   * Opens |cameraName| in the background so that the next session created for it can start
+   * faster. Replaces any previously prewarmed camera. Called on the camera thread. The default
+   * implementation does nothing.
+   */
+  protected void prewarmCamera(String cameraName, int maxPrewarmDurationMs) {}
+
+  /** Closes the camera opened by prewarmCamera(), if any. Called on the camera thread. */
+  protected void releasePrewarmedCamera() {}
+
+  /**
+   * Called by subclasses on the camera thread when the camera opened by prewarmCamera() has been
+   * closed or failed to open without a releasePrewarmedCamera() call, so that a switch to it is
+   * not reported as prewarmed.
+   */
+  protected void onPrewarmedCameraReleased(String cameraName) {
+    checkIsOnCameraThread();
+    synchronized (stateLock) {
+      if (cameraName.equals(prewarmedCameraName)) {
+        Logging.d(TAG, "Prewarmed camera released: " + cameraName);
+        prewarmedCameraName = null;
+      }
+    }
+  }
+
   abstract protected void createCameraSession(
       CameraSession.CreateSessionCallback createSessionCallback, CameraSession.Events events,
       Context applicationContext, SurfaceTextureHelper surfaceTextureHelper, String cameraName,
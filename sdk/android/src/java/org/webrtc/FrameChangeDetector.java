@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects whether the content of consecutive frames has changed. Each frame is downscaled to a
+ * small thumbnail, and the luma plane of the thumbnail is hashed in blocks. A frame is considered
+ * unchanged if all block hashes match the previous frame. Intended for mostly static content such
+ * as screen sharing. This class is not thread safe.
+ *
+ * <p>Only changes that survive the downscaling are detected. Each thumbnail pixel averages a
+ * whole region of the frame, e.g. about 30x17 pixels of a 1920x1080 frame with the default
+ * 64x64 thumbnail, so a change to a few pixels such as a blinking cursor or a typed character
+ * may not alter the thumbnail at all. Use a larger thumbnail to detect smaller changes, at the
+ * cost of reading back and hashing more data per frame.
+ */
+class FrameChangeDetector {
+  // Default width and height of the thumbnail that is hashed. Downscaling is done by
+  // VideoFrame.Buffer.cropAndScale(), which for texture buffers runs on the GPU, so only the
+  // thumbnail is read back to memory.
+  static final int DEFAULT_THUMBNAIL_SIZE = 64;
+  // The thumbnail is divided into BLOCKS_PER_SIDE x BLOCKS_PER_SIDE blocks.
+  static final int BLOCKS_PER_SIDE = 8;
+
+  private final int thumbnailSize;
+  private final int[] blockHashes = new int[BLOCKS_PER_SIDE * BLOCKS_PER_SIDE];
+  private boolean hasPreviousFrame;
+
+  public FrameChangeDetector() {
+    this(DEFAULT_THUMBNAIL_SIZE);
+  }
+
+  /** Creates a detector hashing a |thumbnailSize| x |thumbnailSize| thumbnail of each frame. */
+  public FrameChangeDetector(int thumbnailSize) {
+    if (thumbnailSize < BLOCKS_PER_SIDE) {
+      throw new IllegalArgumentException("thumbnailSize must be at least " + BLOCKS_PER_SIDE);
+    }
+    this.thumbnailSize = thumbnailSize;
+  }
+
+  public int getThumbnailSize() {
+    return thumbnailSize;
+  }
+
+  /**
+   * Returns true if |buffer| differs from the buffer passed in the previous call, or if this is
+   * the first call since construction or reset().
+   */
+  public boolean isChanged(VideoFrame.Buffer buffer) {
+    final VideoFrame.Buffer thumbnail = buffer.cropAndScale(0, 0, buffer.getWidth(),
+        buffer.getHeight(), thumbnailSize, thumbnailSize);
+    final VideoFrame.I420Buffer i420Thumbnail = thumbnail.toI420();
+    thumbnail.release();
+    final boolean changed = updateAndCheckChanged(i420Thumbnail);
+    i420Thumbnail.release();
+    return changed;
+  }
+
+  /** Forgets the previous frame, so that the next frame is reported as changed. */
+  public void reset() {
+    hasPreviousFrame = false;
+  }
+
+  // Visible for testing.
+  boolean updateAndCheckChanged(VideoFrame.I420Buffer buffer) {
+    final ByteBuffer dataY = buffer.getDataY();
+    final int strideY = buffer.getStrideY();
+    final int width = buffer.getWidth();
+    final int height = buffer.getHeight();
+
+    boolean changed = !hasPreviousFrame;
+    for (int blockY = 0; blockY < BLOCKS_PER_SIDE; ++blockY) {
+      final int startY = blockY * height / BLOCKS_PER_SIDE;
+      final int endY = (blockY + 1) * height / BLOCKS_PER_SIDE;
+      for (int blockX = 0; blockX < BLOCKS_PER_SIDE; ++blockX) {
+        final int startX = blockX * width / BLOCKS_PER_SIDE;
+        final int endX = (blockX + 1) * width / BLOCKS_PER_SIDE;
+        int hash = 1;
+        for (int y = startY; y < endY; ++y) {
+          final int rowOffset = y * strideY;
+          for (int x = startX; x < endX; ++x) {
+            hash = 31 * hash + dataY.get(rowOffset + x);
+          }
+        }
+        final int blockIndex = blockY * BLOCKS_PER_SIDE + blockX;
+        if (blockHashes[blockIndex] != hash) {
+          blockHashes[blockIndex] = hash;
+          changed = true;
+        }
+      }
+    }
+    hasPreviousFrame = true;
+    return changed;
+  }
+}
@@ -10,6 +10,13 @@
 
 package org.webrtc;
 
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Class for holding the native pointer of a histogram. Since there is no way to destroy a
  * histogram, please don't create unnecessary instances of this object. This class is thread safe.
@@ -18,27 +25,132 @@ package org.webrtc;
  * private static final Histogram someMetricHistogram =
  *     Histogram.createCounts("WebRTC.Video.SomeMetric", 1, 10000, 50);
  * someMetricHistogram.addSample(someVariable);
+ *
+ * Histograms that are updated often, e.g. per frame, should be created with createBatchedCounts()
+ * or createBatchedEnumeration(). Their samples are counted in Java and passed to native in one
+ * call per histogram, at most FLUSH_DELAY_MS after they were added and whenever Metrics are read.
+ * Applications create them through the public BatchedHistogram.
  */
 class Histogram {
+  private static final String FLUSH_THREAD_NAME = "WebRtcHistogramFlush";
+  static final int FLUSH_DELAY_MS = 1000;
+  // Power of two, about the number of cores that add samples concurrently.
+  private static final int STRIPE_COUNT = 4;
+  // Bounds of the number of slots per stripe. Values that don't fit are passed to native directly.
+  private static final int MIN_STRIPE_CAPACITY = 16;
+  private static final int MAX_STRIPE_CAPACITY = 512;
+
+  private static final Object batchedHistogramsLock = new Object();
+  private static final List<Histogram> batchedHistograms =
+      new ArrayList<>(); /* guarded by batchedHistogramsLock */
+  private static @Nullable Timer flushTimer; /* guarded by batchedHistogramsLock */
+  private static final AtomicBoolean flushScheduled = new AtomicBoolean();
+
   private final long handle;
+  // Native histograms clamp samples to [min - 1, max], so doing the same here bounds the number of
+  // distinct values for enumerations.
+  private final int min;
+  private final int max;
+  private final @Nullable StripedSampleCounter batchedSamples;
 
-  private Histogram(long handle) {
+  private Histogram(long handle, int min, int max, int bucketCount, boolean batched) {
     this.handle = handle;
+    this.min = min;
+    this.max = max;
+    this.batchedSamples = batched
+        ? new StripedSampleCounter(STRIPE_COUNT, getStripeCapacity(min, max, bucketCount))
+        : null;
+    if (batched) {
+      synchronized (batchedHistogramsLock) {
+        batchedHistograms.add(this);
+      }
+    }
   }
 
   static public Histogram createCounts(String name, int min, int max, int bucketCount) {
-    return new Histogram(nativeCreateCounts(name, min, max, bucketCount));
+    return new Histogram(nativeCreateCounts(name, min, max, bucketCount), min, max, bucketCount,
+        /* batched= */ false);
   }
 
   static public Histogram createEnumeration(String name, int max) {
-    return new Histogram(nativeCreateEnumeration(name, max));
+    return new Histogram(
+        nativeCreateEnumeration(name, max), 1, max, max + 1, /* batched= */ false);
+  }
+
+  static public Histogram createBatchedCounts(String name, int min, int max, int bucketCount) {
+    return new Histogram(nativeCreateCounts(name, min, max, bucketCount), min, max, bucketCount,
+        /* batched= */ true);
+  }
+
+  static public Histogram createBatchedEnumeration(String name, int max) {
+    return new Histogram(
+        nativeCreateEnumeration(name, max), 1, max, max + 1, /* batched= */ true);
+  }
+
+  // Enumerations have one value per bucket. Counts histograms may see many more distinct values
+  // than buckets, but frequent values are usually few, and the rest is passed to native directly.
+  private static int getStripeCapacity(int min, int max, int bucketCount) {
+    final long distinctValues = Math.min((long) max - min + 2, Math.max(bucketCount, 1));
+    // Twice the number of values keeps the probe sequences short.
+    final int capacity =
+        (int) Math.max(MIN_STRIPE_CAPACITY, Math.min(MAX_STRIPE_CAPACITY, 2 * distinctValues));
+    // Rounded up to a power of two.
+    return Integer.highestOneBit(capacity - 1) << 1;
   }
 
   public void addSample(int sample) {
-    nativeAddSample(handle, sample);
+    if (batchedSamples == null) {
+      nativeAddSample(handle, sample);
+      return;
+    }
+    final int clampedSample = Math.max(min - 1, Math.min(max, sample));
+    if (!batchedSamples.add(clampedSample)) {
+      nativeAddSample(handle, clampedSample);
+      return;
+    }
+    if (!flushScheduled.get() && flushScheduled.compareAndSet(false, true)) {
+      scheduleFlush();
+    }
+  }
+
+  /** Passes the samples of all batched histograms to native. */
+  static void flushAll() {
+    final List<Histogram> histograms;
+    synchronized (batchedHistogramsLock) {
+      histograms = new ArrayList<>(batchedHistograms);
+    }
+    for (Histogram histogram : histograms) {
+      histogram.flush();
+    }
+  }
+
+  private void flush() {
+    final int[] values = new int[batchedSamples.getMaxDrainSize()];
+    final int[] counts = new int[values.length];
+    final int size = batchedSamples.drain(values, counts);
+    if (size > 0) {
+      nativeAddSamples(handle, values, counts, size);
+    }
+  }
+
+  private static void scheduleFlush() {
+    synchronized (batchedHistogramsLock) {
+      if (flushTimer == null) {
+        flushTimer = new Timer(FLUSH_THREAD_NAME, /* isDaemon= */ true);
+      }
+      flushTimer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          // Cleared first, so that samples added during the flush schedule another one.
+          flushScheduled.set(false);
+          flushAll();
+        }
+      }, FLUSH_DELAY_MS);
+    }
   }
 
   private static native long nativeCreateCounts(String name, int min, int max, int bucketCount);
   private static native long nativeCreateEnumeration(String name, int max);
   private static native void nativeAddSample(long handle, int sample);
+  private static native void nativeAddSamples(long handle, int[] values, int[] counts, int size);
 }
@@ -23,6 +23,11 @@ class JNILogging {
 
   @CalledByNative
   public void logToInjectable(String message, Integer severity, String tag) {
+    // Native messages are passed to the same Loggable, so they go through the async dispatcher too
+    // and don't block native threads.
+    if (Logging.dispatchAsync(Severity.values()[severity], tag, message)) {
+      return;
+    }
     loggable.onLogMessage(message, Severity.values()[severity], tag);
   }
 }
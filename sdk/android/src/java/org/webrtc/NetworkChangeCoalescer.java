@@ -0,0 +1,276 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.webrtc.NetworkChangeDetector.ConnectionType;
+import org.webrtc.NetworkChangeDetector.NetworkInformation;
+
+/**
+ * Merges bursts of network change events, e.g. during a Wi-Fi to cellular handover, into their
+ * net effect before forwarding them to |target|.
+ *
+ * <p>Events are delivered on the thread of |handler| once no new event has arrived for the
+ * settle window, but no later than |MAX_DELAY_FACTOR| settle windows after the first pending
+ * event. Within a burst, only the latest state of each network, the latest preference of each
+ * connection type and the latest connection type are delivered. A network that was unknown to
+ * the target before a burst, and connects and disconnects again within it, is not reported at all.
+ *
+ * <p>With a settle window of zero, events are forwarded synchronously on the calling thread.
+ *
+ * <p>This class is thread-safe.
+ */
+class NetworkChangeCoalescer implements NetworkChangeDetector.Observer {
+  private static final int MAX_DELAY_FACTOR = 4;
+
+  private static class PendingNetworkChange {
+    final boolean firstEventWasConnect;
+    // Whether the target knew the network when the burst started. Connect events are also
+    // reported for capability and link property changes of known networks.
+    final boolean wasKnown;
+    // Null if the latest event was a disconnect.
+    @Nullable NetworkInformation networkInfo;
+
+    PendingNetworkChange(boolean firstEventWasConnect, boolean wasKnown) {
+      this.firstEventWasConnect = firstEventWasConnect;
+      this.wasKnown = wasKnown;
+    }
+  }
+
+  private final NetworkChangeDetector.Observer target;
+  private final Handler handler;
+  private final Runnable flushTask = this::flush;
+  private final AtomicLong rawEventCount = new AtomicLong();
+  private final AtomicLong deliveredEventCount = new AtomicLong();
+
+  private final Object lock = new Object();
+  private long settleWindowMs; /* guarded by lock */
+  // Keyed by network handle, in order of the first pending event.
+  private final Map<Long, PendingNetworkChange> pendingNetworkChanges =
+      new LinkedHashMap<>(); /* guarded by lock */
+  private final Map<ConnectionType, Integer> pendingPreferences =
+      new LinkedHashMap<>(); /* guarded by lock */
+  @Nullable private ConnectionType pendingConnectionType; /* guarded by lock */
+  // Handles of the networks that the target has been told about and not seen disconnect.
+  private final Set<Long> knownNetworkHandles = new HashSet<>(); /* guarded by lock */
+  private boolean flushScheduled; /* guarded by lock */
+  private long firstPendingEventTimeMs; /* guarded by lock */
+  private long lastPendingEventTimeMs; /* guarded by lock */
+  // The last connection type forwarded to the target.
+  @Nullable private volatile ConnectionType deliveredConnectionType;
+
+  NetworkChangeCoalescer(NetworkChangeDetector.Observer target, Handler handler) {
+    this.target = target;
+    this.handler = handler;
+  }
+
+  /** Sets the settle window. Zero, the default, forwards events without delay. */
+  void setSettleWindowMs(long settleWindowMs) {
+    if (settleWindowMs < 0) {
+      throw new IllegalArgumentException("Settle window must not be negative: " + settleWindowMs);
+    }
+    synchronized (lock) {
+      this.settleWindowMs = settleWindowMs;
+    }
+  }
+
+  /** Returns the number of events received from the network change detector. */
+  long getRawEventCount() {
+    return rawEventCount.get();
+  }
+
+  /** Returns the number of events forwarded to the target. */
+  long getDeliveredEventCount() {
+    return deliveredEventCount.get();
+  }
+
+  /**
+   * Records networks that have been passed to the target without going through the coalescer,
+   * e.g. the active network list reported when monitoring starts.
+   */
+  void addKnownNetworks(List<NetworkInformation> networkInfos) {
+    synchronized (lock) {
+      for (NetworkInformation networkInfo : networkInfos) {
+        knownNetworkHandles.add(networkInfo.handle);
+      }
+    }
+  }
+
+  /** Drops the pending events and forgets the known networks. */
+  void clear() {
+    synchronized (lock) {
+      clearPendingEvents();
+      knownNetworkHandles.clear();
+    }
+  }
+
+  @Override
+  public void onConnectionTypeChanged(ConnectionType newConnectionType) {
+    rawEventCount.incrementAndGet();
+    synchronized (lock) {
+      if (settleWindowMs > 0) {
+        pendingConnectionType = newConnectionType;
+        onEventPending();
+        return;
+      }
+    }
+    deliverConnectionType(newConnectionType);
+  }
+
+  @Override
+  public void onNetworkConnect(NetworkInformation networkInfo) {
+    rawEventCount.incrementAndGet();
+    synchronized (lock) {
+      if (settleWindowMs > 0) {
+        getPendingNetworkChange(networkInfo.handle, /* isConnect= */ true).networkInfo =
+            networkInfo;
+        onEventPending();
+        return;
+      }
+      knownNetworkHandles.add(networkInfo.handle);
+    }
+    deliveredEventCount.incrementAndGet();
+    target.onNetworkConnect(networkInfo);
+  }
+
+  @Override
+  public void onNetworkDisconnect(long networkHandle) {
+    rawEventCount.incrementAndGet();
+    synchronized (lock) {
+      if (settleWindowMs > 0) {
+        getPendingNetworkChange(networkHandle, /* isConnect= */ false).networkInfo = null;
+        onEventPending();
+        return;
+      }
+      knownNetworkHandles.remove(networkHandle);
+    }
+    deliveredEventCount.incrementAndGet();
+    target.onNetworkDisconnect(networkHandle);
+  }
+
+  @Override
+  public void onNetworkPreference(List<ConnectionType> types, @NetworkPreference int preference) {
+    rawEventCount.incrementAndGet();
+    synchronized (lock) {
+      if (settleWindowMs > 0) {
+        for (ConnectionType type : types) {
+          // Reinsert so that the preferences keep the order of their latest change.
+          pendingPreferences.remove(type);
+          pendingPreferences.put(type, preference);
+        }
+        onEventPending();
+        return;
+      }
+    }
+    deliveredEventCount.incrementAndGet();
+    target.onNetworkPreference(types, preference);
+  }
+
+  // Must be called with |lock| held.
+  private PendingNetworkChange getPendingNetworkChange(long networkHandle, boolean isConnect) {
+    PendingNetworkChange change = pendingNetworkChanges.get(networkHandle);
+    if (change == null) {
+      change = new PendingNetworkChange(isConnect, knownNetworkHandles.contains(networkHandle));
+      pendingNetworkChanges.put(networkHandle, change);
+    }
+    return change;
+  }
+
+  // Must be called with |lock| held.
+  private void onEventPending() {
+    lastPendingEventTimeMs = SystemClock.uptimeMillis();
+    if (!flushScheduled) {
+      flushScheduled = true;
+      firstPendingEventTimeMs = lastPendingEventTimeMs;
+      handler.postDelayed(flushTask, settleWindowMs);
+    }
+  }
+
+  // Must be called with |lock| held.
+  private void clearPendingEvents() {
+    pendingNetworkChanges.clear();
+    pendingPreferences.clear();
+    pendingConnectionType = null;
+    if (flushScheduled) {
+      handler.removeCallbacks(flushTask);
+      flushScheduled = false;
+    }
+  }
+
+  private void flush() {
+    final List<Map.Entry<Long, PendingNetworkChange>> networkChanges;
+    final List<Map.Entry<ConnectionType, Integer>> preferences;
+    final ConnectionType connectionType;
+    synchronized (lock) {
+      if (!flushScheduled) {
+        return;
+      }
+      final long nowMs = SystemClock.uptimeMillis();
+      final long settleTimeMs = lastPendingEventTimeMs + settleWindowMs;
+      final long deadlineMs = firstPendingEventTimeMs + MAX_DELAY_FACTOR * settleWindowMs;
+      if (nowMs < settleTimeMs && nowMs < deadlineMs) {
+        // Events are still arriving.
+        handler.postDelayed(flushTask, Math.min(settleTimeMs, deadlineMs) - nowMs);
+        return;
+      }
+      networkChanges = new ArrayList<>(pendingNetworkChanges.entrySet());
+      // Update the known networks before delivery, so that the next burst sees them.
+      for (Map.Entry<Long, PendingNetworkChange> entry : networkChanges) {
+        if (entry.getValue().networkInfo != null) {
+          knownNetworkHandles.add(entry.getKey());
+        } else {
+          knownNetworkHandles.remove(entry.getKey());
+        }
+      }
+      preferences = new ArrayList<>(pendingPreferences.entrySet());
+      connectionType = pendingConnectionType;
+      pendingNetworkChanges.clear();
+      pendingPreferences.clear();
+      pendingConnectionType = null;
+      flushScheduled = false;
+    }
+
+    for (Map.Entry<Long, PendingNetworkChange> entry : networkChanges) {
+      final PendingNetworkChange change = entry.getValue();
+      if (change.networkInfo != null) {
+        deliveredEventCount.incrementAndGet();
+        target.onNetworkConnect(change.networkInfo);
+      } else if (!change.firstEventWasConnect || change.wasKnown) {
+        deliveredEventCount.incrementAndGet();
+        target.onNetworkDisconnect(entry.getKey());
+      }
+    }
+    for (Map.Entry<ConnectionType, Integer> preference : preferences) {
+      deliveredEventCount.incrementAndGet();
+      target.onNetworkPreference(
+          Collections.singletonList(preference.getKey()), preference.getValue());
+    }
+    if (connectionType != null && connectionType != deliveredConnectionType) {
+      deliverConnectionType(connectionType);
+    }
+  }
+
+  private void deliverConnectionType(ConnectionType connectionType) {
+    deliveredConnectionType = connectionType;
+    deliveredEventCount.incrementAndGet();
+    target.onConnectionTypeChanged(connectionType);
+  }
+}
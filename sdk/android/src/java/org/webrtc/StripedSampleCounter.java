@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Lock-free counter of the number of times each sample value has been added. Threads are spread
+ * over several stripes to reduce contention. Each stripe is an open addressing hash table with a
+ * fixed capacity, and values are never removed from it, so add() and drain() can run concurrently
+ * without losing counts. A value is only looked for in the first MAX_PROBE_LENGTH slots from its
+ * hash, so that rejecting a value is cheap once a stripe is full. This class is thread safe.
+ */
+class StripedSampleCounter {
+  private static final int EMPTY = Integer.MIN_VALUE;
+  static final int MAX_PROBE_LENGTH = 8;
+
+  private final int stripeMask;
+  private final int capacityMask;
+  private final int probeLength;
+  private final AtomicIntegerArray[] values;
+  private final AtomicIntegerArray[] counts;
+
+  /** |stripeCount| and |stripeCapacity| must be powers of two. */
+  StripedSampleCounter(int stripeCount, int stripeCapacity) {
+    if (Integer.bitCount(stripeCount) != 1 || Integer.bitCount(stripeCapacity) != 1) {
+      throw new IllegalArgumentException("Stripe count and capacity must be powers of two.");
+    }
+    stripeMask = stripeCount - 1;
+    capacityMask = stripeCapacity - 1;
+    probeLength = Math.min(MAX_PROBE_LENGTH, stripeCapacity);
+    values = new AtomicIntegerArray[stripeCount];
+    counts = new AtomicIntegerArray[stripeCount];
+    for (int i = 0; i < stripeCount; ++i) {
+      values[i] = new AtomicIntegerArray(stripeCapacity);
+      counts[i] = new AtomicIntegerArray(stripeCapacity);
+      for (int j = 0; j < stripeCapacity; ++j) {
+        values[i].set(j, EMPTY);
+      }
+    }
+  }
+
+  /** Returns the maximum number of entries drain() can return. */
+  int getMaxDrainSize() {
+    return values.length * (capacityMask + 1);
+  }
+
+  /**
+   * Counts one event of |value|. Returns false if the probed slots of the stripe of the calling
+   * thread are taken by other values, in which case the caller has to record the sample some other
+   * way.
+   */
+  boolean add(int value) {
+    if (value == EMPTY) {
+      return false;
+    }
+    final int stripe = (int) Thread.currentThread().getId() & stripeMask;
+    final AtomicIntegerArray stripeValues = values[stripe];
+    // Spread consecutive values so that nearby samples don't form long probe sequences.
+    int index = ((value * 0x9E3779B9) >>> 16) & capacityMask;
+    for (int i = 0; i < probeLength; ++i) {
+      final int storedValue = stripeValues.get(index);
+      if (storedValue == value
+          || (storedValue == EMPTY
+              && (stripeValues.compareAndSet(index, EMPTY, value)
+                  || stripeValues.get(index) == value))) {
+        counts[stripe].incrementAndGet(index);
+        return true;
+      }
+      index = (index + 1) & capacityMask;
+    }
+    return false;
+  }
+
+  /**
+   * Moves the counts to |outValues| and |outCounts|, which must hold at least getMaxDrainSize()
+   * entries, and returns the number of entries written. The same value may be returned once per
+   * stripe.
+   */
+  int drain(int[] outValues, int[] outCounts) {
+    int size = 0;
+    for (int stripe = 0; stripe < values.length; ++stripe) {
+      for (int index = 0; index <= capacityMask; ++index) {
+        final int value = values[stripe].get(index);
+        if (value == EMPTY) {
+          continue;
+        }
+        final int count = counts[stripe].getAndSet(index, 0);
+        if (count > 0) {
+          outValues[size] = value;
+          outCounts[size] = count;
+          ++size;
+        }
+      }
+    }
+    return size;
+  }
+}
@@ -10,7 +10,9 @@
 
 #include <map>
 #include <memory>
+#include <vector>
 
+#include "rtc_base/checks.h"
 #include "sdk/android/generated_base_jni/Histogram_jni.h"
 #include "sdk/android/native_api/jni/java_types.h"
 #include "sdk/android/src/jni/jni_helpers.h"
@@ -46,5 +48,26 @@ static void JNI_Histogram_AddSample(JNIEnv* jni,
   }
 }
 
+// Adds |j_counts[i]| events of |j_values[i]| for the first |size| entries.
+static void JNI_Histogram_AddSamples(JNIEnv* jni,
+                                     jlong histogram,
+                                     const JavaParamRef<jintArray>& j_values,
+                                     const JavaParamRef<jintArray>& j_counts,
+                                     jint size) {
+  if (!histogram)
+    return;
+  std::vector<int32_t> values = JavaToNativeIntArray(jni, j_values);
+  std::vector<int32_t> counts = JavaToNativeIntArray(jni, j_counts);
+  RTC_DCHECK_LE(static_cast<size_t>(size), values.size());
+  RTC_DCHECK_LE(static_cast<size_t>(size), counts.size());
+  metrics::Histogram* histogram_pointer =
+      reinterpret_cast<metrics::Histogram*>(histogram);
+  for (jint i = 0; i < size; ++i) {
+    for (int32_t j = 0; j < counts[i]; ++j) {
+      HistogramAdd(histogram_pointer, values[i]);
+    }
+  }
+}
+
 }  // namespace jni
 }  // namespace webrtc
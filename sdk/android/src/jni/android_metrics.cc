@@ -10,6 +10,8 @@
 
 #include <map>
 #include <memory>
+#include <string>
+#include <vector>
 
 #include "sdk/android/generated_metrics_jni/Metrics_jni.h"
 #include "sdk/android/native_api/jni/java_types.h"
@@ -46,5 +48,35 @@ static ScopedJavaLocalRef<jobject> JNI_Metrics_GetAndReset(JNIEnv* jni) {
   return j_metrics;
 }
 
+// Gets native histograms without clearing them. The samples are passed in flat
+// primitive arrays to avoid a JNI call per sample.
+static ScopedJavaLocalRef<jobject> JNI_Metrics_GetSnapshot(JNIEnv* jni) {
+  std::map<std::string, std::unique_ptr<metrics::SampleInfo>> histograms;
+  metrics::GetSnapshot(&histograms);
+
+  std::vector<std::string> names;
+  std::vector<int32_t> info;
+  std::vector<int32_t> values;
+  std::vector<int32_t> counts;
+  names.reserve(histograms.size());
+  info.reserve(4 * histograms.size());
+  for (const auto& kv : histograms) {
+    names.push_back(kv.first);
+    info.push_back(kv.second->min);
+    info.push_back(kv.second->max);
+    info.push_back(static_cast<int32_t>(kv.second->bucket_count));
+    info.push_back(static_cast<int32_t>(kv.second->samples.size()));
+    for (const auto& sample : kv.second->samples) {
+      values.push_back(sample.first);
+      counts.push_back(sample.second);
+    }
+  }
+  ScopedJavaLocalRef<jobject> j_snapshot = Java_Snapshot_create(
+      jni, NativeToJavaStringArray(jni, names), NativeToJavaIntArray(jni, info),
+      NativeToJavaIntArray(jni, values), NativeToJavaIntArray(jni, counts));
+  CHECK_EXCEPTION(jni);
+  return j_snapshot;
+}
+
 }  // namespace jni
 }  // namespace webrtc
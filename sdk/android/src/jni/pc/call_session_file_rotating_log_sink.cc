@@ -69,5 +69,14 @@ JNI_CallSessionFileRotatingLogSink_GetLogData(
   return result;
 }
 
+static ScopedJavaLocalRef<jobjectArray>
+JNI_CallSessionFileRotatingLogSink_GetLogFileNames(
+    JNIEnv* jni,
+    const JavaParamRef<jstring>& j_dirPath) {
+  std::string dir_path = JavaToStdString(jni, j_dirPath);
+  rtc::CallSessionFileRotatingStreamReader file_reader(dir_path);
+  return NativeToJavaStringArray(jni, file_reader.file_names());
+}
+
 }  // namespace jni
 }  // namespace webrtc
@@ -29,8 +29,10 @@
 
 #include <limits>
 #include <memory>
+#include <set>
 #include <string>
 #include <utility>
+#include <vector>
 
 #include "api/peer_connection_interface.h"
 #include "api/rtc_event_log_output_file.h"
@@ -632,6 +634,32 @@ static jboolean JNI_PeerConnection_AddIceCandidate(
   return ExtractNativePC(jni, j_pc)->AddIceCandidate(candidate.get());
 }
 
+static jboolean JNI_PeerConnection_AddIceCandidates(
+    JNIEnv* jni,
+    const JavaParamRef<jobject>& j_pc,
+    const JavaParamRef<jobjectArray>& j_sdp_mids,
+    const JavaParamRef<jintArray>& j_sdp_mline_indexes,
+    const JavaParamRef<jobjectArray>& j_candidate_sdps) {
+  const std::vector<int32_t> sdp_mline_indexes =
+      JavaToNativeIntArray(jni, j_sdp_mline_indexes);
+  PeerConnectionInterface* pc = ExtractNativePC(jni, j_pc);
+  bool all_added = true;
+  for (size_t i = 0; i < sdp_mline_indexes.size(); ++i) {
+    const jsize index = rtc::dchecked_cast<jsize>(i);
+    ScopedJavaLocalRef<jstring> j_sdp_mid(
+        jni, static_cast<jstring>(
+                 jni->GetObjectArrayElement(j_sdp_mids.obj(), index)));
+    ScopedJavaLocalRef<jstring> j_candidate_sdp(
+        jni, static_cast<jstring>(
+                 jni->GetObjectArrayElement(j_candidate_sdps.obj(), index)));
+    std::unique_ptr<IceCandidateInterface> candidate(CreateIceCandidate(
+        JavaToNativeString(jni, j_sdp_mid), sdp_mline_indexes[i],
+        JavaToNativeString(jni, j_candidate_sdp), nullptr));
+    all_added &= pc->AddIceCandidate(candidate.get());
+  }
+  return all_added;
+}
+
 static jboolean JNI_PeerConnection_RemoveIceCandidates(
     JNIEnv* jni,
     const JavaParamRef<jobject>& j_pc,
@@ -775,6 +803,46 @@ static void JNI_PeerConnection_NewGetStats(
   ExtractNativePC(jni, j_pc)->GetStats(callback);
 }
 
+static void JNI_PeerConnection_GetStatsFiltered(
+    JNIEnv* jni,
+    const JavaParamRef<jobject>& j_pc,
+    jlong native_sender,
+    jlong native_receiver,
+    const JavaParamRef<jobject>& j_stats_types,
+    const JavaParamRef<jobject>& j_callback) {
+  const std::vector<std::string> stats_types =
+      JavaListToNativeVector<std::string, jstring>(jni, j_stats_types,
+                                                   &JavaToNativeString);
+  rtc::scoped_refptr<RTCStatsCollectorCallbackWrapper> callback(
+      new rtc::RefCountedObject<RTCStatsCollectorCallbackWrapper>(
+          jni, j_callback,
+          std::set<std::string>(stats_types.begin(), stats_types.end())));
+  PeerConnectionInterface* pc = ExtractNativePC(jni, j_pc);
+  if (native_sender != 0) {
+    pc->GetStats(rtc::scoped_refptr<RtpSenderInterface>(
+                     reinterpret_cast<RtpSenderInterface*>(native_sender)),
+                 callback);
+  } else if (native_receiver != 0) {
+    pc->GetStats(rtc::scoped_refptr<RtpReceiverInterface>(
+                     reinterpret_cast<RtpReceiverInterface*>(native_receiver)),
+                 callback);
+  } else {
+    pc->GetStats(callback);
+  }
+}
+
+static void JNI_PeerConnection_GetStatsDelta(
+    JNIEnv* jni,
+    const JavaParamRef<jobject>& j_pc,
+    jlong native_delta_state,
+    const JavaParamRef<jobject>& j_callback) {
+  rtc::scoped_refptr<RTCStatsCollectorCallbackWrapper> callback(
+      new rtc::RefCountedObject<RTCStatsCollectorCallbackWrapper>(
+          jni, j_callback,
+          reinterpret_cast<RTCStatsDeltaState*>(native_delta_state)));
+  ExtractNativePC(jni, j_pc)->GetStats(callback);
+}
+
 static jboolean JNI_PeerConnection_SetBitrate(
     JNIEnv* jni,
     const JavaParamRef<jobject>& j_pc,
@@ -10,14 +10,21 @@
 
 #include "sdk/android/src/jni/pc/rtc_stats_collector_callback_wrapper.h"
 
+#include <map>
 #include <string>
+#include <utility>
 #include <vector>
 
+#include "absl/base/attributes.h"
 #include "rtc_base/string_encode.h"
+#include "rtc_base/synchronization/mutex.h"
 #include "sdk/android/generated_external_classes_jni/BigInteger_jni.h"
 #include "sdk/android/generated_peerconnection_jni/RTCStatsCollectorCallback_jni.h"
 #include "sdk/android/generated_peerconnection_jni/RTCStatsReport_jni.h"
+#include "sdk/android/generated_peerconnection_jni/RTCStatsSchema_jni.h"
+#include "sdk/android/generated_peerconnection_jni/RTCStatsSession_jni.h"
 #include "sdk/android/generated_peerconnection_jni/RTCStats_jni.h"
+#include "sdk/android/native_api/jni/class_loader.h"
 #include "sdk/android/native_api/jni/java_types.h"
 
 namespace webrtc {
@@ -99,29 +106,157 @@ ScopedJavaLocalRef<jobject> MemberToJava(
   return nullptr;
 }
 
-ScopedJavaLocalRef<jobject> NativeToJavaRtcStats(JNIEnv* env,
-                                                 const RTCStats& stats) {
-  JavaMapBuilder builder(env);
-  for (auto* const member : stats.Members()) {
+// Layout of the Java value arrays of one stats type, see RTCStatsSchema.java.
+// Integer and boolean members are stored in a long[], double members in a
+// double[] and all other members as objects in an Object[].
+struct RtcStatsSchema {
+  ScopedJavaGlobalRef<jobject> j_schema;
+  // Index into the value array of each member, in the order of
+  // RTCStats::Members().
+  std::vector<int32_t> slots;
+  int num_long_values = 0;
+  int num_double_values = 0;
+  int num_object_values = 0;
+};
+
+ABSL_CONST_INIT GlobalMutex g_schemas_lock(absl::kConstInit);
+
+// Returns the schema of |type|, creating it on first use. Schemas are never
+// deleted, since the set of stats types is small and fixed.
+const RtcStatsSchema& GetOrCreateSchema(
+    JNIEnv* env,
+    const char* type,
+    const std::vector<const RTCStatsMemberInterface*>& members) {
+  static auto* const schemas = new std::map<std::string, RtcStatsSchema>();
+  GlobalMutexLock lock(&g_schemas_lock);
+  auto it = schemas->find(type);
+  if (it != schemas->end())
+    return it->second;
+
+  RtcStatsSchema& schema = (*schemas)[type];
+  std::vector<std::string> names;
+  std::vector<int32_t> member_types;
+  for (const RTCStatsMemberInterface* member : members) {
+    names.push_back(member->name());
+    member_types.push_back(member->type());
+    switch (member->type()) {
+      case RTCStatsMemberInterface::kBool:
+      case RTCStatsMemberInterface::kInt32:
+      case RTCStatsMemberInterface::kUint32:
+      case RTCStatsMemberInterface::kInt64:
+      case RTCStatsMemberInterface::kUint64:
+        schema.slots.push_back(schema.num_long_values++);
+        break;
+      case RTCStatsMemberInterface::kDouble:
+        schema.slots.push_back(schema.num_double_values++);
+        break;
+      default:
+        schema.slots.push_back(schema.num_object_values++);
+        break;
+    }
+  }
+  schema.j_schema = Java_RTCStatsSchema_create(
+      env, NativeToJavaString(env, type), NativeToJavaStringArray(env, names),
+      NativeToJavaIntArray(env, member_types),
+      NativeToJavaIntArray(env, schema.slots));
+  return schema;
+}
+
+jclass GetObjectClass(JNIEnv* env) {
+  static const jclass object_class = static_cast<jclass>(
+      env->NewGlobalRef(GetClass(env, "java/lang/Object").obj()));
+  return object_class;
+}
+
+// If |previous_stats| is not null, members that have the same value in
+// |previous_stats| are left undefined.
+ScopedJavaLocalRef<jobject> NativeToJavaRtcStats(
+    JNIEnv* env,
+    const RTCStats& stats,
+    const RTCStats* previous_stats) {
+  std::vector<const RTCStatsMemberInterface*> previous_members;
+  if (previous_stats && previous_stats->type() == stats.type())
+    previous_members = previous_stats->Members();
+  const std::vector<const RTCStatsMemberInterface*> members = stats.Members();
+  const RtcStatsSchema& schema = GetOrCreateSchema(env, stats.type(), members);
+
+  std::vector<jlong> long_values(schema.num_long_values);
+  std::vector<jdouble> double_values(schema.num_double_values);
+  std::vector<jboolean> defined(members.size(), JNI_FALSE);
+  ScopedJavaLocalRef<jobjectArray> j_object_values(
+      env, env->NewObjectArray(schema.num_object_values, GetObjectClass(env),
+                               nullptr));
+  for (size_t i = 0; i < members.size(); ++i) {
+    const RTCStatsMemberInterface* member = members[i];
     if (!member->is_defined())
       continue;
-    builder.put(NativeToJavaString(env, member->name()),
-                MemberToJava(env, *member));
+    // Members of stats objects of the same type are always in the same order.
+    if (i < previous_members.size() && *member == *previous_members[i])
+      continue;
+    defined[i] = JNI_TRUE;
+    const int32_t slot = schema.slots[i];
+    switch (member->type()) {
+      case RTCStatsMemberInterface::kBool:
+        long_values[slot] = *member->cast_to<RTCStatsMember<bool>>() ? 1 : 0;
+        break;
+      case RTCStatsMemberInterface::kInt32:
+        long_values[slot] = *member->cast_to<RTCStatsMember<int32_t>>();
+        break;
+      case RTCStatsMemberInterface::kUint32:
+        long_values[slot] = *member->cast_to<RTCStatsMember<uint32_t>>();
+        break;
+      case RTCStatsMemberInterface::kInt64:
+        long_values[slot] = *member->cast_to<RTCStatsMember<int64_t>>();
+        break;
+      case RTCStatsMemberInterface::kUint64:
+        // Reinterpreted as unsigned on the Java side.
+        long_values[slot] = static_cast<jlong>(
+            *member->cast_to<RTCStatsMember<uint64_t>>());
+        break;
+      case RTCStatsMemberInterface::kDouble:
+        double_values[slot] = *member->cast_to<RTCStatsMember<double>>();
+        break;
+      default:
+        env->SetObjectArrayElement(j_object_values.obj(), slot,
+                                   MemberToJava(env, *member).obj());
+        break;
+    }
   }
-  return Java_RTCStats_create(
-      env, stats.timestamp_us(), NativeToJavaString(env, stats.type()),
-      NativeToJavaString(env, stats.id()), builder.GetJavaMap());
+
+  ScopedJavaLocalRef<jlongArray> j_long_values(
+      env, env->NewLongArray(long_values.size()));
+  env->SetLongArrayRegion(j_long_values.obj(), 0, long_values.size(),
+                          long_values.data());
+  ScopedJavaLocalRef<jdoubleArray> j_double_values(
+      env, env->NewDoubleArray(double_values.size()));
+  env->SetDoubleArrayRegion(j_double_values.obj(), 0, double_values.size(),
+                            double_values.data());
+  ScopedJavaLocalRef<jbooleanArray> j_defined(
+      env, env->NewBooleanArray(defined.size()));
+  env->SetBooleanArrayRegion(j_defined.obj(), 0, defined.size(),
+                             defined.data());
+  return Java_RTCStats_create(env, stats.timestamp_us(),
+                              NativeToJavaString(env, stats.id()),
+                              schema.j_schema, j_long_values, j_double_values,
+                              j_object_values, j_defined);
 }
 
 ScopedJavaLocalRef<jobject> NativeToJavaRtcStatsReport(
     JNIEnv* env,
-    const rtc::scoped_refptr<const RTCStatsReport>& report) {
-  ScopedJavaLocalRef<jobject> j_stats_map =
-      NativeToJavaMap(env, *report, [](JNIEnv* env, const RTCStats& stats) {
-        return std::make_pair(NativeToJavaString(env, stats.id()),
-                              NativeToJavaRtcStats(env, stats));
-      });
-  return Java_RTCStatsReport_create(env, report->timestamp_us(), j_stats_map);
+    const rtc::scoped_refptr<const RTCStatsReport>& report,
+    const RTCStatsReport* previous_report,
+    const std::set<std::string>& stats_types) {
+  JavaMapBuilder builder(env);
+  for (const RTCStats& stats : *report) {
+    if (!stats_types.empty() && stats_types.count(stats.type()) == 0)
+      continue;
+    const RTCStats* previous_stats =
+        previous_report ? previous_report->Get(stats.id()) : nullptr;
+    builder.put(NativeToJavaString(env, stats.id()),
+                NativeToJavaRtcStats(env, stats, previous_stats));
+  }
+  return Java_RTCStatsReport_create(env, report->timestamp_us(),
+                                    builder.GetJavaMap());
 }
 
 }  // namespace
@@ -131,13 +266,46 @@ RTCStatsCollectorCallbackWrapper::RTCStatsCollectorCallbackWrapper(
     const JavaRef<jobject>& j_callback)
     : j_callback_global_(jni, j_callback) {}
 
+RTCStatsCollectorCallbackWrapper::RTCStatsCollectorCallbackWrapper(
+    JNIEnv* jni,
+    const JavaRef<jobject>& j_callback,
+    rtc::scoped_refptr<RTCStatsDeltaState> delta_state)
+    : j_callback_global_(jni, j_callback),
+      delta_state_(std::move(delta_state)) {}
+
+RTCStatsCollectorCallbackWrapper::RTCStatsCollectorCallbackWrapper(
+    JNIEnv* jni,
+    const JavaRef<jobject>& j_callback,
+    std::set<std::string> stats_types)
+    : j_callback_global_(jni, j_callback),
+      stats_types_(std::move(stats_types)) {}
+
 RTCStatsCollectorCallbackWrapper::~RTCStatsCollectorCallbackWrapper() = default;
 
 void RTCStatsCollectorCallbackWrapper::OnStatsDelivered(
     const rtc::scoped_refptr<const RTCStatsReport>& report) {
   JNIEnv* jni = AttachCurrentThreadIfNeeded();
-  Java_RTCStatsCollectorCallback_onStatsDelivered(
-      jni, j_callback_global_, NativeToJavaRtcStatsReport(jni, report));
+  ScopedJavaLocalRef<jobject> j_report = NativeToJavaRtcStatsReport(
+      jni, report,
+      delta_state_ ? delta_state_->previous_report.get() : nullptr,
+      stats_types_);
+  if (delta_state_)
+    delta_state_->previous_report = report;
+  Java_RTCStatsCollectorCallback_onStatsDelivered(jni, j_callback_global_,
+                                                  j_report);
+}
+
+static jlong JNI_RTCStatsSession_CreateDeltaState(JNIEnv* jni) {
+  RTCStatsDeltaState* delta_state =
+      new rtc::RefCountedObject<RTCStatsDeltaState>();
+  // The reference is owned by the Java RTCStatsSession.
+  delta_state->AddRef();
+  return jlongFromPointer(delta_state);
+}
+
+static void JNI_RTCStatsSession_FreeDeltaState(JNIEnv* jni,
+                                               jlong j_delta_state) {
+  reinterpret_cast<RTCStatsDeltaState*>(j_delta_state)->Release();
 }
 
 }  // namespace jni
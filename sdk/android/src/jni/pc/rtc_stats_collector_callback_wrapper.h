@@ -13,12 +13,23 @@
 
 #include <jni.h>
 
+#include <set>
+#include <string>
+
 #include "api/peer_connection_interface.h"
 #include "sdk/android/src/jni/jni_helpers.h"
 
 namespace webrtc {
 namespace jni {
 
+// State of a Java RTCStatsSession. Holds the report that was delivered last,
+// so that only members that changed since then have to be converted to Java.
+// Only accessed on the signaling thread, where stats are delivered.
+class RTCStatsDeltaState : public rtc::RefCountInterface {
+ public:
+  rtc::scoped_refptr<const RTCStatsReport> previous_report;
+};
+
 // Adapter for a Java RTCStatsCollectorCallback presenting a C++
 // RTCStatsCollectorCallback and dispatching the callback from C++ back to
 // Java.
@@ -26,6 +37,18 @@ class RTCStatsCollectorCallbackWrapper : public RTCStatsCollectorCallback {
  public:
   RTCStatsCollectorCallbackWrapper(JNIEnv* jni,
                                    const JavaRef<jobject>& j_callback);
+  // If |delta_state| is not null, only members that changed since the report
+  // previously delivered with the same |delta_state| are converted. Stats
+  // objects without changed members are delivered without members.
+  RTCStatsCollectorCallbackWrapper(
+      JNIEnv* jni,
+      const JavaRef<jobject>& j_callback,
+      rtc::scoped_refptr<RTCStatsDeltaState> delta_state);
+  // If |stats_types| is not empty, only stats objects with one of those types
+  // are converted.
+  RTCStatsCollectorCallbackWrapper(JNIEnv* jni,
+                                   const JavaRef<jobject>& j_callback,
+                                   std::set<std::string> stats_types);
   ~RTCStatsCollectorCallbackWrapper() override;
 
   void OnStatsDelivered(
@@ -33,6 +56,8 @@ class RTCStatsCollectorCallbackWrapper : public RTCStatsCollectorCallback {
 
  private:
   const ScopedJavaGlobalRef<jobject> j_callback_global_;
+  const rtc::scoped_refptr<RTCStatsDeltaState> delta_state_;
+  const std::set<std::string> stats_types_;
 };
 
 }  // namespace jni
@@ -42,5 +42,17 @@ static jlong JNI_TimestampAligner_TranslateTimestamp(
          rtc::kNumNanosecsPerMicrosec;
 }
 
+static jlong JNI_TimestampAligner_TranslateTimestampAtSystemTime(
+    JNIEnv* env,
+    jlong timestamp_aligner,
+    jlong camera_time_ns,
+    jlong system_time_ns) {
+  return reinterpret_cast<rtc::TimestampAligner*>(timestamp_aligner)
+             ->TranslateTimestamp(
+                 camera_time_ns / rtc::kNumNanosecsPerMicrosec,
+                 system_time_ns / rtc::kNumNanosecsPerMicrosec) *
+         rtc::kNumNanosecsPerMicrosec;
+}
+
 }  // namespace jni
 }  // namespace webrtc
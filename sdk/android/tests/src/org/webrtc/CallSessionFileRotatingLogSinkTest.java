@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.webrtc.CallSessionFileRotatingLogSink.LogFilesInputStream;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CallSessionFileRotatingLogSinkTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private String createFile(String name, String contents) throws IOException {
+    final File file = tempFolder.newFile(name);
+    try (OutputStream output = new FileOutputStream(file)) {
+      output.write(contents.getBytes(UTF_8));
+    }
+    return file.getPath();
+  }
+
+  private static String readAll(InputStream input) throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    CallSessionFileRotatingLogSink.copy(input, output, /* compress= */ false);
+    return new String(output.toByteArray(), UTF_8);
+  }
+
+  @Test
+  public void testReadsFilesInOrder() throws IOException {
+    final String[] fileNames = {createFile("webrtc_log_0", "first\n"),
+        createFile("webrtc_log_2", "second\n"), createFile("webrtc_log_1", "")};
+
+    try (InputStream input = new LogFilesInputStream(fileNames)) {
+      assertThat(readAll(input)).isEqualTo("first\nsecond\n");
+    }
+  }
+
+  @Test
+  public void testSingleByteReads() throws IOException {
+    final String[] fileNames = {createFile("webrtc_log_0", "a"), createFile("webrtc_log_1", "b")};
+
+    try (InputStream input = new LogFilesInputStream(fileNames)) {
+      assertThat(input.read()).isEqualTo('a');
+      assertThat(input.read()).isEqualTo('b');
+      assertThat(input.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void testSkipsRemovedFiles() throws IOException {
+    final String[] fileNames = {createFile("webrtc_log_0", "first\n"),
+        new File(tempFolder.getRoot(), "webrtc_log_2").getPath(),
+        createFile("webrtc_log_1", "third\n")};
+
+    try (InputStream input = new LogFilesInputStream(fileNames)) {
+      assertThat(readAll(input)).isEqualTo("first\nthird\n");
+    }
+  }
+
+  @Test
+  public void testRotationWhileReadingDoesNotChangeContents() throws IOException {
+    final String newFile = createFile("webrtc_log_0", "new\n");
+    final String oldFile = createFile("webrtc_log_1", "old\n");
+
+    try (InputStream input = new LogFilesInputStream(new String[] {newFile, oldFile})) {
+      // Rotate like FileRotatingStream: delete the oldest file, rename the newer one and start a
+      // new one.
+      assertThat(new File(oldFile).delete()).isTrue();
+      assertThat(new File(newFile).renameTo(new File(oldFile))).isTrue();
+      createFile("webrtc_log_0", "newest\n");
+
+      assertThat(readAll(input)).isEqualTo("new\nold\n");
+    }
+  }
+
+  @Test
+  public void testEmptyList() throws IOException {
+    try (InputStream input = new LogFilesInputStream(new String[0])) {
+      assertThat(input.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void testCompressedCopy() throws IOException {
+    final StringBuilder log = new StringBuilder();
+    for (int i = 0; i < 10000; ++i) {
+      log.append("(file.cc:").append(i).append("): Repeated log line\n");
+    }
+    final byte[] logBytes = log.toString().getBytes(UTF_8);
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    CallSessionFileRotatingLogSink.copy(
+        new ByteArrayInputStream(logBytes), output, /* compress= */ true);
+
+    assertThat(output.size()).isLessThan(logBytes.length / 4);
+    try (InputStream input =
+             new GZIPInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+      assertThat(readAll(input)).isEqualTo(log.toString());
+    }
+  }
+}
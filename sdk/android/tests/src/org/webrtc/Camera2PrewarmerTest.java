@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import android.hardware.camera2.CameraDevice;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class Camera2PrewarmerTest {
+  private static final String CAMERA_ID = "0";
+  private static final String OTHER_CAMERA_ID = "1";
+  private static final int MAX_PREWARM_DURATION_MS = 1000;
+
+  @Mock Camera2Prewarmer.ReleaseListener mockReleaseListener;
+  @Mock CameraDevice.StateCallback mockSessionStateCallback;
+  @Mock CameraDevice mockCameraDevice;
+  // State callbacks passed to openCamera(), in order.
+  private final List<CameraDevice.StateCallback> openedCallbacks = new ArrayList<>();
+  private Camera2Prewarmer prewarmer;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    ShadowLooper.pauseMainLooper();
+    prewarmer = new Camera2Prewarmer((cameraId, callback, handler) -> openedCallbacks.add(callback),
+        new Handler(Looper.getMainLooper()), mockReleaseListener);
+  }
+
+  @Test
+  public void testHandOverOpenedCamera() {
+    prewarmer.prewarm(CAMERA_ID, MAX_PREWARM_DURATION_MS);
+    openedCallbacks.get(0).onOpened(mockCameraDevice);
+
+    assertThat(prewarmer.handOver(CAMERA_ID, mockSessionStateCallback)).isTrue();
+    verify(mockSessionStateCallback).onOpened(mockCameraDevice);
+
+    // The session owns the camera now, it is not closed after the prewarm duration.
+    ShadowLooper.idleMainLooper(2 * MAX_PREWARM_DURATION_MS, TimeUnit.MILLISECONDS);
+    verify(mockCameraDevice, never()).close();
+    verifyZeroInteractions(mockReleaseListener);
+  }
+
+  @Test
+  public void testHandOverCameraBeforeItOpens() {
+    prewarmer.prewarm(CAMERA_ID, MAX_PREWARM_DURATION_MS);
+
+    assertThat(prewarmer.handOver(CAMERA_ID, mockSessionStateCallback)).isTrue();
+    openedCallbacks.get(0).onOpened(mockCameraDevice);
+
+    verify(mockSessionStateCallback).onOpened(mockCameraDevice);
+  }
+
+  @Test
+  public void testHandOverOtherCameraFails() {
+    prewarmer.prewarm(CAMERA_ID, MAX_PREWARM_DURATION_MS);
+    openedCallbacks.get(0).onOpened(mockCameraDevice);
+
+    assertThat(prewarmer.handOver(OTHER_CAMERA_ID, mockSessionStateCallback)).isFalse();
+
+    verifyZeroInteractions(mockSessionStateCallback);
+    verify(mockCameraDevice, never()).close();
+    // The prewarmed camera can still be handed over.
+    assertThat(prewarmer.handOver(CAMERA_ID, mockSessionStateCallback)).isTrue();
+  }
+
+  @Test
+  public void testIdleCameraIsReleased() {
+    prewarmer.prewarm(CAMERA_ID, MAX_PREWARM_DURATION_MS);
+    openedCallbacks.get(0).onOpened(mockCameraDevice);
+
+    ShadowLooper.idleMainLooper(MAX_PREWARM_DURATION_MS / 2, TimeUnit.MILLISECONDS);
+    verify(mockCameraDevice, never()).close();
+    ShadowLooper.idleMainLooper(MAX_PREWARM_DURATION_MS, TimeUnit.MILLISECONDS);
+
+    verify(mockCameraDevice).close();
+    verify(mockReleaseListener).onPrewarmedCameraReleased(CAMERA_ID);
+    assertThat(prewarmer.handOver(CAMERA_ID, mockSessionStateCallback)).isFalse();
+  }
+
+  @Test
+  public void testCameraOpenedAfterReleaseIsClosed() {
+    prewarmer.prewarm(CAMERA_ID, MAX_PREWARM_DURATION_MS);
+    prewarmer.release();
+    openedCallbacks.get(0).onOpened(mockCameraDevice);
+
+    verify(mockCameraDevice).close();
+    // Requested releases are not reported.
+    verifyZeroInteractions(mockReleaseListener);
+  }
+}
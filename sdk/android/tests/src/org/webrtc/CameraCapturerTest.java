@@ -0,0 +1,213 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+import java.util.List;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CameraCapturerTest {
+  private static final String FRONT_CAMERA = "front";
+  private static final String BACK_CAMERA = "back";
+  private static final int MAX_PREWARM_DURATION_MS = 5000;
+
+  /** CameraSession that opens immediately and delivers frames on request. */
+  private static class FakeCameraSession implements CameraSession {
+    final String cameraName;
+    final CameraSession.Events events;
+    boolean stopped;
+
+    FakeCameraSession(String cameraName, CameraSession.Events events) {
+      this.cameraName = cameraName;
+      this.events = events;
+    }
+
+    @Override
+    public void stop() {
+      stopped = true;
+    }
+
+    void deliverFrame(VideoFrame.Buffer buffer) {
+      events.onFrameCaptured(this, new VideoFrame(buffer, 0 /* rotation */, 0 /* timestampNs */));
+    }
+  }
+
+  private static class TestCameraCapturer extends CameraCapturer {
+    final List<FakeCameraSession> sessions = new ArrayList<>();
+    final List<String> prewarmedCameras = new ArrayList<>();
+    int releasePrewarmedCameraCount;
+
+    TestCameraCapturer(CameraEventsHandler eventsHandler, CameraEnumerator cameraEnumerator) {
+      super(FRONT_CAMERA, eventsHandler, cameraEnumerator);
+    }
+
+    @Override
+    protected void createCameraSession(CameraSession.CreateSessionCallback createSessionCallback,
+        CameraSession.Events events, Context applicationContext,
+        SurfaceTextureHelper surfaceTextureHelper, String cameraName, int width, int height,
+        int framerate) {
+      final FakeCameraSession session = new FakeCameraSession(cameraName, events);
+      sessions.add(session);
+      createSessionCallback.onDone(session);
+    }
+
+    @Override
+    protected void prewarmCamera(String cameraName, int maxPrewarmDurationMs) {
+      prewarmedCameras.add(cameraName);
+    }
+
+    @Override
+    protected void releasePrewarmedCamera() {
+      ++releasePrewarmedCameraCount;
+    }
+  }
+
+  @Mock CameraVideoCapturer.CameraEventsHandler mockEventsHandler;
+  @Mock CameraVideoCapturer.CameraSwitchHandler mockSwitchHandler;
+  @Mock CameraEnumerator mockCameraEnumerator;
+  @Mock SurfaceTextureHelper mockSurfaceTextureHelper;
+  @Mock CapturerObserver mockCapturerObserver;
+  @Mock Context mockContext;
+  @Mock VideoFrame.Buffer mockBuffer;
+  private TestCameraCapturer capturer;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+
+    when(mockCameraEnumerator.getDeviceNames())
+        .thenReturn(new String[] {FRONT_CAMERA, BACK_CAMERA});
+    when(mockCameraEnumerator.isFrontFacing(FRONT_CAMERA)).thenReturn(true);
+    when(mockSurfaceTextureHelper.getHandler()).thenReturn(new Handler(Looper.getMainLooper()));
+    capturer = new TestCameraCapturer(mockEventsHandler, mockCameraEnumerator);
+    capturer.initialize(mockSurfaceTextureHelper, mockContext, mockCapturerObserver);
+  }
+
+  private void startCapture() {
+    capturer.startCapture(640, 480, 30);
+    ShadowLooper.idleMainLooper();
+  }
+
+  private void switchCamera() {
+    capturer.switchCamera(mockSwitchHandler);
+    ShadowLooper.idleMainLooper();
+  }
+
+  @Test
+  public void testNoPrewarmingByDefault() {
+    startCapture();
+
+    assertThat(capturer.prewarmedCameras).isEmpty();
+  }
+
+  @Test
+  public void testAlternateCameraIsPrewarmedAfterStart() {
+    capturer.enableCameraPrewarming(MAX_PREWARM_DURATION_MS);
+    startCapture();
+
+    assertThat(capturer.prewarmedCameras).containsExactly(BACK_CAMERA);
+  }
+
+  @Test
+  public void testSwitchToPrewarmedCameraSwapsSession() {
+    capturer.enableCameraPrewarming(MAX_PREWARM_DURATION_MS);
+    startCapture();
+    switchCamera();
+
+    assertThat(capturer.sessions).hasSize(2);
+    assertThat(capturer.sessions.get(0).stopped).isTrue();
+    assertThat(capturer.sessions.get(1).cameraName).isEqualTo(BACK_CAMERA);
+    // The prewarmed camera is handed over to the new session, not released.
+    assertThat(capturer.releasePrewarmedCameraCount).isEqualTo(0);
+    verify(mockSwitchHandler).onCameraSwitchDone(/* isFrontCamera= */ false);
+    // The camera that was switched away from becomes the new alternate camera.
+    assertThat(capturer.prewarmedCameras).containsExactly(BACK_CAMERA, FRONT_CAMERA).inOrder();
+  }
+
+  @Test
+  public void testSwitchLatencyIsReportedOnFirstFrame() {
+    capturer.enableCameraPrewarming(MAX_PREWARM_DURATION_MS);
+    startCapture();
+    switchCamera();
+    verify(mockEventsHandler, never()).onCameraSwitchLatency(anyString(), anyLong(), anyBoolean());
+
+    capturer.sessions.get(1).deliverFrame(mockBuffer);
+
+    verify(mockEventsHandler)
+        .onCameraSwitchLatency(eq(BACK_CAMERA), anyLong(), /* usedPrewarmedCamera= */ eq(true));
+  }
+
+  @Test
+  public void testSwitchLatencyIsReportedWithoutPrewarming() {
+    startCapture();
+    switchCamera();
+    capturer.sessions.get(1).deliverFrame(mockBuffer);
+
+    verify(mockEventsHandler)
+        .onCameraSwitchLatency(eq(BACK_CAMERA), anyLong(), /* usedPrewarmedCamera= */ eq(false));
+  }
+
+  @Test
+  public void testSwitchAfterPrewarmedCameraWasReleasedIsNotPrewarmed() {
+    capturer.enableCameraPrewarming(MAX_PREWARM_DURATION_MS);
+    startCapture();
+    // E.g. the prewarm duration expired.
+    capturer.onPrewarmedCameraReleased(BACK_CAMERA);
+    switchCamera();
+    capturer.sessions.get(1).deliverFrame(mockBuffer);
+
+    verify(mockEventsHandler)
+        .onCameraSwitchLatency(eq(BACK_CAMERA), anyLong(), /* usedPrewarmedCamera= */ eq(false));
+  }
+
+  @Test
+  public void testStopCaptureReleasesPrewarmedCamera() {
+    capturer.enableCameraPrewarming(MAX_PREWARM_DURATION_MS);
+    startCapture();
+    capturer.stopCapture();
+    ShadowLooper.idleMainLooper();
+
+    assertThat(capturer.sessions.get(0).stopped).isTrue();
+    assertThat(capturer.releasePrewarmedCameraCount).isEqualTo(1);
+  }
+
+  @Test
+  public void testDisableCameraPrewarmingReleasesPrewarmedCamera() {
+    capturer.enableCameraPrewarming(MAX_PREWARM_DURATION_MS);
+    startCapture();
+    capturer.disableCameraPrewarming();
+    ShadowLooper.idleMainLooper();
+
+    assertThat(capturer.releasePrewarmedCameraCount).isEqualTo(1);
+    assertThat(capturer.sessions.get(0).stopped).isFalse();
+  }
+}
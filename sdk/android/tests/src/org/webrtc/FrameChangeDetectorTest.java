@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.ByteBuffer;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class FrameChangeDetectorTest {
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 64;
+
+  private FrameChangeDetector detector;
+
+  @Before
+  public void setUp() {
+    detector = new FrameChangeDetector();
+  }
+
+  /** Creates an I420 buffer with a uniform luma plane, optionally with one modified pixel. */
+  private static VideoFrame.I420Buffer createBuffer(byte luma, int changedPixelIndex) {
+    final ByteBuffer dataY = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+    for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+      dataY.put(i, i == changedPixelIndex ? (byte) (luma + 1) : luma);
+    }
+    final ByteBuffer dataU = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+    final ByteBuffer dataV = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+    return JavaI420Buffer.wrap(WIDTH, HEIGHT, dataY, WIDTH, dataU, WIDTH / 2, dataV, WIDTH / 2,
+        /* releaseCallback= */ null);
+  }
+
+  @Test
+  public void testFirstFrameIsChanged() {
+    assertThat(detector.updateAndCheckChanged(createBuffer((byte) 10, -1))).isTrue();
+  }
+
+  @Test
+  public void testIdenticalFrameIsUnchanged() {
+    detector.updateAndCheckChanged(createBuffer((byte) 10, -1));
+    assertThat(detector.updateAndCheckChanged(createBuffer((byte) 10, -1))).isFalse();
+  }
+
+  @Test
+  public void testSinglePixelChangeIsDetected() {
+    detector.updateAndCheckChanged(createBuffer((byte) 10, -1));
+    assertThat(detector.updateAndCheckChanged(createBuffer((byte) 10, WIDTH * 40 + 17))).isTrue();
+    assertThat(detector.updateAndCheckChanged(createBuffer((byte) 10, WIDTH * 40 + 17))).isFalse();
+  }
+
+  @Test
+  public void testResetReportsNextFrameAsChanged() {
+    detector.updateAndCheckChanged(createBuffer((byte) 10, -1));
+    detector.reset();
+    assertThat(detector.updateAndCheckChanged(createBuffer((byte) 10, -1))).isTrue();
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.webrtc.Logging.Severity;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LoggingTest {
+  private static final String TAG = "LoggingTest";
+  private static final int TIMEOUT_MS = 5000;
+
+  private static class RecordingLoggable implements Loggable {
+    final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+    final List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void onLogMessage(String message, Severity severity, String tag) {
+      messages.add(message);
+      threads.add(Thread.currentThread());
+    }
+  }
+
+  private final RecordingLoggable loggable = new RecordingLoggable();
+
+  @After
+  public void tearDown() {
+    Logging.disableAsyncDispatch();
+    Logging.deleteInjectedLoggable();
+  }
+
+  @Test
+  public void testIsLoggable() {
+    Logging.injectLoggable(loggable, Severity.LS_WARNING);
+
+    assertThat(Logging.isLoggable(Severity.LS_INFO)).isFalse();
+    assertThat(Logging.isLoggable(Severity.LS_WARNING)).isTrue();
+    assertThat(Logging.isLoggable(Severity.LS_ERROR)).isTrue();
+  }
+
+  @Test
+  public void testSupplierIsOnlyCalledWhenLoggable() {
+    Logging.injectLoggable(loggable, Severity.LS_WARNING);
+
+    Logging.d(TAG, () -> {
+      throw new AssertionError("Filtered message was built.");
+    });
+    Logging.w(TAG, () -> "warning");
+
+    assertThat(loggable.messages).containsExactly("warning");
+  }
+
+  @Test
+  public void testFormat() {
+    Logging.injectLoggable(loggable, Severity.LS_INFO);
+
+    Logging.v(TAG, "%d", 1);
+    Logging.d(TAG, "Frame %dx%d, %.1f fps", 640, 480, 29.97);
+    // Without arguments, the message is not a format string.
+    Logging.d(TAG, "100%");
+
+    assertThat(loggable.messages).containsExactly("Frame 640x480, 30.0 fps", "100%").inOrder();
+  }
+
+  @Test
+  public void testAsyncDispatchDeliversOnAnotherThread() throws InterruptedException {
+    Logging.injectLoggable(loggable, Severity.LS_INFO);
+    Logging.enableAsyncDispatch(/* queueCapacity= */ 16);
+
+    for (int i = 0; i < 10; ++i) {
+      Logging.d(TAG, "message " + i);
+    }
+    Logging.v(TAG, "filtered");
+    Logging.disableAsyncDispatch();
+
+    assertThat(loggable.messages.size()).isEqualTo(10);
+    assertThat(loggable.messages.get(9)).isEqualTo("message 9");
+    assertThat(loggable.threads).doesNotContain(Thread.currentThread());
+  }
+
+  @Test
+  public void testAsyncDispatchDropsWhenFull() throws InterruptedException {
+    final CountDownLatch sinkEntered = new CountDownLatch(1);
+    final CountDownLatch releaseSink = new CountDownLatch(1);
+    final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+    Logging.injectLoggable((message, severity, tag) -> {
+      messages.add(message);
+      sinkEntered.countDown();
+      try {
+        releaseSink.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }, Severity.LS_INFO);
+    Logging.enableAsyncDispatch(/* queueCapacity= */ 4);
+
+    // The first message blocks the sink, the next four fill the queue and the rest are dropped.
+    Logging.d(TAG, "blocking");
+    assertThat(sinkEntered.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    for (int i = 0; i < 10; ++i) {
+      Logging.d(TAG, "message " + i);
+    }
+    assertThat(Logging.getDroppedMessageCount()).isEqualTo(6);
+    releaseSink.countDown();
+    Logging.disableAsyncDispatch();
+
+    assertThat(messages)
+        .containsExactly("blocking", "message 0", "message 1", "message 2", "message 3",
+            "Dropped 6 log messages.")
+        .inOrder();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAsyncDispatchCapacityMustBePowerOfTwo() {
+    Logging.enableAsyncDispatch(/* queueCapacity= */ 10);
+  }
+}
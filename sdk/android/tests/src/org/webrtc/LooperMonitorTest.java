@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Printer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LooperMonitorTest {
+  private static final String THREAD_NAME = "TestThread";
+  private static final long THRESHOLD_MS = 100;
+
+  @Mock LooperMonitor.StallCallback mockCallback;
+  @Mock Printer mockPrinter;
+  private LooperMonitor.ThreadMonitor monitor;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    ShadowLooper.pauseMainLooper();
+    monitor = new LooperMonitor.ThreadMonitor(
+        THREAD_NAME, new Handler(Looper.getMainLooper()), THRESHOLD_MS, mockCallback);
+  }
+
+  @Test
+  public void testHandlingTime() {
+    for (int i = 0; i < 10; ++i) {
+      monitor.onDispatchStart(1000 * i);
+      monitor.onDispatchEnd(1000 * i + (i < 9 ? 3 : 40));
+    }
+
+    final LooperMonitor.Stats stats = monitor.getStats();
+    assertThat(stats.getThreadName()).isEqualTo(THREAD_NAME);
+    assertThat(stats.getHandledMessageCount()).isEqualTo(10);
+    assertThat(stats.getMaxHandlingTimeMs()).isEqualTo(40);
+    // 3 ms is in the bucket up to 5 ms and 40 ms in the bucket up to 50 ms.
+    assertThat(stats.getHandlingTimePercentileMs(50)).isEqualTo(5);
+    assertThat(stats.getHandlingTimePercentileMs(100)).isEqualTo(40);
+    assertThat(stats.getQueueDelayPercentileMs(50)).isEqualTo(-1);
+    verifyZeroInteractions(mockCallback);
+  }
+
+  @Test
+  public void testSlowMessageIsReported() {
+    monitor.onDispatchStart(0);
+    monitor.onDispatchEnd(THRESHOLD_MS + 1);
+
+    verify(mockCallback)
+        .onStall(THREAD_NAME, LooperMonitor.StallType.HANDLING_TIME, THRESHOLD_MS + 1);
+  }
+
+  @Test
+  public void testPrinterMeasuresMessages() {
+    monitor.println(">>>>> Dispatching to Handler (android.os.Handler) {0} null: 0");
+    monitor.println("<<<<< Finished to Handler (android.os.Handler) {0} null");
+
+    assertThat(monitor.getStats().getHandledMessageCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testProbeMeasuresQueueDelay() {
+    assertThat(monitor.check(SystemClock.uptimeMillis())).isTrue();
+    ShadowLooper.idleMainLooper(20, TimeUnit.MILLISECONDS);
+
+    final LooperMonitor.Stats stats = monitor.getStats();
+    assertThat(stats.getQueueDelaySampleCount()).isEqualTo(1);
+    assertThat(stats.getQueueDelayPercentileMs(100)).isAtMost(20L);
+    verifyZeroInteractions(mockCallback);
+  }
+
+  @Test
+  public void testOverdueProbeIsReportedOnce() {
+    final long startMs = SystemClock.uptimeMillis();
+    monitor.check(startMs);
+    // The looper doesn't run the probe, e.g. because it is stuck in a message.
+    monitor.check(startMs + THRESHOLD_MS / 2);
+    monitor.check(startMs + THRESHOLD_MS + 1);
+    monitor.check(startMs + 2 * THRESHOLD_MS);
+
+    verify(mockCallback)
+        .onStall(THREAD_NAME, LooperMonitor.StallType.QUEUE_DELAY, THRESHOLD_MS + 1);
+    verifyNoMoreInteractions(mockCallback);
+
+    ShadowLooper.idleMainLooper(2 * THRESHOLD_MS, TimeUnit.MILLISECONDS);
+    assertThat(monitor.getStats().getQueueDelaySampleCount()).isEqualTo(1);
+    verifyNoMoreInteractions(mockCallback);
+  }
+
+  @Test
+  public void testPrinterOfAppGetsEveryLine() {
+    monitor.delegate = mockPrinter;
+    final String line = ">>>>> Dispatching to Handler (android.os.Handler) {0} null: 0";
+    monitor.println(line);
+
+    verify(mockPrinter).println(line);
+  }
+
+  @Test
+  public void testCancelledProbeIsNotReported() {
+    final long startMs = SystemClock.uptimeMillis();
+    monitor.check(startMs);
+    monitor.cancelProbe();
+    ShadowLooper.idleMainLooper(2 * THRESHOLD_MS, TimeUnit.MILLISECONDS);
+
+    assertThat(monitor.getStats().getQueueDelaySampleCount()).isEqualTo(0);
+    // A new probe is posted instead of reporting the cancelled one.
+    assertThat(monitor.check(startMs + 2 * THRESHOLD_MS)).isTrue();
+    verifyZeroInteractions(mockCallback);
+  }
+
+  @Test
+  public void testThreadQuitWithPendingProbeIsForgotten() throws InterruptedException {
+    final CountDownLatch prepared = new CountDownLatch(1);
+    final CountDownLatch exit = new CountDownLatch(1);
+    final Looper[] looper = new Looper[1];
+    final Thread thread = new Thread(() -> {
+      Looper.prepare();
+      looper[0] = Looper.myLooper();
+      prepared.countDown();
+      ThreadUtils.awaitUninterruptibly(exit);
+    });
+    thread.start();
+    prepared.await();
+    // The probe stays queued, like on a thread that quits before running it.
+    shadowOf(looper[0]).pause();
+    final LooperMonitor.ThreadMonitor threadMonitor = new LooperMonitor.ThreadMonitor(
+        THREAD_NAME, new Handler(looper[0]), THRESHOLD_MS, mockCallback);
+
+    final long startMs = SystemClock.uptimeMillis();
+    assertThat(threadMonitor.check(startMs)).isTrue();
+    exit.countDown();
+    thread.join();
+
+    assertThat(threadMonitor.check(startMs + 2 * THRESHOLD_MS)).isFalse();
+    verifyZeroInteractions(mockCallback);
+  }
+}
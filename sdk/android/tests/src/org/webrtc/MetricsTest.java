@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.webrtc.Metrics.HistogramSnapshot;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MetricsTest {
+  private static final double DELTA = 1e-9;
+
+  private static Metrics.Snapshot createSnapshot(int[] values1, int[] counts1) {
+    final int[] values = new int[values1.length + 1];
+    final int[] counts = new int[counts1.length + 1];
+    System.arraycopy(values1, 0, values, 0, values1.length);
+    System.arraycopy(counts1, 0, counts, 0, counts1.length);
+    // "Histogram2" always has a single event.
+    values[values1.length] = 10;
+    counts[counts1.length] = 1;
+    return Metrics.Snapshot.create(new String[] {"Histogram1", "Histogram2"},
+        new int[] {1, 100, 50, values1.length, 1, 100, 50, 1}, values, counts);
+  }
+
+  @Test
+  public void testCreate() {
+    final Metrics.Snapshot snapshot = createSnapshot(new int[] {4, 5}, new int[] {1, 2});
+
+    assertThat(snapshot.getHistograms().keySet())
+        .containsExactly("Histogram1", "Histogram2")
+        .inOrder();
+    final HistogramSnapshot histogram = snapshot.getHistogram("Histogram1");
+    assertThat(histogram.getMin()).isEqualTo(1);
+    assertThat(histogram.getMax()).isEqualTo(100);
+    assertThat(histogram.getBucketCount()).isEqualTo(50);
+    assertThat(histogram.getValueCount()).isEqualTo(2);
+    assertThat(histogram.getValue(1)).isEqualTo(5);
+    assertThat(histogram.getCount(1)).isEqualTo(2);
+    assertThat(histogram.getTotalCount()).isEqualTo(3);
+    assertThat(snapshot.getHistogram("Histogram2").getValue(0)).isEqualTo(10);
+    assertThat(snapshot.getHistogram("NonExisting")).isNull();
+  }
+
+  @Test
+  public void testMeanAndPercentile() {
+    final HistogramSnapshot histogram = new HistogramSnapshot(
+        1, 100, 50, new int[] {10, 20, 30, 40}, new int[] {50, 30, 15, 5});
+
+    assertThat(histogram.getMean()).isWithin(DELTA).of(17.5);
+    assertThat(histogram.getPercentile(0)).isWithin(DELTA).of(10);
+    assertThat(histogram.getPercentile(50)).isWithin(DELTA).of(10);
+    assertThat(histogram.getPercentile(51)).isWithin(DELTA).of(20);
+    assertThat(histogram.getPercentile(95)).isWithin(DELTA).of(30);
+    assertThat(histogram.getPercentile(99)).isWithin(DELTA).of(40);
+    assertThat(histogram.getPercentile(100)).isWithin(DELTA).of(40);
+  }
+
+  @Test
+  public void testEmptyHistogram() {
+    final HistogramSnapshot histogram = new HistogramSnapshot(1, 100, 50, new int[0], new int[0]);
+
+    assertThat(histogram.getTotalCount()).isEqualTo(0);
+    assertThat(histogram.getMean()).isNaN();
+    assertThat(histogram.getPercentile(50)).isNaN();
+  }
+
+  @Test
+  public void testDeltaSince() {
+    final Metrics.Snapshot first = createSnapshot(new int[] {4, 5}, new int[] {1, 2});
+    final Metrics.Snapshot second = createSnapshot(new int[] {3, 4, 5}, new int[] {2, 1, 5});
+
+    final Metrics.Snapshot delta = second.deltaSince(first);
+
+    // "Histogram2" has no new events.
+    assertThat(delta.getHistograms().keySet()).containsExactly("Histogram1");
+    final HistogramSnapshot histogram = delta.getHistogram("Histogram1");
+    assertThat(histogram.getValueCount()).isEqualTo(2);
+    assertThat(histogram.getValue(0)).isEqualTo(3);
+    assertThat(histogram.getCount(0)).isEqualTo(2);
+    assertThat(histogram.getValue(1)).isEqualTo(5);
+    assertThat(histogram.getCount(1)).isEqualTo(3);
+    assertThat(histogram.getMin()).isEqualTo(1);
+    // The earlier snapshot is unchanged.
+    assertThat(first.getHistogram("Histogram1").getTotalCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void testDeltaSinceAfterReset() {
+    final Metrics.Snapshot first = createSnapshot(new int[] {4, 5}, new int[] {3, 3});
+    // The native histogram was reset in between, so the lower count is taken as is.
+    final Metrics.Snapshot second = createSnapshot(new int[] {5}, new int[] {1});
+
+    final HistogramSnapshot histogram = second.deltaSince(first).getHistogram("Histogram1");
+
+    assertThat(histogram.getValueCount()).isEqualTo(1);
+    assertThat(histogram.getValue(0)).isEqualTo(5);
+    assertThat(histogram.getCount(0)).isEqualTo(1);
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.webrtc.NetworkChangeDetector.ConnectionType;
+import org.webrtc.NetworkChangeDetector.NetworkInformation;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class NetworkChangeCoalescerTest {
+  private static final long SETTLE_WINDOW_MS = 100;
+  private static final long WIFI_HANDLE = 1;
+  private static final long CELLULAR_HANDLE = 2;
+
+  @Mock NetworkChangeDetector.Observer mockObserver;
+  private NetworkChangeCoalescer coalescer;
+
+  private static NetworkInformation createNetwork(long handle, ConnectionType type) {
+    return new NetworkInformation("network" + handle, type, ConnectionType.CONNECTION_NONE,
+        handle, new NetworkChangeDetector.IPAddress[0]);
+  }
+
+  private static void advanceTime(long timeMs) {
+    ShadowLooper.idleMainLooper(timeMs, TimeUnit.MILLISECONDS);
+  }
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    ShadowLooper.pauseMainLooper();
+    coalescer = new NetworkChangeCoalescer(mockObserver, new Handler(Looper.getMainLooper()));
+    coalescer.setSettleWindowMs(SETTLE_WINDOW_MS);
+  }
+
+  @Test
+  public void testZeroSettleWindowForwardsImmediately() {
+    coalescer.setSettleWindowMs(0);
+    final NetworkInformation wifi = createNetwork(WIFI_HANDLE, ConnectionType.CONNECTION_WIFI);
+
+    coalescer.onNetworkConnect(wifi);
+    coalescer.onConnectionTypeChanged(ConnectionType.CONNECTION_WIFI);
+    coalescer.onNetworkDisconnect(WIFI_HANDLE);
+
+    final InOrder inOrder = inOrder(mockObserver);
+    inOrder.verify(mockObserver).onNetworkConnect(wifi);
+    inOrder.verify(mockObserver).onConnectionTypeChanged(ConnectionType.CONNECTION_WIFI);
+    inOrder.verify(mockObserver).onNetworkDisconnect(WIFI_HANDLE);
+    assertThat(coalescer.getRawEventCount()).isEqualTo(3);
+    assertThat(coalescer.getDeliveredEventCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void testHandoverBurstIsMerged() {
+    final NetworkInformation cellular =
+        createNetwork(CELLULAR_HANDLE, ConnectionType.CONNECTION_4G);
+    final NetworkInformation cellularWithAddress = new NetworkInformation("network2",
+        ConnectionType.CONNECTION_4G, ConnectionType.CONNECTION_NONE, CELLULAR_HANDLE,
+        new NetworkChangeDetector.IPAddress[] {
+            new NetworkChangeDetector.IPAddress(new byte[] {10, 0, 0, 2})});
+
+    coalescer.onNetworkConnect(cellular);
+    coalescer.onConnectionTypeChanged(ConnectionType.CONNECTION_NONE);
+    coalescer.onNetworkDisconnect(WIFI_HANDLE);
+    coalescer.onNetworkConnect(cellularWithAddress);
+    coalescer.onConnectionTypeChanged(ConnectionType.CONNECTION_4G);
+    advanceTime(SETTLE_WINDOW_MS / 2);
+    verifyZeroInteractions(mockObserver);
+
+    advanceTime(SETTLE_WINDOW_MS);
+
+    final InOrder inOrder = inOrder(mockObserver);
+    inOrder.verify(mockObserver).onNetworkConnect(cellularWithAddress);
+    inOrder.verify(mockObserver).onNetworkDisconnect(WIFI_HANDLE);
+    inOrder.verify(mockObserver).onConnectionTypeChanged(ConnectionType.CONNECTION_4G);
+    verifyNoMoreInteractions(mockObserver);
+    assertThat(coalescer.getRawEventCount()).isEqualTo(5);
+    assertThat(coalescer.getDeliveredEventCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void testTransientNetworkIsNotReported() {
+    coalescer.onNetworkConnect(createNetwork(WIFI_HANDLE, ConnectionType.CONNECTION_WIFI));
+    coalescer.onNetworkDisconnect(WIFI_HANDLE);
+    advanceTime(2 * SETTLE_WINDOW_MS);
+
+    verifyZeroInteractions(mockObserver);
+    assertThat(coalescer.getDeliveredEventCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testKnownNetworkChangingCapabilitiesAndLostIsReported() {
+    final NetworkInformation wifi = createNetwork(WIFI_HANDLE, ConnectionType.CONNECTION_WIFI);
+    coalescer.onNetworkConnect(wifi);
+    advanceTime(2 * SETTLE_WINDOW_MS);
+    verify(mockObserver).onNetworkConnect(wifi);
+
+    // Capability changes of an existing network are reported as connect events.
+    coalescer.onNetworkConnect(wifi);
+    coalescer.onNetworkDisconnect(WIFI_HANDLE);
+    advanceTime(2 * SETTLE_WINDOW_MS);
+
+    verify(mockObserver).onNetworkDisconnect(WIFI_HANDLE);
+    verifyNoMoreInteractions(mockObserver);
+  }
+
+  @Test
+  public void testInitialNetworkChangingCapabilitiesAndLostIsReported() {
+    coalescer.addKnownNetworks(
+        Collections.singletonList(createNetwork(WIFI_HANDLE, ConnectionType.CONNECTION_WIFI)));
+
+    coalescer.onNetworkConnect(createNetwork(WIFI_HANDLE, ConnectionType.CONNECTION_WIFI));
+    coalescer.onNetworkDisconnect(WIFI_HANDLE);
+    advanceTime(2 * SETTLE_WINDOW_MS);
+
+    verify(mockObserver).onNetworkDisconnect(WIFI_HANDLE);
+    verifyNoMoreInteractions(mockObserver);
+  }
+
+  @Test
+  public void testReconnectedNetworkIsReportedAsConnected() {
+    final NetworkInformation wifi = createNetwork(WIFI_HANDLE, ConnectionType.CONNECTION_WIFI);
+
+    coalescer.onNetworkDisconnect(WIFI_HANDLE);
+    coalescer.onNetworkConnect(wifi);
+    advanceTime(2 * SETTLE_WINDOW_MS);
+
+    verify(mockObserver).onNetworkConnect(wifi);
+    verifyNoMoreInteractions(mockObserver);
+  }
+
+  @Test
+  public void testUnchangedConnectionTypeIsNotDeliveredAgain() {
+    coalescer.onConnectionTypeChanged(ConnectionType.CONNECTION_WIFI);
+    advanceTime(2 * SETTLE_WINDOW_MS);
+    coalescer.onConnectionTypeChanged(ConnectionType.CONNECTION_NONE);
+    coalescer.onConnectionTypeChanged(ConnectionType.CONNECTION_WIFI);
+    advanceTime(2 * SETTLE_WINDOW_MS);
+
+    verify(mockObserver).onConnectionTypeChanged(ConnectionType.CONNECTION_WIFI);
+    verifyNoMoreInteractions(mockObserver);
+  }
+
+  @Test
+  public void testLatestPreferenceIsDelivered() {
+    coalescer.onNetworkPreference(Collections.singletonList(ConnectionType.CONNECTION_WIFI),
+        NetworkPreference.NOT_PREFERRED);
+    coalescer.onNetworkPreference(Collections.singletonList(ConnectionType.CONNECTION_WIFI),
+        NetworkPreference.NEUTRAL);
+    advanceTime(2 * SETTLE_WINDOW_MS);
+
+    verify(mockObserver).onNetworkPreference(
+        Collections.singletonList(ConnectionType.CONNECTION_WIFI), NetworkPreference.NEUTRAL);
+    verifyNoMoreInteractions(mockObserver);
+  }
+
+  @Test
+  public void testContinuousEventsAreDeliveredAfterMaxDelay() {
+    // A new event arrives every half settle window, so the events never settle.
+    for (int i = 0; i < 8; ++i) {
+      coalescer.onConnectionTypeChanged(
+          i % 2 == 0 ? ConnectionType.CONNECTION_WIFI : ConnectionType.CONNECTION_4G);
+      advanceTime(SETTLE_WINDOW_MS / 2);
+    }
+
+    // The first events were delivered four settle windows after they started.
+    verify(mockObserver).onConnectionTypeChanged(ConnectionType.CONNECTION_4G);
+  }
+
+  @Test
+  public void testClearDropsPendingEvents() {
+    coalescer.onNetworkDisconnect(WIFI_HANDLE);
+    coalescer.onConnectionTypeChanged(ConnectionType.CONNECTION_NONE);
+    coalescer.clear();
+    advanceTime(2 * SETTLE_WINDOW_MS);
+
+    verifyZeroInteractions(mockObserver);
+  }
+}
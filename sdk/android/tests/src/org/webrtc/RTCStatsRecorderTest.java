@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.webrtc.RTCStatsSchema.MemberType;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RTCStatsRecorderTest {
+  private static final RTCStatsSchema INBOUND_SCHEMA = new RTCStatsSchema("inbound-rtp",
+      new String[] {"isRemote", "packetsLost", "bytesReceived", "jitter", "codecId", "trackIds"},
+      new MemberType[] {MemberType.BOOL, MemberType.INT32, MemberType.UINT64, MemberType.DOUBLE,
+          MemberType.STRING, MemberType.SEQUENCE_STRING},
+      new int[] {0, 1, 2, 0, 0, 1});
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+  private String dirPath;
+
+  @Before
+  public void setUp() throws IOException {
+    dirPath = tempFolder.newFolder().getPath();
+  }
+
+  private static RTCStatsReport createReport(long timestampUs, long bytesReceived, double jitter) {
+    final Map<String, RTCStats> stats = new LinkedHashMap<>();
+    stats.put("inbound", RTCStats.create(timestampUs, "inbound", INBOUND_SCHEMA,
+        new long[] {0, -2, bytesReceived}, new double[] {jitter},
+        new Object[] {"codec \"1\"", new String[] {"a", "b"}},
+        new boolean[] {true, true, true, true, true, true}));
+    final Map<String, Object> members = new LinkedHashMap<>();
+    members.put("bytesSent", BigInteger.valueOf(bytesReceived / 2));
+    members.put("ssrc", 1234L);
+    stats.put("outbound", new RTCStats(timestampUs, "outbound-rtp", "outbound", members));
+    return new RTCStatsReport(timestampUs, stats);
+  }
+
+  private static List<String> decode(File file) throws IOException {
+    final StringWriter writer = new StringWriter();
+    try (InputStream input = new FileInputStream(file)) {
+      RTCStatsDecoder.decodeToJson(input, writer);
+    }
+    return Arrays.asList(writer.toString().split("\n"));
+  }
+
+  @Test
+  public void testRoundTripToJson() throws IOException {
+    final RTCStatsRecorder recorder =
+        new RTCStatsRecorder(dirPath, /* maxFileSize= */ 1 << 20, /* maxFileCount= */ 2);
+    recorder.record(createReport(1_000_000, 5000, 0.5));
+    recorder.record(createReport(2_000_000, -1, 0.75));
+    recorder.close();
+
+    final List<File> files = RTCStatsRecorder.getFiles(dirPath);
+    assertThat(files).hasSize(1);
+    assertThat(decode(files.get(0)))
+        .containsExactly("{\"timestampUs\":1000000,\"stats\":{"
+                + "\"inbound\":{\"type\":\"inbound-rtp\",\"timestampUs\":1000000,"
+                + "\"isRemote\":false,\"packetsLost\":-2,\"bytesReceived\":5000,\"jitter\":0.5,"
+                + "\"codecId\":\"codec \\\"1\\\"\",\"trackIds\":[\"a\",\"b\"]},"
+                + "\"outbound\":{\"type\":\"outbound-rtp\",\"timestampUs\":1000000,"
+                + "\"bytesSent\":2500,\"ssrc\":1234}}}",
+            "{\"timestampUs\":2000000,\"stats\":{"
+                + "\"inbound\":{\"type\":\"inbound-rtp\",\"timestampUs\":2000000,"
+                + "\"isRemote\":false,\"packetsLost\":-2,"
+                + "\"bytesReceived\":18446744073709551615,\"jitter\":0.75,"
+                + "\"codecId\":\"codec \\\"1\\\"\",\"trackIds\":[\"a\",\"b\"]},"
+                + "\"outbound\":{\"type\":\"outbound-rtp\",\"timestampUs\":2000000,"
+                + "\"bytesSent\":0,\"ssrc\":1234}}}")
+        .inOrder();
+  }
+
+  @Test
+  public void testRepeatedReportsAreSmall() throws IOException {
+    final RTCStatsRecorder recorder =
+        new RTCStatsRecorder(dirPath, /* maxFileSize= */ 1 << 20, /* maxFileCount= */ 1);
+    recorder.record(createReport(1_000_000, 5000, 0.5));
+    recorder.close();
+    final long oneReportSize = RTCStatsRecorder.getFiles(dirPath).get(0).length();
+
+    final RTCStatsRecorder secondRecorder =
+        new RTCStatsRecorder(dirPath, /* maxFileSize= */ 1 << 20, /* maxFileCount= */ 1);
+    secondRecorder.record(createReport(1_000_000, 5000, 0.5));
+    secondRecorder.record(createReport(2_000_000, 6000, 0.5));
+    secondRecorder.close();
+    final long twoReportsSize = RTCStatsRecorder.getFiles(dirPath).get(0).length();
+
+    // Strings are only written once and members as deltas, so the second report is much smaller.
+    assertThat(twoReportsSize - oneReportSize).isLessThan(oneReportSize / 3);
+  }
+
+  @Test
+  public void testFilesAreRotated() throws IOException {
+    final RTCStatsRecorder recorder =
+        new RTCStatsRecorder(dirPath, /* maxFileSize= */ 1, /* maxFileCount= */ 2);
+    for (int i = 1; i <= 5; ++i) {
+      recorder.record(createReport(i * 1_000_000L, 1000 * i, 0.5));
+    }
+    recorder.close();
+
+    final List<File> files = RTCStatsRecorder.getFiles(dirPath);
+    assertThat(files).hasSize(2);
+    // Every file holds one report and can be decoded on its own.
+    final List<String> lines = new ArrayList<>();
+    for (File file : files) {
+      lines.addAll(decode(file));
+    }
+    assertThat(lines).hasSize(2);
+    assertThat(lines.get(0)).startsWith("{\"timestampUs\":4000000,");
+    assertThat(lines.get(1)).startsWith("{\"timestampUs\":5000000,");
+  }
+}
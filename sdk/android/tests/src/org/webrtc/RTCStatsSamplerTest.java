@@ -0,0 +1,201 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.webrtc.RTCStatsSchema.MemberType;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RTCStatsSamplerTest {
+  private static final int INTERVAL_MS = 1000;
+  private static final int HISTORY_SIZE = 4;
+  private static final double DELTA = 1e-9;
+  private static final RTCStatsSchema INBOUND_SCHEMA =
+      new RTCStatsSchema("inbound-rtp", new String[] {"bytesReceived", "jitter"},
+          new MemberType[] {MemberType.UINT64, MemberType.DOUBLE}, new int[] {0, 0});
+  private static final RTCStatsSampler.Metric BYTES_RATE =
+      RTCStatsSampler.Metric.rate("inbound-rtp", "bytesReceived");
+  private static final RTCStatsSampler.Metric JITTER =
+      RTCStatsSampler.Metric.value("inbound-rtp", "jitter");
+
+  @Mock PeerConnection mockPeerConnection;
+  private RTCStatsSampler sampler;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    // Poll without a phase offset to make the test deterministic.
+    final Random noJitter = new Random() {
+      @Override
+      public int nextInt(int bound) {
+        return 0;
+      }
+    };
+    sampler = new RTCStatsSampler(new Handler(Looper.getMainLooper()), /* handlerThread= */ null,
+        INTERVAL_MS, HISTORY_SIZE, noJitter);
+  }
+
+  private static RTCStatsReport createReport(long timestampUs, long bytesReceived, double jitter) {
+    final Map<String, RTCStats> stats = new HashMap<>();
+    // Two streams, the sampler sums their values.
+    for (String id : new String[] {"stream1", "stream2"}) {
+      stats.put(id,
+          RTCStats.create(timestampUs, id, INBOUND_SCHEMA, new long[] {bytesReceived},
+              new double[] {jitter}, new Object[0], new boolean[] {true, true}));
+    }
+    return new RTCStatsReport(timestampUs, stats);
+  }
+
+  private RTCStatsCollectorCallback captureLastCallback(int expectedPolls) {
+    final ArgumentCaptor<RTCStatsCollectorCallback> callbackCaptor =
+        ArgumentCaptor.forClass(RTCStatsCollectorCallback.class);
+    verify(mockPeerConnection, times(expectedPolls))
+        .getStats(anyCollection(), callbackCaptor.capture());
+    return callbackCaptor.getValue();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testPollsOnlyRequestedStatsTypes() {
+    sampler.register(mockPeerConnection, Arrays.asList(BYTES_RATE, JITTER));
+    ShadowLooper.idleMainLooper(0, TimeUnit.MILLISECONDS);
+
+    final ArgumentCaptor<Collection<String>> typesCaptor =
+        ArgumentCaptor.forClass((Class) Collection.class);
+    verify(mockPeerConnection).getStats(typesCaptor.capture(), any());
+    assertThat(typesCaptor.getValue()).containsExactly("inbound-rtp");
+  }
+
+  @Test
+  public void testOverlappingPollsAreCoalesced() {
+    sampler.register(mockPeerConnection, Collections.singletonList(JITTER));
+    ShadowLooper.idleMainLooper(0, TimeUnit.MILLISECONDS);
+    // The first poll is never delivered, so the following ones are skipped.
+    ShadowLooper.idleMainLooper(3 * INTERVAL_MS, TimeUnit.MILLISECONDS);
+    final RTCStatsCollectorCallback callback = captureLastCallback(/* expectedPolls= */ 1);
+
+    callback.onStatsDelivered(createReport(1_000_000, 0, 0.5));
+    ShadowLooper.idleMainLooper(INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+    captureLastCallback(/* expectedPolls= */ 2);
+  }
+
+  @Test
+  public void testLostPollIsRepeatedAfterTimeout() {
+    sampler.register(mockPeerConnection, Collections.singletonList(JITTER));
+    ShadowLooper.idleMainLooper(0, TimeUnit.MILLISECONDS);
+    final RTCStatsCollectorCallback lostCallback = captureLastCallback(/* expectedPolls= */ 1);
+
+    // The first poll is never delivered. Polling resumes once it has timed out.
+    ShadowLooper.idleMainLooper(10 * INTERVAL_MS, TimeUnit.MILLISECONDS);
+    final RTCStatsCollectorCallback callback = captureLastCallback(/* expectedPolls= */ 2);
+
+    // A late delivery of the lost poll is ignored and does not end the poll in flight.
+    lostCallback.onStatsDelivered(createReport(1_000_000, 0, 0.5));
+    ShadowLooper.idleMainLooper(INTERVAL_MS, TimeUnit.MILLISECONDS);
+    captureLastCallback(/* expectedPolls= */ 2);
+    assertThat(sampler.getTimeSeries(mockPeerConnection, JITTER).getSampleCount()).isEqualTo(0);
+
+    callback.onStatsDelivered(createReport(11_000_000, 0, 0.75));
+    ShadowLooper.idleMainLooper(INTERVAL_MS, TimeUnit.MILLISECONDS);
+    captureLastCallback(/* expectedPolls= */ 3);
+    assertThat(sampler.getTimeSeries(mockPeerConnection, JITTER).getLatest())
+        .isWithin(DELTA)
+        .of(0.75);
+  }
+
+  @Test
+  public void testValuesAndRatesAreStored() {
+    sampler.register(mockPeerConnection, Arrays.asList(BYTES_RATE, JITTER));
+    for (int i = 0; i < 3; ++i) {
+      ShadowLooper.idleMainLooper(i == 0 ? 0 : INTERVAL_MS, TimeUnit.MILLISECONDS);
+      captureLastCallback(/* expectedPolls= */ i + 1)
+          .onStatsDelivered(createReport((i + 1) * 1_000_000L, i * 1000L, 0.25 * (i + 1)));
+    }
+
+    final RTCStatsSampler.TimeSeries jitter = sampler.getTimeSeries(mockPeerConnection, JITTER);
+    assertThat(jitter.getSampleCount()).isEqualTo(3);
+    assertThat(jitter.getLatest()).isWithin(DELTA).of(1.5);
+    // Two streams with 1000 more bytes each per second.
+    final RTCStatsSampler.TimeSeries bytesRate =
+        sampler.getTimeSeries(mockPeerConnection, BYTES_RATE);
+    assertThat(bytesRate.getSampleCount()).isEqualTo(2);
+    assertThat(bytesRate.getLatest()).isWithin(DELTA).of(2000);
+  }
+
+  @Test
+  public void testUnregisterStopsPolling() {
+    sampler.register(mockPeerConnection, Collections.singletonList(JITTER));
+    ShadowLooper.idleMainLooper(0, TimeUnit.MILLISECONDS);
+    captureLastCallback(/* expectedPolls= */ 1).onStatsDelivered(createReport(1_000_000, 0, 0));
+    sampler.unregister(mockPeerConnection);
+    ShadowLooper.idleMainLooper(3 * INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+    captureLastCallback(/* expectedPolls= */ 1);
+    assertThat(sampler.getTimeSeries(mockPeerConnection, JITTER)).isNull();
+  }
+
+  @Test
+  public void testTimeSeriesKeepsMostRecentSamples() {
+    final RTCStatsSampler.TimeSeries series =
+        new RTCStatsSampler.TimeSeries(HISTORY_SIZE, /* isRate= */ false);
+    for (int i = 1; i <= 6; ++i) {
+      series.addSample(i, i * 10);
+    }
+
+    assertThat(series.getSampleCount()).isEqualTo(HISTORY_SIZE);
+    assertThat(series.getValue(0)).isWithin(DELTA).of(30);
+    assertThat(series.getTimestampUs(0)).isEqualTo(3);
+    assertThat(series.getLatest()).isWithin(DELTA).of(60);
+    assertThat(series.getMin()).isWithin(DELTA).of(30);
+    assertThat(series.getMax()).isWithin(DELTA).of(60);
+    assertThat(series.getAverage()).isWithin(DELTA).of(45);
+  }
+
+  @Test
+  public void testTimeSeriesPercentile() {
+    final RTCStatsSampler.TimeSeries series =
+        new RTCStatsSampler.TimeSeries(/* capacity= */ 20, /* isRate= */ false);
+    assertThat(series.getPercentile(95)).isNaN();
+    for (int i = 20; i >= 1; --i) {
+      series.addSample(i, i);
+    }
+
+    assertThat(series.getPercentile(95)).isWithin(DELTA).of(19);
+    assertThat(series.getPercentile(50)).isWithin(DELTA).of(10);
+    assertThat(series.getPercentile(100)).isWithin(DELTA).of(20);
+    assertThat(series.getPercentile(0)).isWithin(DELTA).of(1);
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RTCStatsSessionTest {
+  private static final String INBOUND_ID = "RTCInboundRTPVideoStream_1234";
+  private static final double DELTA = 1e-9;
+
+  private final Map<String, RTCStatsSession.Rates> rates = new HashMap<>();
+
+  private static RTCStatsReport createReport(
+      long timestampUs, String id, Map<String, Object> members) {
+    final Map<String, RTCStats> stats = new HashMap<>();
+    stats.put(id, new RTCStats(timestampUs, "inbound-rtp", id, members));
+    return new RTCStatsReport(timestampUs, stats);
+  }
+
+  private static Map<String, Object> inboundMembers(
+      long bytesReceived, int packetsLost, long framesDecoded) {
+    final Map<String, Object> members = new HashMap<>();
+    members.put("bytesReceived", BigInteger.valueOf(bytesReceived));
+    members.put("packetsLost", packetsLost);
+    members.put("framesDecoded", framesDecoded);
+    return members;
+  }
+
+  @Test
+  public void testFirstPollHasZeroRates() {
+    RTCStatsSession.updateRates(
+        createReport(1_000_000, INBOUND_ID, inboundMembers(5000, 2, 30)), rates);
+
+    assertThat(rates).containsKey(INBOUND_ID);
+    assertThat(rates.get(INBOUND_ID).getBytesReceivedPerSecond()).isWithin(DELTA).of(0);
+    assertThat(rates.get(INBOUND_ID).getFramesDecodedPerSecond()).isWithin(DELTA).of(0);
+  }
+
+  @Test
+  public void testRatesAreComputedFromConsecutivePolls() {
+    RTCStatsSession.updateRates(
+        createReport(1_000_000, INBOUND_ID, inboundMembers(5000, 2, 30)), rates);
+    RTCStatsSession.updateRates(
+        createReport(1_500_000, INBOUND_ID, inboundMembers(10000, 3, 45)), rates);
+
+    final RTCStatsSession.Rates inboundRates = rates.get(INBOUND_ID);
+    assertThat(inboundRates.getBytesReceivedPerSecond()).isWithin(DELTA).of(10000);
+    assertThat(inboundRates.getPacketsLostPerSecond()).isWithin(DELTA).of(2);
+    assertThat(inboundRates.getFramesDecodedPerSecond()).isWithin(DELTA).of(30);
+    assertThat(inboundRates.getBytesSentPerSecond()).isWithin(DELTA).of(0);
+  }
+
+  @Test
+  public void testUnchangedCountersHaveZeroRate() {
+    RTCStatsSession.updateRates(
+        createReport(1_000_000, INBOUND_ID, inboundMembers(5000, 2, 30)), rates);
+    RTCStatsSession.updateRates(
+        createReport(1_500_000, INBOUND_ID, inboundMembers(10000, 3, 45)), rates);
+    // Unchanged members are not part of a delta.
+    RTCStatsSession.updateRates(
+        createReport(2_000_000, INBOUND_ID, Collections.emptyMap()), rates);
+
+    assertThat(rates.get(INBOUND_ID).getBytesReceivedPerSecond()).isWithin(DELTA).of(0);
+    assertThat(rates.get(INBOUND_ID).getFramesDecodedPerSecond()).isWithin(DELTA).of(0);
+  }
+
+  @Test
+  public void testRatesObjectsAreReused() {
+    RTCStatsSession.updateRates(
+        createReport(1_000_000, INBOUND_ID, inboundMembers(5000, 2, 30)), rates);
+    final RTCStatsSession.Rates inboundRates = rates.get(INBOUND_ID);
+    RTCStatsSession.updateRates(
+        createReport(1_500_000, INBOUND_ID, inboundMembers(10000, 3, 45)), rates);
+
+    assertThat(rates.get(INBOUND_ID) == inboundRates).isTrue();
+  }
+
+  @Test
+  public void testRemovedStatsIdsArePruned() {
+    RTCStatsSession.updateRates(
+        createReport(1_000_000, INBOUND_ID, inboundMembers(5000, 2, 30)), rates);
+    RTCStatsSession.updateRates(
+        createReport(1_500_000, "RTCTransport_0_1", Collections.emptyMap()), rates);
+
+    assertThat(rates).doesNotContainKey(INBOUND_ID);
+    assertThat(rates).containsKey("RTCTransport_0_1");
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.webrtc.RTCStatsSchema.MemberType;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RTCStatsTest {
+  private static final long TIMESTAMP_US = 1234;
+  private static final String ID = "RTCInboundRTPVideoStream_1";
+
+  // Members in native order. Slots are per value array, like the native code assigns them.
+  private static final RTCStatsSchema SCHEMA = new RTCStatsSchema("inbound-rtp",
+      new String[] {"isRemote", "packetsLost", "packetsReceived", "bytesReceived", "jitter",
+          "codecId", "trackIds"},
+      new MemberType[] {MemberType.BOOL, MemberType.INT32, MemberType.UINT32, MemberType.UINT64,
+          MemberType.DOUBLE, MemberType.STRING, MemberType.SEQUENCE_STRING},
+      new int[] {0, 1, 2, 3, 0, 0, 1});
+
+  private static RTCStats createColumnarStats(boolean[] defined) {
+    return RTCStats.create(TIMESTAMP_US, ID, SCHEMA, new long[] {1, -3, 100, -1},
+        new double[] {0.25}, new Object[] {"RTCCodec_1", new String[] {"track1"}}, defined);
+  }
+
+  private static boolean[] allDefined() {
+    return new boolean[] {true, true, true, true, true, true, true};
+  }
+
+  @Test
+  public void testPrimitiveAccessors() {
+    final RTCStats stats = createColumnarStats(allDefined());
+
+    assertThat(stats.getType()).isEqualTo("inbound-rtp");
+    assertThat(stats.getSchema()).isEqualTo(SCHEMA);
+    assertThat(stats.getLong(SCHEMA.indexOf("packetsLost"))).isEqualTo(-3);
+    assertThat(stats.getLong(SCHEMA.indexOf("packetsReceived"))).isEqualTo(100);
+    assertThat(stats.getDouble(SCHEMA.indexOf("jitter"))).isWithin(1e-9).of(0.25);
+    assertThat(stats.getObject(SCHEMA.indexOf("codecId"))).isEqualTo("RTCCodec_1");
+    assertThat(SCHEMA.indexOf("framesDecoded")).isEqualTo(-1);
+  }
+
+  @Test
+  public void testMembersMapHasBoxedTypes() {
+    final Map<String, Object> members = createColumnarStats(allDefined()).getMembers();
+
+    assertThat(members.get("isRemote")).isEqualTo(Boolean.TRUE);
+    assertThat(members.get("packetsLost")).isEqualTo(Integer.valueOf(-3));
+    assertThat(members.get("packetsReceived")).isEqualTo(Long.valueOf(100));
+    assertThat(members.get("bytesReceived")).isEqualTo(new BigInteger("18446744073709551615"));
+    assertThat(members.get("jitter")).isEqualTo(Double.valueOf(0.25));
+    assertThat(members.keySet())
+        .containsExactly("isRemote", "packetsLost", "packetsReceived", "bytesReceived", "jitter",
+            "codecId", "trackIds")
+        .inOrder();
+  }
+
+  @Test
+  public void testUndefinedMembersAreLeftOut() {
+    final boolean[] defined = allDefined();
+    defined[SCHEMA.indexOf("jitter")] = false;
+    final RTCStats stats = createColumnarStats(defined);
+
+    assertThat(stats.isMemberDefined(SCHEMA.indexOf("jitter"))).isFalse();
+    assertThat(stats.getMembers()).doesNotContainKey("jitter");
+    assertThat(stats.toString()).doesNotContain("jitter");
+  }
+
+  @Test
+  public void testToStringMatchesMapBasedStats() {
+    final RTCStats columnarStats = createColumnarStats(allDefined());
+    final RTCStats mapStats = new RTCStats(TIMESTAMP_US, "inbound-rtp", ID,
+        new LinkedHashMap<>(columnarStats.getMembers()));
+
+    assertThat(columnarStats.toString()).isEqualTo(mapStats.toString());
+  }
+
+  @Test
+  public void testWrongAccessorThrows() {
+    final RTCStats stats = createColumnarStats(allDefined());
+    try {
+      stats.getLong(SCHEMA.indexOf("jitter"));
+      fail("getLong() of a DOUBLE member did not throw.");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testMapBasedStatsHaveNoSchema() {
+    final RTCStats stats =
+        new RTCStats(TIMESTAMP_US, "inbound-rtp", ID, new LinkedHashMap<String, Object>());
+
+    assertThat(stats.getSchema()).isNull();
+    try {
+      stats.getLong(0);
+      fail("getLong() without a schema did not throw.");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+  }
+}
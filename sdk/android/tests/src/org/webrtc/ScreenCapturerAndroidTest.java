@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.Intent;
+import android.media.projection.MediaProjection;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ScreenCapturerAndroidTest {
+  private static final int REFRESH_INTERVAL_MS = 100;
+  private static final int THUMBNAIL_SIZE = 64;
+
+  @Mock SurfaceTextureHelper mockSurfaceTextureHelper;
+  @Mock Context mockContext;
+  @Mock CapturerObserver mockCapturerObserver;
+  @Mock MediaProjection.Callback mockMediaProjectionCallback;
+  @Mock VideoFrame.Buffer mockBuffer;
+  @Mock VideoFrame.Buffer mockThumbnail;
+  // Luma value of the thumbnails returned for |mockBuffer|.
+  private byte luma;
+  private ScreenCapturerAndroid capturer;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+
+    when(mockBuffer.getWidth()).thenReturn(1280);
+    when(mockBuffer.getHeight()).thenReturn(720);
+    when(mockBuffer.cropAndScale(anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt()))
+        .thenReturn(mockThumbnail);
+    when(mockThumbnail.toI420()).thenAnswer(invocation -> createThumbnail(luma));
+
+    capturer = new ScreenCapturerAndroid(new Intent(), mockMediaProjectionCallback);
+    capturer.initialize(mockSurfaceTextureHelper, mockContext, mockCapturerObserver);
+  }
+
+  private static VideoFrame.I420Buffer createThumbnail(byte luma) {
+    final ByteBuffer dataY = ByteBuffer.allocateDirect(THUMBNAIL_SIZE * THUMBNAIL_SIZE);
+    for (int i = 0; i < THUMBNAIL_SIZE * THUMBNAIL_SIZE; ++i) {
+      dataY.put(i, luma);
+    }
+    final ByteBuffer dataU = ByteBuffer.allocateDirect(THUMBNAIL_SIZE * THUMBNAIL_SIZE / 4);
+    final ByteBuffer dataV = ByteBuffer.allocateDirect(THUMBNAIL_SIZE * THUMBNAIL_SIZE / 4);
+    return JavaI420Buffer.wrap(THUMBNAIL_SIZE, THUMBNAIL_SIZE, dataY, THUMBNAIL_SIZE, dataU,
+        THUMBNAIL_SIZE / 2, dataV, THUMBNAIL_SIZE / 2, /* releaseCallback= */ null);
+  }
+
+  private void deliverFrame(long timestampMs) {
+    capturer.onFrame(
+        new VideoFrame(mockBuffer, 0 /* rotation */, TimeUnit.MILLISECONDS.toNanos(timestampMs)));
+  }
+
+  @Test
+  public void testFramesAreNotSkippedByDefault() {
+    deliverFrame(0);
+    deliverFrame(10);
+
+    verify(mockCapturerObserver, times(2)).onFrameCaptured(any());
+    assertThat(capturer.getNumSkippedFrames()).isEqualTo(0);
+  }
+
+  @Test
+  public void testUnchangedFramesAreSkipped() {
+    capturer.setStaticFrameSkipping(REFRESH_INTERVAL_MS);
+
+    deliverFrame(0);
+    deliverFrame(10);
+    verify(mockCapturerObserver, times(1)).onFrameCaptured(any());
+
+    luma = 1;
+    deliverFrame(20);
+    verify(mockCapturerObserver, times(2)).onFrameCaptured(any());
+    assertThat(capturer.getNumCapturedFrames()).isEqualTo(3);
+    assertThat(capturer.getNumSkippedFrames()).isEqualTo(1);
+  }
+
+  @Test
+  public void testUnchangedFrameIsForwardedAfterRefreshInterval() {
+    capturer.setStaticFrameSkipping(REFRESH_INTERVAL_MS);
+
+    deliverFrame(0);
+    deliverFrame(REFRESH_INTERVAL_MS - 1);
+    verify(mockCapturerObserver, times(1)).onFrameCaptured(any());
+
+    deliverFrame(REFRESH_INTERVAL_MS);
+    verify(mockCapturerObserver, times(2)).onFrameCaptured(any());
+
+    // The interval restarts at the forwarded frame.
+    deliverFrame(2 * REFRESH_INTERVAL_MS - 1);
+    verify(mockCapturerObserver, times(2)).onFrameCaptured(any());
+    assertThat(capturer.getNumSkippedFrames()).isEqualTo(2);
+  }
+
+  @Test
+  public void testDetectionSizeIsConfigurable() {
+    capturer.setStaticFrameSkipping(REFRESH_INTERVAL_MS, /* detectionSize= */ 256);
+
+    deliverFrame(0);
+
+    verify(mockBuffer).cropAndScale(0, 0, 1280, 720, 256, 256);
+  }
+}
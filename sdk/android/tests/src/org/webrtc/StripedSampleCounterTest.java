@@ -0,0 +1,148 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class StripedSampleCounterTest {
+  private static final int STRIPE_COUNT = 4;
+  private static final int STRIPE_CAPACITY = 8;
+
+  private final StripedSampleCounter counter =
+      new StripedSampleCounter(STRIPE_COUNT, STRIPE_CAPACITY);
+
+  // Drains |counter| and returns the number of events by value.
+  private Map<Integer, Integer> drain() {
+    final int[] values = new int[counter.getMaxDrainSize()];
+    final int[] counts = new int[values.length];
+    final int size = counter.drain(values, counts);
+    final Map<Integer, Integer> events = new HashMap<>();
+    for (int i = 0; i < size; ++i) {
+      final Integer previousCount = events.get(values[i]);
+      events.put(values[i], (previousCount == null ? 0 : previousCount) + counts[i]);
+    }
+    return events;
+  }
+
+  @Test
+  public void testAddAndDrain() {
+    assertThat(counter.add(5)).isTrue();
+    assertThat(counter.add(5)).isTrue();
+    assertThat(counter.add(-3)).isTrue();
+
+    final Map<Integer, Integer> events = drain();
+
+    assertThat(events).containsExactly(5, 2, -3, 1);
+    assertThat(drain()).isEmpty();
+  }
+
+  @Test
+  public void testAddAfterDrain() {
+    counter.add(5);
+    drain();
+    counter.add(5);
+    counter.add(6);
+
+    assertThat(drain()).containsExactly(5, 1, 6, 1);
+  }
+
+  @Test
+  public void testFullStripeRejectsNewValues() {
+    for (int i = 0; i < STRIPE_CAPACITY; ++i) {
+      assertThat(counter.add(i)).isTrue();
+    }
+
+    assertThat(counter.add(STRIPE_CAPACITY)).isFalse();
+    // Values that are already stored are still counted.
+    assertThat(counter.add(0)).isTrue();
+    assertThat(drain().get(0)).isEqualTo(2);
+  }
+
+  @Test
+  public void testFullTableCountsOnlyStoredValues() {
+    final StripedSampleCounter singleStripeCounter =
+        new StripedSampleCounter(/* stripeCount= */ 1, /* stripeCapacity= */ 64);
+    final Map<Integer, Integer> expectedEvents = new HashMap<>();
+    // Many more distinct values than slots, like samples of a wide counts histogram.
+    for (int value = 0; value < 10000; ++value) {
+      if (singleStripeCounter.add(value)) {
+        expectedEvents.put(value, 1);
+      }
+    }
+    assertThat(expectedEvents.size()).isAtMost(64);
+
+    // Values that got a slot are still counted, others are rejected.
+    for (int value = 0; value < 10000; ++value) {
+      assertThat(singleStripeCounter.add(value)).isEqualTo(expectedEvents.containsKey(value));
+    }
+    final int[] values = new int[singleStripeCounter.getMaxDrainSize()];
+    final int[] counts = new int[values.length];
+    final int size = singleStripeCounter.drain(values, counts);
+    assertThat(size).isEqualTo(expectedEvents.size());
+    for (int i = 0; i < size; ++i) {
+      assertThat(counts[i]).isEqualTo(2);
+      assertThat(expectedEvents).containsKey(values[i]);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testStripeCountMustBePowerOfTwo() {
+    new StripedSampleCounter(3, STRIPE_CAPACITY);
+  }
+
+  @Test
+  public void testConcurrentAddAndDrain() throws InterruptedException {
+    final int threadCount = 8;
+    final int samplesPerThread = 20000;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; ++i) {
+      threads[i] = new Thread(() -> {
+        try {
+          startLatch.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        for (int j = 0; j < samplesPerThread; ++j) {
+          assertThat(counter.add(j % STRIPE_CAPACITY)).isTrue();
+        }
+      });
+      threads[i].start();
+    }
+
+    startLatch.countDown();
+    long totalCount = 0;
+    // Drain while the threads are adding samples, no event may be lost or counted twice.
+    for (Thread thread : threads) {
+      while (thread.isAlive()) {
+        for (int count : drain().values()) {
+          totalCount += count;
+        }
+      }
+      thread.join();
+    }
+    for (int count : drain().values()) {
+      totalCount += count;
+    }
+
+    assertThat(totalCount).isEqualTo((long) threadCount * samplesPerThread);
+  }
+}
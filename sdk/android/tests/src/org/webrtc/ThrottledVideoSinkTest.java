@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ThrottledVideoSinkTest {
+  private static final long FRAME_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(25);
+
+  @Mock VideoSink mockSink;
+  @Mock VideoFrame.Buffer mockBuffer;
+  @Mock VideoFrame.Buffer mockScaledBuffer;
+  private ThrottledVideoSink throttledSink;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+
+    when(mockBuffer.getWidth()).thenReturn(1280);
+    when(mockBuffer.getHeight()).thenReturn(720);
+    when(mockBuffer.cropAndScale(anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt()))
+        .thenReturn(mockScaledBuffer);
+    throttledSink = new ThrottledVideoSink(mockSink);
+  }
+
+  private void deliverFrames(int count) {
+    for (int i = 0; i < count; ++i) {
+      throttledSink.onFrame(new VideoFrame(mockBuffer, 0 /* rotation */, i * FRAME_INTERVAL_NS));
+    }
+  }
+
+  @Test
+  public void testForwardsAllFramesByDefault() {
+    deliverFrames(30);
+
+    verify(mockSink, times(30)).onFrame(any());
+    assertThat(throttledSink.getFramesDropped()).isEqualTo(0);
+  }
+
+  @Test
+  public void testMaxFpsDropsFramesWithoutTouchingBuffer() {
+    throttledSink.setMaxFps(10);
+    deliverFrames(40);
+
+    // 40 frames at 40 fps cover one second.
+    verify(mockSink, times(10)).onFrame(any());
+    assertThat(throttledSink.getFramesReceived()).isEqualTo(40);
+    assertThat(throttledSink.getFramesDropped()).isEqualTo(30);
+    verify(mockBuffer, never())
+        .cropAndScale(anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt());
+  }
+
+  @Test
+  public void testZeroFpsDropsAllFrames() {
+    throttledSink.setMaxFps(0);
+    deliverFrames(5);
+
+    verify(mockSink, never()).onFrame(any());
+    assertThat(throttledSink.getFramesDropped()).isEqualTo(5);
+  }
+
+  @Test
+  public void testMaxResolutionScalesForwardedFrames() {
+    throttledSink.setMaxResolution(320, 240);
+    deliverFrames(1);
+
+    // 1280x720 limited to a long side of 320 gives 320x180.
+    verify(mockBuffer).cropAndScale(0, 0, 1280, 720, 320, 180);
+    ArgumentCaptor<VideoFrame> frameCaptor = ArgumentCaptor.forClass(VideoFrame.class);
+    verify(mockSink).onFrame(frameCaptor.capture());
+    assertThat(frameCaptor.getValue().getBuffer()).isEqualTo(mockScaledBuffer);
+    verify(mockScaledBuffer).release();
+  }
+
+  @Test
+  public void testMaxResolutionIsOrientationAgnostic() {
+    throttledSink.setMaxResolution(720, 1280);
+    deliverFrames(1);
+
+    verify(mockBuffer, never())
+        .cropAndScale(anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt());
+    ArgumentCaptor<VideoFrame> frameCaptor = ArgumentCaptor.forClass(VideoFrame.class);
+    verify(mockSink).onFrame(frameCaptor.capture());
+    assertThat(frameCaptor.getValue().getBuffer()).isEqualTo(mockBuffer);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMaxResolutionThrows() {
+    throttledSink.setMaxResolution(320, 0);
+  }
+}
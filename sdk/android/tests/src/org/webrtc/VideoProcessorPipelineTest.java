@@ -0,0 +1,275 @@
+/*
+ *  Copyright 2020 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.chromium.testing.local.LocalRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+@RunWith(LocalRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+// Async stages need their threads to run for real.
+@LooperMode(LooperMode.Mode.PAUSED)
+public class VideoProcessorPipelineTest {
+  private static final long WAIT_TIMEOUT_MS = 5000;
+
+  /** Processor that records the order it was called in and forwards frames unchanged. */
+  private static class ForwardingProcessor implements VideoProcessor {
+    private final String name;
+    private final List<String> calls;
+    @Nullable private VideoSink sink;
+    private boolean started;
+
+    ForwardingProcessor(String name, List<String> calls) {
+      this.name = name;
+      this.calls = calls;
+    }
+
+    @Override
+    public void onCapturerStarted(boolean success) {
+      started = success;
+    }
+
+    @Override
+    public void onCapturerStopped() {
+      started = false;
+    }
+
+    @Override
+    public void onFrameCaptured(VideoFrame frame) {
+      calls.add(name);
+      sink.onFrame(frame);
+    }
+
+    @Override
+    public void setSink(@Nullable VideoSink sink) {
+      this.sink = sink;
+    }
+  }
+
+  /** Processor that blocks on its first frame until |unblock| is called. */
+  private static class BlockingProcessor implements VideoProcessor {
+    final CountDownLatch firstFrameReceived = new CountDownLatch(1);
+    final CountDownLatch unblocked = new CountDownLatch(1);
+    final CountDownLatch capturerStopped = new CountDownLatch(1);
+    final List<String> threadNames = new ArrayList<>();
+    @Nullable private VideoSink sink;
+
+    void unblock() {
+      unblocked.countDown();
+    }
+
+    @Override
+    public void onCapturerStarted(boolean success) {
+      threadNames.add(Thread.currentThread().getName());
+    }
+
+    @Override
+    public void onCapturerStopped() {
+      threadNames.add(Thread.currentThread().getName());
+      capturerStopped.countDown();
+    }
+
+    @Override
+    public void onFrameCaptured(VideoFrame frame) {
+      threadNames.add(Thread.currentThread().getName());
+      firstFrameReceived.countDown();
+      try {
+        unblocked.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      sink.onFrame(frame);
+    }
+
+    @Override
+    public void setSink(@Nullable VideoSink sink) {
+      this.sink = sink;
+    }
+  }
+
+  @Mock VideoSink mockSink;
+  @Mock VideoFrame.Buffer mockBuffer;
+  @Mock VideoFrame.Buffer mockAdaptedBuffer;
+  private final List<String> calls = new ArrayList<>();
+  private ForwardingProcessor first;
+  private ForwardingProcessor second;
+  private VideoProcessorPipeline pipeline;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+
+    when(mockBuffer.cropAndScale(anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt()))
+        .thenReturn(mockAdaptedBuffer);
+    first = new ForwardingProcessor("first", calls);
+    second = new ForwardingProcessor("second", calls);
+    pipeline = VideoProcessorPipeline.builder().addStage(first).addStage(second).build();
+    pipeline.setSink(mockSink);
+  }
+
+  private static VideoProcessor.FrameAdaptationParameters createParameters(boolean drop) {
+    return new VideoProcessor.FrameAdaptationParameters(/* cropX= */ 0, /* cropY= */ 0,
+        /* cropWidth= */ 640, /* cropHeight= */ 480, /* scaleWidth= */ 320,
+        /* scaleHeight= */ 240, /* timestampNs= */ 1234, drop);
+  }
+
+  @Test
+  public void testStagesRunInOrder() {
+    pipeline.onFrameCaptured(new VideoFrame(mockBuffer, 0 /* rotation */, 1234));
+
+    assertThat(calls).containsExactly("first", "second").inOrder();
+    verify(mockSink).onFrame(any());
+    assertThat(pipeline.getStageStats()).hasSize(2);
+    assertThat(pipeline.getStageStats().get(0).framesProcessed).isEqualTo(1);
+    assertThat(pipeline.getStageStats().get(1).framesProcessed).isEqualTo(1);
+  }
+
+  @Test
+  public void testDroppedFramesAreNotProcessed() {
+    pipeline.onFrameCaptured(
+        new VideoFrame(mockBuffer, 0 /* rotation */, 1234), createParameters(/* drop= */ true));
+
+    assertThat(calls).isEmpty();
+    verify(mockSink, never()).onFrame(any());
+    verify(mockBuffer, never())
+        .cropAndScale(anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt());
+    assertThat(pipeline.getFramesDroppedByAdaptation()).isEqualTo(1);
+  }
+
+  @Test
+  public void testAdaptationIsAppliedBeforeFirstStage() {
+    pipeline.onFrameCaptured(
+        new VideoFrame(mockBuffer, 0 /* rotation */, 1234), createParameters(/* drop= */ false));
+
+    verify(mockBuffer).cropAndScale(0, 0, 640, 480, 320, 240);
+    assertThat(calls).containsExactly("first", "second").inOrder();
+    verify(mockAdaptedBuffer).release();
+  }
+
+  @Test
+  public void testCapturerStateIsForwardedToAllStages() {
+    pipeline.onCapturerStarted(/* success= */ true);
+    assertThat(first.started).isTrue();
+    assertThat(second.started).isTrue();
+
+    pipeline.onCapturerStopped();
+    assertThat(first.started).isFalse();
+    assertThat(second.started).isFalse();
+  }
+
+  private VideoProcessorPipeline createAsyncPipeline(BlockingProcessor processor) {
+    final VideoProcessorPipeline asyncPipeline =
+        VideoProcessorPipeline.builder()
+            .addAsyncStage(processor, "AsyncStage", /* maxQueuedFrames= */ 1)
+            .build();
+    asyncPipeline.setSink(mockSink);
+    return asyncPipeline;
+  }
+
+  @Test
+  public void testAsyncStageRunsOnItsThread() throws InterruptedException {
+    final BlockingProcessor processor = new BlockingProcessor();
+    processor.unblock();
+    final VideoProcessorPipeline asyncPipeline = createAsyncPipeline(processor);
+
+    asyncPipeline.onCapturerStarted(/* success= */ true);
+    asyncPipeline.onFrameCaptured(new VideoFrame(mockBuffer, 0 /* rotation */, 1234));
+    asyncPipeline.onCapturerStopped();
+
+    assertThat(processor.capturerStopped.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    verify(mockSink).onFrame(any());
+    // Capturer state changes are delivered on the stage thread, in order with the frames.
+    assertThat(processor.threadNames)
+        .containsExactly("AsyncStage", "AsyncStage", "AsyncStage");
+    asyncPipeline.dispose();
+  }
+
+  @Test
+  public void testAsyncStageDropsFramesWhenQueueIsFull() throws InterruptedException {
+    final BlockingProcessor processor = new BlockingProcessor();
+    final VideoProcessorPipeline asyncPipeline = createAsyncPipeline(processor);
+
+    asyncPipeline.onFrameCaptured(new VideoFrame(mockBuffer, 0 /* rotation */, 1));
+    assertThat(processor.firstFrameReceived.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+        .isTrue();
+    // The first frame is being processed, the second one fills the queue.
+    asyncPipeline.onFrameCaptured(new VideoFrame(mockBuffer, 0 /* rotation */, 2));
+    asyncPipeline.onFrameCaptured(new VideoFrame(mockBuffer, 0 /* rotation */, 3));
+    processor.unblock();
+
+    verify(mockSink, timeout(WAIT_TIMEOUT_MS).times(2)).onFrame(any());
+    final VideoProcessorPipeline.StageStats stats = asyncPipeline.getStageStats().get(0);
+    assertThat(stats.framesProcessed).isEqualTo(2);
+    assertThat(stats.framesDropped).isEqualTo(1);
+    asyncPipeline.dispose();
+  }
+
+  @Test
+  public void testAsyncStageLatencyIncludesQueueWait() throws InterruptedException {
+    final long blockTimeMs = 50;
+    final BlockingProcessor processor = new BlockingProcessor();
+    final VideoProcessorPipeline asyncPipeline = createAsyncPipeline(processor);
+
+    asyncPipeline.onFrameCaptured(new VideoFrame(mockBuffer, 0 /* rotation */, 1));
+    assertThat(processor.firstFrameReceived.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+        .isTrue();
+    asyncPipeline.onFrameCaptured(new VideoFrame(mockBuffer, 0 /* rotation */, 2));
+    Thread.sleep(blockTimeMs);
+    processor.unblock();
+
+    verify(mockSink, timeout(WAIT_TIMEOUT_MS).times(2)).onFrame(any());
+    // Both frames waited at least |blockTimeMs|, the second one in the queue.
+    final VideoProcessorPipeline.StageStats stats = asyncPipeline.getStageStats().get(0);
+    assertThat(stats.averageLatencyNs).isAtLeast(TimeUnit.MILLISECONDS.toNanos(blockTimeMs));
+    asyncPipeline.dispose();
+  }
+
+  @Test
+  public void testDisposeReleasesQueuedFrames() throws InterruptedException {
+    final VideoFrame.Buffer queuedBuffer = mock(VideoFrame.Buffer.class);
+    final BlockingProcessor processor = new BlockingProcessor();
+    final VideoProcessorPipeline asyncPipeline = createAsyncPipeline(processor);
+
+    asyncPipeline.onFrameCaptured(new VideoFrame(mockBuffer, 0 /* rotation */, 1));
+    assertThat(processor.firstFrameReceived.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+        .isTrue();
+    asyncPipeline.onFrameCaptured(new VideoFrame(queuedBuffer, 0 /* rotation */, 2));
+    verify(queuedBuffer).retain();
+
+    asyncPipeline.dispose();
+    verify(queuedBuffer).release();
+    processor.unblock();
+
+    verify(mockSink, timeout(WAIT_TIMEOUT_MS)).onFrame(any());
+    verify(queuedBuffer, times(1)).release();
+  }
+}
@@ -414,6 +414,10 @@ void Enable();
 void GetAndReset(
     std::map<std::string, std::unique_ptr<SampleInfo>>* histograms);
 
+// Gets a copy of the histograms without clearing any samples.
+void GetSnapshot(
+    std::map<std::string, std::unique_ptr<SampleInfo>>* histograms);
+
 // Functions below are mainly for testing.
 
 // Clears all samples.
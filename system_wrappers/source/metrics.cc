@@ -61,6 +61,18 @@ class RtcHistogram {
     return std::unique_ptr<SampleInfo>(copy);
   }
 
+  // Returns a copy (or nullptr if there are no samples).
+  std::unique_ptr<SampleInfo> GetCopy() const {
+    MutexLock lock(&mutex_);
+    if (info_.samples.empty())
+      return nullptr;
+
+    std::unique_ptr<SampleInfo> copy(
+        new SampleInfo(info_.name, info_.min, info_.max, info_.bucket_count));
+    copy->samples = info_.samples;
+    return copy;
+  }
+
   const std::string& name() const { return info_.name; }
 
   // Functions only for testing.
@@ -143,6 +155,16 @@ class RtcHistogramMap {
     }
   }
 
+  void GetSnapshot(
+      std::map<std::string, std::unique_ptr<SampleInfo>>* histograms) const {
+    MutexLock lock(&mutex_);
+    for (const auto& kv : map_) {
+      std::unique_ptr<SampleInfo> info = kv.second->GetCopy();
+      if (info)
+        histograms->insert(std::make_pair(kv.first, std::move(info)));
+    }
+  }
+
   // Functions only for testing.
   void Reset() {
     MutexLock lock(&mutex_);
@@ -298,6 +320,14 @@ void GetAndReset(
     map->GetAndReset(histograms);
 }
 
+void GetSnapshot(
+    std::map<std::string, std::unique_ptr<SampleInfo>>* histograms) {
+  histograms->clear();
+  RtcHistogramMap* map = GetMap();
+  if (map)
+    map->GetSnapshot(histograms);
+}
+
 void Reset() {
   RtcHistogramMap* map = GetMap();
   if (map)
@@ -150,6 +150,27 @@ TEST_F(MetricsDefaultTest, GetAndReset) {
   EXPECT_EQ(1, metrics::NumEvents("Histogram2", 8));
 }
 
+TEST_F(MetricsDefaultTest, GetSnapshot) {
+  std::map<std::string, std::unique_ptr<metrics::SampleInfo>> histograms;
+  metrics::GetSnapshot(&histograms);
+  EXPECT_EQ(0u, histograms.size());
+  RTC_HISTOGRAM_PERCENTAGE("Histogram1", 4);
+  RTC_HISTOGRAM_PERCENTAGE("Histogram1", 5);
+  RTC_HISTOGRAM_PERCENTAGE("Histogram1", 5);
+
+  metrics::GetSnapshot(&histograms);
+  EXPECT_EQ(1u, histograms.size());
+  EXPECT_EQ(3, NumSamples("Histogram1", histograms));
+  EXPECT_EQ(2, NumEvents("Histogram1", 5, histograms));
+  // Samples are kept.
+  EXPECT_EQ(3, metrics::NumSamples("Histogram1"));
+
+  RTC_HISTOGRAM_PERCENTAGE("Histogram1", 5);
+  metrics::GetSnapshot(&histograms);
+  EXPECT_EQ(4, NumSamples("Histogram1", histograms));
+  EXPECT_EQ(3, NumEvents("Histogram1", 5, histograms));
+}
+
 TEST_F(MetricsDefaultTest, TestMinMaxBucket) {
   const std::string kName = "MinMaxCounts100";
   RTC_HISTOGRAM_COUNTS_100(kName, 4);